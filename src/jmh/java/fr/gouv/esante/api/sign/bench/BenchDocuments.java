@@ -0,0 +1,103 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Documents of the benchmarks, generated at a given size.
+ */
+public final class BenchDocuments {
+
+    /** Filler line, 64 bytes with its line feed. */
+    private static final String FILLER = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do\n";
+
+    /**
+     * private constructor to hide implicit public one.
+     */
+    private BenchDocuments() {
+    }
+
+    /**
+     * Document to sign for a signature type : a PDF for PAdES, an XML document otherwise.
+     *
+     * @param type the signature type
+     * @param size the approximate size in bytes
+     * @return the document
+     */
+    public static byte[] document(final ESignatureType type, final int size) {
+        return ESignatureType.PADES.equals(type) ? pdf(size) : xml(size);
+    }
+
+    /**
+     * XML document.
+     *
+     * @param size the approximate size in bytes
+     * @return the document
+     */
+    public static byte[] xml(final int size) {
+        final StringBuilder xml = new StringBuilder(size + FILLER.length());
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Document><Data>\n");
+        while (xml.length() < size) {
+            xml.append(FILLER);
+        }
+        xml.append("</Data></Document>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Single page PDF document, padded with comments in its content stream.
+     *
+     * @param size the approximate size in bytes
+     * @return the document
+     */
+    public static byte[] pdf(final int size) {
+        final StringBuilder content = new StringBuilder(size + FILLER.length());
+        content.append("BT /F1 12 Tf 72 720 Td (ESignSante benchmark) Tj ET\n");
+        while (content.length() < size) {
+            content.append("% ").append(FILLER);
+        }
+
+        final ByteArrayOutputStream pdf = new ByteArrayOutputStream(size + 1024);
+        final List<Integer> offsets = new ArrayList<>();
+        write(pdf, "%PDF-1.4\n");
+        offsets.add(pdf.size());
+        write(pdf, "1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        offsets.add(pdf.size());
+        write(pdf, "2 0 obj\n<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+        offsets.add(pdf.size());
+        write(pdf, "3 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] /Contents 4 0 R "
+                + "/Resources << /Font << /F1 5 0 R >> >> >>\nendobj\n");
+        offsets.add(pdf.size());
+        write(pdf, "4 0 obj\n<< /Length " + content.length() + " >>\nstream\n");
+        write(pdf, content.toString());
+        write(pdf, "\nendstream\nendobj\n");
+        offsets.add(pdf.size());
+        write(pdf, "5 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>\nendobj\n");
+
+        final int xref = pdf.size();
+        write(pdf, "xref\n0 " + (offsets.size() + 1) + "\n0000000000 65535 f \n");
+        for (final int offset : offsets) {
+            write(pdf, String.format("%010d 00000 n \n", offset));
+        }
+        write(pdf, "trailer\n<< /Size " + (offsets.size() + 1) + " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+        return pdf.toByteArray();
+    }
+
+    /**
+     * Writes ASCII text.
+     *
+     * @param out  the stream
+     * @param text the text
+     */
+    private static void write(final ByteArrayOutputStream out, final String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
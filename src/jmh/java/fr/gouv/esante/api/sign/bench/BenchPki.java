@@ -0,0 +1,262 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.util.io.pem.PemObject;
+import org.bouncycastle.util.io.pem.PemWriter;
+
+import fr.gouv.esante.api.sign.bean.cacrl.CACRLWrapper;
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+import fr.gouv.esante.api.sign.bean.parameters.SignatureValidationParameters;
+import fr.gouv.esante.api.sign.service.ICACRLService;
+import fr.gouv.esante.api.sign.service.impl.CACRLServiceImpl;
+import fr.gouv.esante.api.sign.ws.bean.ConfigurationLoader;
+import fr.gouv.esante.api.sign.ws.bean.object.ProofConf;
+import fr.gouv.esante.api.sign.ws.bean.object.SignVerifConf;
+import fr.gouv.esante.api.sign.ws.bean.object.SignatureConf;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Local PKI of the benchmarks : a root CA, a signing certificate and a CRL, generated once per
+ * JVM. The CA and CRL are loaded in a CA/CRL service from files, as the web service does, and
+ * no network access is ever needed.
+ */
+public final class BenchPki {
+
+    /** Key size. */
+    private static final int KEY_SIZE = 2048;
+
+    /** Signature algorithm of the PKI. */
+    private static final String SIGN_ALGO = "SHA256withRSA";
+
+    /** Canonicalisation algorithm, as recommended in the configuration documentation. */
+    private static final String CANON_ALGO = "http://www.w3.org/2001/10/xml-exc-c14n#";
+
+    /** Digest algorithm, as recommended in the configuration documentation. */
+    private static final String DIGEST_ALGO = "SHA512";
+
+    /** Signature validation rules. */
+    private static final String SIGN_RULES = "TrustedCertificat,FormatSignature,SignatureCertificatValide,"
+            + "ExistenceBaliseSigningTime,ExistenceDuCertificatDeSignature,ExpirationCertificat,NonRepudiation,"
+            + "RevocationCertificat,SignatureNonVide,SignatureIntacte,DocumentIntact";
+
+    /** Signature validation metadata. */
+    private static final String SIGN_METADATA = "DATE_SIGNATURE,DN_CERTIFICAT,RAPPORT_DIAGNOSTIQUE";
+
+    /** The instance. */
+    private static BenchPki instance;
+
+    /** PEM of the signing certificate. */
+    private final String certificatePem;
+
+    /** PEM of the signing private key. */
+    private final String privateKeyPem;
+
+    /** The CA/CRL wrapper. */
+    private final CACRLWrapper cacrlWrapper;
+
+    /**
+     * Generates the PKI.
+     *
+     * @throws GeneralSecurityException the general security exception
+     * @throws IOException              the io exception
+     */
+    private BenchPki() throws GeneralSecurityException, IOException {
+        final long now = System.currentTimeMillis();
+        final Date notBefore = new Date(now - TimeUnit.DAYS.toMillis(1));
+        final Date notAfter = new Date(now + TimeUnit.DAYS.toMillis(365));
+        final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(KEY_SIZE);
+        final JcaX509ExtensionUtils extUtils = new JcaX509ExtensionUtils();
+
+        try {
+            // AC racine
+            final KeyPair caKeys = kpg.generateKeyPair();
+            final X500Principal caName = new X500Principal("CN=ESignSante Bench Root CA,O=ANS,C=FR");
+            final ContentSigner caSigner = new JcaContentSignerBuilder(SIGN_ALGO).build(caKeys.getPrivate());
+            final X509v3CertificateBuilder caBuilder = new JcaX509v3CertificateBuilder(caName, BigInteger.ONE,
+                    notBefore, notAfter, caName, caKeys.getPublic());
+            caBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            caBuilder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+            caBuilder.addExtension(Extension.subjectKeyIdentifier, false,
+                    extUtils.createSubjectKeyIdentifier(caKeys.getPublic()));
+            final X509Certificate caCert = new JcaX509CertificateConverter().getCertificate(caBuilder.build(caSigner));
+
+            // Certificat de signature
+            final KeyPair signKeys = kpg.generateKeyPair();
+            final X509v3CertificateBuilder signBuilder = new JcaX509v3CertificateBuilder(caCert,
+                    BigInteger.valueOf(2), notBefore, notAfter,
+                    new X500Principal("CN=ESignSante Bench Signer,O=ANS,C=FR"), signKeys.getPublic());
+            signBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+            signBuilder.addExtension(Extension.keyUsage, true,
+                    new KeyUsage(KeyUsage.digitalSignature | KeyUsage.nonRepudiation));
+            signBuilder.addExtension(Extension.authorityKeyIdentifier, false,
+                    extUtils.createAuthorityKeyIdentifier(caCert));
+            signBuilder.addExtension(Extension.subjectKeyIdentifier, false,
+                    extUtils.createSubjectKeyIdentifier(signKeys.getPublic()));
+            final X509Certificate signCert = new JcaX509CertificateConverter()
+                    .getCertificate(signBuilder.build(caSigner));
+
+            // CRL de l'AC, un certificat tiers révoqué
+            final X509v2CRLBuilder crlBuilder = new JcaX509v2CRLBuilder(caCert, notBefore);
+            crlBuilder.setNextUpdate(notAfter);
+            crlBuilder.addCRLEntry(BigInteger.valueOf(99), notBefore, CRLReason.keyCompromise);
+            crlBuilder.addExtension(Extension.authorityKeyIdentifier, false,
+                    extUtils.createAuthorityKeyIdentifier(caCert));
+            final X509CRL crl = new JcaX509CRLConverter().getCRL(crlBuilder.build(caSigner));
+
+            this.certificatePem = toPem("CERTIFICATE", signCert.getEncoded());
+            this.privateKeyPem = toPem("PRIVATE KEY", signKeys.getPrivate().getEncoded());
+
+            final File caFile = Files.createTempFile("bench-ca", ".crt").toFile();
+            final File crlFile = Files.createTempFile("bench-ca", ".crl").toFile();
+            caFile.deleteOnExit();
+            crlFile.deleteOnExit();
+            writePem(caFile, "CERTIFICATE", caCert.getEncoded());
+            writePem(crlFile, "X509 CRL", crl.getEncoded());
+            final ICACRLService serviceCaCrl = new CACRLServiceImpl();
+            serviceCaCrl.loadCA(caFile);
+            serviceCaCrl.loadCRL(crlFile);
+            this.cacrlWrapper = serviceCaCrl.getCacrlWrapper();
+        } catch (final OperatorCreationException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Gets the PKI, generated on the first call.
+     *
+     * @return the bench pki
+     * @throws GeneralSecurityException the general security exception
+     * @throws IOException              the io exception
+     */
+    public static synchronized BenchPki get() throws GeneralSecurityException, IOException {
+        if (instance == null) {
+            instance = new BenchPki();
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the CA/CRL wrapper.
+     *
+     * @return the cacrl wrapper
+     */
+    public CACRLWrapper getCacrlWrapper() {
+        return cacrlWrapper;
+    }
+
+    /**
+     * Signature parameters of a signature type, built as from the configuration file.
+     *
+     * @param type the signature type
+     * @return the signature parameters
+     */
+    public SignatureParameters signParams(final ESignatureType type) {
+        final SignatureConf conf = new SignatureConf();
+        conf.setIdSignConf("1");
+        conf.setDescription("Bench " + type);
+        conf.setCertificate(certificatePem);
+        conf.setPrivateKey(privateKeyPem);
+        conf.setCanonicalisationAlgorithm(CANON_ALGO);
+        conf.setDigestAlgorithm(DIGEST_ALGO);
+        conf.setSignaturePackaging(ESignatureType.PADES.equals(type) ? "ENVELOPED" : "ENVELOPING");
+        conf.setSignId("Bench_Sig_Id");
+        conf.setSignValueId("Bench_SigValue_Id");
+        conf.setObjectId("Bench_Object_Id");
+        return ConfigurationLoader.loadSignConf(conf);
+    }
+
+    /**
+     * Proof signature parameters.
+     *
+     * @return the signature parameters
+     */
+    public SignatureParameters proofParams() {
+        final ProofConf conf = new ProofConf();
+        conf.setIdProofConf("1");
+        conf.setDescription("Bench proof");
+        conf.setCertificate(certificatePem);
+        conf.setPrivateKey(privateKeyPem);
+        conf.setCanonicalisationAlgorithm(CANON_ALGO);
+        conf.setDigestAlgorithm(DIGEST_ALGO);
+        conf.setSignaturePackaging("ENVELOPING");
+        return ConfigurationLoader.loadProofSignConf(conf);
+    }
+
+    /**
+     * Signature validation parameters, all rules enabled.
+     *
+     * @return the signature validation parameters
+     */
+    public SignatureValidationParameters signVerifParams() {
+        final SignVerifConf conf = new SignVerifConf();
+        conf.setIdVerifSign("1");
+        conf.setDescription("Bench");
+        conf.setMetadata(SIGN_METADATA);
+        conf.setRules(SIGN_RULES);
+        return ConfigurationLoader.loadSignVerifConf(conf);
+    }
+
+    /**
+     * PEM encoding.
+     *
+     * @param type    the PEM type
+     * @param content the DER content
+     * @return the PEM
+     * @throws IOException the io exception
+     */
+    private static String toPem(final String type, final byte[] content) throws IOException {
+        final StringWriter out = new StringWriter();
+        try (PemWriter pem = new PemWriter(out)) {
+            pem.writeObject(new PemObject(type, content));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes a PEM file.
+     *
+     * @param file    the file
+     * @param type    the PEM type
+     * @param content the DER content
+     * @throws IOException the io exception
+     */
+    private static void writePem(final File file, final String type, final byte[] content) throws IOException {
+        try (PemWriter pem = new PemWriter(new FileWriter(file))) {
+            pem.writeObject(new PemObject(type, content));
+        }
+    }
+}
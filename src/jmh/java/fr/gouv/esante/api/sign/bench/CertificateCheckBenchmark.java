@@ -0,0 +1,66 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpStatus;
+
+import fr.gouv.esante.api.sign.bean.cacrl.CACRLWrapper;
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+import fr.gouv.esante.api.sign.ws.util.SignWsUtils;
+
+/**
+ * Control of the signing certificate run before each signature (SignWsUtils.checkCertificate).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CertificateCheckBenchmark {
+
+    /** The signature parameters. */
+    private SignatureParameters signParams;
+
+    /** The CA/CRL wrapper. */
+    private CACRLWrapper cacrlWrapper;
+
+    /**
+     * Set up.
+     *
+     * @throws Exception the exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final BenchPki pki = BenchPki.get();
+        signParams = pki.signParams(ESignatureType.XADES);
+        cacrlWrapper = pki.getCacrlWrapper();
+    }
+
+    /**
+     * Check certificate.
+     *
+     * @return the http status
+     * @throws Exception the exception
+     */
+    @Benchmark
+    public HttpStatus checkCertificate() throws Exception {
+        return SignWsUtils.checkCertificate(signParams, cacrlWrapper);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.gouv.esante.api.sign.bean.cacrl.CACRLWrapper;
+import fr.gouv.esante.api.sign.bean.parameters.ProofParameters;
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+import fr.gouv.esante.api.sign.bean.rapports.RapportSignature;
+import fr.gouv.esante.api.sign.bean.rapports.RapportValidationSignature;
+import fr.gouv.esante.api.sign.service.IProofGenerationService;
+import fr.gouv.esante.api.sign.service.ISignatureService;
+import fr.gouv.esante.api.sign.service.impl.ProofGenerationServiceImpl;
+import fr.gouv.esante.api.sign.service.impl.SignatureServiceImpl;
+import fr.gouv.esante.api.sign.service.impl.SignatureValidationServiceImpl;
+import fr.gouv.esante.api.sign.service.impl.utils.Version;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Generation and signature of a validation proof, as done by the "withproof" operations,
+ * from the validation report of a 1 KB XAdES signature.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProofBenchmark {
+
+    /** Size of the signed document. */
+    private static final int DOC_SIZE = 1024;
+
+    /** The proof generation service. */
+    private final IProofGenerationService proofGenerationService = new ProofGenerationServiceImpl();
+
+    /** The signature service. */
+    private final ISignatureService signatureService = new SignatureServiceImpl();
+
+    /** The validation report the proof is generated from. */
+    private RapportValidationSignature rapportVerifSignature;
+
+    /** The proof parameters. */
+    private ProofParameters proofParameters;
+
+    /** The proof signature parameters. */
+    private SignatureParameters proofSignParams;
+
+    /** The CA/CRL wrapper. */
+    private CACRLWrapper cacrlWrapper;
+
+    /**
+     * Set up.
+     *
+     * @throws Exception the exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final BenchPki pki = BenchPki.get();
+        cacrlWrapper = pki.getCacrlWrapper();
+        proofSignParams = pki.proofParams();
+        proofParameters = new ProofParameters("Sign", "Bench-Request", "Bench-Proof", "Bench-Applicant",
+                "/signatures/xadesbaselinebwithproof", new Version(2, 7, 11));
+        final String signed = signatureService.signXADESBaselineB(
+                BenchDocuments.document(ESignatureType.XADES, DOC_SIZE), pki.signParams(ESignatureType.XADES))
+                .getDocSigne();
+        rapportVerifSignature = new SignatureValidationServiceImpl().validateXADESBaseLineBSignature(
+                signed.getBytes(StandardCharsets.UTF_8), pki.signVerifParams(), cacrlWrapper);
+    }
+
+    /**
+     * Generate proof.
+     *
+     * @return the proof
+     * @throws Exception the exception
+     */
+    @Benchmark
+    public String generateProof() throws Exception {
+        return proofGenerationService.generateSignVerifProof(rapportVerifSignature, proofParameters, cacrlWrapper);
+    }
+
+    /**
+     * Generate and sign the proof.
+     *
+     * @return the proof signature report
+     * @throws Exception the exception
+     */
+    @Benchmark
+    public RapportSignature generateAndSignProof() throws Exception {
+        final String proof = proofGenerationService.generateSignVerifProof(rapportVerifSignature, proofParameters,
+                cacrlWrapper);
+        return signatureService.signXADESBaselineB(proof, proofSignParams);
+    }
+}
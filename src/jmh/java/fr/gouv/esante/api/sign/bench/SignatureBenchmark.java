@@ -0,0 +1,82 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+import fr.gouv.esante.api.sign.bean.rapports.RapportSignature;
+import fr.gouv.esante.api.sign.service.ISignatureService;
+import fr.gouv.esante.api.sign.service.impl.SignatureServiceImpl;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Signature of a document, as done by SignaturesApiDelegateImpl, by signature type and document size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SignatureBenchmark {
+
+    /** Document size in bytes : 1 KB, 1 MB, 10 MB, 100 MB. */
+    @Param({"1024", "1048576", "10485760", "104857600"})
+    private int size;
+
+    /** Signature type. */
+    @Param({"XMLDSIG", "XADES", "PADES"})
+    private ESignatureType type;
+
+    /** The signature service. */
+    private final ISignatureService signatureService = new SignatureServiceImpl();
+
+    /** The signature parameters. */
+    private SignatureParameters signParams;
+
+    /** The document. */
+    private byte[] document;
+
+    /**
+     * Set up.
+     *
+     * @throws Exception the exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        signParams = BenchPki.get().signParams(type);
+        document = BenchDocuments.document(type, size);
+    }
+
+    /**
+     * Sign.
+     *
+     * @return the signature report
+     * @throws Exception the exception
+     */
+    @Benchmark
+    public RapportSignature sign() throws Exception {
+        if (ESignatureType.XADES.equals(type)) {
+            return signatureService.signXADESBaselineB(document, signParams);
+        } else if (ESignatureType.PADES.equals(type)) {
+            return signatureService.signPADESBaselineB(document, signParams);
+        }
+        return signatureService.signXMLDsig(document, signParams);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.gouv.esante.api.sign.bean.cacrl.CACRLWrapper;
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+import fr.gouv.esante.api.sign.bean.parameters.SignatureValidationParameters;
+import fr.gouv.esante.api.sign.bean.rapports.RapportValidationSignature;
+import fr.gouv.esante.api.sign.service.ISignatureService;
+import fr.gouv.esante.api.sign.service.ISignatureValidationService;
+import fr.gouv.esante.api.sign.service.impl.SignatureServiceImpl;
+import fr.gouv.esante.api.sign.service.impl.SignatureValidationServiceImpl;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Validation of a signed document, as done by ValidationApiDelegateImpl, by signature type and
+ * document size. The document is signed once with the local PKI before the measurements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ValidationBenchmark {
+
+    /** Document size in bytes, before signature : 1 KB, 1 MB, 10 MB, 100 MB. */
+    @Param({"1024", "1048576", "10485760", "104857600"})
+    private int size;
+
+    /** Signature type. */
+    @Param({"XMLDSIG", "XADES", "PADES"})
+    private ESignatureType type;
+
+    /** The signature validation service. */
+    private final ISignatureValidationService signatureValidationService = new SignatureValidationServiceImpl();
+
+    /** The signature validation parameters. */
+    private SignatureValidationParameters signVerifParams;
+
+    /** The CA/CRL wrapper. */
+    private CACRLWrapper cacrlWrapper;
+
+    /** The signed document. */
+    private byte[] signedDocument;
+
+    /**
+     * Set up.
+     *
+     * @throws Exception the exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final BenchPki pki = BenchPki.get();
+        signVerifParams = pki.signVerifParams();
+        cacrlWrapper = pki.getCacrlWrapper();
+
+        final ISignatureService signatureService = new SignatureServiceImpl();
+        final SignatureParameters signParams = pki.signParams(type);
+        final byte[] document = BenchDocuments.document(type, size);
+        if (ESignatureType.XADES.equals(type)) {
+            signedDocument = signatureService.signXADESBaselineB(document, signParams).getDocSigne()
+                    .getBytes(StandardCharsets.UTF_8);
+        } else if (ESignatureType.PADES.equals(type)) {
+            signedDocument = signatureService.signPADESBaselineB(document, signParams).getDocSigneBytes();
+        } else {
+            signedDocument = signatureService.signXMLDsig(document, signParams).getDocSigne()
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Validate.
+     *
+     * @return the validation report
+     * @throws Exception the exception
+     */
+    @Benchmark
+    public RapportValidationSignature validate() throws Exception {
+        if (ESignatureType.XADES.equals(type)) {
+            return signatureValidationService.validateXADESBaseLineBSignature(signedDocument, signVerifParams,
+                    cacrlWrapper);
+        } else if (ESignatureType.PADES.equals(type)) {
+            return signatureValidationService.validatePADESBaseLineBSignature(signedDocument, signVerifParams,
+                    cacrlWrapper);
+        }
+        return signatureValidationService.validateXMLDsigSignature(signedDocument, signVerifParams, cacrlWrapper);
+    }
+}
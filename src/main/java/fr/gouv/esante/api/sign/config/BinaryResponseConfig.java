@@ -0,0 +1,66 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import java.util.Collections;
+
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcRegistrations;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.mvc.condition.RequestCondition;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import fr.gouv.esante.api.sign.ws.api.SignaturesBinaryApiController;
+import fr.gouv.esante.api.sign.ws.util.BinaryReports;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * The Class BinaryResponseConfig.
+ * The binary signature operations share their paths with the JSON ones : they are only selected
+ * when the Accept header explicitly names multipart/mixed or application/octet-stream with a
+ * quality not lower than application/json, so a request without Accept header, accepting any type,
+ * or preferring JSON, still goes to the JSON operation.
+ */
+@Configuration
+public class BinaryResponseConfig implements WebMvcRegistrations {
+
+    /**
+     * Request mapping with the explicit Accept condition on the binary operations.
+     *
+     * @return the request mapping handler mapping
+     */
+    @Override
+    public RequestMappingHandlerMapping getRequestMappingHandlerMapping() {
+        return new RequestMappingHandlerMapping() {
+            @Override
+            protected RequestCondition<?> getCustomTypeCondition(final Class<?> handlerType) {
+                return SignaturesBinaryApiController.class.equals(handlerType) ? new ExplicitAcceptCondition() : null;
+            }
+        };
+    }
+
+    /**
+     * Matches only the requests whose Accept headers prefer a binary response type, see
+     * {@link BinaryReports#accepts(String)}.
+     */
+    static final class ExplicitAcceptCondition implements RequestCondition<ExplicitAcceptCondition> {
+
+        @Override
+        public ExplicitAcceptCondition combine(final ExplicitAcceptCondition other) {
+            return this;
+        }
+
+        @Override
+        public ExplicitAcceptCondition getMatchingCondition(final HttpServletRequest request) {
+            final String accept = String.join(", ", Collections.list(request.getHeaders(HttpHeaders.ACCEPT)));
+            return BinaryReports.accepts(accept) ? this : null;
+        }
+
+        @Override
+        public int compareTo(final ExplicitAcceptCondition other, final HttpServletRequest request) {
+            return 0;
+        }
+    }
+}
@@ -4,17 +4,23 @@
 
 package fr.gouv.esante.api.sign.config;
 
+import fr.gouv.esante.api.sign.config.utils.CRLDiskCache;
+import fr.gouv.esante.api.sign.config.utils.CRLLoader;
 import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
 import fr.gouv.esante.api.sign.service.*;
 import fr.gouv.esante.api.sign.service.impl.*;
 import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
 
+import jakarta.annotation.PostConstruct;
+
 import java.io.IOException;
 
 /**
@@ -34,6 +40,34 @@ public class CACRLConfig {
     @Autowired
     private IGlobalConf globalConf;
 
+    /** First delay before a new attempt of the initial load, in milliseconds. */
+    @Value("${config.crl.init.retry-delay:5000}")
+    private long retryDelay;
+
+    /** Maximum delay between two attempts of the initial load, in milliseconds. */
+    @Value("${config.crl.init.max-delay:300000}")
+    private long maxRetryDelay;
+
+    /** Number of CRL sources fetched in parallel. */
+    @Value("${config.crl.fetch.threads:8}")
+    private int fetchThreads;
+
+    /** Deadline of a single CRL source, in seconds. */
+    @Value("${config.crl.fetch.timeout:30}")
+    private long fetchTimeout;
+
+    /** Connect timeout of the CRL sources, in seconds. */
+    @Value("${config.crl.fetch.connect-timeout:10}")
+    private long connectTimeout;
+
+    /** Disk cache directory of the CRLs, the cache is disabled when blank. */
+    @Value("${config.crl.cache.dir:}")
+    private String cacheDir;
+
+    /** Grace period of the last CRL of a failing source after its nextUpdate, in seconds. */
+    @Value("${config.crl.grace:86400}")
+    private long gracePeriod;
+
     /**
      * Signature service.
      *
@@ -79,15 +113,56 @@ public class CACRLConfig {
     }
 
     /**
-     * Service ca crl.
+     * Initial load of the CAs and CRLs.
+     * The CAs and CRLs are loaded in the background, in parallel with the rest of the context :
+     * the caCrl health indicator keeps the readiness group DOWN until the first load is done.
+     * The CRLs of the disk cache, if any, are loaded first, then downloaded again.
+     * The loaded services are published by CaCrlServiceLoader, see CaCrlServiceLoader#current().
+     */
+    @PostConstruct
+    public void loadCaCrl() {
+        CRLLoader.configure(fetchThreads, fetchTimeout, connectTimeout);
+        CRLLoader.setGracePeriod(gracePeriod);
+        CRLDiskCache.configure(cacheDir);
+        final Thread loader = new Thread(this::initialLoad, "cacrl-init");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Loads the CAs and CRLs until a first generation is published : a failed attempt is retried
+     * after config.crl.init.retry-delay milliseconds, doubled on each failure up to
+     * config.crl.init.max-delay. Once a generation is published, the scheduled refresh takes over.
      *
-     * @return the ICACRL service
-     * @throws IOException IOException
+     * @return true once a generation is published, false if the thread is interrupted
      */
-    @Bean
-    @Lazy
-    public ICACRLService serviceCaCrl() throws IOException {
-        final ICACRLService serviceCaCrl = new CACRLServiceImpl();
-        return CaCrlServiceLoader.loadCaCrl(serviceCaCrl, globalConf.getCa());
+    boolean initialLoad() {
+        long delay = Math.max(retryDelay, 1);
+        while (true) {
+            try {
+                if (CaCrlServiceLoader.getGeneration() == 0
+                        && CaCrlServiceLoader.loadCaCrlFromCache(globalConf.getCa())) {
+                    log.info("AC et CRL du cache chargées.");
+                }
+                CaCrlServiceLoader.loadCaCrl(globalConf.getCa());
+                log.info("Chargement initial des AC et CRL terminé.");
+                return true;
+            } catch (final IOException | RuntimeException e) {
+                log.error(ExceptionUtils.getStackTrace(e));
+            }
+            if (CaCrlServiceLoader.getGeneration() > 0) {
+                // AC et CRL du cache publiées : les CRL sont téléchargées par le rafraîchissement
+                log.warn("Chargement initial des AC et CRL en échec, génération du cache conservée.");
+                return true;
+            }
+            log.warn("Chargement initial des AC et CRL en échec, nouvelle tentative dans {} ms.", delay);
+            try {
+                Thread.sleep(delay);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            delay = Math.min(delay * 2, Math.max(maxRetryDelay, delay));
+        }
     }
 }
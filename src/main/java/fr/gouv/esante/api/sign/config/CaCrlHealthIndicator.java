@@ -0,0 +1,33 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
+
+/**
+ * Health indicator "caCrl" : DOWN until the CAs and CRLs have been loaded once.
+ * Included in the readiness group, so that no traffic reaches a node without revocation data.
+ */
+@Component
+public class CaCrlHealthIndicator implements HealthIndicator {
+
+    /**
+     * Health.
+     *
+     * @return the health
+     */
+    @Override
+    public Health health() {
+        final long generation = CaCrlServiceLoader.getGeneration();
+        if (generation == 0) {
+            return Health.down().withDetail("message", "Chargement des AC et CRL en cours").build();
+        }
+        return Health.up().withDetail("generation", generation).build();
+    }
+}
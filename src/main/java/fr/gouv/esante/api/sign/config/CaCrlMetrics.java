@@ -0,0 +1,145 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import fr.gouv.esante.api.sign.config.utils.CRLLoader;
+import fr.gouv.esante.api.sign.config.utils.CRLLoader.SourceStats;
+import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
+import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
+import fr.gouv.esante.api.sign.ws.bean.object.CaConf;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * CA/CRL metrics : published generation and size of the loaded bundles, and for each CRL source
+ * (tag source) the last successful fetch, thisUpdate and nextUpdate, the seconds left before
+ * nextUpdate, the size and entry count of the CRL, the duration of the last fetch and the
+ * consecutive failures. The sources are read again from the CA configuration with the CRL refresh
+ * check, the configuration being reloadable : a source removed from it is no longer exported.
+ */
+@Component
+public class CaCrlMetrics {
+
+    /** Milliseconds per second. */
+    private static final double MILLIS = 1000d;
+
+    /** Nanoseconds per second. */
+    private static final double NANOS = 1_000_000_000d;
+
+    /** The gauges by source, with the value they read. */
+    private final List<SourceGauge> gauges = new ArrayList<>();
+
+    /** The global conf, holding the CRL sources. */
+    private final IGlobalConf globalConf;
+
+    /**
+     * Instantiates the CA/CRL metrics.
+     *
+     * @param registry   the meter registry
+     * @param globalConf the global conf
+     */
+    public CaCrlMetrics(final MeterRegistry registry, final IGlobalConf globalConf) {
+        this.globalConf = globalConf;
+        Gauge.builder("esignsante.cacrl.generation", CaCrlServiceLoader::getGeneration)
+                .description("Génération des AC et CRL publiée").register(registry);
+        Gauge.builder("esignsante.cacrl.truststore.size", () -> CaCrlServiceLoader.current().getTrustStoreSize())
+                .baseUnit("bytes").description("Taille des bundles d'AC et de CRL chargés").register(registry);
+        gauge(registry, "esignsante.crl.last.success", "seconds", "Date du dernier téléchargement réussi",
+                stats -> stats.getLastSuccess() / MILLIS);
+        gauge(registry, "esignsante.crl.this.update", "seconds", "thisUpdate de la CRL",
+                stats -> stats.getThisUpdate() / MILLIS);
+        gauge(registry, "esignsante.crl.next.update", "seconds", "nextUpdate de la CRL",
+                stats -> stats.getNextUpdate() / MILLIS);
+        gauge(registry, "esignsante.crl.expiry", "seconds", "Secondes restantes avant le nextUpdate de la CRL",
+                stats -> stats.getNextUpdate() == 0 ? Double.NaN
+                        : (stats.getNextUpdate() - System.currentTimeMillis()) / MILLIS);
+        gauge(registry, "esignsante.crl.size", "bytes", "Taille de la CRL", SourceStats::getSize);
+        gauge(registry, "esignsante.crl.entries", null, "Nombre de certificats révoqués de la CRL",
+                SourceStats::getEntries);
+        gauge(registry, "esignsante.crl.fetch.duration", "seconds",
+                "Durée du dernier téléchargement, lecture comprise", stats -> stats.getLastFetchNanos() / NANOS);
+        gauge(registry, "esignsante.crl.failures", null, "Échecs consécutifs de téléchargement",
+                SourceStats::getFailures);
+        refresh();
+    }
+
+    /**
+     * Registers a gauge by source.
+     *
+     * @param registry    the meter registry
+     * @param name        the name
+     * @param baseUnit    the base unit, null for none
+     * @param description the description
+     * @param value       the value of a source
+     */
+    private void gauge(final MeterRegistry registry, final String name, final String baseUnit,
+            final String description, final ToDoubleFunction<SourceStats> value) {
+        gauges.add(new SourceGauge(MultiGauge.builder(name).baseUnit(baseUnit).description(description)
+                .register(registry), value));
+    }
+
+    /**
+     * Registers the gauges of the configured sources already loaded or attempted, and drops the
+     * gauges and the telemetry of the sources no longer configured.
+     */
+    @Scheduled(fixedDelayString = "${config.crl.refresh.check:60000}",
+            initialDelayString = "${config.crl.refresh.check:60000}")
+    public void refresh() {
+        final List<CaConf> caConfs = globalConf.getCa();
+        final List<String> configured = caConfs == null ? Collections.emptyList()
+                : caConfs.stream().map(CaConf::getCrl).distinct().collect(Collectors.toList());
+        CRLLoader.retainSourceStats(configured);
+        final Map<String, SourceStats> bySource = CRLLoader.getSourceStats();
+        final List<SourceStats> sources = new ArrayList<>(configured.size());
+        for (final String source : configured) {
+            final SourceStats sourceStats = source == null ? null : bySource.get(source);
+            if (sourceStats != null) {
+                sources.add(sourceStats);
+            }
+        }
+        for (final SourceGauge gauge : gauges) {
+            final List<MultiGauge.Row<?>> rows = new ArrayList<>(sources.size());
+            for (final SourceStats stats : sources) {
+                rows.add(MultiGauge.Row.of(Tags.of("source", stats.getSource()), stats, gauge.value));
+            }
+            gauge.gauge.register(rows, true);
+        }
+    }
+
+    /**
+     * A gauge by source and the value it reads.
+     */
+    private static final class SourceGauge {
+
+        /** The gauge. */
+        private final MultiGauge gauge;
+
+        /** The value of a source. */
+        private final ToDoubleFunction<SourceStats> value;
+
+        /**
+         * Instantiates a new source gauge.
+         *
+         * @param gauge the gauge
+         * @param value the value of a source
+         */
+        private SourceGauge(final MultiGauge gauge, final ToDoubleFunction<SourceStats> value) {
+            this.gauge = gauge;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import fr.gouv.esante.api.sign.ws.util.AdaptiveLimiter;
+import fr.gouv.esante.api.sign.ws.util.OperationExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Adaptive concurrency limits of the signature, signature validation and certificate validation
+ * endpoints, applied before the request body is read. A request over the limit waits at most
+ * config.limiter.queue-timeout milliseconds for a place, then gets a 503 with a Retry-After header.
+ * The latency sample of a request is the time spent by its operations in the operation pool, the
+ * upload of the document and the writing of the response excluded ; a request that ran no
+ * operation gives its place back without sample. Only the operations refused by the operation
+ * pool for lack of capacity count as overload, not the other 503 responses. The batches, streamed
+ * as NDJSON for as long as their documents take, are not limited here : each document is admitted
+ * in the operation pool.
+ */
+@Component
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ConcurrencyLimitFilter.class);
+
+    /** Signature paths. */
+    private static final String SIGNATURE_PATH = "/signatures/";
+
+    /** Signature validation paths. */
+    private static final String VALIDATION_PATH = "/validation/signatures/";
+
+    /** Certificate validation paths. */
+    private static final String CERTIFICATE_PATH = "/validation/certificats";
+
+    /** Suffix of the batch paths. */
+    private static final String BATCH_SUFFIX = "/batch";
+
+    /** Is the limitation enabled. */
+    private final boolean enabled;
+
+    /** The maximum wait for a place in milliseconds. */
+    private final long queueTimeout;
+
+    /** The Retry-After value in seconds. */
+    private final String retryAfter;
+
+    /** The signature limiter. */
+    private final AdaptiveLimiter signature;
+
+    /** The signature validation limiter. */
+    private final AdaptiveLimiter validation;
+
+    /** The certificate validation limiter. */
+    private final AdaptiveLimiter certificate;
+
+    /**
+     * Instantiates a new concurrency limit filter.
+     *
+     * @param enabled            is the limitation enabled
+     * @param queueTimeout       the maximum wait for a place in milliseconds
+     * @param queueSize          the maximum number of waiting requests of each limiter
+     * @param retryAfter         the Retry-After value in seconds
+     * @param signatureMax       the maximum limit of the signatures, twice the number of processors when 0
+     * @param signatureLatency   the latency threshold of the signatures in milliseconds
+     * @param validationMax      the maximum limit of the signature validations
+     * @param validationLatency  the latency threshold of the signature validations in milliseconds
+     * @param certificateMax     the maximum limit of the certificate validations
+     * @param certificateLatency the latency threshold of the certificate validations in milliseconds
+     * @param registry           the meter registry
+     */
+    public ConcurrencyLimitFilter(@Value("${config.limiter.enabled:true}") final boolean enabled,
+            @Value("${config.limiter.queue-timeout:1000}") final long queueTimeout,
+            @Value("${config.limiter.queue-size:50}") final int queueSize,
+            @Value("${config.limiter.retry-after:1}") final long retryAfter,
+            @Value("${config.limiter.sign.max:0}") final int signatureMax,
+            @Value("${config.limiter.sign.latency:5000}") final long signatureLatency,
+            @Value("${config.limiter.validate.max:0}") final int validationMax,
+            @Value("${config.limiter.validate.latency:10000}") final long validationLatency,
+            @Value("${config.limiter.certificate.max:0}") final int certificateMax,
+            @Value("${config.limiter.certificate.latency:5000}") final long certificateLatency,
+            final MeterRegistry registry) {
+        this.enabled = enabled;
+        this.queueTimeout = queueTimeout;
+        this.retryAfter = String.valueOf(retryAfter);
+        this.signature = new AdaptiveLimiter("sign", 1, max(signatureMax), signatureLatency, queueSize, registry);
+        this.validation = new AdaptiveLimiter("validate", 1, max(validationMax), validationLatency, queueSize,
+                registry);
+        this.certificate = new AdaptiveLimiter("certificate", 1, max(certificateMax), certificateLatency, queueSize,
+                registry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(final HttpServletRequest request) {
+        return !enabled || limiter(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response,
+            final FilterChain chain) throws ServletException, IOException {
+        final AdaptiveLimiter limiter = limiter(request);
+        boolean admitted;
+        try {
+            admitted = limiter.acquire(queueTimeout);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        if (!admitted) {
+            log.warn("Requête {} refusée : limite de {} requêtes {} en cours atteinte", request.getRequestURI(),
+                    limiter.getLimit(), limiter.getName());
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            final Object elapsed = request.getAttribute(OperationExecutor.ELAPSED_ATTRIBUTE);
+            if (elapsed instanceof Long) {
+                limiter.release((Long) elapsed, overloaded(request));
+            } else {
+                limiter.release(overloaded(request));
+            }
+        }
+    }
+
+    /**
+     * Limiter of a request.
+     *
+     * @param request the request
+     * @return the limiter, null for a request that is not limited
+     */
+    private AdaptiveLimiter limiter(final HttpServletRequest request) {
+        final String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.endsWith(BATCH_SUFFIX)) {
+            return null;
+        } else if (path.startsWith(SIGNATURE_PATH)) {
+            return signature;
+        } else if (path.startsWith(VALIDATION_PATH)) {
+            return validation;
+        } else if (path.startsWith(CERTIFICATE_PATH)) {
+            return certificate;
+        }
+        return null;
+    }
+
+    /**
+     * Was the request rejected downstream for lack of capacity : an operation refused by the
+     * operation pool, see {@link OperationExecutor#REJECTED_ATTRIBUTE}.
+     *
+     * @param request the request
+     * @return true if an operation of the request was refused
+     */
+    private static boolean overloaded(final HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(OperationExecutor.REJECTED_ATTRIBUTE));
+    }
+
+    /**
+     * Maximum limit.
+     *
+     * @param configured the configured maximum
+     * @return the maximum, twice the number of processors when not configured
+     */
+    private static int max(final int configured) {
+        return configured > 0 ? configured : 2 * Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Actuator endpoint "jfr" (disabled by default) : a POST starts a bounded JDK Flight Recorder
+ * recording (at most config.jfr.max-duration seconds and config.jfr.max-size bytes), a GET
+ * downloads the .jfr file of the recording, running or stopped, and a DELETE stops it. The
+ * recording holds the eSignSante events of the operations (fr.gouv.esante.sign.Stage) and of the
+ * CA/CRL loads, with the GC and CPU events of the JFR settings. A recording may hold system
+ * properties and arguments, keystore passwords included : the endpoint requires authentication,
+ * see SecurityConfig.
+ */
+@Component
+@WebEndpoint(id = "jfr", enableByDefault = false)
+public class JfrRecordingEndpoint {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(JfrRecordingEndpoint.class);
+
+    /** The JFR settings : default or profile. */
+    private final String settings;
+
+    /** The maximum duration of a recording. */
+    private final Duration maxDuration;
+
+    /** The maximum size of a recording. */
+    private final DataSize maxSize;
+
+    /** The recording, null before the first start. */
+    private Recording recording;
+
+    /**
+     * Instantiates a new JFR recording endpoint.
+     *
+     * @param settings    the JFR settings : default or profile
+     * @param maxDuration the maximum duration of a recording in seconds
+     * @param maxSize     the maximum size of a recording
+     */
+    public JfrRecordingEndpoint(@Value("${config.jfr.settings:profile}") final String settings,
+            @Value("${config.jfr.max-duration:900}") final long maxDuration,
+            @Value("${config.jfr.max-size:256MB}") final DataSize maxSize) {
+        this.settings = settings;
+        this.maxDuration = Duration.ofSeconds(maxDuration);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Starts a recording, the previous one being discarded.
+     *
+     * @param duration the duration in seconds, at most config.jfr.max-duration
+     * @return the state of the recording
+     */
+    @WriteOperation
+    public synchronized WebEndpointResponse<Map<String, Object>> start(@Nullable final Long duration) {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            return new WebEndpointResponse<>(state(), WebEndpointResponse.STATUS_BAD_REQUEST);
+        }
+        discard();
+        try {
+            final Recording started = new Recording(Configuration.getConfiguration(settings));
+            started.setName("esignsante");
+            started.setToDisk(true);
+            started.setMaxSize(maxSize.toBytes());
+            started.setDuration(duration == null || duration <= 0 || duration > maxDuration.getSeconds()
+                    ? maxDuration : Duration.ofSeconds(duration));
+            started.start();
+            recording = started;
+            log.info("Enregistrement JFR démarré pour {} s", started.getDuration().getSeconds());
+            return new WebEndpointResponse<>(state());
+        } catch (final IOException | ParseException e) {
+            log.error(ExceptionUtils.getStackTrace(e));
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Stops the recording, which stays available for download.
+     *
+     * @return the state of the recording
+     */
+    @DeleteOperation
+    public synchronized WebEndpointResponse<Map<String, Object>> stop() {
+        if (recording == null) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        if (recording.getState() == RecordingState.RUNNING) {
+            recording.stop();
+            log.info("Enregistrement JFR arrêté");
+        }
+        return new WebEndpointResponse<>(state());
+    }
+
+    /**
+     * Downloads the recording, running or stopped. Each download is dumped to its own file, deleted
+     * once the response has been written.
+     *
+     * @return the .jfr file
+     */
+    @ReadOperation(produces = "application/octet-stream")
+    public synchronized WebEndpointResponse<Resource> download() {
+        if (recording == null) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        Path dump = null;
+        try {
+            dump = Files.createTempFile("esignsante", ".jfr");
+            recording.dump(dump);
+            return new WebEndpointResponse<>(new DumpResource(dump));
+        } catch (final IOException e) {
+            log.error(ExceptionUtils.getStackTrace(e));
+            delete(dump);
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * State of the recording.
+     *
+     * @return the state
+     */
+    private Map<String, Object> state() {
+        final Map<String, Object> state = new LinkedHashMap<>();
+        state.put("state", recording.getState().name());
+        state.put("settings", settings);
+        state.put("startTime", recording.getStartTime());
+        state.put("duration", recording.getDuration() == null ? null : recording.getDuration().getSeconds());
+        state.put("size", recording.getSize());
+        return state;
+    }
+
+    /**
+     * Discards the recording when the application stops.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        discard();
+    }
+
+    /**
+     * Discards the previous recording.
+     */
+    private void discard() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    /**
+     * Deletes a dump file.
+     *
+     * @param dump the file, may be null
+     */
+    private static void delete(final Path dump) {
+        if (dump != null) {
+            try {
+                Files.deleteIfExists(dump);
+            } catch (final IOException e) {
+                log.error(ExceptionUtils.getStackTrace(e));
+            }
+        }
+    }
+
+    /**
+     * A dump file, deleted when the stream of the response is closed.
+     */
+    static final class DumpResource extends FileSystemResource {
+
+        /**
+         * Instantiates a new dump resource.
+         *
+         * @param dump the dump file
+         */
+        DumpResource(final Path dump) {
+            super(dump);
+        }
+
+        /**
+         * Opens the dump, the file being deleted when the stream is closed.
+         *
+         * @return the stream
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return Files.newInputStream(getFile().toPath(), StandardOpenOption.DELETE_ON_CLOSE);
+        }
+    }
+}
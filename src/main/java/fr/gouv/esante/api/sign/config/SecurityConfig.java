@@ -4,8 +4,10 @@
 
 package fr.gouv.esante.api.sign.config;
 
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.web.SecurityFilterChain;
@@ -19,6 +21,8 @@ public class SecurityConfig {
 
     /**
      * Http CSRF security configuration.
+     * The jfr endpoint requires an authenticated user (spring.security.user, HTTP Basic) : its
+     * recordings may hold keystore passwords.
      *
      * @param http HttpSecurity
      */
@@ -26,7 +30,10 @@ public class SecurityConfig {
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
     	//http.csrf((csrf) -> csrf.csrfTokenRepository(CookieCsrfTokenRepository.withHttpOnlyFalse()));
     	http.csrf((csrf) -> csrf.disable());    	
-    	http.authorizeHttpRequests((web) -> web.requestMatchers("/**").permitAll());
+    	http.authorizeHttpRequests((web) -> web
+    			.requestMatchers(EndpointRequest.to(JfrRecordingEndpoint.class)).authenticated()
+    			.requestMatchers("/**").permitAll());
+    	http.httpBasic(Customizer.withDefaults());
     	
         return http.build();
     }
@@ -0,0 +1,57 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import fr.gouv.esante.api.sign.ws.util.PipelineMetrics;
+import fr.gouv.esante.api.sign.ws.util.PipelineStages;
+
+/**
+ * Adds the Server-Timing header to the responses, when config.timings.header is set : the elapsed
+ * milliseconds of each stage of the operation, measured until the response body is written (the
+ * serialization of the response itself is not included).
+ */
+@ControllerAdvice
+public class ServerTimingAdvice implements ResponseBodyAdvice<Object> {
+
+    /** Server-Timing header. */
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    /** The stage metrics. */
+    private final PipelineMetrics pipelineMetrics;
+
+    /**
+     * Instantiates a new server timing advice.
+     *
+     * @param pipelineMetrics the stage metrics
+     */
+    public ServerTimingAdvice(final PipelineMetrics pipelineMetrics) {
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    @Override
+    public boolean supports(final MethodParameter returnType,
+            final Class<? extends HttpMessageConverter<?>> converterType) {
+        return pipelineMetrics.isServerTimingEnabled();
+    }
+
+    @Override
+    public Object beforeBodyWrite(final Object body, final MethodParameter returnType,
+            final MediaType selectedContentType, final Class<? extends HttpMessageConverter<?>> selectedConverterType,
+            final ServerHttpRequest request, final ServerHttpResponse response) {
+        final String timings = PipelineStages.current().serverTiming();
+        if (timings != null) {
+            response.getHeaders().add(SERVER_TIMING, timings);
+        }
+        return body;
+    }
+}
@@ -11,10 +11,13 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.FormHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import fr.gouv.esante.api.sign.ws.util.StreamingReportHttpMessageConverter;
+
 /**
  * The Class WebConfig.
  */
@@ -34,7 +37,13 @@ public class WebConfig implements WebMvcConfigurer {
     public void configureMessageConverters(final List<HttpMessageConverter<?>> converters) {
     	converters.add(new StringHttpMessageConverter());
     	converters.add(new ByteArrayHttpMessageConverter());
+    	// rapports écrits en flux, avant le convertisseur Jackson
+    	converters.add(new StreamingReportHttpMessageConverter());
     	converters.add(new MappingJackson2HttpMessageConverter());
+    	// réponses binaires multipart/mixed : rapport JSON, document signé et preuve bruts
+    	final FormHttpMessageConverter multipart = new FormHttpMessageConverter();
+    	multipart.addPartConverter(new MappingJackson2HttpMessageConverter());
+    	converters.add(multipart);
     }
 
     /*
@@ -5,7 +5,6 @@
 package fr.gouv.esante.api.sign.config.observer;
 
 import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
-import fr.gouv.esante.api.sign.service.ICACRLService;
 import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -31,10 +30,6 @@ public class CaCrlObserver {
     @Autowired
     private IGlobalConf globalConf;
 
-    /** The service ca crl. */
-    @Autowired
-    private ICACRLService serviceCaCrl;
-
     /**
      * Add observer.
      */
@@ -51,7 +46,7 @@ public class CaCrlObserver {
     public void update() {
         try {
             // reload CAs and CRLs on detected change in GlobalConf.
-            CaCrlServiceLoader.loadCaCrl(serviceCaCrl, globalConf.getCa());
+            CaCrlServiceLoader.loadCaCrl(globalConf.getCa());
         } catch (final IOException e) {
             log.error(ExceptionUtils.getStackTrace(e));
         }
@@ -33,6 +33,9 @@ import fr.gouv.esante.api.sign.ws.bean.object.CertVerifConf;
 import fr.gouv.esante.api.sign.ws.bean.object.ProofConf;
 import fr.gouv.esante.api.sign.ws.bean.object.SignVerifConf;
 import fr.gouv.esante.api.sign.ws.bean.object.SignatureConf;
+import fr.gouv.esante.api.sign.ws.util.CertificateCheckCache;
+import fr.gouv.esante.api.sign.ws.util.SecretVerificationCache;
+import fr.gouv.esante.api.sign.ws.util.ValidationResultCache;
 
 /**
  * The Class ESignSanteSanteConfigurationsJson.
@@ -128,6 +131,24 @@ public class EsignsanteConfigurationsJson implements IEsignsanteConfigurationsPr
         @Autowired
         private IGlobalConf globalConf;
 
+        /**
+         * secretCache.
+         */
+        @Autowired
+        private SecretVerificationCache secretCache;
+
+        /**
+         * certificateChecks.
+         */
+        @Autowired
+        private CertificateCheckCache certificateChecks;
+
+        /**
+         * validationResults.
+         */
+        @Autowired
+        private ValidationResultCache validationResults;
+
         /**
          * stop.
          */
@@ -156,11 +177,10 @@ public class EsignsanteConfigurationsJson implements IEsignsanteConfigurationsPr
             startup = false;
             final IGlobalConf conf = loadConf(jsonFile);
             if (conf != null) {
-                globalConf.setCa(conf.getCa());
-                globalConf.setCertificateVerification(conf.getCertificateVerification());
-                globalConf.setProof(conf.getProof());
-                globalConf.setSignature(conf.getSignature());
-                globalConf.setSignatureVerification(conf.getSignatureVerification());
+                globalConf.update(conf);
+                secretCache.invalidateAll();
+                certificateChecks.invalidateAll();
+                validationResults.invalidateAll();
                 log.info("New configurations loaded.");
             } else {
                 log.error("Could not load new configurations, will continue using current valid configurations.");
@@ -0,0 +1,223 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config.utils;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Class CRLDiskCache.
+ * Keeps the last CRL loaded from each source in a local directory (config.crl.cache.dir) : a DER file
+ * and its metadata (source, ETag, Last-Modified, thisUpdate, nextUpdate, SHA-256 digest).
+ * The cache is read at startup before any download, so a restart does not depend on the PKI.
+ */
+public final class CRLDiskCache {
+
+    /**
+     * The logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(CRLDiskCache.class);
+
+    /**
+     * Cache directory, the cache is disabled when not set.
+     */
+    private static volatile String cacheDir = "";
+
+    /**
+     * DER file extension.
+     */
+    private static final String CRL_EXT = ".crl";
+
+    /**
+     * Metadata file extension.
+     */
+    private static final String META_EXT = ".properties";
+
+    /**
+     * Digest algorithm.
+     */
+    private static final String DIGEST_ALGO = "SHA-256";
+
+    /**
+     * private constructor to hide implicit public one.
+     */
+    private CRLDiskCache() {
+    }
+
+    /**
+     * Sets the cache directory, called once at startup before the first load.
+     *
+     * @param directory the directory, blank to disable the cache
+     */
+    public static void configure(final String directory) {
+        cacheDir = directory == null ? "" : directory;
+    }
+
+    /**
+     * Is the cache enabled.
+     *
+     * @return true if a cache directory is configured
+     */
+    public static boolean isEnabled() {
+        return !cacheDir.isBlank();
+    }
+
+    /**
+     * Stores the CRL loaded from a source.
+     *
+     * @param source  the CRL source
+     * @param fetched the CRL and its validators
+     */
+    static void store(final String source, final CRLLoader.FetchedCrl fetched) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            final Path dir = directory();
+            final byte[] der = fetched.getCrl().getEncoded();
+            final Properties meta = new Properties();
+            meta.setProperty("source", source);
+            fetched.getEtag().ifPresent(etag -> meta.setProperty("etag", etag));
+            fetched.getLastModified().ifPresent(date -> meta.setProperty("lastModified", date));
+            meta.setProperty("thisUpdate", String.valueOf(fetched.getCrl().getThisUpdate().getTime()));
+            if (fetched.getCrl().getNextUpdate() != null) {
+                meta.setProperty("nextUpdate", String.valueOf(fetched.getCrl().getNextUpdate().getTime()));
+            }
+            meta.setProperty("digest", digest(der));
+
+            final ByteArrayOutputStream metaOut = new ByteArrayOutputStream();
+            meta.store(metaOut, null);
+
+            final String name = digest(source.getBytes(StandardCharsets.UTF_8));
+            writeAtomically(dir, name + CRL_EXT, der);
+            writeAtomically(dir, name + META_EXT, metaOut.toByteArray());
+        } catch (final IOException | GeneralSecurityException e) {
+            log.error("Ecriture de la CRL {} dans le cache impossible : {}", source,
+                    ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * Loads the cached CRLs.
+     * An entry whose digest does not match its DER file is ignored.
+     *
+     * @return the CRLs by source
+     */
+    static Map<String, CRLLoader.FetchedCrl> load() {
+        final Map<String, CRLLoader.FetchedCrl> entries = new HashMap<>();
+        if (!isEnabled()) {
+            return entries;
+        }
+        final Path dir = Paths.get(cacheDir);
+        if (!Files.isDirectory(dir)) {
+            return entries;
+        }
+        try (DirectoryStream<Path> metas = Files.newDirectoryStream(dir, "*" + META_EXT)) {
+            final CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            for (final Path metaFile : metas) {
+                try {
+                    final Properties meta = new Properties();
+                    try (InputStream in = Files.newInputStream(metaFile)) {
+                        meta.load(in);
+                    }
+                    if (meta.getProperty("source") == null) {
+                        continue;
+                    }
+                    final String fileName = metaFile.getFileName().toString();
+                    final Path derFile = dir.resolve(fileName.substring(0, fileName.length() - META_EXT.length())
+                            + CRL_EXT);
+                    final byte[] der = Files.readAllBytes(derFile);
+                    if (!digest(der).equals(meta.getProperty("digest"))) {
+                        log.warn("CRL du cache {} corrompue, ignorée", derFile);
+                        continue;
+                    }
+                    final X509CRL crl = (X509CRL) cf.generateCRL(new ByteArrayInputStream(der));
+                    entries.put(meta.getProperty("source"), new CRLLoader.FetchedCrl(crl,
+                            Optional.ofNullable(meta.getProperty("etag")),
+                            Optional.ofNullable(meta.getProperty("lastModified"))));
+                } catch (final IOException | GeneralSecurityException e) {
+                    log.warn("Entrée du cache des CRL {} illisible : {}", metaFile,
+                            ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+        } catch (final IOException | GeneralSecurityException e) {
+            log.error(ExceptionUtils.getStackTrace(e));
+        }
+        log.info("{} CRL chargée(s) depuis le cache {}", entries.size(), dir);
+        return entries;
+    }
+
+    /**
+     * Gets the cache directory, created readable by the owner only.
+     *
+     * @return the directory
+     * @throws IOException IOException
+     */
+    private static Path directory() throws IOException {
+        final Path dir = Paths.get(cacheDir);
+        if (!Files.isDirectory(dir)) {
+            if (SystemUtils.IS_OS_UNIX) {
+                Files.createDirectories(dir,
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(dir);
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Writes a file through a temporary file and an atomic move.
+     *
+     * @param dir     the directory
+     * @param name    the file name
+     * @param content the content
+     * @throws IOException IOException
+     */
+    private static void writeAtomically(final Path dir, final String name, final byte[] content)
+            throws IOException {
+        final Path tmp = Files.createTempFile(dir, name, ".tmp");
+        Files.write(tmp, content);
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * SHA-256 digest in hexadecimal.
+     *
+     * @param content the content
+     * @return the digest
+     * @throws IOException IOException
+     */
+    private static String digest(final byte[] content) throws IOException {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance(DIGEST_ALGO).digest(content));
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+}
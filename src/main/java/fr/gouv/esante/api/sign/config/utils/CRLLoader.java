@@ -20,13 +20,25 @@ import javax.naming.directory.InitialDirContext;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.security.GeneralSecurityException;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
@@ -44,6 +56,77 @@ public class CRLLoader {
      */
     private static final int INITIAL_CAPACITY = 2;
 
+    /**
+     * Default number of CRL sources fetched in parallel.
+     */
+    private static final int DEFAULT_FETCH_THREADS = 8;
+
+    /**
+     * Default deadline of a single CRL source, in seconds.
+     */
+    private static final long DEFAULT_FETCH_TIMEOUT = 30L;
+
+    /**
+     * Default connect timeout, in seconds.
+     */
+    private static final long DEFAULT_CONNECT_TIMEOUT = 10L;
+
+    /**
+     * Default grace period, in seconds.
+     */
+    private static final long DEFAULT_GRACE_PERIOD = 86400L;
+
+    /**
+     * HTTP status not modified.
+     */
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    /**
+     * HTTP status ok.
+     */
+    private static final int HTTP_OK = 200;
+
+    /**
+     * Deadline of a single CRL source, in seconds (config.crl.fetch.timeout).
+     */
+    private static volatile long fetchTimeout = DEFAULT_FETCH_TIMEOUT;
+
+    /**
+     * Connect timeout, in seconds (config.crl.fetch.connect-timeout).
+     */
+    private static volatile long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * Grace period after its nextUpdate during which the last CRL of a failing source is still used, in seconds
+     * (config.crl.grace).
+     */
+    private static volatile long gracePeriod = DEFAULT_GRACE_PERIOD;
+
+    /**
+     * Shared HTTP client, keeps connections alive between refreshes.
+     */
+    private static volatile HttpClient httpClient = newHttpClient(DEFAULT_CONNECT_TIMEOUT);
+
+    /**
+     * Bounded pool fetching the CRL sources (config.crl.fetch.threads).
+     */
+    private static volatile ExecutorService fetchPool = newFetchPool(DEFAULT_FETCH_THREADS);
+
+    /**
+     * Last CRL loaded from each source, with its HTTP validators for conditional requests.
+     */
+    private static final ConcurrentMap<String, FetchedCrl> FETCHED = new ConcurrentHashMap<>();
+
+    /**
+     * Number of consecutive failed downloads of each source.
+     */
+    private static final ConcurrentMap<String, Integer> FAILURES = new ConcurrentHashMap<>();
+
+    /**
+     * Telemetry of each source : last successful fetch, size and fetch duration of its CRL.
+     */
+    private static final ConcurrentMap<String, SourceStats> STATS = new ConcurrentHashMap<>();
+
     /**
      * crl list.
      */
@@ -58,6 +141,60 @@ public class CRLLoader {
         this.listCrl = listCrl;
     }
 
+    /**
+     * Sets the fetch settings, called once at startup before the first load.
+     * The previous pool finishes its fetches in progress.
+     *
+     * @param threads        number of CRL sources fetched in parallel
+     * @param timeoutSeconds deadline of a single CRL source, download and read included
+     * @param connectSeconds connect timeout
+     */
+    public static synchronized void configure(final int threads, final long timeoutSeconds,
+            final long connectSeconds) {
+        fetchTimeout = timeoutSeconds;
+        connectTimeout = connectSeconds;
+        httpClient = newHttpClient(connectSeconds);
+        final ExecutorService previous = fetchPool;
+        fetchPool = newFetchPool(threads);
+        previous.shutdown();
+    }
+
+    /**
+     * Sets the grace period of the last CRL of a failing source, called once at startup before the first load.
+     *
+     * @param graceSeconds the grace period after the nextUpdate, in seconds
+     */
+    public static void setGracePeriod(final long graceSeconds) {
+        gracePeriod = graceSeconds;
+    }
+
+    /**
+     * Builds the HTTP client.
+     *
+     * @param connectSeconds connect timeout
+     * @return the client
+     */
+    private static HttpClient newHttpClient(final long connectSeconds) {
+        return HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(connectSeconds))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Builds the pool fetching the CRL sources.
+     *
+     * @param threads number of threads
+     * @return the pool
+     */
+    private static ExecutorService newFetchPool(final int threads) {
+        return Executors.newFixedThreadPool(Math.max(threads, 1), r -> {
+            final Thread thread = new Thread(r, "crl-fetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     /**
      * CRL bundle builder.
      *
@@ -65,10 +202,138 @@ public class CRLLoader {
      * @throws GeneralSecurityException GeneralSecurityException
      */
     public void buildCRLBundle(final File file) throws GeneralSecurityException {
-        final CRLLoaderImpl loader = new CRLListLoader();
+        final CRLLoaderImpl loader = new CRLListLoader(listCrl);
         writeCrlToPEM(loader.getX509CRLs(), file);
     }
 
+    /**
+     * Downloads again some of the CRL sources.
+     *
+     * @param sources the sources to download
+     * @return true if the CRL of one of the sources has changed
+     */
+    public boolean refresh(final Collection<String> sources) {
+        final Map<String, X509CRL> before = new HashMap<>();
+        for (final String source : sources) {
+            before.put(source, getLastCrl(source).orElse(null));
+        }
+        try {
+            new CRLListLoader(new ArrayList<>(sources)).getX509CRLs();
+        } catch (final GeneralSecurityException e) {
+            log.error(ExceptionUtils.getStackTrace(e));
+        }
+        for (final String source : sources) {
+            if (!Objects.equals(before.get(source), getLastCrl(source).orElse(null))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the last CRL loaded from each source, without any download.
+     *
+     * @param file file
+     */
+    public void writeCRLBundle(final File file) {
+        final Collection<X509CRL> crls = new LinkedList<>();
+        for (final String source : listCrl) {
+            getLastCrl(source).ifPresent(crls::add);
+        }
+        writeCrlToPEM(crls, file);
+    }
+
+    /**
+     * Loads the CRLs of the disk cache, those past their grace period excepted.
+     *
+     * @return the number of CRLs loaded
+     */
+    public static int loadDiskCache() {
+        int count = 0;
+        for (final Map.Entry<String, FetchedCrl> entry : CRLDiskCache.load().entrySet()) {
+            if (isWithinGrace(entry.getValue().getCrl())
+                    && FETCHED.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                stats(entry.getKey()).loaded(entry.getValue().getCrl());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the telemetry of the sources loaded or attempted, and still configured at the last call of
+     * {@link #retainSourceStats(Collection)}.
+     *
+     * @return the telemetry by source
+     */
+    public static Map<String, SourceStats> getSourceStats() {
+        return Collections.unmodifiableMap(STATS);
+    }
+
+    /**
+     * Drops the telemetry and the failure counts of the sources no longer configured.
+     *
+     * @param sources the configured sources
+     */
+    public static void retainSourceStats(final Collection<String> sources) {
+        STATS.keySet().retainAll(sources);
+        FAILURES.keySet().retainAll(sources);
+    }
+
+    /**
+     * Gets the telemetry of a source, created on first use.
+     *
+     * @param source the source
+     * @return the telemetry
+     */
+    private static SourceStats stats(final String source) {
+        return STATS.computeIfAbsent(source, SourceStats::new);
+    }
+
+    /**
+     * Gets the number of consecutive failed downloads of a source.
+     *
+     * @param source the source
+     * @return the failure count
+     */
+    public static int getFailureCount(final String source) {
+        return source == null ? 0 : FAILURES.getOrDefault(source, 0);
+    }
+
+    /**
+     * Is a CRL still usable : before its nextUpdate plus the grace period.
+     *
+     * @param crl the crl
+     * @return true if usable
+     */
+    private static boolean isWithinGrace(final X509CRL crl) {
+        return crl.getNextUpdate() == null
+                || System.currentTimeMillis() < crl.getNextUpdate().getTime() + TimeUnit.SECONDS.toMillis(gracePeriod);
+    }
+
+    /**
+     * Keeps the CRL loaded from a source, in memory and in the disk cache.
+     *
+     * @param source  the source
+     * @param fetched the CRL and its validators
+     */
+    private static void remember(final String source, final FetchedCrl fetched) {
+        FETCHED.put(source, fetched);
+        stats(source).loaded(fetched.getCrl());
+        CRLDiskCache.store(source, fetched);
+    }
+
+    /**
+     * Gets the last CRL loaded from a source.
+     *
+     * @param source the source
+     * @return the CRL, empty if the source has never been loaded or its last download failed
+     */
+    public static Optional<X509CRL> getLastCrl(final String source) {
+        final FetchedCrl fetched = source == null ? null : FETCHED.get(source);
+        return Optional.ofNullable(fetched == null ? null : fetched.getCrl());
+    }
+
     /**
      * The Class LdapContext.
      */
@@ -125,6 +390,11 @@ public class CRLLoader {
      */
     class CRLListLoader implements CRLLoaderImpl {
 
+        /**
+         * delegate paths.
+         */
+        private final List<String> delegatePaths;
+
         /**
          * delegate list.
          */
@@ -132,18 +402,20 @@ public class CRLLoader {
 
         /**
          * CRLListLoader.
+         *
+         * @param delegatePaths the CRL sources
          */
-        public CRLListLoader() {
-            final String[] delegatePaths = new String[listCrl.size()];
-            for (int i = 0; i < listCrl.size(); i++) {
-                delegatePaths[i] = listCrl.get(i);
-            }
-            this.delegates = Arrays.stream(delegatePaths)
+        public CRLListLoader(final List<String> delegatePaths) {
+            this.delegatePaths = delegatePaths;
+            this.delegates = delegatePaths.stream()
                     .map(CRLFileLoader::new).collect(Collectors.toList());
         }
 
         /**
          * getX509CRLs.
+         * The sources are fetched concurrently on a bounded pool, each one within its own deadline :
+         * a slow or failing source is logged and left out, it no longer stalls or voids the others.
+         * A source past its deadline is cancelled, the interrupt ending its download or LDAP read.
          *
          * @return result
          * @throws GeneralSecurityException GeneralSecurityException
@@ -151,9 +423,44 @@ public class CRLLoader {
         @Override
         public Collection<X509CRL> getX509CRLs()
                 throws GeneralSecurityException {
-            final Collection<X509CRL> result = new LinkedList<>();
+            final ExecutorService pool = fetchPool;
+            final List<Future<Collection<X509CRL>>> futures = new ArrayList<>(delegates.size());
             for (final CRLLoaderImpl delegate : delegates) {
-                result.addAll(delegate.getX509CRLs());
+                futures.add(pool.submit(delegate::getX509CRLs));
+            }
+            // les échéances partent de la soumission, comme si chaque source avait la sienne
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(fetchTimeout);
+            final Collection<X509CRL> result = new LinkedList<>();
+            GeneralSecurityException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                final String path = delegatePaths.get(i);
+                final Future<Collection<X509CRL>> future = futures.get(i);
+                try {
+                    result.addAll(future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS));
+                    FAILURES.remove(path);
+                } catch (final InterruptedException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    Thread.currentThread().interrupt();
+                    throw new GeneralSecurityException("Interrupted while loading the CRLs", e);
+                } catch (final ExecutionException | TimeoutException e) {
+                    // l'annulation interrompt le téléchargement en cours, ou retire la source de la file
+                    future.cancel(true);
+                    final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    log.error("Echec du chargement de la CRL {} : {}", path, ExceptionUtils.getRootCauseMessage(cause));
+                    FAILURES.merge(path, 1, Integer::sum);
+                    final Optional<X509CRL> last = getLastCrl(path).filter(CRLLoader::isWithinGrace);
+                    if (last.isPresent()) {
+                        log.warn("Dernière CRL connue de {} conservée (nextUpdate : {})", path,
+                                last.get().getNextUpdate());
+                        result.add(last.get());
+                    } else {
+                        FETCHED.remove(path);
+                        failure = new GeneralSecurityException("Unable to load CRL from \"" + path + "\"", cause);
+                    }
+                }
+            }
+            if (result.isEmpty() && failure != null) {
+                throw failure;
             }
             return result;
         }
@@ -209,6 +516,9 @@ public class CRLLoader {
         @Override
         public Collection<X509CRL> getX509CRLs() throws GeneralSecurityException {
             final CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            final long start = System.nanoTime();
+            final CrlFetchEvent event = new CrlFetchEvent();
+            event.begin();
             Collection<X509CRL> crlColl = null;
             if (cRLPath != null) {
                 if (cRLPath.startsWith("http") || cRLPath.startsWith("https")) {
@@ -227,6 +537,17 @@ public class CRLLoader {
                     }
                 }
             }
+            final boolean success = crlColl != null && !crlColl.isEmpty();
+            if (cRLPath != null) {
+                stats(cRLPath).fetched(System.nanoTime() - start, success);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.source = cRLPath;
+                event.size = success && cRLPath != null ? stats(cRLPath).getSize() : 0;
+                event.outcome = success ? "success" : "error";
+                event.commit();
+            }
             if (crlColl == null || crlColl.isEmpty()) {
                 final String message = String.format("Unable to load CRL from \"%s\"",
                         cRLPath);
@@ -237,6 +558,8 @@ public class CRLLoader {
 
         /**
          * loadFromURI.
+         * Conditional GET : the ETag and Last-Modified validators of the previous download are sent,
+         * and an unchanged CRL (304) is neither downloaded nor parsed again.
          *
          * @param cf        cf
          * @param remoteURI remoteURI
@@ -248,14 +571,35 @@ public class CRLLoader {
             Collection<X509CRL> collection = Collections.emptyList();
             try {
                 log.debug("Loading CRL from {}", remoteURI);
-
-                final URLConnection conn = remoteURI.toURL().openConnection();
-                conn.setDoInput(true);
-                conn.setUseCaches(false);
-                final X509CRL crl = loadFromStream(cf, conn.getInputStream());
-                collection = Collections.singleton(crl);
+                final FetchedCrl previous = FETCHED.get(cRLPath);
+                final HttpRequest.Builder request = HttpRequest.newBuilder(remoteURI)
+                        .timeout(Duration.ofSeconds(fetchTimeout))
+                        .GET();
+                if (previous != null) {
+                    previous.getEtag().ifPresent(etag -> request.header("If-None-Match", etag));
+                    previous.getLastModified().ifPresent(date -> request.header("If-Modified-Since", date));
+                }
+                final HttpResponse<InputStream> response = httpClient.send(request.build(),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() == HTTP_NOT_MODIFIED && previous != null) {
+                    response.body().close();
+                    log.debug("CRL {} inchangée", remoteURI);
+                    collection = Collections.singleton(previous.getCrl());
+                } else if (response.statusCode() == HTTP_OK) {
+                    final X509CRL crl = loadFromStream(cf, response.body());
+                    remember(cRLPath, new FetchedCrl(crl, response.headers().firstValue("ETag"),
+                            response.headers().firstValue("Last-Modified")));
+                    collection = Collections.singleton(crl);
+                } else {
+                    response.body().close();
+                    log.error("Téléchargement de la CRL {} en erreur, statut HTTP {}", remoteURI,
+                            response.statusCode());
+                }
             } catch (final IOException ex) {
                 log.error(ExceptionUtils.getStackTrace(ex));
+            } catch (final InterruptedException ex) {
+                log.error(ExceptionUtils.getStackTrace(ex));
+                Thread.currentThread().interrupt();
             }
             return collection;
 
@@ -275,6 +619,8 @@ public class CRLLoader {
             env.put(Context.INITIAL_CONTEXT_FACTORY,
                     ldapContext.getLdapFactoryClassName());
             env.put(Context.PROVIDER_URL, remoteURI.toString());
+            env.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(TimeUnit.SECONDS.toMillis(connectTimeout)));
+            env.put("com.sun.jndi.ldap.read.timeout", String.valueOf(TimeUnit.SECONDS.toMillis(fetchTimeout)));
             Collection<X509CRL> collection = Collections.emptyList();
             try {
                 final DirContext ctx = new InitialDirContext(env);
@@ -290,6 +636,7 @@ public class CRLLoader {
                     }
                     final X509CRL crl = loadFromStream(cf,
                             new ByteArrayInputStream(data));
+                    remember(cRLPath, new FetchedCrl(crl, Optional.empty(), Optional.empty()));
                     collection = Collections.singleton(crl);
                 } finally {
                     ctx.close();
@@ -319,6 +666,220 @@ public class CRLLoader {
         }
     }
 
+    /**
+     * A CRL loaded from a source and its HTTP validators.
+     */
+    static final class FetchedCrl {
+
+        /**
+         * crl.
+         */
+        private final X509CRL crl;
+
+        /**
+         * etag.
+         */
+        private final Optional<String> etag;
+
+        /**
+         * lastModified.
+         */
+        private final Optional<String> lastModified;
+
+        /**
+         * FetchedCrl.
+         *
+         * @param crl          crl
+         * @param etag         etag
+         * @param lastModified lastModified
+         */
+        FetchedCrl(final X509CRL crl, final Optional<String> etag, final Optional<String> lastModified) {
+            this.crl = crl;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * getCrl.
+         *
+         * @return crl
+         */
+        X509CRL getCrl() {
+            return crl;
+        }
+
+        /**
+         * getEtag.
+         *
+         * @return etag
+         */
+        Optional<String> getEtag() {
+            return etag;
+        }
+
+        /**
+         * getLastModified.
+         *
+         * @return lastModified
+         */
+        Optional<String> getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * Telemetry of a CRL source. The size and the entry count are computed once per loaded CRL, the
+     * gauges only read the fields.
+     */
+    public static final class SourceStats {
+
+        /**
+         * source.
+         */
+        private final String source;
+
+        /**
+         * Last successful fetch, epoch milliseconds, 0 if never fetched.
+         */
+        private volatile long lastSuccess;
+
+        /**
+         * Duration of the last fetch, download and parse, in nanoseconds.
+         */
+        private volatile long lastFetchNanos;
+
+        /**
+         * thisUpdate of the CRL, epoch milliseconds.
+         */
+        private volatile long thisUpdate;
+
+        /**
+         * nextUpdate of the CRL, epoch milliseconds, 0 if not set.
+         */
+        private volatile long nextUpdate;
+
+        /**
+         * DER size of the CRL.
+         */
+        private volatile long size;
+
+        /**
+         * Number of revoked certificates of the CRL.
+         */
+        private volatile long entries;
+
+        /**
+         * SourceStats.
+         *
+         * @param source source
+         */
+        SourceStats(final String source) {
+            this.source = source;
+        }
+
+        /**
+         * Records a fetch.
+         *
+         * @param durationNanos the duration, download and parse
+         * @param success       was a CRL obtained, downloaded or unchanged
+         */
+        void fetched(final long durationNanos, final boolean success) {
+            lastFetchNanos = durationNanos;
+            if (success) {
+                lastSuccess = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Records a new CRL of the source.
+         *
+         * @param crl the crl
+         */
+        void loaded(final X509CRL crl) {
+            thisUpdate = crl.getThisUpdate().getTime();
+            nextUpdate = crl.getNextUpdate() == null ? 0 : crl.getNextUpdate().getTime();
+            final Set<? extends X509CRLEntry> revoked = crl.getRevokedCertificates();
+            entries = revoked == null ? 0 : revoked.size();
+            try {
+                size = crl.getEncoded().length;
+            } catch (final CRLException e) {
+                log.error(ExceptionUtils.getStackTrace(e));
+            }
+        }
+
+        /**
+         * getSource.
+         *
+         * @return source
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * getLastSuccess.
+         *
+         * @return last successful fetch, epoch milliseconds, 0 if never fetched
+         */
+        public long getLastSuccess() {
+            return lastSuccess;
+        }
+
+        /**
+         * getLastFetchNanos.
+         *
+         * @return duration of the last fetch in nanoseconds
+         */
+        public long getLastFetchNanos() {
+            return lastFetchNanos;
+        }
+
+        /**
+         * getThisUpdate.
+         *
+         * @return thisUpdate of the CRL, epoch milliseconds, 0 before the first CRL
+         */
+        public long getThisUpdate() {
+            return thisUpdate;
+        }
+
+        /**
+         * getNextUpdate.
+         *
+         * @return nextUpdate of the CRL, epoch milliseconds, 0 if unknown
+         */
+        public long getNextUpdate() {
+            return nextUpdate;
+        }
+
+        /**
+         * getSize.
+         *
+         * @return DER size of the CRL in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * getEntries.
+         *
+         * @return number of revoked certificates
+         */
+        public long getEntries() {
+            return entries;
+        }
+
+        /**
+         * getFailures.
+         *
+         * @return number of consecutive failed downloads
+         */
+        public int getFailures() {
+            return getFailureCount(source);
+        }
+    }
+
     /**
      * writeCrlToPEM.
      *
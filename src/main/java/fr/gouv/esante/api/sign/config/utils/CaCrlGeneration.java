@@ -0,0 +1,87 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config.utils;
+
+import fr.gouv.esante.api.sign.bean.cacrl.CACRLWrapper;
+import fr.gouv.esante.api.sign.service.ICACRLService;
+
+/**
+ * Class CaCrlGeneration.
+ * A fully loaded CA/CRL service and its generation number. A generation is never modified once
+ * published : a reload builds a new one, so a request holding a generation always sees the CAs
+ * and the CRLs of the same load.
+ */
+public final class CaCrlGeneration {
+
+	/**
+	 * generation.
+	 */
+	private final long generation;
+
+	/**
+	 * service.
+	 */
+	private final ICACRLService service;
+
+	/**
+	 * cacrlWrapper.
+	 */
+	private final CACRLWrapper cacrlWrapper;
+
+	/**
+	 * Size of the CA and CRL bundles loaded, in bytes.
+	 */
+	private final long trustStoreSize;
+
+	/**
+	 * CaCrlGeneration.
+	 *
+	 * @param generation     the generation number, 0 before the first load
+	 * @param service        the loaded service
+	 * @param trustStoreSize the size of the CA and CRL bundles loaded, in bytes
+	 */
+	CaCrlGeneration(final long generation, final ICACRLService service, final long trustStoreSize) {
+		this.generation = generation;
+		this.service = service;
+		this.cacrlWrapper = service.getCacrlWrapper();
+		this.trustStoreSize = trustStoreSize;
+	}
+
+	/**
+	 * Gets the generation number.
+	 *
+	 * @return the generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Gets the service.
+	 *
+	 * @return the service
+	 */
+	public ICACRLService getService() {
+		return service;
+	}
+
+	/**
+	 * Gets the CA/CRL wrapper.
+	 *
+	 * @return the cacrl wrapper
+	 */
+	public CACRLWrapper getCacrlWrapper() {
+		return cacrlWrapper;
+	}
+
+	/**
+	 * Gets the size of the CA and CRL bundles loaded.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getTrustStoreSize() {
+		return trustStoreSize;
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of a load of the CAs and CRLs (see CaCrlServiceLoader).
+ */
+@Name("fr.gouv.esante.sign.CaCrlLoad")
+@Label("Chargement des AC et CRL")
+@Category({"eSignSante", "AC et CRL"})
+@Description("Chargement des AC et CRL et publication d'une génération")
+final class CaCrlLoadEvent extends jdk.jfr.Event {
+
+    /** The load : load, cache or refresh. */
+    @Label("Chargement")
+    String load;
+
+    /** The published generation, 0 when none is published. */
+    @Label("Génération")
+    long generation;
+
+    /** The size of the CA and CRL bundles loaded. */
+    @Label("Taille des bundles")
+    @DataAmount
+    long trustStoreSize;
+
+    /** The outcome : published, unchanged or error. */
+    @Label("Résultat")
+    String outcome;
+}
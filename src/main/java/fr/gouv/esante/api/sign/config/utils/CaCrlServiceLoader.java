@@ -5,6 +5,7 @@
 package fr.gouv.esante.api.sign.config.utils;
 
 import fr.gouv.esante.api.sign.service.ICACRLService;
+import fr.gouv.esante.api.sign.service.impl.CACRLServiceImpl;
 import fr.gouv.esante.api.sign.ws.bean.object.CaConf;
 
 import org.apache.commons.lang3.SystemUtils;
@@ -21,12 +22,18 @@ import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
  * Class CaCrlServiceLoader.
+ * Each load builds a new CA/CRL service off to the side and publishes it with a single atomic swap :
+ * the requests in flight keep the generation they started with. Each load is recorded as a JFR
+ * event (fr.gouv.esante.sign.CaCrlLoad), each CRL fetch too (fr.gouv.esante.sign.CrlFetch).
  */
 public class CaCrlServiceLoader {
 
@@ -35,6 +42,37 @@ public class CaCrlServiceLoader {
 	 */
 	private static Logger log = LoggerFactory.getLogger(CaCrlServiceLoader.class);
 
+	/**
+	 * CA/CRL generation sequence, incremented each time the CAs and CRLs have been loaded.
+	 */
+	private static final AtomicLong GENERATION = new AtomicLong();
+
+	/**
+	 * The published CA/CRL generation.
+	 */
+	private static final AtomicReference<CaCrlGeneration> CURRENT = new AtomicReference<>(
+			new CaCrlGeneration(0, new CACRLServiceImpl(), 0));
+
+	/**
+	 * Serializes the loads of the CA/CRL service.
+	 */
+	private static final Object LOCK = new Object();
+
+	/**
+	 * Outcome of a load that published a generation.
+	 */
+	private static final String PUBLISHED = "published";
+
+	/**
+	 * Outcome of a refresh without any changed CRL.
+	 */
+	private static final String UNCHANGED = "unchanged";
+
+	/**
+	 * Outcome of a failed load.
+	 */
+	private static final String ERROR = "error";
+
 	/**
 	 * private constructor to hide implicit public one.
 	 */
@@ -42,70 +80,203 @@ public class CaCrlServiceLoader {
 	}
 
 	/**
-	 * Load ca crl icacrl service.
+	 * Load ca crl.
 	 *
-	 * @param serviceCaCrl the service ca crl
-	 * @param listCaConf   the list ca conf
-	 * @return the icacrl service
+	 * @param listCaConf the list ca conf
+	 * @return the published generation
 	 * @throws IOException the io exception
 	 */
-	public static ICACRLService loadCaCrl(final ICACRLService serviceCaCrl, final List<CaConf> listCaConf)
-			throws IOException {
+	public static CaCrlGeneration loadCaCrl(final List<CaConf> listCaConf) throws IOException {
 		final List<String> certList = listCaConf.stream().map(CaConf::getCertificate).collect(Collectors.toList());
-		loadCa(serviceCaCrl, certList);
+		final List<String> crlList = listCaConf.stream().map(CaConf::getCrl).collect(Collectors.toList());
+		final CaCrlLoadEvent event = new CaCrlLoadEvent();
+		event.begin();
+		CaCrlGeneration generation = null;
+		try {
+			synchronized (LOCK) {
+				final ICACRLService serviceCaCrl = new CACRLServiceImpl();
+				final long size = loadCa(serviceCaCrl, certList) + loadCrl(serviceCaCrl, crlList);
+				generation = publish(serviceCaCrl, size);
+				return generation;
+			}
+		} finally {
+			commit(event, "load", generation, generation == null ? ERROR : PUBLISHED);
+		}
+	}
 
+	/**
+	 * Loads the CAs and the CRLs of the disk cache, without any download.
+	 *
+	 * @param listCaConf the list ca conf
+	 * @return true if CRLs have been found in the cache and loaded
+	 * @throws IOException the io exception
+	 */
+	public static boolean loadCaCrlFromCache(final List<CaConf> listCaConf) throws IOException {
+		if (!CRLDiskCache.isEnabled() || CRLLoader.loadDiskCache() == 0) {
+			return false;
+		}
+		final List<String> certList = listCaConf.stream().map(CaConf::getCertificate).collect(Collectors.toList());
 		final List<String> crlList = listCaConf.stream().map(CaConf::getCrl).collect(Collectors.toList());
-		loadCrl(serviceCaCrl, crlList);
-		return serviceCaCrl;
+		final CaCrlLoadEvent event = new CaCrlLoadEvent();
+		event.begin();
+		CaCrlGeneration generation = null;
+		try {
+			synchronized (LOCK) {
+				final ICACRLService serviceCaCrl = new CACRLServiceImpl();
+				final long size = loadCa(serviceCaCrl, certList) + loadCrlBundle(serviceCaCrl, new CRLLoader(crlList));
+				generation = publish(serviceCaCrl, size);
+			}
+		} finally {
+			commit(event, "cache", generation, generation == null ? ERROR : PUBLISHED);
+		}
+		return true;
 	}
 
-	private static void loadCrl(final ICACRLService serviceCaCrl, final List<String> crlList) throws IOException {
-		final File crlFile;
-		final var filePrefix = "ca-bundle";
-		final var fileSuffix = ".crl";
-		if (SystemUtils.IS_OS_UNIX) {
-			FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions
-					.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
-			crlFile = Files.createTempFile(filePrefix, fileSuffix, attr).toFile();
-		} else {
-			crlFile = Files.createTempFile(filePrefix, fileSuffix).toFile();
-			boolean readableSet = crlFile.setReadable(true, true);
-			boolean writableSet = crlFile.setWritable(true, true);
-			boolean executableSet = crlFile.setExecutable(true, true);
-			log.debug("readable set: " + readableSet + "; writable set: " + writableSet + "; executable set: "
-					+ executableSet);
+	/**
+	 * Downloads again some of the CRLs. The CRL bundle is rebuilt from the CRLs already
+	 * loaded for the other sources, and a new generation is only published if one of the
+	 * downloaded CRLs has changed.
+	 *
+	 * @param listCaConf the list ca conf
+	 * @param sources    the CRL sources to download
+	 * @return true if a new generation has been published
+	 * @throws IOException the io exception
+	 */
+	public static boolean refreshCrl(final List<CaConf> listCaConf, final Collection<String> sources)
+			throws IOException {
+		final List<String> certList = listCaConf.stream().map(CaConf::getCertificate).collect(Collectors.toList());
+		final List<String> crlList = listCaConf.stream().map(CaConf::getCrl).collect(Collectors.toList());
+		final CRLLoader crlLoader = new CRLLoader(crlList);
+		final CaCrlLoadEvent event = new CaCrlLoadEvent();
+		event.begin();
+		CaCrlGeneration generation = null;
+		String outcome = ERROR;
+		try {
+			if (!crlLoader.refresh(sources)) {
+				log.info("CRL inchangées : {}", sources);
+				outcome = UNCHANGED;
+				return false;
+			}
+			synchronized (LOCK) {
+				final ICACRLService serviceCaCrl = new CACRLServiceImpl();
+				final long size = loadCa(serviceCaCrl, certList) + loadCrlBundle(serviceCaCrl, crlLoader);
+				generation = publish(serviceCaCrl, size);
+			}
+			outcome = PUBLISHED;
+			return true;
+		} finally {
+			commit(event, "refresh", generation, outcome);
 		}
+	}
+
+	/**
+	 * Gets the published CA/CRL generation.
+	 *
+	 * @return the current generation
+	 */
+	public static CaCrlGeneration current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Gets the published CA/CRL generation number.
+	 *
+	 * @return the generation, 0 before the first load
+	 */
+	public static long getGeneration() {
+		return CURRENT.get().getGeneration();
+	}
+
+	/**
+	 * Publishes a fully loaded service as the new generation.
+	 *
+	 * @param serviceCaCrl   the service ca crl
+	 * @param trustStoreSize the size of the CA and CRL bundles loaded, in bytes
+	 * @return the published generation
+	 */
+	private static CaCrlGeneration publish(final ICACRLService serviceCaCrl, final long trustStoreSize) {
+		final CaCrlGeneration generation = new CaCrlGeneration(GENERATION.incrementAndGet(), serviceCaCrl,
+				trustStoreSize);
+		CURRENT.set(generation);
+		log.info("Génération {} des AC et CRL publiée", generation.getGeneration());
+		return generation;
+	}
+
+	/**
+	 * Commits the JFR event of a load.
+	 *
+	 * @param event      the event
+	 * @param load       the load : load, cache or refresh
+	 * @param generation the published generation, null if none
+	 * @param outcome    the outcome
+	 */
+	private static void commit(final CaCrlLoadEvent event, final String load, final CaCrlGeneration generation,
+			final String outcome) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.load = load;
+			event.generation = generation == null ? 0 : generation.getGeneration();
+			event.trustStoreSize = generation == null ? 0 : generation.getTrustStoreSize();
+			event.outcome = outcome;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Loads the last CRL known for each source, without any download.
+	 *
+	 * @param serviceCaCrl the service ca crl
+	 * @param crlLoader    the crl loader
+	 * @return the size of the bundle in bytes
+	 * @throws IOException the io exception
+	 */
+	private static long loadCrlBundle(final ICACRLService serviceCaCrl, final CRLLoader crlLoader)
+			throws IOException {
+		final File crlFile = createBundleFile(".crl");
+		crlLoader.writeCRLBundle(crlFile);
+		log.info("Chargement du bundle des CRL, chemin : {}", crlFile.getAbsolutePath());
+		serviceCaCrl.loadCRL(crlFile);
+		final long size = crlFile.length();
+		if (!crlFile.delete()) {
+			log.error("Le fichier {} n'a pas pu être supprimé", crlFile.getAbsolutePath());
+		}
+		return size;
+	}
+
+	/**
+	 * Downloads the CRLs and loads their bundle. When no CRL could be obtained, from its source or
+	 * within its grace period, nothing is loaded : a generation without revocation data is never
+	 * published.
+	 *
+	 * @param serviceCaCrl the service ca crl
+	 * @param crlList      the CRL sources
+	 * @return the size of the bundle in bytes
+	 * @throws IOException no CRL could be obtained, or the bundle could not be written
+	 */
+	private static long loadCrl(final ICACRLService serviceCaCrl, final List<String> crlList) throws IOException {
+		final File crlFile = createBundleFile(".crl");
 
 		final CRLLoader crlLoader = new CRLLoader(crlList);
 		try {
 			crlLoader.buildCRLBundle(crlFile);
 		} catch (final GeneralSecurityException e) {
-			log.error(ExceptionUtils.getStackTrace(e));
+			if (!crlFile.delete()) {
+				log.error("Le fichier {} n'a pas pu être supprimé", crlFile.getAbsolutePath());
+			}
+			throw new IOException("Unable to load any CRL", e);
 		}
 		log.info("Chargement du bundle des CRL, chemin : {}", crlFile.getAbsolutePath());
 		serviceCaCrl.loadCRL(crlFile); // On télécharge les CRLs puis on contruit un bundle qui contient toutes les
 										// CRLs
+		final long size = crlFile.length();
 		if (!crlFile.delete()) {
 			log.error("Le fichier {} n'a pas pu être supprimé", crlFile.getAbsolutePath());
 		}
+		return size;
 	}
 
-	private static void loadCa(final ICACRLService serviceCaCrl, final List<String> certList) throws IOException {
-		final File caFile;
-		final var filePrefix = "ca-bundle";
-		final var fileSuffix = ".crt";
-		if (SystemUtils.IS_OS_UNIX) {
-			FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions
-					.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
-			caFile = Files.createTempFile(filePrefix, fileSuffix, attr).toFile();
-		} else {
-			caFile = Files.createTempFile(filePrefix, fileSuffix).toFile();
-			boolean readableSet = caFile.setReadable(true, true);
-			boolean writableSet = caFile.setWritable(true, true);
-			boolean executableSet = caFile.setExecutable(true, true);
-			log.debug("readable set: " + readableSet + "; writable set: " + writableSet + "; executable set: "
-					+ executableSet);
-		}
+	private static long loadCa(final ICACRLService serviceCaCrl, final List<String> certList) throws IOException {
+		final File caFile = createBundleFile(".crt");
 		try (final BufferedWriter writer = new BufferedWriter(new FileWriter(caFile))) {
 			for (final String cert : certList) {
 				writer.write(cert); // On contruit un bundle qui contient tout les CAs
@@ -116,9 +287,36 @@ public class CaCrlServiceLoader {
 			log.error(ExceptionUtils.getStackTrace(e));
 		}
 		serviceCaCrl.loadCA(caFile);
+		final long size = caFile.length();
 		if (!caFile.delete()) {
 			log.error("Le fichier {} n'a pas pu être supprimé", caFile.getAbsolutePath());
 		}
+		return size;
+	}
+
+	/**
+	 * Creates a temporary bundle file, readable by the owner only.
+	 *
+	 * @param fileSuffix the file suffix
+	 * @return the file
+	 * @throws IOException the io exception
+	 */
+	private static File createBundleFile(final String fileSuffix) throws IOException {
+		final File file;
+		final var filePrefix = "ca-bundle";
+		if (SystemUtils.IS_OS_UNIX) {
+			FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions
+					.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+			file = Files.createTempFile(filePrefix, fileSuffix, attr).toFile();
+		} else {
+			file = Files.createTempFile(filePrefix, fileSuffix).toFile();
+			boolean readableSet = file.setReadable(true, true);
+			boolean writableSet = file.setWritable(true, true);
+			boolean executableSet = file.setExecutable(true, true);
+			log.debug("readable set: " + readableSet + "; writable set: " + writableSet + "; executable set: "
+					+ executableSet);
+		}
+		return file;
 	}
 
 }
@@ -0,0 +1,34 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of the fetch of a CRL source, download and parse.
+ */
+@Name("fr.gouv.esante.sign.CrlFetch")
+@Label("Téléchargement de CRL")
+@Category({"eSignSante", "AC et CRL"})
+@Description("Téléchargement et lecture d'une source de CRL")
+final class CrlFetchEvent extends jdk.jfr.Event {
+
+    /** The source. */
+    @Label("Source")
+    String source;
+
+    /** The size of the CRL, 0 when not downloaded. */
+    @Label("Taille de la CRL")
+    @DataAmount
+    long size;
+
+    /** The outcome : success or error. */
+    @Label("Résultat")
+    String outcome;
+}
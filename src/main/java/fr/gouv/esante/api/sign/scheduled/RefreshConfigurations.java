@@ -5,8 +5,15 @@
 package fr.gouv.esante.api.sign.scheduled;
 
 import java.io.IOException;
-import java.util.Calendar;
+import java.security.cert.X509CRL;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -16,14 +23,16 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import fr.gouv.esante.api.sign.config.utils.CRLLoader;
 import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
-import fr.gouv.esante.api.sign.service.ICACRLService;
 import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
+import fr.gouv.esante.api.sign.ws.bean.object.CaConf;
 
 /**
  * The Class RefreshConfigurations.
- * On télécharge les CRL par défaut une fois toutes les 24 heures du moment du lancement de l'appli
- * Si config.crl.scheduling est renseigné, le rechargement suit l'expression cron.
+ * Par défaut chaque CRL est téléchargée à nouveau peu avant son nextUpdate
+ * (le premier chargement est lancé au démarrage en tâche de fond, cf. CACRLConfig).
+ * Si config.crl.scheduling est renseigné, le rechargement de toutes les CRL suit l'expression cron.
  */
 @Component
 //@ComponentScan("fr.gouv.esante.api.sign")
@@ -34,44 +43,108 @@ public class RefreshConfigurations {
      */
     Logger log = LoggerFactory.getLogger(RefreshConfigurations.class);
 
+    /** Maximum doubling of the retry delay. */
+    private static final int MAX_SHIFT = 16;
+
     /** The global conf. */
     @Autowired
     private IGlobalConf globalConf;
 
-    /** The cacrl service. */
-    @Autowired
-    private ICACRLService cacrlService;
-
     /** The cron configuration. */
     @Value("${config.crl.scheduling:}")
     private String cronConf;
 
+    /** Delay between the refresh of a CRL and its nextUpdate, in seconds. */
+    @Value("${config.crl.refresh.margin:3600}")
+    private long marginSeconds;
+
+    /** Maximum random advance of a refresh, in seconds. */
+    @Value("${config.crl.refresh.jitter:900}")
+    private long jitterSeconds;
+
+    /** Minimum delay before a CRL is downloaded again, in seconds. */
+    @Value("${config.crl.refresh.min-delay:300}")
+    private long minDelaySeconds;
+
+    /** Maximum delay between two attempts on a failing CRL source, in seconds. */
+    @Value("${config.crl.refresh.max-backoff:3600}")
+    private long maxBackoffSeconds;
+
+    /** Planned refresh date of each CRL source, in milliseconds. */
+    private final Map<String, Long> refreshAt = new ConcurrentHashMap<>();
+
     /**
      * Refresh crl.
      */
     @Scheduled(cron = "${config.crl.scheduling:-}")
     public void refreshCrl() {
         try {
-            CaCrlServiceLoader.loadCaCrl(cacrlService, globalConf.getCa());
+            CaCrlServiceLoader.loadCaCrl(globalConf.getCa());
         } catch (final IOException e) {
             log.error(ExceptionUtils.getStackTrace(e));
         }
     }
 
     /**
-     * Refresh crl fixed rate.
-     * 86400000 ms = 1 day
+     * Refresh the CRLs reaching their nextUpdate.
+     * A CRL is downloaded again config.crl.refresh.margin seconds before its nextUpdate, minus a random
+     * jitter so that the nodes do not all call the PKI at the same moment. Only the CRLs due are
+     * downloaded, and the CRLs are only reloaded in the service if one of them has changed.
      */
-    @Scheduled(fixedRate = 86400000)
-    public void refreshCrlDefault() {
-        if (cronConf == null || "".equals(cronConf)) {
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(new Date());
-            calendar.add(Calendar.MILLISECOND, 86400000);
-            log.info("Téléchargement des CRLs, prochain téléchargement à : {}", calendar.getTime());
-            refreshCrl();
-        } else {
-            log.info("Votre expression cron est : {}", cronConf);
+    @Scheduled(fixedDelayString = "${config.crl.refresh.check:60000}",
+            initialDelayString = "${config.crl.refresh.check:60000}")
+    public void refreshExpiringCrls() {
+        if (cronConf != null && !"".equals(cronConf) || CaCrlServiceLoader.getGeneration() == 0) {
+            return;
+        }
+        final List<CaConf> caConfs = globalConf.getCa();
+        final List<String> sources = caConfs.stream().map(CaConf::getCrl).distinct().collect(Collectors.toList());
+        refreshAt.keySet().retainAll(sources);
+        final long now = System.currentTimeMillis();
+        final List<String> due = sources.stream()
+                .filter(source -> refreshAt.computeIfAbsent(source, this::nextRefresh) <= now)
+                .collect(Collectors.toList());
+        if (due.isEmpty()) {
+            return;
+        }
+        log.info("Téléchargement des CRLs arrivant à échéance : {}", due);
+        try {
+            CaCrlServiceLoader.refreshCrl(caConfs, due);
+        } catch (final IOException e) {
+            log.error(ExceptionUtils.getStackTrace(e));
+        }
+        for (final String source : due) {
+            final long next = nextRefresh(source);
+            refreshAt.put(source, next);
+            log.debug("Prochain téléchargement de la CRL {} à : {}", source, new Date(next));
+        }
+    }
+
+    /**
+     * Next refresh date of a CRL source.
+     *
+     * @param source the CRL source
+     * @return the refresh date in milliseconds
+     */
+    private long nextRefresh(final String source) {
+        final long now = System.currentTimeMillis();
+        final long earliest = now + TimeUnit.SECONDS.toMillis(minDelaySeconds);
+        final int failures = CRLLoader.getFailureCount(source);
+        if (failures > 0) {
+            // Backoff : min-delay, doubled on each consecutive failure up to max-backoff
+            final long backoff = TimeUnit.SECONDS.toMillis(minDelaySeconds) << Math.min(failures - 1, MAX_SHIFT);
+            return now + Math.min(backoff, TimeUnit.SECONDS.toMillis(maxBackoffSeconds));
+        }
+        final Optional<X509CRL> crl = CRLLoader.getLastCrl(source);
+        if (crl.isEmpty()) {
+            return earliest;
+        }
+        final Date nextUpdate = crl.get().getNextUpdate();
+        if (nextUpdate == null) {
+            return now + TimeUnit.DAYS.toMillis(1);
         }
+        final long jitter = jitterSeconds > 0
+                ? ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toMillis(jitterSeconds) + 1) : 0;
+        return Math.max(earliest, nextUpdate.getTime() - TimeUnit.SECONDS.toMillis(marginSeconds) - jitter);
     }
 }
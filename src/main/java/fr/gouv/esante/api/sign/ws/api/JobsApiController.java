@@ -0,0 +1,87 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.api;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+
+import fr.gouv.esante.api.sign.ws.api.delegate.JobsApiDelegateImpl;
+import fr.gouv.esante.api.sign.ws.util.Job;
+
+/**
+ * Asynchronous jobs : a signature or validation operation is submitted with its path
+ * (operation=/signatures/padesbaselineb for instance) and its usual parameters, then its status is
+ * polled, or long-polled with attente, and its response downloaded once done.
+ */
+@RestController
+public class JobsApiController {
+
+    /** The jobs delegate. */
+    @Autowired
+    private JobsApiDelegateImpl delegate;
+
+    /**
+     * Submits a job.
+     *
+     * @param operation the path of the operation
+     * @param file      the file
+     * @param params    the parameters of the operation
+     * @return the response entity, 202 with the job and its Location
+     */
+    @PostMapping(value = "/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Job> submit(@RequestParam("operation") final String operation,
+            @RequestPart("file") final MultipartFile file,
+            @RequestParam final MultiValueMap<String, String> params) {
+        return delegate.submit(operation, params, file);
+    }
+
+    /**
+     * Status of a job.
+     *
+     * @param id      the id
+     * @param attente the wait in seconds for the job to be done
+     * @return the response entity
+     */
+    @GetMapping(value = "/jobs/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<Job>> status(@PathVariable("id") final String id,
+            @RequestParam(value = "attente", required = false) final Long attente) {
+        return delegate.status(id, attente);
+    }
+
+    /**
+     * Response of a job.
+     *
+     * @param id the id
+     * @return the response entity
+     */
+    @GetMapping(value = "/jobs/{id}/resultat")
+    public ResponseEntity<Resource> result(@PathVariable("id") final String id) {
+        return delegate.result(id);
+    }
+
+    /**
+     * Deletes a job.
+     *
+     * @param id the id
+     * @return the response entity
+     */
+    @DeleteMapping(value = "/jobs/{id}")
+    public ResponseEntity<Void> delete(@PathVariable("id") final String id) {
+        return delegate.delete(id);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.api;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import fr.gouv.esante.api.sign.ws.api.delegate.SignaturesApiDelegateImpl;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Batch signature : several documents signed with one configuration in one request. The response
+ * is NDJSON, one line per document in completion order :
+ * {"index":0,"nom":"doc.xml","statut":200,"rapport":{...}} where rapport is the report of the
+ * single-document operation, null when the document is in error.
+ */
+@RestController
+public class SignaturesBatchApiController {
+
+    /** The signatures delegate. */
+    @Autowired
+    private SignaturesApiDelegateImpl delegate;
+
+    /**
+     * Batch signature XMLDsig.
+     *
+     * @param idSignConf the id sign conf
+     * @param files      the files
+     * @param secret     the secret
+     * @param element    the element
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/xmldsig/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> signatureXMLdsigBatch(
+            @RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("files") final List<MultipartFile> files,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "element", required = false) final String element) {
+        return delegate.signatureBatch(ESignatureType.XMLDSIG, idSignConf, files, secret, null, element);
+    }
+
+    /**
+     * Batch signature xades.
+     *
+     * @param idSignConf the id sign conf
+     * @param files      the files
+     * @param secret     the secret
+     * @param signers    the signers
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/xadesbaselineb/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> signatureXadesBatch(
+            @RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("files") final List<MultipartFile> files,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "signers", required = false) final List<String> signers) {
+        return delegate.signatureBatch(ESignatureType.XADES, idSignConf, files, secret, signers, null);
+    }
+
+    /**
+     * Batch signature pades.
+     *
+     * @param idSignConf the id sign conf
+     * @param files      the files
+     * @param secret     the secret
+     * @param signers    the signers
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/padesbaselineb/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> signaturePadesBatch(
+            @RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("files") final List<MultipartFile> files,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "signers", required = false) final List<String> signers) {
+        return delegate.signatureBatch(ESignatureType.PADES, idSignConf, files, secret, signers, null);
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.api;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import fr.gouv.esante.api.sign.ws.api.delegate.SignaturesApiDelegateImpl;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Binary responses of the signature operations, on the same paths and parameters as the JSON ones.
+ * With Accept: multipart/mixed the response holds the JSON report (without docSigne nor preuve),
+ * then the raw signed document and, with proof, the raw proof. With Accept: application/octet-stream
+ * the body is the raw signed document and the report is in the X-ESignSante-Report header
+ * (Base64 JSON). No Base64 copy of the signed document is ever built.
+ */
+@RestController
+public class SignaturesBinaryApiController {
+
+    /** The signatures delegate. */
+    @Autowired
+    private SignaturesApiDelegateImpl delegate;
+
+    /**
+     * Signature XMLDsig.
+     *
+     * @param idSignConf the id sign conf
+     * @param file       the file
+     * @param secret     the secret
+     * @param element    the element
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/xmldsig", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = {MediaType.MULTIPART_MIXED_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<Object> signatureXMLdsig(@RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("file") final MultipartFile file,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "element", required = false) final String element) {
+        return delegate.signatureBinary(ESignatureType.XMLDSIG, idSignConf, file, secret, null, element);
+    }
+
+    /**
+     * Signature xades.
+     *
+     * @param idSignConf the id sign conf
+     * @param file       the file
+     * @param secret     the secret
+     * @param signers    the signers
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/xadesbaselineb", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = {MediaType.MULTIPART_MIXED_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<Object> signatureXades(@RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("file") final MultipartFile file,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "signers", required = false) final List<String> signers) {
+        return delegate.signatureBinary(ESignatureType.XADES, idSignConf, file, secret, signers, null);
+    }
+
+    /**
+     * Signature pades.
+     *
+     * @param idSignConf the id sign conf
+     * @param file       the file
+     * @param secret     the secret
+     * @param signers    the signers
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/padesbaselineb", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = {MediaType.MULTIPART_MIXED_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<Object> signaturePades(@RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("file") final MultipartFile file,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "signers", required = false) final List<String> signers) {
+        return delegate.signatureBinary(ESignatureType.PADES, idSignConf, file, secret, signers, null);
+    }
+
+    /**
+     * Signature XMLDsig with proof.
+     *
+     * @param idSignConf      the id sign conf
+     * @param file            the file
+     * @param idVerifSignConf the id verif sign conf
+     * @param requestId       the request id
+     * @param proofTag        the proof tag
+     * @param applicantId     the applicant id
+     * @param secret          the secret
+     * @param element         the element
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/xmldsigwithproof", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.MULTIPART_MIXED_VALUE)
+    public ResponseEntity<Object> signatureXMLdsigWithProof(@RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("file") final MultipartFile file,
+            @RequestParam(value = "idVerifSignConf", required = false) final Long idVerifSignConf,
+            @RequestParam(value = "requestId", required = false) final String requestId,
+            @RequestParam(value = "proofTag", required = false) final String proofTag,
+            @RequestParam(value = "applicantId", required = false) final String applicantId,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "element", required = false) final String element) {
+        return delegate.signatureWithProofBinary(ESignatureType.XMLDSIG, "/signatures/xmldsigwithproof",
+                idSignConf, file, idVerifSignConf, requestId, proofTag, applicantId, secret, null, element);
+    }
+
+    /**
+     * Signature xades with proof.
+     *
+     * @param idSignConf      the id sign conf
+     * @param file            the file
+     * @param idVerifSignConf the id verif sign conf
+     * @param requestId       the request id
+     * @param proofTag        the proof tag
+     * @param applicantId     the applicant id
+     * @param secret          the secret
+     * @param signers         the signers
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/xadesbaselinebwithproof", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.MULTIPART_MIXED_VALUE)
+    public ResponseEntity<Object> signatureXadesWithProof(@RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("file") final MultipartFile file,
+            @RequestParam(value = "idVerifSignConf", required = false) final Long idVerifSignConf,
+            @RequestParam(value = "requestId", required = false) final String requestId,
+            @RequestParam(value = "proofTag", required = false) final String proofTag,
+            @RequestParam(value = "applicantId", required = false) final String applicantId,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "signers", required = false) final List<String> signers) {
+        return delegate.signatureWithProofBinary(ESignatureType.XADES, "/signatures/xadesbaselinebwithproof",
+                idSignConf, file, idVerifSignConf, requestId, proofTag, applicantId, secret, signers, null);
+    }
+
+    /**
+     * Signature pades with proof.
+     *
+     * @param idSignConf      the id sign conf
+     * @param file            the file
+     * @param idVerifSignConf the id verif sign conf
+     * @param requestId       the request id
+     * @param proofTag        the proof tag
+     * @param applicantId     the applicant id
+     * @param secret          the secret
+     * @param signers         the signers
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/padesbaselinebwithproof", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.MULTIPART_MIXED_VALUE)
+    public ResponseEntity<Object> signaturePadesWithProof(@RequestParam("idSignConf") final Long idSignConf,
+            @RequestPart("file") final MultipartFile file,
+            @RequestParam(value = "idVerifSignConf", required = false) final Long idVerifSignConf,
+            @RequestParam(value = "requestId", required = false) final String requestId,
+            @RequestParam(value = "proofTag", required = false) final String proofTag,
+            @RequestParam(value = "applicantId", required = false) final String applicantId,
+            @RequestParam(value = "secret", required = false) final String secret,
+            @RequestParam(value = "signers", required = false) final List<String> signers) {
+        return delegate.signatureWithProofBinary(ESignatureType.PADES, "/signatures/padesbaselinebwithproof",
+                idSignConf, file, idVerifSignConf, requestId, proofTag, applicantId, secret, signers, null);
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.api;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import fr.gouv.esante.api.sign.ws.api.delegate.SignaturesApiDelegateImpl;
+import fr.gouv.esante.api.sign.ws.util.DigestSignatureReport;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Digest signature : the client sends only the digest of the data to sign (SHA-256, SHA-384 or
+ * SHA-512, in Base64) and embeds the returned signature itself, so that the request size does not
+ * depend on the document size. The response holds the signature in Base64 and the signing
+ * certificate chain.
+ */
+@RestController
+public class SignaturesDigestApiController {
+
+    /** The signatures delegate. */
+    @Autowired
+    private SignaturesApiDelegateImpl delegate;
+
+    /**
+     * Digest signature XMLDsig : raw signature value of the digest of the canonicalized SignedInfo.
+     *
+     * @param idSignConf      the id sign conf
+     * @param digest          the digest, in Base64
+     * @param digestAlgorithm the digest algorithm
+     * @param secret          the secret
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/xmldsig/digest",
+            consumes = {MediaType.MULTIPART_FORM_DATA_VALUE, MediaType.APPLICATION_FORM_URLENCODED_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DigestSignatureReport> signatureXMLdsigDigest(
+            @RequestParam("idSignConf") final Long idSignConf,
+            @RequestParam("digest") final String digest,
+            @RequestParam(value = "digestAlgorithm", required = false) final String digestAlgorithm,
+            @RequestParam(value = "secret", required = false) final String secret) {
+        return delegate.signatureDigest(ESignatureType.XMLDSIG, idSignConf, digest, digestAlgorithm, secret);
+    }
+
+    /**
+     * Digest signature pades : detached CMS of the digest of the byte range.
+     *
+     * @param idSignConf      the id sign conf
+     * @param digest          the digest, in Base64
+     * @param digestAlgorithm the digest algorithm
+     * @param secret          the secret
+     * @return the response entity
+     */
+    @PostMapping(value = "/signatures/padesbaselineb/digest",
+            consumes = {MediaType.MULTIPART_FORM_DATA_VALUE, MediaType.APPLICATION_FORM_URLENCODED_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DigestSignatureReport> signaturePadesDigest(
+            @RequestParam("idSignConf") final Long idSignConf,
+            @RequestParam("digest") final String digest,
+            @RequestParam(value = "digestAlgorithm", required = false) final String digestAlgorithm,
+            @RequestParam(value = "secret", required = false) final String secret) {
+        return delegate.signatureDigest(ESignatureType.PADES, idSignConf, digest, digestAlgorithm, secret);
+    }
+}
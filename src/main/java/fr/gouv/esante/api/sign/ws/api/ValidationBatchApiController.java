@@ -0,0 +1,127 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.api;
+
+import java.io.InputStream;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import fr.gouv.esante.api.sign.ws.api.delegate.ValidationApiDelegateImpl;
+import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+
+/**
+ * Batch signature validation : several documents validated with one configuration, against the
+ * same CAs and CRLs, in one request. The documents are multipart parts "files" or the entries of
+ * a zip archive sent as the body (Content-Type: application/zip, idVerifSignConf in the query).
+ * The response is NDJSON, one line per document in completion order :
+ * {"index":0,"nom":"doc.xml","statut":200,"rapport":{...}} where rapport is the report of the
+ * single-document operation, null when the document is in error.
+ */
+@RestController
+public class ValidationBatchApiController {
+
+    /** Zip archive media type. */
+    private static final String ZIP = "application/zip";
+
+    /** The validation delegate. */
+    @Autowired
+    private ValidationApiDelegateImpl delegate;
+
+    /**
+     * Batch validation of XMLDsig signatures, documents as multipart parts.
+     *
+     * @param idVerifSignConf the id verif sign conf
+     * @param files           the files
+     * @return the response entity
+     */
+    @PostMapping(value = "/validation/signatures/xmldsig/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> verifSignatureXMLdsigBatch(
+            @RequestParam("idVerifSignConf") final Long idVerifSignConf,
+            @RequestPart("files") final List<MultipartFile> files) {
+        return delegate.verifSignatureBatch(ESignatureType.XMLDSIG, idVerifSignConf, files);
+    }
+
+    /**
+     * Batch validation of XMLDsig signatures, documents as the entries of a zip archive.
+     *
+     * @param idVerifSignConf the id verif sign conf
+     * @param zip             the zip archive
+     * @return the response entity
+     */
+    @PostMapping(value = "/validation/signatures/xmldsig/batch", consumes = ZIP,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> verifSignatureXMLdsigBatchZip(
+            @RequestParam("idVerifSignConf") final Long idVerifSignConf, final InputStream zip) {
+        return delegate.verifSignatureBatchZip(ESignatureType.XMLDSIG, idVerifSignConf, zip);
+    }
+
+    /**
+     * Batch validation of xades signatures, documents as multipart parts.
+     *
+     * @param idVerifSignConf the id verif sign conf
+     * @param files           the files
+     * @return the response entity
+     */
+    @PostMapping(value = "/validation/signatures/xadesbaselineb/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> verifSignatureXadesBatch(
+            @RequestParam("idVerifSignConf") final Long idVerifSignConf,
+            @RequestPart("files") final List<MultipartFile> files) {
+        return delegate.verifSignatureBatch(ESignatureType.XADES, idVerifSignConf, files);
+    }
+
+    /**
+     * Batch validation of xades signatures, documents as the entries of a zip archive.
+     *
+     * @param idVerifSignConf the id verif sign conf
+     * @param zip             the zip archive
+     * @return the response entity
+     */
+    @PostMapping(value = "/validation/signatures/xadesbaselineb/batch", consumes = ZIP,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> verifSignatureXadesBatchZip(
+            @RequestParam("idVerifSignConf") final Long idVerifSignConf, final InputStream zip) {
+        return delegate.verifSignatureBatchZip(ESignatureType.XADES, idVerifSignConf, zip);
+    }
+
+    /**
+     * Batch validation of pades signatures, documents as multipart parts.
+     *
+     * @param idVerifSignConf the id verif sign conf
+     * @param files           the files
+     * @return the response entity
+     */
+    @PostMapping(value = "/validation/signatures/padesbaselineb/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> verifSignaturePadesBatch(
+            @RequestParam("idVerifSignConf") final Long idVerifSignConf,
+            @RequestPart("files") final List<MultipartFile> files) {
+        return delegate.verifSignatureBatch(ESignatureType.PADES, idVerifSignConf, files);
+    }
+
+    /**
+     * Batch validation of pades signatures, documents as the entries of a zip archive.
+     *
+     * @param idVerifSignConf the id verif sign conf
+     * @param zip             the zip archive
+     * @return the response entity
+     */
+    @PostMapping(value = "/validation/signatures/padesbaselineb/batch", consumes = ZIP,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> verifSignaturePadesBatchZip(
+            @RequestParam("idVerifSignConf") final Long idVerifSignConf, final InputStream zip) {
+        return delegate.verifSignatureBatchZip(ESignatureType.PADES, idVerifSignConf, zip);
+    }
+}
@@ -12,13 +12,18 @@ import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.context.request.ServletWebRequest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import fr.gouv.esante.api.sign.config.utils.CaCrlGeneration;
+import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
 import fr.gouv.esante.api.sign.utils.EsignsanteClientException;
+import fr.gouv.esante.api.sign.ws.util.RequestSnapshot;
+import fr.gouv.esante.api.sign.ws.util.WsVars;
 import fr.gouv.esante.api.sign.ws.model.OpenidToken;
 
 /**
@@ -53,9 +58,74 @@ public class ApiDelegate {
 	 * @return the accept header
 	 */
 	public Optional<String> getAcceptHeader() {
+		final RequestSnapshot snapshot = RequestSnapshot.current();
+		if (snapshot != null) {
+			return Optional.ofNullable(snapshot.getAccept());
+		}
 		return getRequest().map(r -> r.getHeader("Accept"));
 	}
 
+	/**
+	 * Gets the context path.
+	 *
+	 * @return the context path
+	 */
+	public Optional<String> getContextPath() {
+		final RequestSnapshot snapshot = RequestSnapshot.current();
+		if (snapshot != null) {
+			return Optional.ofNullable(snapshot.getContextPath());
+		}
+		return getRequest().map(NativeWebRequest::getContextPath);
+	}
+
+	/**
+	 * Copies the request, to run an operation on the operation pool. The CA/CRL generation is
+	 * pinned by the request first.
+	 *
+	 * @return the request snapshot
+	 */
+	public RequestSnapshot getRequestSnapshot() {
+		final RequestSnapshot snapshot = RequestSnapshot.current();
+		if (snapshot != null) {
+			return snapshot;
+		}
+		final CaCrlGeneration generation = getCaCrlGeneration();
+		final ServletRequestAttributes attrs = (ServletRequestAttributes) RequestContextHolder
+				.currentRequestAttributes();
+		return RequestSnapshot.of(attrs.getRequest(), generation);
+	}
+
+	/**
+	 * Gets the CA/CRL generation of the request.
+	 * The generation is pinned on the first call : every step of the request (signature, validation,
+	 * proof) then uses the same CAs and CRLs, whatever the reloads in the meantime. The generation
+	 * number is returned in the X-CaCrl-Generation response header.
+	 *
+	 * @return the CA/CRL generation
+	 */
+	public CaCrlGeneration getCaCrlGeneration() {
+		final RequestSnapshot snapshot = RequestSnapshot.current();
+		if (snapshot != null) {
+			return snapshot.getCaCrlGeneration();
+		}
+		final ServletRequestAttributes attrs = (ServletRequestAttributes) RequestContextHolder
+				.getRequestAttributes();
+		if (attrs == null) {
+			return CaCrlServiceLoader.current();
+		}
+		CaCrlGeneration pinned = (CaCrlGeneration) attrs.getAttribute(CaCrlGeneration.class.getName(),
+				RequestAttributes.SCOPE_REQUEST);
+		if (pinned == null) {
+			pinned = CaCrlServiceLoader.current();
+			attrs.setAttribute(CaCrlGeneration.class.getName(), pinned, RequestAttributes.SCOPE_REQUEST);
+			if (attrs.getResponse() != null) {
+				attrs.getResponse().setHeader(WsVars.HEADER_CACRL_GENERATION.getVar(),
+						String.valueOf(pinned.getGeneration()));
+			}
+		}
+		return pinned;
+	}
+
 	/**
 	 * Gets the OpenidToken header.
 	 *
@@ -64,7 +134,9 @@ public class ApiDelegate {
 	 */
 	public List<OpenidToken> parseOpenIdTokenHeader() throws EsignsanteClientException {
 		ObjectMapper objectMapper = new ObjectMapper();
-		Optional<String[]> arrayValues = getRequest().map(r -> r.getHeaderValues("X-OpenidToken"));
+		final RequestSnapshot snapshot = RequestSnapshot.current();
+		Optional<String[]> arrayValues = snapshot != null ? Optional.ofNullable(snapshot.getOpenIdTokens())
+				: getRequest().map(r -> r.getHeaderValues("X-OpenidToken"));
 		List<OpenidToken> openidTokens = new ArrayList<OpenidToken>();
 		if (arrayValues.isPresent()) {
 
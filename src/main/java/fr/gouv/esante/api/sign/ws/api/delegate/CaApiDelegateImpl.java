@@ -7,12 +7,10 @@ package fr.gouv.esante.api.sign.ws.api.delegate;
 import java.util.List;
 import java.util.Optional;
 
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
-import fr.gouv.esante.api.sign.service.ICACRLService;
 import fr.gouv.esante.api.sign.ws.api.CaApiDelegate;
 import fr.gouv.esante.api.sign.ws.util.WsVars;
 
@@ -22,10 +20,6 @@ import fr.gouv.esante.api.sign.ws.util.WsVars;
 @Service
 public class CaApiDelegateImpl extends ApiDelegate implements CaApiDelegate {
 
-    /** The cacrl service. */
-    @Autowired
-    private ICACRLService cacrlService;
-
     /**
      * Gets the ca.
      *
@@ -36,7 +30,7 @@ public class CaApiDelegateImpl extends ApiDelegate implements CaApiDelegate {
         final Optional<String> acceptHeader = getAcceptHeader();
         ResponseEntity<List<String>> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
         if (acceptHeader.isPresent() && acceptHeader.get().contains(WsVars.HEADER_TYPE.getVar())) {
-            re = new ResponseEntity<>(cacrlService.getCa(), HttpStatus.OK);
+            re = new ResponseEntity<>(getCaCrlGeneration().getService().getCa(), HttpStatus.OK);
         }
         return re;
     }
@@ -0,0 +1,328 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.api.delegate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+
+import fr.gouv.esante.api.sign.ws.bean.config.GlobalConfSnapshot;
+import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
+import fr.gouv.esante.api.sign.ws.util.FairQueue;
+import fr.gouv.esante.api.sign.ws.util.Job;
+import fr.gouv.esante.api.sign.ws.util.JobStore;
+import fr.gouv.esante.api.sign.ws.util.RequestSnapshot;
+import fr.gouv.esante.api.sign.ws.util.SpooledDocument;
+import fr.gouv.esante.api.sign.ws.util.SpooledMultipartFile;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * The Class JobsApiDelegateImpl.
+ * An asynchronous job runs one of the synchronous operations, named by its path, with the same
+ * parameters, on the same operation pool.
+ */
+@Service
+public class JobsApiDelegateImpl extends ApiDelegate {
+
+	/** The configuration id parameters. */
+	private static final List<String> ID_PARAMS = List.of("idSignConf", "idVerifSignConf", "idProofConf",
+			"idVerifCertConf");
+
+	/**
+	 * The log.
+	 */
+	Logger log = LoggerFactory.getLogger(JobsApiDelegateImpl.class);
+
+	/** The signatures delegate. */
+	@Autowired
+	private SignaturesApiDelegateImpl signatures;
+
+	/** The validation delegate. */
+	@Autowired
+	private ValidationApiDelegateImpl validation;
+
+	/** The jobs. */
+	@Autowired
+	private JobStore jobStore;
+
+	/** The global conf. */
+	@Autowired
+	private IGlobalConf globalConf;
+
+	/** Maximum wait of a status request, in seconds. */
+	@Value("${config.jobs.max-wait:30}")
+	private long maxWaitSeconds;
+
+	/** The operations, by path. */
+	private final Map<String, JobOperation> operations = new HashMap<>();
+
+	/**
+	 * Registers the operations.
+	 */
+	@PostConstruct
+	public void init() {
+		operations.put("/signatures/xmldsig", (p, ids, doc) -> signatures.signatureXMLdsig(
+				ids.get("idSignConf"), doc, p.getFirst("secret"), p.getFirst("element")));
+		operations.put("/signatures/xadesbaselineb", (p, ids, doc) -> signatures.signatureXades(
+				ids.get("idSignConf"), doc, p.getFirst("secret"), list(p, "signers")));
+		operations.put("/signatures/padesbaselineb", (p, ids, doc) -> signatures.signaturePades(
+				ids.get("idSignConf"), doc, p.getFirst("secret"), list(p, "signers")));
+		operations.put("/signatures/xmldsigwithproof", (p, ids, doc) -> signatures.signatureXMLdsigWithProof(
+				ids.get("idSignConf"), doc, ids.get("idVerifSignConf"), p.getFirst("requestId"),
+				p.getFirst("proofTag"), p.getFirst("applicantId"), p.getFirst("secret"), p.getFirst("element")));
+		operations.put("/signatures/xadesbaselinebwithproof", (p, ids, doc) -> signatures.signatureXadesWithProof(
+				ids.get("idSignConf"), doc, ids.get("idVerifSignConf"), p.getFirst("requestId"),
+				p.getFirst("proofTag"), p.getFirst("applicantId"), p.getFirst("secret"), list(p, "signers")));
+		operations.put("/signatures/padesbaselinebwithproof", (p, ids, doc) -> signatures.signaturePadesWithProof(
+				ids.get("idSignConf"), doc, ids.get("idVerifSignConf"), p.getFirst("requestId"),
+				p.getFirst("proofTag"), p.getFirst("applicantId"), p.getFirst("secret"), list(p, "signers")));
+		operations.put("/validation/signatures/xmldsig", (p, ids, doc) -> validation.verifSignatureXMLdsig(
+				ids.get("idVerifSignConf"), doc));
+		operations.put("/validation/signatures/xadesbaselineb", (p, ids, doc) -> validation.verifSignatureXades(
+				ids.get("idVerifSignConf"), doc));
+		operations.put("/validation/signatures/padesbaselineb", (p, ids, doc) -> validation.verifSignaturePades(
+				ids.get("idVerifSignConf"), doc));
+		operations.put("/validation/signatures/xmldsigwithproof", (p, ids, doc) -> validation
+				.verifSignatureXMLdsigWithProof(ids.get("idVerifSignConf"), doc, p.getFirst("requestId"),
+						p.getFirst("proofTag"), p.getFirst("applicantId"), ids.get("idProofConf")));
+		operations.put("/validation/signatures/xadesbaselinebwithproof", (p, ids, doc) -> validation
+				.verifSignatureXadesWithProof(ids.get("idVerifSignConf"), doc, p.getFirst("requestId"),
+						p.getFirst("proofTag"), p.getFirst("applicantId"), ids.get("idProofConf")));
+		operations.put("/validation/signatures/padesbaselinebwithproof", (p, ids, doc) -> validation
+				.verifSignaturePadesWithProof(ids.get("idVerifSignConf"), doc, p.getFirst("requestId"),
+						p.getFirst("proofTag"), p.getFirst("applicantId"), ids.get("idProofConf")));
+		operations.put("/validation/certificats", (p, ids, doc) -> validation.verifCertificat(
+				ids.get("idVerifCertConf"), doc));
+		operations.put("/validation/certificatswithproof", (p, ids, doc) -> validation.verifCertificatWithProof(
+				ids.get("idVerifCertConf"), doc, p.getFirst("requestId"), p.getFirst("proofTag"),
+				p.getFirst("applicantId"), ids.get("idProofConf")));
+	}
+
+	/**
+	 * Submits a job. The operation and its configuration ids are checked before the upload is
+	 * spooled, then the job waits for admission in the lane of its configuration, as the
+	 * synchronous call would.
+	 *
+	 * @param operation the path of the operation
+	 * @param params    the parameters of the operation
+	 * @param doc       the doc
+	 * @return the response entity, 202 with the job
+	 */
+	public ResponseEntity<Job> submit(final String operation, final MultiValueMap<String, String> params,
+			final MultipartFile doc) {
+		log.info("Soumission d'un job {}.", operation);
+		final JobOperation jobOperation = operations.get(operation);
+		if (jobOperation == null || doc == null) {
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+		final Map<String, Long> ids = new HashMap<>();
+		for (final String name : ID_PARAMS) {
+			final String value = params.getFirst(name);
+			if (value != null && !value.isEmpty()) {
+				final Optional<Long> id = GlobalConfSnapshot.parseId(value);
+				if (!id.isPresent()) {
+					log.error("Identifiant de configuration invalide : {}={}", name, value);
+					return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+				}
+				ids.put(name, id.get());
+			}
+		}
+		final GlobalConfSnapshot conf = globalConf.snapshot();
+		for (final Map.Entry<String, Long> id : ids.entrySet()) {
+			if (!exists(conf, id.getKey(), id.getValue())) {
+				log.error("Configuration {} {}", id.getKey(), HttpStatus.NOT_FOUND.getReasonPhrase());
+				return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+			}
+		}
+		final Optional<FairQueue.Lane> lane = lane(operation, ids, conf);
+		if (!lane.isPresent()) {
+			log.error("Identifiant de configuration absent pour le job {}", operation);
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+		final Optional<HttpServletRequest> request = getRequest()
+				.map(r -> r.getNativeRequest(HttpServletRequest.class));
+		if (!request.isPresent()) {
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+		// La requête se termine avant le job : le document est copié, la génération des AC/CRL
+		// sera épinglée au démarrage du job
+		final RequestSnapshot snapshot = RequestSnapshot.of(request.get(), null);
+		final SpooledDocument document;
+		try {
+			document = SpooledDocument.of(doc);
+		} catch (final IOException e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+		final MultipartFile spooled = new SpooledMultipartFile(doc, document);
+		try {
+			final Job job = jobStore.submit(operation, snapshot, lane.get(),
+					() -> jobOperation.run(params, ids, spooled), document);
+			return ResponseEntity.status(HttpStatus.ACCEPTED)
+					.header("Location", request.get().getContextPath() + "/jobs/" + job.getId()).body(job);
+		} catch (final RejectedExecutionException e) {
+			log.error("Pas de place dans le pool des opérations, job {} refusé", operation);
+			document.close();
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+	}
+
+	/**
+	 * Status of a job, returned when the job is done or after the wait.
+	 *
+	 * @param id      the id
+	 * @param attente the wait in seconds, bounded by config.jobs.max-wait, 0 or null to return at once
+	 * @return the deferred response entity
+	 */
+	public DeferredResult<ResponseEntity<Job>> status(final String id, final Long attente) {
+		final Optional<Job> job = jobStore.get(id);
+		final long wait = attente == null ? 0 : Math.max(0, Math.min(attente, maxWaitSeconds));
+		if (!job.isPresent() || wait == 0 || job.get().whenDone().isDone()) {
+			final DeferredResult<ResponseEntity<Job>> result = new DeferredResult<>();
+			result.setResult(job.map(ResponseEntity::ok).orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND)));
+			return result;
+		}
+		final DeferredResult<ResponseEntity<Job>> result = new DeferredResult<>(TimeUnit.SECONDS.toMillis(wait),
+				ResponseEntity.ok(job.get()));
+		job.get().whenDone().thenRun(() -> result.setResult(ResponseEntity.ok(job.get())));
+		return result;
+	}
+
+	/**
+	 * Response of a done job, with the status and content type of the operation.
+	 *
+	 * @param id the id
+	 * @return the response entity, 404 if unknown or expired, 409 if not done
+	 */
+	public ResponseEntity<Resource> result(final String id) {
+		final Optional<Job> job = jobStore.get(id);
+		if (!job.isPresent()) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		if (job.get().getStatut() != Job.Statut.TERMINE) {
+			return new ResponseEntity<>(HttpStatus.CONFLICT);
+		}
+		return jobStore.result(job.get())
+				.map(path -> ResponseEntity.status(job.get().getCodeRetour())
+						.contentType(MediaType.parseMediaType(job.get().getContentType()))
+						.<Resource>body(new FileSystemResource(path)))
+				.orElseGet(() -> ResponseEntity.status(job.get().getCodeRetour()).build());
+	}
+
+	/**
+	 * Deletes a job, cancelled if not done.
+	 *
+	 * @param id the id
+	 * @return the response entity, 204 or 404
+	 */
+	public ResponseEntity<Void> delete(final String id) {
+		return new ResponseEntity<>(jobStore.remove(id) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+	}
+
+	/**
+	 * Does the configuration of an id parameter exist.
+	 *
+	 * @param conf the configuration
+	 * @param name the name of the parameter
+	 * @param id   the id
+	 * @return true if the configuration exists
+	 */
+	private static boolean exists(final GlobalConfSnapshot conf, final String name, final Long id) {
+		switch (name) {
+		case "idSignConf":
+			return conf.getSignatureById(id).isPresent();
+		case "idVerifSignConf":
+			return conf.getSignatureVerificationById(id).isPresent();
+		case "idProofConf":
+			return conf.getProofById(id).isPresent();
+		default:
+			return conf.getCertificateVerificationById(id).isPresent();
+		}
+	}
+
+	/**
+	 * Lane of a job : the one of the synchronous call, from the configuration of the operation.
+	 *
+	 * @param operation the path of the operation
+	 * @param ids       the configuration ids
+	 * @param conf      the configuration
+	 * @return the lane, empty if the configuration id of the operation is absent
+	 */
+	private static Optional<FairQueue.Lane> lane(final String operation, final Map<String, Long> ids,
+			final GlobalConfSnapshot conf) {
+		if (operation.startsWith("/signatures/")) {
+			final Long id = ids.get("idSignConf");
+			return conf.getSignatureById(id).map(c -> FairQueue.Lane.of(SignaturesApiDelegateImpl.SIGN_LANE, id,
+					c.getMaxConcurrent(), c.getWeight()));
+		}
+		if (operation.startsWith("/validation/certificats")) {
+			final Long id = ids.get("idVerifCertConf");
+			return conf.getCertificateVerificationById(id).map(c -> FairQueue.Lane.of(
+					ValidationApiDelegateImpl.CERTIFICATE_LANE, id, c.getMaxConcurrent(), c.getWeight()));
+		}
+		final Long id = ids.get("idVerifSignConf");
+		return conf.getSignatureVerificationById(id).map(c -> FairQueue.Lane.of(
+				ValidationApiDelegateImpl.VALIDATE_LANE, id, c.getMaxConcurrent(), c.getWeight()));
+	}
+
+	/**
+	 * List parameter, repeated or comma separated.
+	 *
+	 * @param params the parameters
+	 * @param name   the name
+	 * @return the values, null if absent
+	 */
+	private static List<String> list(final MultiValueMap<String, String> params, final String name) {
+		final List<String> values = params.get(name);
+		if (values == null) {
+			return null;
+		}
+		final List<String> list = new ArrayList<>();
+		for (final String value : values) {
+			for (final String item : value.split(",")) {
+				list.add(item.trim());
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * An operation run as a job.
+	 */
+	@FunctionalInterface
+	private interface JobOperation {
+
+		/**
+		 * Runs the operation.
+		 *
+		 * @param params the parameters of the operation
+		 * @param ids    the configuration ids
+		 * @param doc    the doc
+		 * @return the response entity
+		 */
+		ResponseEntity<?> run(MultiValueMap<String, String> params, Map<String, Long> ids, MultipartFile doc);
+	}
+}
@@ -5,8 +5,11 @@
 package fr.gouv.esante.api.sign.ws.api.delegate;
 
 import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
@@ -18,10 +21,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.info.BuildProperties;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.context.request.NativeWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import fr.gouv.esante.api.sign.bean.errors.ErreurSignature;
 import fr.gouv.esante.api.sign.bean.metadata.MetaDatum;
@@ -31,8 +35,6 @@ import fr.gouv.esante.api.sign.bean.parameters.SignatureValidationParameters;
 import fr.gouv.esante.api.sign.bean.proof.OpenIdTokenBean;
 import fr.gouv.esante.api.sign.bean.rapports.RapportSignature;
 import fr.gouv.esante.api.sign.bean.rapports.RapportValidationSignature;
-import fr.gouv.esante.api.sign.enums.MetaDataType;
-import fr.gouv.esante.api.sign.service.ICACRLService;
 import fr.gouv.esante.api.sign.service.IProofGenerationService;
 import fr.gouv.esante.api.sign.service.ISignatureService;
 import fr.gouv.esante.api.sign.service.ISignatureValidationService;
@@ -42,6 +44,7 @@ import fr.gouv.esante.api.sign.utils.EsignsanteException;
 import fr.gouv.esante.api.sign.utils.EsignsanteParseException;
 import fr.gouv.esante.api.sign.utils.EsignsanteServerException;
 import fr.gouv.esante.api.sign.ws.api.SignaturesApiDelegate;
+import fr.gouv.esante.api.sign.ws.bean.config.GlobalConfSnapshot;
 import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
 import fr.gouv.esante.api.sign.ws.bean.object.ProofConf;
 import fr.gouv.esante.api.sign.ws.bean.object.SignVerifConf;
@@ -49,9 +52,24 @@ import fr.gouv.esante.api.sign.ws.bean.object.SignatureConf;
 import fr.gouv.esante.api.sign.ws.model.ESignSanteSignatureReport;
 import fr.gouv.esante.api.sign.ws.model.ESignSanteSignatureReportWithProof;
 import fr.gouv.esante.api.sign.ws.model.Erreur;
-import fr.gouv.esante.api.sign.ws.model.Metadata;
+import fr.gouv.esante.api.sign.ws.util.BatchExecutor;
+import fr.gouv.esante.api.sign.ws.util.BatchResult;
+import fr.gouv.esante.api.sign.ws.util.BinaryReports;
+import fr.gouv.esante.api.sign.ws.util.CertificateCheckCache;
+import fr.gouv.esante.api.sign.ws.util.DigestSignatureReport;
+import fr.gouv.esante.api.sign.ws.util.DigestSigner;
 import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+import fr.gouv.esante.api.sign.ws.util.FairQueue;
+import fr.gouv.esante.api.sign.ws.util.IdempotencyCache;
+import fr.gouv.esante.api.sign.ws.util.OperationExecutor;
+import fr.gouv.esante.api.sign.ws.util.PipelineMetrics;
+import fr.gouv.esante.api.sign.ws.util.PipelineStages;
+import fr.gouv.esante.api.sign.ws.util.PipelineStages.Stage;
+import fr.gouv.esante.api.sign.ws.util.RequestSnapshot;
+import fr.gouv.esante.api.sign.ws.util.SecretVerificationCache;
 import fr.gouv.esante.api.sign.ws.util.SignWsUtils;
+import fr.gouv.esante.api.sign.ws.util.SpooledDocument;
+import fr.gouv.esante.api.sign.ws.util.StreamingReports;
 import fr.gouv.esante.api.sign.ws.util.WsVars;
 
 /**
@@ -66,6 +84,9 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	/** Default ESignSante version. */
 	private static final Version DEFAULT_VERSION = new Version(MAJOR, 7, 11);
 
+	/** Lane of the signatures in the operation pool. */
+	static final String SIGN_LANE = "sign";
+
 	/**
 	 * The log.
 	 */
@@ -83,14 +104,38 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	@Autowired
 	private IProofGenerationService proofGenerationService;
 
-	/** The service ca crl. */
+	/** The signing certificate checks cache. */
 	@Autowired
-	private ICACRLService serviceCaCrl;
+	private CertificateCheckCache certificateChecks;
 
 	/** The global configurations. */
 	@Autowired
 	private IGlobalConf globalConf;
 
+	/** The secret verification cache. */
+	@Autowired
+	private SecretVerificationCache secretCache;
+
+	/** The batch pool. */
+	@Autowired
+	private BatchExecutor batchExecutor;
+
+	/** The operation pool. */
+	@Autowired
+	private OperationExecutor operations;
+
+	/** The digest signer. */
+	@Autowired
+	private DigestSigner digestSigner;
+
+	/** The idempotency cache of the operations with proof. */
+	@Autowired
+	private IdempotencyCache idempotency;
+
+	/** The stage metrics. */
+	@Autowired
+	private PipelineMetrics pipelineMetrics;
+
 	/** ESignSante Build Properties. */
 	@Autowired
 	private BuildProperties buildProperties;
@@ -111,42 +156,51 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	 * @param idVerifSignConf the id verif sign conf
 	 * @param proofParameters the proof parameters
 	 * @param type            the signature type
+	 * @param mediaType       the media type of the response, which must be accepted
+	 * @param response        the response builder
 	 * @return the response entity
 	 */
-	private ResponseEntity<ESignSanteSignatureReportWithProof> digitalSignatureWithProof(final String secret,
+	private <T> ResponseEntity<T> digitalSignatureWithProof(final String secret,
 			final Long idSignConf, final MultipartFile doc, final Long idVerifSignConf,
-			final ProofParameters proofParameters, final ESignatureType type, final List<String> signers, final String element) {
+			final ProofParameters proofParameters, final ESignatureType type, final List<String> signers,
+			final String element, final String mediaType, final ProofResponse<T> response) {
 		final Optional<String> acceptHeader = getAcceptHeader();
-		ResponseEntity<ESignSanteSignatureReportWithProof> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		ResponseEntity<T> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		final PipelineStages stages = pipelineMetrics.begin(type.name(), idSignConf);
 		// get configurations
-		final Optional<SignatureConf> signConf = globalConf.getSignatureById(idSignConf.toString());
-		final Optional<SignVerifConf> verifConf = globalConf.getSignatureVerificationById(idVerifSignConf.toString());
+		final long lookup = stages.start(Stage.CONFIG);
+		final GlobalConfSnapshot conf = globalConf.snapshot();
+		final Optional<SignatureConf> signConf = conf.getSignatureById(idSignConf);
+		final Optional<SignVerifConf> verifConf = conf.getSignatureVerificationById(idVerifSignConf);
+		stages.record(Stage.CONFIG, lookup);
 		if (!signConf.isPresent() || !verifConf.isPresent()) {
 			re = new ResponseEntity<>(HttpStatus.NOT_FOUND);
 			log.error("Configuration {}", HttpStatus.NOT_FOUND.getReasonPhrase());
 		} else {
-			final Optional<ProofConf> signProofConf = globalConf.getProofById(signConf.get().getIdProofConf());
-			if (acceptHeader.isPresent() && acceptHeader.get().contains(WsVars.HEADER_TYPE.getVar())) {
+			final Optional<ProofConf> signProofConf = GlobalConfSnapshot.parseId(signConf.get().getIdProofConf())
+					.flatMap(conf::getProofById);
+			if (acceptHeader.isPresent() && acceptHeader.get().contains(mediaType)) {
 				// this is redundant with current implementation, params are assured
 				if (signParamsMissing(idSignConf, doc, idVerifSignConf) || proofParamsMissing(proofParameters)) {
 					re = new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 				} else if (!signProofConf.isPresent()) {
 					re = new ResponseEntity<>(HttpStatus.NOT_FOUND);
 					log.error("Proof ID {}", HttpStatus.NOT_FOUND.getReasonPhrase());
-				} else if ("enable".equalsIgnoreCase(secretEnabled) && signConf.get().noSecretMatch(secret)) {
+				} else if (secretRejected(signConf.get(), secret)) {
 					re = new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
 					log.error(HttpStatus.UNAUTHORIZED.getReasonPhrase());
 				} else {
-					final SignatureParameters signParams = signConf.get().getSignParams();
-					if (element != null && !element.isEmpty()) { 	
-						signParams.setElementToSign(element);
-					} else {
-						signParams.setElementToSign(null);
-					}
-					signParams.setRoles(signers);
+					final SignatureParameters signParams = signConf.get().getSignParams(element, signers);
 					final SignatureValidationParameters signVerifParams = verifConf.get().getSignVerifParams();
 					final SignatureParameters signProofParams = signProofConf.get().getSignProofParams();
-					re = signWithProof(doc, proofParameters, type, signParams, signVerifParams, signProofParams);
+					final FairQueue.Lane lane = FairQueue.Lane.of(SIGN_LANE, idSignConf,
+							signConf.get().getMaxConcurrent(), signConf.get().getWeight());
+					re = idempotency.call(doc,
+							Arrays.asList(requestType, type, mediaType, idSignConf, idVerifSignConf, signers, element,
+									proofParameters.getRequestid(), proofParameters.getProofTag(),
+									proofParameters.getApplicantId()),
+							() -> operations.call(getRequestSnapshot(), lane, () -> signWithProof(doc, proofParameters,
+									type, signParams, signVerifParams, signProofParams, response)));
 				}
 			}
 		}
@@ -163,55 +217,58 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	 * @param signParams               the sign params
 	 * @param signValidationParameters the sign validation parameters
 	 * @param signProofParams          the sign proof params
+	 * @param response                 the response builder
 	 * @return the response entity
 	 */
-	private ResponseEntity<ESignSanteSignatureReportWithProof> signWithProof(final MultipartFile doc,
+	private <T> ResponseEntity<T> signWithProof(final MultipartFile doc,
 			final ProofParameters proofParameters, final ESignatureType type, final SignatureParameters signParams,
-			final SignatureValidationParameters signValidationParameters, final SignatureParameters signProofParams) {
-		ResponseEntity<ESignSanteSignatureReportWithProof> re;
+			final SignatureValidationParameters signValidationParameters, final SignatureParameters signProofParams,
+			final ProofResponse<T> response) {
+		ResponseEntity<T> re;
 		try {
+			final PipelineStages stages = PipelineStages.current();
 			// Contrôle du certificat de signature
-			HttpStatus status = SignWsUtils.checkCertificate(signParams, serviceCaCrl.getCacrlWrapper());
+			HttpStatus status = checkCertificate(signParams);
 			if (status != HttpStatus.CONTINUE) {
 				re = new ResponseEntity<>(status);
 			} else {
 				final RapportSignature rapportSignature;
 				final RapportValidationSignature rapportVerifSignature;
-				// Signature du document
+				// Signature du document, le document d'origine est libéré dès la signature faite
+				rapportSignature = signUpload(signParams, doc, type);
+				// Validation de la signature
+				long start = stages.start(Stage.VALIDATION);
 				if (ESignatureType.XADES.equals(type)) {
-					rapportSignature = signatureService.signXADESBaselineB(doc.getBytes(), signParams);
-					// Validation de la signature
 					rapportVerifSignature = signatureValidationService.validateXADESBaseLineBSignature(
-							rapportSignature.getDocSigne(), signValidationParameters, serviceCaCrl.getCacrlWrapper());
+							rapportSignature.getDocSigne(), signValidationParameters,
+							getCaCrlGeneration().getCacrlWrapper());
 				} else if (ESignatureType.PADES.equals(type)) {
-					rapportSignature = signatureService.signPADESBaselineB(doc.getBytes(), signParams);
-					// Validation de la signature
 					rapportVerifSignature = signatureValidationService.validatePADESBaseLineBSignature(
 							rapportSignature.getDocSigneBytes(), signValidationParameters,
-							serviceCaCrl.getCacrlWrapper());
+							getCaCrlGeneration().getCacrlWrapper());
 				} else {
-					rapportSignature = signatureService.signXMLDsig(doc.getBytes(), signParams);
-					// Validation de la signature
 					rapportVerifSignature = signatureValidationService.validateXMLDsigSignature(
-							rapportSignature.getDocSigne(), signValidationParameters, serviceCaCrl.getCacrlWrapper());
+							rapportSignature.getDocSigne(), signValidationParameters,
+							getCaCrlGeneration().getCacrlWrapper());
 				}
+				stages.record(Stage.VALIDATION, start);
 				// Géneration de la preuve
+				start = stages.start(Stage.PROOF);
 				final String proof = proofGenerationService.generateSignVerifProof(rapportVerifSignature,
-						proofParameters, serviceCaCrl.getCacrlWrapper());
+						proofParameters, getCaCrlGeneration().getCacrlWrapper());
+				stages.record(Stage.PROOF, start);
 				// Contrôle du certificat de signature de la preuve
-				status = SignWsUtils.checkCertificate(signProofParams, serviceCaCrl.getCacrlWrapper());
+				status = checkCertificate(signProofParams);
 				if (status != HttpStatus.CONTINUE) {
 					re = new ResponseEntity<>(status);
 				} else {
 					// Signature de la preuve
+					start = stages.start(Stage.PROOF_SIGN);
 					final RapportSignature rapportSignaturePreuve = signatureService.signXADESBaselineB(proof,
 							signProofParams);
+					stages.record(Stage.PROOF_SIGN, start);
 
-					final ESignSanteSignatureReportWithProof rapport = populateResultSignWithProof(
-							rapportVerifSignature.getListeErreurSignature(), rapportVerifSignature.getMetaData(),
-							rapportVerifSignature.isValide(), rapportSignature.getDocSigneBytes(),
-							rapportSignaturePreuve.getDocSigne());
-					re = new ResponseEntity<>(rapport, HttpStatus.OK);
+					re = response.build(rapportVerifSignature, rapportSignature, rapportSignaturePreuve.getDocSigne());
 				}
 			}
 		} catch (final EsignsanteClientException e1) {
@@ -258,15 +315,45 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	 * @return the string
 	 */
 	private String calledOperation(final String opName) {
-		final Optional<NativeWebRequest> request = getRequest();
+		final Optional<String> contextPath = getContextPath();
 		String operation = opName;
-		if (request.isPresent()) {
+		if (contextPath.isPresent()) {
 			// get called operation for proof generation
-			operation = request.get().getContextPath() + opName;
+			operation = contextPath.get() + opName;
 		}
 		return operation;
 	}
 
+	/**
+	 * Proof parameters of a request.
+	 *
+	 * @param requestId   the request id
+	 * @param proofTag    the proof tag
+	 * @param applicantId the applicant id
+	 * @param opName      the op name
+	 * @return the proof parameters
+	 * @throws EsignsanteClientException the X-OpenidToken header is not valid
+	 */
+	private ProofParameters proofParameters(final String requestId, final String proofTag,
+			final String applicantId, final String opName) throws EsignsanteClientException {
+		Version wsVersion = DEFAULT_VERSION;
+		try {
+			// get version object for proof generation
+			wsVersion = new Version(buildProperties.getVersion());
+		} catch (final ParseException e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+		}
+		final ProofParameters proofParameters = new ProofParameters(this.requestType, requestId, proofTag, applicantId,
+				calledOperation(opName), wsVersion);
+
+		// Remplissage de la liste des beans OpenId
+		final List<OpenIdTokenBean> tokens = SignWsUtils.convertOpenIdTokens(parseOpenIdTokenHeader());
+		if (!tokens.isEmpty()) {
+			proofParameters.setOpenidTokens(tokens);
+		}
+		return proofParameters;
+	}
+
 	/**
 	 * Signature XMldsig with proof.
 	 *
@@ -284,25 +371,11 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 			final MultipartFile doc, final Long idVerifSignConf, final String requestId, final String proofTag,
 			final String applicantId, final String secret, final String element) {
 		log.info("Signature XMLDsig avec preuve.");
-		Version wsVersion = DEFAULT_VERSION;
-		try {
-			// get version object for proof generation
-			wsVersion = new Version(buildProperties.getVersion());
-		} catch (final ParseException e) {
-			log.error(ExceptionUtils.getStackTrace(e));
-		}
-		final ProofParameters proofParameters = new ProofParameters(this.requestType, requestId, proofTag, applicantId,
-				calledOperation("/signatures/xmldsigwithproof"), wsVersion);
-
 		try {
-			// Remplissage de la liste des beans OpenId
-			List<OpenIdTokenBean> tokens;
-			tokens = SignWsUtils.convertOpenIdTokens(parseOpenIdTokenHeader());
-			if (!tokens.isEmpty()) {
-				proofParameters.setOpenidTokens(tokens);
-			}
+			final ProofParameters proofParameters = proofParameters(requestId, proofTag, applicantId,
+					"/signatures/xmldsigwithproof");
 			return digitalSignatureWithProof(secret, idSignConf, doc, idVerifSignConf, proofParameters,
-					ESignatureType.XMLDSIG, null, element);
+					ESignatureType.XMLDSIG, null, element, WsVars.HEADER_TYPE.getVar(), this::jsonReportWithProof);
 		} catch (EsignsanteClientException e) {
 			log.error(ExceptionUtils.getStackTrace(e));
 			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
@@ -326,26 +399,11 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 			final MultipartFile doc, final Long idVerifSignConf, final String requestId, final String proofTag,
 			final String applicantId, final String secret, List<String> signers) {
 		log.info("Signature XADES-Baseline-B avec preuve.");
-		Version wsVersion = DEFAULT_VERSION;
-		try {
-			// get version object for proof generation
-			wsVersion = new Version(buildProperties.getVersion());
-		} catch (final ParseException e) {
-			log.error(ExceptionUtils.getStackTrace(e));
-		}
-		final ProofParameters proofParameters = new ProofParameters(this.requestType, requestId, proofTag, applicantId,
-				calledOperation("/signatures/xadesbaselinebwithproof"), wsVersion);
-
-
 		try {
-			// Remplissage de la liste des beans OpenId
-			List<OpenIdTokenBean> tokens;
-			tokens = SignWsUtils.convertOpenIdTokens(parseOpenIdTokenHeader());
-			if (!tokens.isEmpty()) {
-				proofParameters.setOpenidTokens(tokens);
-			}
+			final ProofParameters proofParameters = proofParameters(requestId, proofTag, applicantId,
+					"/signatures/xadesbaselinebwithproof");
 			return digitalSignatureWithProof(secret, idSignConf, doc, idVerifSignConf, proofParameters,
-					ESignatureType.XADES, signers, null);
+					ESignatureType.XADES, signers, null, WsVars.HEADER_TYPE.getVar(), this::jsonReportWithProof);
 		} catch (EsignsanteClientException e) {
 			// Problème lors du traitement du Header X-openidToken
 			log.error(ExceptionUtils.getStackTrace(e));
@@ -370,25 +428,11 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 			final MultipartFile doc, final Long idVerifSignConf, final String requestId, final String proofTag,
 			final String applicantId, final String secret, List<String> signers) {
 		log.info("Signature PADES-Baseline-B avec preuve.");
-		Version wsVersion = DEFAULT_VERSION;
 		try {
-			// get version object for proof generation
-			wsVersion = new Version(buildProperties.getVersion());
-		} catch (final ParseException e) {
-			log.error(ExceptionUtils.getStackTrace(e));
-		}
-		final ProofParameters proofParameters = new ProofParameters(this.requestType, requestId, proofTag, applicantId,
-				calledOperation("/signatures/padesbaselinebwithproof"), wsVersion);
-
-		try {
-			// Remplissage de la liste des beans OpenId
-			List<OpenIdTokenBean> tokens;
-			tokens = SignWsUtils.convertOpenIdTokens(parseOpenIdTokenHeader());
-			if (!tokens.isEmpty()) {
-				proofParameters.setOpenidTokens(tokens);
-			}
+			final ProofParameters proofParameters = proofParameters(requestId, proofTag, applicantId,
+					"/signatures/padesbaselinebwithproof");
 			return digitalSignatureWithProof(secret, idSignConf, doc, idVerifSignConf, proofParameters,
-					ESignatureType.PADES, signers, null);
+					ESignatureType.PADES, signers, null, WsVars.HEADER_TYPE.getVar(), this::jsonReportWithProof);
 		} catch (EsignsanteClientException e) {
 			log.error(ExceptionUtils.getStackTrace(e));
 			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
@@ -402,30 +446,32 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	 * @param idSignConf the id sign conf
 	 * @param doc        the doc
 	 * @param type       the signature type
+	 * @param mediaType  the media type of the response, which must be accepted
+	 * @param response   the response builder
 	 * @return the response entity
 	 */
-	private ResponseEntity<ESignSanteSignatureReport> digitalSignature(final String secret, final Long idSignConf,
-			final MultipartFile doc, final ESignatureType type, final List<String> signers, final String element) {
+	private <T> ResponseEntity<T> digitalSignature(final String secret, final Long idSignConf,
+			final MultipartFile doc, final ESignatureType type, final List<String> signers, final String element,
+			final String mediaType, final SignResponse<T> response) {
 		final Optional<String> acceptHeader = getAcceptHeader();
-		ResponseEntity<ESignSanteSignatureReport> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		ResponseEntity<T> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
 		if (idSignConf != null && doc != null) {
-			final Optional<SignatureConf> signConf = globalConf.getSignatureById(idSignConf.toString());
-			if (acceptHeader.isPresent() && acceptHeader.get().contains(WsVars.HEADER_TYPE.getVar())) {
+			final PipelineStages stages = pipelineMetrics.begin(type.name(), idSignConf);
+			final long lookup = stages.start(Stage.CONFIG);
+			final Optional<SignatureConf> signConf = globalConf.snapshot().getSignatureById(idSignConf);
+			stages.record(Stage.CONFIG, lookup);
+			if (acceptHeader.isPresent() && acceptHeader.get().contains(mediaType)) {
 				if (!signConf.isPresent()) {
 					re = new ResponseEntity<>(HttpStatus.NOT_FOUND);
 					log.error("Configuration {}", HttpStatus.NOT_FOUND.getReasonPhrase());
-				} else if ("enable".equalsIgnoreCase(secretEnabled) && signConf.get().noSecretMatch(secret)) {
+				} else if (secretRejected(signConf.get(), secret)) {
 					re = new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
 					log.error(HttpStatus.UNAUTHORIZED.getReasonPhrase());
 				} else {
-					final SignatureParameters signParams = signConf.get().getSignParams();
-					if (element != null && !element.isEmpty()) { 	
-						signParams.setElementToSign(element);
-					} else {
-						signParams.setElementToSign(null);
-					}
-					signParams.setRoles(signers);
-					re = sign(signParams, doc, type);
+					final SignatureParameters signParams = signConf.get().getSignParams(element, signers);
+					final FairQueue.Lane lane = FairQueue.Lane.of(SIGN_LANE, idSignConf,
+							signConf.get().getMaxConcurrent(), signConf.get().getWeight());
+					re = operations.call(getRequestSnapshot(), lane, () -> sign(signParams, doc, type, response));
 				}
 			}
 		} else {
@@ -441,29 +487,20 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	 * @param signParams the signature parameters
 	 * @param doc        the doc
 	 * @param type       the signature type
+	 * @param response   the response builder
 	 * @return the response entity
 	 */
-	private ResponseEntity<ESignSanteSignatureReport> sign(final SignatureParameters signParams,
-			final MultipartFile doc, final ESignatureType type) {
-		ResponseEntity<ESignSanteSignatureReport> re;
+	private <T> ResponseEntity<T> sign(final SignatureParameters signParams,
+			final MultipartFile doc, final ESignatureType type, final SignResponse<T> response) {
+		ResponseEntity<T> re;
 		try {
 			// Contrôle du certificat de signature
-			final HttpStatus status = SignWsUtils.checkCertificate(signParams, serviceCaCrl.getCacrlWrapper());
+			final HttpStatus status = checkCertificate(signParams);
 			if (status != HttpStatus.CONTINUE) {
 				re = new ResponseEntity<>(status);
 			} else {
 				// Signature
-				final RapportSignature rapportSignature;
-				if (ESignatureType.XADES.equals(type)) {
-					rapportSignature = signatureService.signXADESBaselineB(doc.getBytes(), signParams);
-				} else if (ESignatureType.PADES.equals(type)) {
-					rapportSignature = signatureService.signPADESBaselineB(doc.getBytes(), signParams);
-				} else {
-					rapportSignature = signatureService.signXMLDsig(doc.getBytes(), signParams);
-				}
-				final ESignSanteSignatureReport rapport = populateResultSign(rapportSignature.getListeErreurSignature(),
-						rapportSignature.getDocSigneBytes());
-				re = new ResponseEntity<>(rapport, HttpStatus.OK);
+				re = response.build(signUpload(signParams, doc, type));
 			}
 		} catch (final EsignsanteParseException | EsignsanteClientException e2) {
 			log.error(ExceptionUtils.getStackTrace(e2));
@@ -478,6 +515,83 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 		return re;
 	}
 
+	/**
+	 * Checks the secret of a signature configuration, when the secrets are enabled.
+	 *
+	 * @param signConf the signature configuration
+	 * @param secret   the secret
+	 * @return true if the secret does not match
+	 */
+	private boolean secretRejected(final SignatureConf signConf, final String secret) {
+		final PipelineStages stages = PipelineStages.current();
+		final long start = stages.start(Stage.SECRET);
+		try {
+			return "enable".equalsIgnoreCase(secretEnabled) && secretCache.noSecretMatch(signConf, secret);
+		} finally {
+			stages.record(Stage.SECRET, start);
+		}
+	}
+
+	/**
+	 * Checks a signing certificate.
+	 *
+	 * @param signParams the signature parameters
+	 * @return CONTINUE if the certificate is usable, else the status of the response
+	 * @throws EsignsanteException the check failed
+	 */
+	private HttpStatus checkCertificate(final SignatureParameters signParams) throws EsignsanteException {
+		final PipelineStages stages = PipelineStages.current();
+		final long start = stages.start(Stage.CERTIFICATE);
+		final HttpStatus status = certificateChecks.checkCertificate(signParams, getCaCrlGeneration());
+		stages.record(Stage.CERTIFICATE, start);
+		return status;
+	}
+
+	/**
+	 * Signs an uploaded document, spooled to disk and released once signed.
+	 *
+	 * @param signParams the signature parameters
+	 * @param doc        the uploaded document
+	 * @param type       the signature type
+	 * @return the signature report
+	 * @throws IOException         Signals that an I/O exception has occurred.
+	 * @throws EsignsanteException the signature failed
+	 */
+	private RapportSignature signUpload(final SignatureParameters signParams, final MultipartFile doc,
+			final ESignatureType type) throws IOException, EsignsanteException {
+		final PipelineStages stages = PipelineStages.current();
+		long start = stages.start(Stage.MULTIPART);
+		try (SpooledDocument document = SpooledDocument.of(doc)) {
+			stages.documentSize(document.size());
+			stages.record(Stage.MULTIPART, start);
+			start = stages.start(Stage.SIGN);
+			final RapportSignature rapportSignature = signDocument(signParams, document, type);
+			stages.record(Stage.SIGN, start);
+			return rapportSignature;
+		}
+	}
+
+	/**
+	 * Signs a document.
+	 *
+	 * @param signParams the signature parameters
+	 * @param document   the document
+	 * @param type       the signature type
+	 * @return the signature report
+	 * @throws IOException         Signals that an I/O exception has occurred.
+	 * @throws EsignsanteException the signature failed
+	 */
+	private RapportSignature signDocument(final SignatureParameters signParams, final SpooledDocument document,
+			final ESignatureType type) throws IOException, EsignsanteException {
+		if (ESignatureType.XADES.equals(type)) {
+			return signatureService.signXADESBaselineB(document.getBytes(), signParams);
+		} else if (ESignatureType.PADES.equals(type)) {
+			return signatureService.signPADESBaselineB(document.getBytes(), signParams);
+		} else {
+			return signatureService.signXMLDsig(document.getBytes(), signParams);
+		}
+	}
+
 	/**
 	 * Signature XMLDsig.
 	 *
@@ -490,7 +604,8 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	public ResponseEntity<ESignSanteSignatureReport> signatureXMLdsig(final Long idSignConf, final MultipartFile doc,
 			final String secret, final String element) {
 		log.info("Signature XMLDsig.");
-		return digitalSignature(secret, idSignConf, doc, ESignatureType.XMLDSIG, null, element);
+		return digitalSignature(secret, idSignConf, doc, ESignatureType.XMLDSIG, null, element,
+				WsVars.HEADER_TYPE.getVar(), this::jsonReport);
 	}
 
 	/**
@@ -505,7 +620,8 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	public ResponseEntity<ESignSanteSignatureReport> signatureXades(final Long idSignConf, final MultipartFile doc,
 			final String secret, List<String> signers) {
 		log.info("Signature XADES-Baseline-B.");
-		return digitalSignature(secret, idSignConf, doc, ESignatureType.XADES, signers, null);
+		return digitalSignature(secret, idSignConf, doc, ESignatureType.XADES, signers, null,
+				WsVars.HEADER_TYPE.getVar(), this::jsonReport);
 	}
 
 	/**
@@ -520,20 +636,320 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	public ResponseEntity<ESignSanteSignatureReport> signaturePades(final Long idSignConf, final MultipartFile doc,
 			final String secret, List<String> signers) {
 		log.info("Signature PADES-Baseline-B.");
-		return digitalSignature(secret, idSignConf, doc, ESignatureType.PADES, signers, null);
+		return digitalSignature(secret, idSignConf, doc, ESignatureType.PADES, signers, null,
+				WsVars.HEADER_TYPE.getVar(), this::jsonReport);
+	}
+
+	/**
+	 * Signature with a binary response : multipart/mixed (report, signed document) or
+	 * application/octet-stream (signed document, report in the X-ESignSante-Report header).
+	 *
+	 * @param type       the signature type
+	 * @param idSignConf the id sign conf
+	 * @param doc        the doc
+	 * @param secret     the secret
+	 * @param signers    the signers
+	 * @param element    the element to sign
+	 * @return the response entity
+	 */
+	public ResponseEntity<Object> signatureBinary(final ESignatureType type, final Long idSignConf,
+			final MultipartFile doc, final String secret, final List<String> signers, final String element) {
+		log.info("Signature {} en réponse binaire.", type);
+		final String mediaType = BinaryReports.mediaType(getAcceptHeader().orElse(null));
+		return digitalSignature(secret, idSignConf, doc, type, signers, element, mediaType,
+				rapportSignature -> BinaryReports.response(mediaType,
+						populateResultSign(rapportSignature.getListeErreurSignature(), null),
+						rapportSignature.getDocSigneBytes(), null));
+	}
+
+	/**
+	 * Signature with proof with a multipart/mixed response : report, signed document and proof.
+	 *
+	 * @param type            the signature type
+	 * @param opName          the op name
+	 * @param idSignConf      the id sign conf
+	 * @param doc             the doc
+	 * @param idVerifSignConf the id verif sign conf
+	 * @param requestId       the request id
+	 * @param proofTag        the proof tag
+	 * @param applicantId     the applicant id
+	 * @param secret          the secret
+	 * @param signers         the signers
+	 * @param element         the element to sign
+	 * @return the response entity
+	 */
+	public ResponseEntity<Object> signatureWithProofBinary(final ESignatureType type, final String opName,
+			final Long idSignConf, final MultipartFile doc, final Long idVerifSignConf, final String requestId,
+			final String proofTag, final String applicantId, final String secret, final List<String> signers,
+			final String element) {
+		log.info("Signature {} avec preuve en réponse binaire.", type);
+		try {
+			final ProofParameters proofParameters = proofParameters(requestId, proofTag, applicantId, opName);
+			return digitalSignatureWithProof(secret, idSignConf, doc, idVerifSignConf, proofParameters, type,
+					signers, element, WsVars.HEADER_TYPE_MULTIPART.getVar(),
+					(rapportVerifSignature, rapportSignature, preuve) -> BinaryReports.response(
+							WsVars.HEADER_TYPE_MULTIPART.getVar(),
+							populateResultSignWithProof(rapportVerifSignature.getListeErreurSignature(),
+									rapportVerifSignature.getMetaData(), rapportVerifSignature.isValide(), null, null),
+							rapportSignature.getDocSigneBytes(), preuve));
+		} catch (EsignsanteClientException e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * Batch signature : the secret and the signing certificate are checked once, each document is
+	 * signed on the operation pool, admitted in the lane of the configuration, and each result is
+	 * streamed as an NDJSON line as soon as it is done, with its own status. A document in error does
+	 * not fail the batch.
+	 *
+	 * @param type       the signature type
+	 * @param idSignConf the id sign conf
+	 * @param docs       the docs
+	 * @param secret     the secret
+	 * @param signers    the signers
+	 * @param element    the element to sign
+	 * @return the response entity
+	 */
+	public ResponseEntity<StreamingResponseBody> signatureBatch(final ESignatureType type, final Long idSignConf,
+			final List<MultipartFile> docs, final String secret, final List<String> signers, final String element) {
+		log.info("Signature {} par lot de {} documents.", type, docs == null ? 0 : docs.size());
+		final Optional<String> acceptHeader = getAcceptHeader();
+		ResponseEntity<StreamingResponseBody> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		if (idSignConf == null || docs == null || docs.isEmpty()) {
+			re = new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		} else if (docs.size() > batchExecutor.getMaxDocuments()) {
+			re = new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+			log.error("Lot de {} documents, maximum {}", docs.size(), batchExecutor.getMaxDocuments());
+		} else if (acceptHeader.isPresent() && acceptHeader.get().contains(WsVars.HEADER_TYPE_NDJSON.getVar())) {
+			final Optional<SignatureConf> signConf = globalConf.snapshot().getSignatureById(idSignConf);
+			if (!signConf.isPresent()) {
+				re = new ResponseEntity<>(HttpStatus.NOT_FOUND);
+				log.error("Configuration {}", HttpStatus.NOT_FOUND.getReasonPhrase());
+			} else if (secretRejected(signConf.get(), secret)) {
+				re = new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+				log.error(HttpStatus.UNAUTHORIZED.getReasonPhrase());
+			} else {
+				final FairQueue.Lane lane = FairQueue.Lane.of(SIGN_LANE, idSignConf,
+						signConf.get().getMaxConcurrent(), signConf.get().getWeight());
+				re = signBatch(signConf.get().getSignParams(element, signers), lane, docs, type);
+			}
+		}
+		log.info("Code retour de la requête: "+re.getStatusCode().toString());
+		return re;
+	}
+
+	/**
+	 * Sign batch.
+	 *
+	 * @param signParams the signature parameters
+	 * @param lane       the lane of the configuration
+	 * @param docs       the docs
+	 * @param type       the signature type
+	 * @return the response entity
+	 */
+	private ResponseEntity<StreamingResponseBody> signBatch(final SignatureParameters signParams,
+			final FairQueue.Lane lane, final List<MultipartFile> docs, final ESignatureType type) {
+		// Contrôle du certificat de signature, une fois pour tout le lot
+		try {
+			final HttpStatus status = checkCertificate(signParams);
+			if (status != HttpStatus.CONTINUE) {
+				return new ResponseEntity<>(status);
+			}
+		} catch (final EsignsanteClientException e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+			return new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		} catch (final EsignsanteServerException e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		} catch (final EsignsanteException e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+		// Les documents sont copiés sur disque avant la fin de la requête, qui libère les uploads
+		final List<SpooledDocument> documents = new ArrayList<>(docs.size());
+		final List<String> noms = new ArrayList<>(docs.size());
+		try {
+			for (final MultipartFile doc : docs) {
+				documents.add(SpooledDocument.of(doc));
+				noms.add(doc.getOriginalFilename());
+			}
+		} catch (final IOException e) {
+			log.error(ExceptionUtils.getStackTrace(e));
+			documents.forEach(SpooledDocument::close);
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+		final RequestSnapshot snapshot = getRequestSnapshot();
+		final StreamingResponseBody body = out -> {
+			try {
+				batchExecutor.stream(snapshot, lane, noms,
+						(index, nom) -> signBatchDocument(index, nom, documents.get(index), signParams, type), out);
+			} finally {
+				documents.forEach(SpooledDocument::close);
+			}
+		};
+		return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_NDJSON).body(body);
+	}
+
+	/**
+	 * Signs a document of a batch. Errors are reported in the result, never thrown.
+	 *
+	 * @param index      the index of the document
+	 * @param nom        the name of the document
+	 * @param document   the document, closed once signed
+	 * @param signParams the signature parameters
+	 * @param type       the signature type
+	 * @return the batch result
+	 */
+	private BatchResult signBatchDocument(final int index, final String nom, final SpooledDocument document,
+			final SignatureParameters signParams, final ESignatureType type) {
+		try (document) {
+			final RapportSignature rapportSignature = signDocument(signParams, document, type);
+			return new BatchResult(index, nom, HttpStatus.OK,
+					(StreamingReports.StreamedReport) populateResultSign(
+							rapportSignature.getListeErreurSignature(), rapportSignature.getDocSigneBytes()));
+		} catch (final EsignsanteParseException | EsignsanteClientException e) {
+			log.error("Document {} du lot : {}", index, ExceptionUtils.getStackTrace(e));
+			return new BatchResult(index, nom, HttpStatus.NOT_IMPLEMENTED, null);
+		} catch (final EsignsanteServerException e) {
+			log.error("Document {} du lot : {}", index, ExceptionUtils.getStackTrace(e));
+			return new BatchResult(index, nom, HttpStatus.SERVICE_UNAVAILABLE, null);
+		} catch (final IOException | EsignsanteException | RuntimeException e) {
+			log.error("Document {} du lot : {}", index, ExceptionUtils.getStackTrace(e));
+			return new BatchResult(index, nom, HttpStatus.INTERNAL_SERVER_ERROR, null);
+		}
+	}
+
+	/**
+	 * Digest signature : the client sends only the digest of the data to sign and gets back the
+	 * signature to embed, a detached CMS for PAdES (digest of the byte range) or the raw signature
+	 * value for XMLDsig (digest of the canonicalized SignedInfo). XAdES is not offered : its
+	 * SignedProperties must be signed too, which the client cannot build alone. The signing key is
+	 * the one of the signature configuration.
+	 *
+	 * @param type            the signature type
+	 * @param idSignConf      the id sign conf
+	 * @param digest          the digest, in Base64
+	 * @param digestAlgorithm the digest algorithm, null for the one of the configuration
+	 * @param secret          the secret
+	 * @return the response entity
+	 */
+	public ResponseEntity<DigestSignatureReport> signatureDigest(final ESignatureType type, final Long idSignConf,
+			final String digest, final String digestAlgorithm, final String secret) {
+		log.info("Signature {} d'empreinte.", type);
+		final Optional<String> acceptHeader = getAcceptHeader();
+		ResponseEntity<DigestSignatureReport> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		if (idSignConf == null || digest == null) {
+			re = new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		} else if (acceptHeader.isPresent() && acceptHeader.get().contains(WsVars.HEADER_TYPE.getVar())) {
+			final Optional<SignatureConf> signConf = globalConf.snapshot().getSignatureById(idSignConf);
+			if (!signConf.isPresent()) {
+				re = new ResponseEntity<>(HttpStatus.NOT_FOUND);
+				log.error("Configuration {}", HttpStatus.NOT_FOUND.getReasonPhrase());
+			} else if (secretRejected(signConf.get(), secret)) {
+				re = new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+				log.error(HttpStatus.UNAUTHORIZED.getReasonPhrase());
+			} else {
+				re = signDigest(signConf.get().getSignParams(), digest, digestAlgorithm, type);
+			}
+		}
+		log.info("Code retour de la requête: "+re.getStatusCode().toString());
+		return re;
+	}
+
+	/**
+	 * Sign digest.
+	 *
+	 * @param signParams      the signature parameters
+	 * @param digest          the digest, in Base64
+	 * @param digestAlgorithm the digest algorithm, null for the one of the configuration
+	 * @param type            the signature type
+	 * @return the response entity
+	 */
+	private ResponseEntity<DigestSignatureReport> signDigest(final SignatureParameters signParams,
+			final String digest, final String digestAlgorithm, final ESignatureType type) {
+		ResponseEntity<DigestSignatureReport> re;
+		try {
+			final DigestSigner.Algorithm algorithm = DigestSigner.algorithm(digestAlgorithm, signParams);
+			final byte[] digestBytes = Base64.getDecoder().decode(digest);
+			if (algorithm == null || !algorithm.matches(digestBytes)) {
+				log.error("Empreinte ou algorithme d'empreinte {} invalide", digestAlgorithm);
+				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+			}
+			// Contrôle du certificat de signature
+			final HttpStatus status = certificateChecks.checkCertificate(signParams, getCaCrlGeneration());
+			if (status != HttpStatus.CONTINUE) {
+				re = new ResponseEntity<>(status);
+			} else {
+				final byte[] signature = ESignatureType.PADES.equals(type)
+						? digestSigner.signCms(signParams, algorithm, digestBytes)
+						: digestSigner.signRaw(signParams, algorithm, digestBytes);
+				final List<String> certificats = new ArrayList<>();
+				for (final X509Certificate certificate : digestSigner.certificates(signParams)) {
+					certificats.add(Base64.getEncoder().encodeToString(certificate.getEncoded()));
+				}
+				final DigestSignatureReport rapport = new DigestSignatureReport();
+				rapport.setSignature(Base64.getEncoder().encodeToString(signature));
+				rapport.setAlgorithme(algorithm.getName());
+				rapport.setCertificats(certificats);
+				re = new ResponseEntity<>(rapport, HttpStatus.OK);
+			}
+		} catch (final IllegalArgumentException e2) {
+			log.error("Empreinte invalide : {}", e2.getMessage());
+			re = new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		} catch (final EsignsanteClientException e2) {
+			log.error(ExceptionUtils.getStackTrace(e2));
+			re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		} catch (final EsignsanteServerException e2) {
+			log.error(ExceptionUtils.getStackTrace(e2));
+			re = new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		} catch (final IOException | GeneralSecurityException | EsignsanteException e2) {
+			log.error(ExceptionUtils.getStackTrace(e2));
+			re = new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+		return re;
+	}
+
+	/**
+	 * JSON response of a signature.
+	 *
+	 * @param rapportSignature the signature report
+	 * @return the response entity
+	 */
+	private ResponseEntity<ESignSanteSignatureReport> jsonReport(final RapportSignature rapportSignature) {
+		final ESignSanteSignatureReport rapport = populateResultSign(rapportSignature.getListeErreurSignature(),
+				rapportSignature.getDocSigneBytes());
+		return new ResponseEntity<>(rapport, HttpStatus.OK);
+	}
+
+	/**
+	 * JSON response of a signature with proof.
+	 *
+	 * @param rapportVerifSignature the validation report of the signed document
+	 * @param rapportSignature      the signature report
+	 * @param preuve                the signed proof
+	 * @return the response entity
+	 */
+	private ResponseEntity<ESignSanteSignatureReportWithProof> jsonReportWithProof(
+			final RapportValidationSignature rapportVerifSignature, final RapportSignature rapportSignature,
+			final String preuve) {
+		final ESignSanteSignatureReportWithProof rapport = populateResultSignWithProof(
+				rapportVerifSignature.getListeErreurSignature(), rapportVerifSignature.getMetaData(),
+				rapportVerifSignature.isValide(), rapportSignature.getDocSigneBytes(), preuve);
+		return new ResponseEntity<>(rapport, HttpStatus.OK);
 	}
 
 	/**
 	 * Populate result sign.
 	 *
 	 * @param erreursSignature the erreurs signature
-	 * @param signedDocument   the signed document
+	 * @param signedDocument   the signed document, null for a binary response
 	 * @return the fr.gouv.esante.api.sign.ws.model. rapport signature
 	 */
 	private ESignSanteSignatureReport populateResultSign(final List<ErreurSignature> erreursSignature,
 			final byte[] signedDocument) {
-		final ESignSanteSignatureReport rapport = new ESignSanteSignatureReport();
-		rapport.setDocSigne(Base64.getEncoder().encodeToString(signedDocument));
+		final ESignSanteSignatureReport rapport = new StreamingReports.SignatureReport(signedDocument);
 		final List<Erreur> erreurs = new ArrayList<>();
 		for (final ErreurSignature erreurANS : erreursSignature) {
 			final Erreur erreur = new Erreur();
@@ -551,16 +967,14 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 	 * @param erreursSignature the erreurs signature
 	 * @param metadata         the metadata
 	 * @param isValide         the is valide
-	 * @param signedDocument   the signed document
-	 * @param preuve           the preuve
+	 * @param signedDocument   the signed document, null for a binary response
+	 * @param preuve           the preuve, null for a binary response
 	 * @return the rapport signature with proof
 	 */
 	private ESignSanteSignatureReportWithProof populateResultSignWithProof(final List<ErreurSignature> erreursSignature,
 			final List<MetaDatum> metadata, final boolean isValide, final byte[] signedDocument, final String preuve) {
-		final ESignSanteSignatureReportWithProof rapport = new ESignSanteSignatureReportWithProof();
-		rapport.setValide(isValide);
-		rapport.setDocSigne(Base64.getEncoder().encodeToString(signedDocument));
-		rapport.setPreuve(Base64.getEncoder().encodeToString(preuve.getBytes()));
+		final ESignSanteSignatureReportWithProof rapport = new StreamingReports.SignatureReportWithProof(isValide,
+				signedDocument, preuve);
 
 		final List<Erreur> erreurs = new ArrayList<>();
 		for (final ErreurSignature erreurANS : erreursSignature) {
@@ -570,20 +984,46 @@ public class SignaturesApiDelegateImpl extends ApiDelegate implements Signatures
 			erreurs.add(erreur);
 		}
 		rapport.setErreurs(erreurs);
-
-		final List<Metadata> metas = new ArrayList<>();
-		for (final MetaDatum metadatum : metadata) {
-			final Metadata meta = new Metadata();
-			meta.setTypeMetadata(metadatum.getType().getName());
-			if (metadatum.getType().equals(MetaDataType.RAPPORT_DIAGNOSTIQUE)
-					|| metadatum.getType().equals(MetaDataType.RAPPORT_DSS)) {
-				meta.setMessage(Base64.getEncoder().encodeToString(metadatum.getValue().getBytes()));
-			} else {
-				meta.setMessage(metadatum.getValue());
-			}
-			metas.add(meta);
-		}
-		rapport.setMetaData(metas);
+		rapport.setMetaData(StreamingReports.metadata(metadata));
 		return rapport;
 	}
+
+	/**
+	 * Builds the response of a signature.
+	 *
+	 * @param <T> the body type
+	 */
+	@FunctionalInterface
+	private interface SignResponse<T> {
+
+		/**
+		 * Builds the response.
+		 *
+		 * @param rapportSignature the signature report
+		 * @return the response entity
+		 * @throws IOException the report cannot be written
+		 */
+		ResponseEntity<T> build(RapportSignature rapportSignature) throws IOException;
+	}
+
+	/**
+	 * Builds the response of a signature with proof.
+	 *
+	 * @param <T> the body type
+	 */
+	@FunctionalInterface
+	private interface ProofResponse<T> {
+
+		/**
+		 * Builds the response.
+		 *
+		 * @param rapportVerifSignature the validation report of the signed document
+		 * @param rapportSignature      the signature report
+		 * @param preuve                the signed proof
+		 * @return the response entity
+		 * @throws IOException the report cannot be written
+		 */
+		ResponseEntity<T> build(RapportValidationSignature rapportVerifSignature, RapportSignature rapportSignature,
+				String preuve) throws IOException;
+	}
 }
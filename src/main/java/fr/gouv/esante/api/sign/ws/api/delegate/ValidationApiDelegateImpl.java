@@ -8,22 +8,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.mozilla.universalchardet.UniversalDetector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.info.BuildProperties;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.context.request.NativeWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import fr.gouv.esante.api.sign.bean.cacrl.CACRLWrapper;
 import fr.gouv.esante.api.sign.bean.errors.ErreurCertificat;
 import fr.gouv.esante.api.sign.bean.errors.ErreurSignature;
 import fr.gouv.esante.api.sign.bean.metadata.MetaDatum;
@@ -35,8 +38,7 @@ import fr.gouv.esante.api.sign.bean.proof.OpenIdTokenBean;
 import fr.gouv.esante.api.sign.bean.rapports.RapportSignature;
 import fr.gouv.esante.api.sign.bean.rapports.RapportValidationCertificat;
 import fr.gouv.esante.api.sign.bean.rapports.RapportValidationSignature;
-import fr.gouv.esante.api.sign.enums.MetaDataType;
-import fr.gouv.esante.api.sign.service.ICACRLService;
+import fr.gouv.esante.api.sign.config.utils.CaCrlGeneration;
 import fr.gouv.esante.api.sign.service.ICertificateValidationService;
 import fr.gouv.esante.api.sign.service.IProofGenerationService;
 import fr.gouv.esante.api.sign.service.ISignatureService;
@@ -47,6 +49,7 @@ import fr.gouv.esante.api.sign.utils.EsignsanteException;
 import fr.gouv.esante.api.sign.utils.EsignsanteParseException;
 import fr.gouv.esante.api.sign.utils.EsignsanteServerException;
 import fr.gouv.esante.api.sign.ws.api.ValidationApiDelegate;
+import fr.gouv.esante.api.sign.ws.bean.config.GlobalConfSnapshot;
 import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
 import fr.gouv.esante.api.sign.ws.bean.object.CertVerifConf;
 import fr.gouv.esante.api.sign.ws.bean.object.ProofConf;
@@ -54,9 +57,21 @@ import fr.gouv.esante.api.sign.ws.bean.object.SignVerifConf;
 import fr.gouv.esante.api.sign.ws.model.ESignSanteValidationReport;
 import fr.gouv.esante.api.sign.ws.model.ESignSanteValidationReportWithProof;
 import fr.gouv.esante.api.sign.ws.model.Erreur;
-import fr.gouv.esante.api.sign.ws.model.Metadata;
+import fr.gouv.esante.api.sign.ws.util.BatchExecutor;
+import fr.gouv.esante.api.sign.ws.util.BatchResult;
+import fr.gouv.esante.api.sign.ws.util.CertificateCheckCache;
 import fr.gouv.esante.api.sign.ws.util.ESignatureType;
+import fr.gouv.esante.api.sign.ws.util.FairQueue;
+import fr.gouv.esante.api.sign.ws.util.IdempotencyCache;
+import fr.gouv.esante.api.sign.ws.util.OperationExecutor;
+import fr.gouv.esante.api.sign.ws.util.PipelineMetrics;
+import fr.gouv.esante.api.sign.ws.util.PipelineStages;
+import fr.gouv.esante.api.sign.ws.util.PipelineStages.Stage;
+import fr.gouv.esante.api.sign.ws.util.RequestSnapshot;
 import fr.gouv.esante.api.sign.ws.util.SignWsUtils;
+import fr.gouv.esante.api.sign.ws.util.SpooledDocument;
+import fr.gouv.esante.api.sign.ws.util.StreamingReports;
+import fr.gouv.esante.api.sign.ws.util.ValidationResultCache;
 import fr.gouv.esante.api.sign.ws.util.WsVars;
 
 /**
@@ -71,6 +86,15 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	/** Default ESignSante version. */
 	private static final Version DEFAULT_VERSION = new Version(MAJOR, 7, 11);
 
+	/** Lane of the signature validations in the operation pool. */
+	static final String VALIDATE_LANE = "validate";
+
+	/** Lane of the certificate validations in the operation pool. */
+	static final String CERTIFICATE_LANE = "certificate";
+
+	/** Type tag of the certificate validation stages. */
+	private static final String CERTIFICATE_TYPE = "CERTIFICAT";
+
 	/**
 	 * The log.
 	 */
@@ -92,14 +116,34 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	@Autowired
 	private IProofGenerationService proofGenerationService;
 
-	/** The service ca crl. */
+	/** The signing certificate checks cache. */
 	@Autowired
-	private ICACRLService serviceCaCrl;
+	private CertificateCheckCache certificateChecks;
 
 	/** The global configurations. */
 	@Autowired
 	private IGlobalConf globalConf;
 
+	/** The operation pool. */
+	@Autowired
+	private OperationExecutor operations;
+
+	/** The batch pool. */
+	@Autowired
+	private BatchExecutor batchExecutor;
+
+	/** The idempotency cache of the operations with proof. */
+	@Autowired
+	private IdempotencyCache idempotency;
+
+	/** The validation result cache. */
+	@Autowired
+	private ValidationResultCache validationResults;
+
+	/** The stage metrics. */
+	@Autowired
+	private PipelineMetrics pipelineMetrics;
+
 	/** ESignSante Build Properties. */
 	@Autowired
 	private BuildProperties buildProperties;
@@ -124,8 +168,12 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 		final Optional<String> acceptHeader = getAcceptHeader();
 		ResponseEntity<ESignSanteValidationReportWithProof> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
 
-		final Optional<SignVerifConf> verifConf = globalConf.getSignatureVerificationById(idVerifSignConf.toString());
-		final Optional<ProofConf> signProofConf = globalConf.getProofById(idProofConf.toString());
+		final PipelineStages stages = pipelineMetrics.begin(type.name(), idVerifSignConf);
+		final long lookup = stages.start(Stage.CONFIG);
+		final GlobalConfSnapshot conf = globalConf.snapshot();
+		final Optional<SignVerifConf> verifConf = conf.getSignatureVerificationById(idVerifSignConf);
+		final Optional<ProofConf> signProofConf = conf.getProofById(idProofConf);
+		stages.record(Stage.CONFIG, lookup);
 		if (!verifConf.isPresent() || !signProofConf.isPresent()) {
 			re = new ResponseEntity<>(HttpStatus.NOT_FOUND);
 			log.error("Configuration {}", HttpStatus.NOT_FOUND.getReasonPhrase());
@@ -136,7 +184,14 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 				} else {
 					final SignatureValidationParameters signVerifParams = verifConf.get().getSignVerifParams();
 					final SignatureParameters signProofParams = signProofConf.get().getSignProofParams();
-					re = validateWithProof(doc, proofParameters, type, signVerifParams, signProofParams);
+					final FairQueue.Lane lane = FairQueue.Lane.of(VALIDATE_LANE, idVerifSignConf,
+							verifConf.get().getMaxConcurrent(), verifConf.get().getWeight());
+					re = idempotency.call(doc,
+							Arrays.asList(verifSignRequestType, type, idVerifSignConf, idProofConf,
+									proofParameters.getRequestid(), proofParameters.getProofTag(),
+									proofParameters.getApplicantId()),
+							() -> operations.call(getRequestSnapshot(), lane, () -> validateWithProof(doc,
+									proofParameters, type, signVerifParams, signProofParams)));
 					log.info("Validate Digital Signature With Proof Generated : {}", HttpStatus.OK.getReasonPhrase());
 				}
 			}
@@ -145,7 +200,8 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	}
 
 	/**
-	 * Validate with Proof.
+	 * Validate with Proof. The proof attests a validation run now : the validation result cache is
+	 * bypassed.
 	 *
 	 * @param doc                      the doc
 	 * @param proofParameters          the proof parameters
@@ -159,21 +215,26 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 			final SignatureValidationParameters signValidationParameters, final SignatureParameters signProofParams) {
 		ResponseEntity<ESignSanteValidationReportWithProof> re;
 		try {
-			// Validation de la signature du document
+			// Validation de la signature du document, jamais lue dans le cache : la preuve l'atteste
 			final RapportValidationSignature rapportVerifSignANS = genSignVerifReport(doc, type,
-					signValidationParameters);
+					signValidationParameters, null);
 
 			// Génération de la preuve
+			final PipelineStages stages = PipelineStages.current();
+			long start = stages.start(Stage.PROOF);
 			final String proof = proofGenerationService.generateSignVerifProof(rapportVerifSignANS, proofParameters,
-					serviceCaCrl.getCacrlWrapper());
+					getCaCrlGeneration().getCacrlWrapper());
+			stages.record(Stage.PROOF, start);
 
 			// Contrôle du certificat de signature de la preuve
-			final HttpStatus status = SignWsUtils.checkCertificate(signProofParams, serviceCaCrl.getCacrlWrapper());
+			final HttpStatus status = checkCertificate(signProofParams);
 			if (status != HttpStatus.CONTINUE) {
 				re = new ResponseEntity<>(status);
 			} else {
 				// Signature de la preuve
+				start = stages.start(Stage.PROOF_SIGN);
 				final RapportSignature rapportSignProofANS = signatureService.signXADESBaselineB(proof, signProofParams);
+				stages.record(Stage.PROOF_SIGN, start);
 				final ESignSanteValidationReportWithProof rapport = populateResultSignWithProof(
 						rapportVerifSignANS.getListeErreurSignature(), rapportVerifSignANS.getMetaData(),
 						rapportVerifSignANS.isValide(), rapportSignProofANS.getDocSigne());
@@ -199,10 +260,10 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	 * @return the string
 	 */
 	private String calledOperation(final String opName) {
-		final Optional<NativeWebRequest> request = getRequest();
+		final Optional<String> contextPath = getContextPath();
 		String operation = opName;
-		if (request.isPresent()) {
-			operation = request.get().getContextPath() + opName;
+		if (contextPath.isPresent()) {
+			operation = contextPath.get() + opName;
 		}
 		return operation;
 	}
@@ -315,7 +376,11 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 		final Optional<String> acceptHeader = getAcceptHeader();
 		ResponseEntity<ESignSanteValidationReport> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
 
-		final Optional<SignVerifConf> verifConf = globalConf.getSignatureVerificationById(idVerifSignConf.toString());
+		final PipelineStages stages = pipelineMetrics.begin(type.name(), idVerifSignConf);
+		final long lookup = stages.start(Stage.CONFIG);
+		final GlobalConfSnapshot conf = globalConf.snapshot();
+		final Optional<SignVerifConf> verifConf = conf.getSignatureVerificationById(idVerifSignConf);
+		stages.record(Stage.CONFIG, lookup);
 
 		if (acceptHeader.isPresent() && acceptHeader.get().contains(WsVars.HEADER_TYPE.getVar())) {
 			if (doc == null) {
@@ -325,7 +390,10 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 				log.error("Configuration {}", HttpStatus.NOT_FOUND.getReasonPhrase());
 			} else {
 				final SignatureValidationParameters signVerifParams = verifConf.get().getSignVerifParams();
-				re = validate(doc, type, signVerifParams);
+				final String scope = ValidationResultCache.scope(idVerifSignConf, conf.getVersion());
+				final FairQueue.Lane lane = FairQueue.Lane.of(VALIDATE_LANE, idVerifSignConf,
+						verifConf.get().getMaxConcurrent(), verifConf.get().getWeight());
+				re = operations.call(getRequestSnapshot(), lane, () -> validate(doc, type, signVerifParams, scope));
 				log.info("Validate Digital Signature : {}", HttpStatus.OK.getReasonPhrase());
 			}
 		}
@@ -338,15 +406,16 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	 * @param doc                      the doc
 	 * @param type                     the signature type
 	 * @param signValidationParameters the sign validation parameters
+	 * @param scope                    the scope of the validation results
 	 * @return the response entity
 	 */
 	private ResponseEntity<ESignSanteValidationReport> validate(final MultipartFile doc, ESignatureType type,
-			final SignatureValidationParameters signValidationParameters) {
+			final SignatureValidationParameters signValidationParameters, final String scope) {
 		ResponseEntity<ESignSanteValidationReport> re;
 		try {
 			// Validation de la signature du document
 			final RapportValidationSignature rapportVerifSignANS = genSignVerifReport(doc, type,
-					signValidationParameters);
+					signValidationParameters, scope);
 			final ESignSanteValidationReport rapport = populateResultSign(rapportVerifSignANS.getListeErreurSignature(),
 					rapportVerifSignANS.getMetaData(), rapportVerifSignANS.isValide());
 
@@ -412,27 +481,208 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	 * @param doc                      original document
 	 * @param type                     Xades, Pades or D-sig
 	 * @param signValidationParameters signature validation parameters
+	 * @param scope                    the scope of the validation results, null to bypass the cache
 	 * @return RapportValidationSignature
 	 * @throws IOException         stream file exception
 	 * @throws EsignsanteException asipsign exception
 	 */
 	private RapportValidationSignature genSignVerifReport(final MultipartFile doc, ESignatureType type,
-			final SignatureValidationParameters signValidationParameters) throws IOException, EsignsanteException {
+			final SignatureValidationParameters signValidationParameters, final String scope)
+			throws IOException, EsignsanteException {
+
+		// Validation de la signature du document, ou rapport déjà produit pour ce document
+		final CaCrlGeneration caCrl = getCaCrlGeneration();
+		final PipelineStages stages = PipelineStages.current();
+		long start = stages.start(Stage.MULTIPART);
+		try (SpooledDocument document = SpooledDocument.of(doc)) {
+			stages.documentSize(document.size());
+			stages.record(Stage.MULTIPART, start);
+			start = stages.start(Stage.VALIDATION);
+			final RapportValidationSignature rapport = validationResults.signature(document, type, scope,
+					caCrl.getGeneration(),
+					() -> validateDocument(document, type, signValidationParameters, caCrl.getCacrlWrapper()));
+			stages.record(Stage.VALIDATION, start);
+			return rapport;
+		}
+	}
 
-		// Validation de la signature du document
-		final RapportValidationSignature rapportVerifSignANS;
+	/**
+	 * Validates the signature of a document.
+	 *
+	 * @param document                 the document
+	 * @param type                     Xades, Pades or D-sig
+	 * @param signValidationParameters signature validation parameters
+	 * @param cacrlWrapper             the CAs and CRLs
+	 * @return RapportValidationSignature
+	 * @throws IOException         stream file exception
+	 * @throws EsignsanteException asipsign exception
+	 */
+	private RapportValidationSignature validateDocument(final SpooledDocument document, final ESignatureType type,
+			final SignatureValidationParameters signValidationParameters, final CACRLWrapper cacrlWrapper)
+			throws IOException, EsignsanteException {
 		if (ESignatureType.XADES.equals(type)) {
-			rapportVerifSignANS = signatureValidationService.validateXADESBaseLineBSignature(doc.getBytes(),
-					signValidationParameters, serviceCaCrl.getCacrlWrapper());
+			return signatureValidationService.validateXADESBaseLineBSignature(document.getBytes(),
+					signValidationParameters, cacrlWrapper);
 		} else if (ESignatureType.PADES.equals(type)) {
-			rapportVerifSignANS = signatureValidationService.validatePADESBaseLineBSignature(doc.getBytes(),
-					signValidationParameters, serviceCaCrl.getCacrlWrapper());
+			return signatureValidationService.validatePADESBaseLineBSignature(document.getBytes(),
+					signValidationParameters, cacrlWrapper);
 		} else {
-			rapportVerifSignANS = signatureValidationService.validateXMLDsigSignature(doc.getBytes(),
-					signValidationParameters, serviceCaCrl.getCacrlWrapper());
+			return signatureValidationService.validateXMLDsigSignature(document.getBytes(),
+					signValidationParameters, cacrlWrapper);
 		}
+	}
 
-		return rapportVerifSignANS;
+	/**
+	 * Batch validation of the signature of documents uploaded as multipart parts.
+	 *
+	 * @param type            the signature type
+	 * @param idVerifSignConf the id verif sign conf
+	 * @param docs            the docs
+	 * @return the response entity
+	 */
+	public ResponseEntity<StreamingResponseBody> verifSignatureBatch(final ESignatureType type,
+			final Long idVerifSignConf, final List<MultipartFile> docs) {
+		log.info("Validation de signature {} par lot de {} documents.", type, docs == null ? 0 : docs.size());
+		if (docs == null || docs.isEmpty()) {
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+		if (docs.size() > batchExecutor.getMaxDocuments()) {
+			log.error("Lot de {} documents, maximum {}", docs.size(), batchExecutor.getMaxDocuments());
+			return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+		}
+		return validateBatch(type, idVerifSignConf, (noms, documents) -> {
+			for (final MultipartFile doc : docs) {
+				documents.add(SpooledDocument.of(doc));
+				noms.add(doc.getOriginalFilename());
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Batch validation of the signature of the documents of a zip archive, read as a stream.
+	 *
+	 * @param type            the signature type
+	 * @param idVerifSignConf the id verif sign conf
+	 * @param zip             the zip archive
+	 * @return the response entity
+	 */
+	public ResponseEntity<StreamingResponseBody> verifSignatureBatchZip(final ESignatureType type,
+			final Long idVerifSignConf, final InputStream zip) {
+		log.info("Validation de signature {} par lot (archive zip).", type);
+		return validateBatch(type, idVerifSignConf, (noms, documents) -> {
+			final ZipInputStream entries = new ZipInputStream(zip);
+			ZipEntry entry;
+			while ((entry = entries.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					if (documents.size() == batchExecutor.getMaxDocuments()) {
+						return false;
+					}
+					documents.add(SpooledDocument.of(entries, batchExecutor.getMaxDocumentSize()));
+					noms.add(entry.getName());
+				}
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Validate batch : the documents are spooled in the request thread, then validated on the
+	 * operation pool, each one admitted in the lane of the configuration, all of them against the
+	 * CA/CRL generation pinned by the request, and each result is streamed as an NDJSON line as soon
+	 * as it is done.
+	 *
+	 * @param type            the signature type
+	 * @param idVerifSignConf the id verif sign conf
+	 * @param spooler         spools the documents
+	 * @return the response entity
+	 */
+	private ResponseEntity<StreamingResponseBody> validateBatch(final ESignatureType type,
+			final Long idVerifSignConf, final Spooler spooler) {
+		final Optional<String> acceptHeader = getAcceptHeader();
+		ResponseEntity<StreamingResponseBody> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
+		final GlobalConfSnapshot conf = globalConf.snapshot();
+		final Optional<SignVerifConf> verifConf = conf.getSignatureVerificationById(idVerifSignConf);
+		if (acceptHeader.isPresent() && acceptHeader.get().contains(WsVars.HEADER_TYPE_NDJSON.getVar())) {
+			if (!verifConf.isPresent()) {
+				re = new ResponseEntity<>(HttpStatus.NOT_FOUND);
+				log.error("Configuration {}", HttpStatus.NOT_FOUND.getReasonPhrase());
+			} else {
+				final SignatureValidationParameters signVerifParams = verifConf.get().getSignVerifParams();
+				final CaCrlGeneration caCrl = getCaCrlGeneration();
+				final String scope = ValidationResultCache.scope(idVerifSignConf, conf.getVersion());
+				final List<String> noms = new ArrayList<>();
+				final List<SpooledDocument> documents = new ArrayList<>();
+				boolean spooled = false;
+				try {
+					if (!spooler.spool(noms, documents)) {
+						log.error("Lot de plus de {} documents", batchExecutor.getMaxDocuments());
+						re = new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+					} else if (documents.isEmpty()) {
+						re = new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+					} else {
+						spooled = true;
+					}
+				} catch (final IOException e) {
+					log.error(ExceptionUtils.getStackTrace(e));
+					re = new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+				} finally {
+					if (!spooled) {
+						documents.forEach(SpooledDocument::close);
+					}
+				}
+				if (spooled) {
+					final FairQueue.Lane lane = FairQueue.Lane.of(VALIDATE_LANE, idVerifSignConf,
+							verifConf.get().getMaxConcurrent(), verifConf.get().getWeight());
+					final RequestSnapshot snapshot = getRequestSnapshot();
+					final StreamingResponseBody body = out -> {
+						try {
+							batchExecutor.stream(snapshot, lane, noms, (index, nom) -> validateBatchDocument(index,
+									nom, documents.get(index), type, signVerifParams, caCrl, scope), out);
+						} finally {
+							documents.forEach(SpooledDocument::close);
+						}
+					};
+					re = ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_NDJSON).body(body);
+				}
+			}
+		}
+		log.info("Code retour de la requête: " + re.getStatusCode().toString());
+		return re;
+	}
+
+	/**
+	 * Validates a document of a batch. Errors are reported in the result, never thrown.
+	 *
+	 * @param index           the index of the document
+	 * @param nom             the name of the document
+	 * @param document        the document, closed once validated
+	 * @param type            the signature type
+	 * @param signVerifParams the sign verif params
+	 * @param caCrl           the CA/CRL generation pinned by the request
+	 * @param scope           the scope of the validation results
+	 * @return the batch result
+	 */
+	private BatchResult validateBatchDocument(final int index, final String nom, final SpooledDocument document,
+			final ESignatureType type, final SignatureValidationParameters signVerifParams,
+			final CaCrlGeneration caCrl, final String scope) {
+		try (document) {
+			final RapportValidationSignature rapportVerifSignANS = validationResults.signature(document, type, scope,
+					caCrl.getGeneration(),
+					() -> validateDocument(document, type, signVerifParams, caCrl.getCacrlWrapper()));
+			return new BatchResult(index, nom, HttpStatus.OK,
+					(StreamingReports.StreamedReport) populateResultSign(rapportVerifSignANS.getListeErreurSignature(),
+							rapportVerifSignANS.getMetaData(), rapportVerifSignANS.isValide()));
+		} catch (final EsignsanteClientException | EsignsanteParseException e) {
+			log.error("Document {} du lot : {}", index, ExceptionUtils.getStackTrace(e));
+			return new BatchResult(index, nom, HttpStatus.NOT_IMPLEMENTED, null);
+		} catch (final EsignsanteServerException e) {
+			log.error("Document {} du lot : {}", index, ExceptionUtils.getStackTrace(e));
+			return new BatchResult(index, nom, HttpStatus.SERVICE_UNAVAILABLE, null);
+		} catch (final IOException | EsignsanteException | RuntimeException e) {
+			log.error("Document {} du lot : {}", index, ExceptionUtils.getStackTrace(e));
+			return new BatchResult(index, nom, HttpStatus.INTERNAL_SERVER_ERROR, null);
+		}
 	}
 
 	/**
@@ -454,8 +704,12 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 		final Optional<String> acceptHeader = getAcceptHeader();
 		ResponseEntity<ESignSanteValidationReportWithProof> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
 
-		final Optional<CertVerifConf> verifConf = globalConf.getCertificateVerificationById(idVerifCertConf.toString());
-		final Optional<ProofConf> signProofConf = globalConf.getProofById(idProofConf.toString());
+		final PipelineStages stages = pipelineMetrics.begin(CERTIFICATE_TYPE, idVerifCertConf);
+		final long lookup = stages.start(Stage.CONFIG);
+		final GlobalConfSnapshot conf = globalConf.snapshot();
+		final Optional<CertVerifConf> verifConf = conf.getCertificateVerificationById(idVerifCertConf);
+		final Optional<ProofConf> signProofConf = conf.getProofById(idProofConf);
+		stages.record(Stage.CONFIG, lookup);
 
 		Version wsVersion = DEFAULT_VERSION;
 		try {
@@ -475,7 +729,13 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 			} else {
 				final CertificateValidationParameters certVerifParams = verifConf.get().getCertVerifParams();
 				final SignatureParameters signProofParams = signProofConf.get().getSignProofParams();
-				re = validateCertWithProof(doc, certVerifParams, signProofParams, proofParameters);
+				final FairQueue.Lane lane = FairQueue.Lane.of(CERTIFICATE_LANE, idVerifCertConf,
+						verifConf.get().getMaxConcurrent(), verifConf.get().getWeight());
+				re = idempotency.call(doc,
+						Arrays.asList(verifCertRequestType, idVerifCertConf, idProofConf, requestId, proofTag,
+								applicantId),
+						() -> operations.call(getRequestSnapshot(), lane,
+								() -> validateCertWithProof(doc, certVerifParams, signProofParams, proofParameters)));
 				log.info("Certificate Validation Done, Proof Generated : {}", HttpStatus.OK.getReasonPhrase());
 			}
 		}
@@ -494,7 +754,8 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	}
 
 	/**
-	 * Validate cert with proof.
+	 * Validate cert with proof. The proof attests a validation run now : the validation result cache
+	 * is bypassed.
 	 *
 	 * @param doc                      the doc
 	 * @param certValidationParameters the cert validation parameters
@@ -509,21 +770,27 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 		ResponseEntity<ESignSanteValidationReportWithProof> re;
 
 		try {
+			// Validation du certificat, jamais lue dans le cache : la preuve l'atteste
 			final RapportValidationCertificat rapportVerifCertANS = createRapportValidationCertificat(doc,
-					certValidationParameters);
+					certValidationParameters, null);
 
 			// Génération de la preuve
+			final PipelineStages stages = PipelineStages.current();
+			long start = stages.start(Stage.PROOF);
 			final String proof = proofGenerationService.generateCertVerifProof(rapportVerifCertANS, proofParameters,
-					serviceCaCrl.getCacrlWrapper());
+					getCaCrlGeneration().getCacrlWrapper());
+			stages.record(Stage.PROOF, start);
 
 			// Contrôle du certificat de signature de la preuve
-			final HttpStatus status = SignWsUtils.checkCertificate(signProofParams, serviceCaCrl.getCacrlWrapper());
+			final HttpStatus status = checkCertificate(signProofParams);
 			if (status != HttpStatus.CONTINUE) {
 				re = new ResponseEntity<>(status);
 			} else {
 				// Signature de la preuve
+				start = stages.start(Stage.PROOF_SIGN);
 				final RapportSignature rapportSignProofANS = signatureService.signXADESBaselineB(proof,
 						signProofParams);
+				stages.record(Stage.PROOF_SIGN, start);
 
 				final ESignSanteValidationReportWithProof rapport = populateResultVerifCertWithProof(
 						rapportVerifCertANS.getListeErreurCertificat(), rapportVerifCertANS.getMetaData(),
@@ -558,7 +825,11 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 		final Optional<String> acceptHeader = getAcceptHeader();
 		ResponseEntity<ESignSanteValidationReport> re = new ResponseEntity<>(HttpStatus.NOT_IMPLEMENTED);
 
-		final Optional<CertVerifConf> verifConf = globalConf.getCertificateVerificationById(idVerifCertConf.toString());
+		final PipelineStages stages = pipelineMetrics.begin(CERTIFICATE_TYPE, idVerifCertConf);
+		final long lookup = stages.start(Stage.CONFIG);
+		final GlobalConfSnapshot conf = globalConf.snapshot();
+		final Optional<CertVerifConf> verifConf = conf.getCertificateVerificationById(idVerifCertConf);
+		stages.record(Stage.CONFIG, lookup);
 
 		if (acceptHeader.isPresent() && acceptHeader.get().contains(WsVars.HEADER_TYPE.getVar())) {
 			if (doc == null) {
@@ -568,7 +839,10 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 				log.error("Certificate Validation Configuration {}", HttpStatus.NOT_FOUND.getReasonPhrase());
 			} else {
 				final CertificateValidationParameters certVerifParams = verifConf.get().getCertVerifParams();
-				re = validateCert(doc, certVerifParams);
+				final String scope = ValidationResultCache.scope(idVerifCertConf, conf.getVersion());
+				final FairQueue.Lane lane = FairQueue.Lane.of(CERTIFICATE_LANE, idVerifCertConf,
+						verifConf.get().getMaxConcurrent(), verifConf.get().getWeight());
+				re = operations.call(getRequestSnapshot(), lane, () -> validateCert(doc, certVerifParams, scope));
 				log.info("Certificate Validation Done : {}", HttpStatus.OK.getReasonPhrase());
 			}
 		}
@@ -580,16 +854,17 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	 *
 	 * @param doc                      the doc
 	 * @param certValidationParameters the cert validation parameters
+	 * @param scope                    the scope of the validation results
 	 * @return the response entity
 	 */
 	private ResponseEntity<ESignSanteValidationReport> validateCert(final MultipartFile doc,
-			final CertificateValidationParameters certValidationParameters) {
+			final CertificateValidationParameters certValidationParameters, final String scope) {
 
 		ResponseEntity<ESignSanteValidationReport> re;
 
 		try {
 			final RapportValidationCertificat rapportVerifCertANS = createRapportValidationCertificat(doc,
-					certValidationParameters);
+					certValidationParameters, scope);
 
 			final ESignSanteValidationReport rapport = populateResultVerifCert(
 					rapportVerifCertANS.getListeErreurCertificat(), rapportVerifCertANS.getMetaData(),
@@ -615,25 +890,50 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	 * 
 	 * @param doc                      original document
 	 * @param certValidationParameters certificate validation paramters
+	 * @param scope                    the scope of the validation results, null to bypass the cache
 	 * @return RapportValidationCertificat
 	 * @throws EsignsanteException asipsign exception
 	 * @throws IOException         stream file exception
 	 */
 	private RapportValidationCertificat createRapportValidationCertificat(final MultipartFile doc,
-			final CertificateValidationParameters certValidationParameters) throws EsignsanteException, IOException {
-
-		final RapportValidationCertificat rapportVerifCertANS;
-
-		if (isBinaryFile(doc)) {
-			rapportVerifCertANS = certificateValidationService.validateCertificat(doc.getBytes(),
-					certValidationParameters, serviceCaCrl.getCacrlWrapper());
-		} else {
-			final String docString = new String(doc.getBytes(), UniversalDetector.detectCharset(doc.getInputStream()));
-			rapportVerifCertANS = certificateValidationService.validateCertificat(docString, certValidationParameters,
-					serviceCaCrl.getCacrlWrapper());
+			final CertificateValidationParameters certValidationParameters, final String scope)
+			throws EsignsanteException, IOException {
+
+		final CaCrlGeneration caCrl = getCaCrlGeneration();
+		final PipelineStages stages = PipelineStages.current();
+		long start = stages.start(Stage.MULTIPART);
+		try (SpooledDocument document = SpooledDocument.of(doc)) {
+			stages.documentSize(document.size());
+			stages.record(Stage.MULTIPART, start);
+			start = stages.start(Stage.VALIDATION);
+			final RapportValidationCertificat rapport = validationResults.certificate(document, scope,
+					caCrl.getGeneration(), () -> {
+						if (isBinaryFile(document)) {
+							return certificateValidationService.validateCertificat(document.getBytes(),
+									certValidationParameters, caCrl.getCacrlWrapper());
+						}
+						final String docString = new String(document.getBytes(), document.detectCharset());
+						return certificateValidationService.validateCertificat(docString, certValidationParameters,
+								caCrl.getCacrlWrapper());
+					});
+			stages.record(Stage.VALIDATION, start);
+			return rapport;
 		}
+	}
 
-		return rapportVerifCertANS;
+	/**
+	 * Checks the signing certificate of a proof.
+	 *
+	 * @param signProofParams the proof signature parameters
+	 * @return CONTINUE if the certificate is usable, else the status of the response
+	 * @throws EsignsanteException the check failed
+	 */
+	private HttpStatus checkCertificate(final SignatureParameters signProofParams) throws EsignsanteException {
+		final PipelineStages stages = PipelineStages.current();
+		final long start = stages.start(Stage.CERTIFICATE);
+		final HttpStatus status = certificateChecks.checkCertificate(signProofParams, getCaCrlGeneration());
+		stages.record(Stage.CERTIFICATE, start);
+		return status;
 	}
 
 	/**
@@ -644,22 +944,16 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	 * @return true si binaire / false si texte
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
-	private boolean isBinaryFile(final MultipartFile doc) throws IOException {
+	private boolean isBinaryFile(final SpooledDocument doc) throws IOException {
 
 		boolean isBinary = false;
 		final int maxSize = 1024;
 		final int textThreshold = 95;
 		final int base = 100;
-		final InputStream in = doc.getInputStream();
-		int size = in.available();
-		if (size > maxSize) {
-			size = maxSize;
-		}
-		final byte[] data = new byte[size];
-		if (in.read(data) > 0) {
+		final byte[] data = doc.head(maxSize);
+		if (data.length > 0) {
 			log.debug("binary stream data not empty, ok to proceed");
 		}
-		in.close();
 
 		int ascii = 0;
 		int other = 0;
@@ -697,9 +991,7 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	private ESignSanteValidationReport populateResultSign(final List<ErreurSignature> erreursSignature,
 			final List<MetaDatum> metadata, final boolean isValide) {
 
-		final ESignSanteValidationReport rapport = new ESignSanteValidationReport();
-
-		rapport.setValide(isValide);
+		final ESignSanteValidationReport rapport = new StreamingReports.ValidationReport(isValide);
 
 		final List<Erreur> erreurs = new ArrayList<>();
 
@@ -711,20 +1003,7 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 		}
 
 		rapport.setErreurs(erreurs);
-
-		final List<Metadata> metas = new ArrayList<>();
-		for (final MetaDatum metadatum : metadata) {
-			final Metadata meta = new Metadata();
-			meta.setTypeMetadata(metadatum.getType().getName());
-			if (metadatum.getType().equals(MetaDataType.RAPPORT_DIAGNOSTIQUE)
-					|| metadatum.getType().equals(MetaDataType.RAPPORT_DSS)) {
-				meta.setMessage(Base64.getEncoder().encodeToString(metadatum.getValue().getBytes()));
-			} else {
-				meta.setMessage(metadatum.getValue());
-			}
-			metas.add(meta);
-		}
-		rapport.setMetaData(metas);
+		rapport.setMetaData(StreamingReports.metadata(metadata));
 		return rapport;
 	}
 
@@ -741,10 +1020,8 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 			final List<ErreurSignature> erreursSignature, final List<MetaDatum> metadata, final boolean isValide,
 			final String preuve) {
 
-		final ESignSanteValidationReportWithProof rapport = new ESignSanteValidationReportWithProof();
-
-		rapport.setValide(isValide);
-		rapport.setPreuve(Base64.getEncoder().encodeToString(preuve.getBytes()));
+		final ESignSanteValidationReportWithProof rapport = new StreamingReports.ValidationReportWithProof(isValide,
+				preuve);
 		final List<Erreur> erreurs = new ArrayList<>();
 
 		for (final ErreurSignature erreurANS : erreursSignature) {
@@ -755,20 +1032,7 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 		}
 
 		rapport.setErreurs(erreurs);
-
-		final List<Metadata> metas = new ArrayList<>();
-		for (final MetaDatum metadatum : metadata) {
-			final Metadata meta = new Metadata();
-			meta.setTypeMetadata(metadatum.getType().getName());
-			if (metadatum.getType().equals(MetaDataType.RAPPORT_DIAGNOSTIQUE)
-					|| metadatum.getType().equals(MetaDataType.RAPPORT_DSS)) {
-				meta.setMessage(Base64.getEncoder().encodeToString(metadatum.getValue().getBytes()));
-			} else {
-				meta.setMessage(metadatum.getValue());
-			}
-			metas.add(meta);
-		}
-		rapport.setMetaData(metas);
+		rapport.setMetaData(StreamingReports.metadata(metadata));
 
 		return rapport;
 	}
@@ -783,9 +1047,7 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	 */
 	private ESignSanteValidationReport populateResultVerifCert(final List<ErreurCertificat> erreursVerifCert,
 			final List<MetaDatum> metadata, final boolean isValide) {
-		final ESignSanteValidationReport rapport = new ESignSanteValidationReport();
-
-		rapport.setValide(isValide);
+		final ESignSanteValidationReport rapport = new StreamingReports.ValidationReport(isValide);
 
 		final List<Erreur> erreurs = new ArrayList<>();
 
@@ -796,20 +1058,7 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 			erreurs.add(erreur);
 		}
 		rapport.setErreurs(erreurs);
-		final List<Metadata> metas = new ArrayList<>();
-
-		for (final MetaDatum metadatum : metadata) {
-			final Metadata meta = new Metadata();
-			meta.setTypeMetadata(metadatum.getType().getName());
-			if (metadatum.getType().equals(MetaDataType.RAPPORT_DIAGNOSTIQUE)
-					|| metadatum.getType().equals(MetaDataType.RAPPORT_DSS)) {
-				meta.setMessage(Base64.getEncoder().encodeToString(metadatum.getValue().getBytes()));
-			} else {
-				meta.setMessage(metadatum.getValue());
-			}
-			metas.add(meta);
-		}
-		rapport.setMetaData(metas);
+		rapport.setMetaData(StreamingReports.metadata(metadata));
 
 		return rapport;
 
@@ -827,10 +1076,8 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 	private ESignSanteValidationReportWithProof populateResultVerifCertWithProof(
 			final List<ErreurCertificat> erreursVerifCert, final List<MetaDatum> metadata, final boolean isValide,
 			final String proof) {
-		final ESignSanteValidationReportWithProof rapport = new ESignSanteValidationReportWithProof();
-
-		rapport.setValide(isValide);
-		rapport.setPreuve(Base64.getEncoder().encodeToString(proof.getBytes()));
+		final ESignSanteValidationReportWithProof rapport = new StreamingReports.ValidationReportWithProof(isValide,
+				proof);
 		final List<Erreur> erreurs = new ArrayList<>();
 
 		for (final ErreurCertificat erreurANS : erreursVerifCert) {
@@ -840,22 +1087,26 @@ public class ValidationApiDelegateImpl extends ApiDelegate implements Validation
 			erreurs.add(erreur);
 		}
 		rapport.setErreurs(erreurs);
-		final List<Metadata> metas = new ArrayList<>();
-
-		for (final MetaDatum metadatum : metadata) {
-			final Metadata meta = new Metadata();
-			meta.setTypeMetadata(metadatum.getType().getName());
-			if (metadatum.getType().equals(MetaDataType.RAPPORT_DIAGNOSTIQUE)
-					|| metadatum.getType().equals(MetaDataType.RAPPORT_DSS)) {
-				meta.setMessage(Base64.getEncoder().encodeToString(metadatum.getValue().getBytes()));
-			} else {
-				meta.setMessage(metadatum.getValue());
-			}
-			metas.add(meta);
-		}
-		rapport.setMetaData(metas);
+		rapport.setMetaData(StreamingReports.metadata(metadata));
 
 		return rapport;
 	}
 
+	/**
+	 * Spools the documents of a batch.
+	 */
+	@FunctionalInterface
+	private interface Spooler {
+
+		/**
+		 * Spools the documents. The documents spooled so far are kept in the lists on failure, to be
+		 * deleted by the caller.
+		 *
+		 * @param noms      the names of the documents, filled
+		 * @param documents the documents, filled
+		 * @return false if the batch holds too many documents
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		boolean spool(List<String> noms, List<SpooledDocument> documents) throws IOException;
+	}
 }
@@ -28,6 +28,7 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * ConfigurationLoader Class.
@@ -74,6 +75,38 @@ public class ConfigurationLoader {
         return params;
     }
 
+    /**
+     * Per-request signature parameters.
+     * The shared parameters of a configuration are never modified : the request specific values
+     * (element to sign, signer roles) are set on a shallow copy which keeps references to the
+     * KeyStore and its password rather than rebuilding them.
+     *
+     * @param base          the configuration signature parameters
+     * @param elementToSign the element to sign, null or empty for the whole document
+     * @param roles         the signer roles
+     * @return the signature parameters of the request
+     */
+    public static SignatureParameters requestSignParams(final SignatureParameters base, final String elementToSign,
+                                                        final List<String> roles) {
+        final SignatureParameters params = new SignatureParameters();
+        params.setDescription(base.getDescription());
+        params.setCanonAlgo(base.getCanonAlgo());
+        params.setDigestAlgo(base.getDigestAlgo());
+        params.setSignPackaging(base.getSignPackaging());
+        params.setObjectId(base.getObjectId());
+        params.setSignId(base.getSignId());
+        params.setSignValueId(base.getSignValueId());
+        params.setKeyStore(base.getKeyStore());
+        params.setPassword(base.getPassword());
+        if (elementToSign != null && !elementToSign.isEmpty()) {
+            params.setElementToSign(elementToSign);
+        } else {
+            params.setElementToSign(null);
+        }
+        params.setRoles(roles);
+        return params;
+    }
+
     /**
      * Load conf proof sign.
      *
@@ -0,0 +1,241 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+package fr.gouv.esante.api.sign.ws.bean.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.gouv.esante.api.sign.ws.bean.object.CaConf;
+import fr.gouv.esante.api.sign.ws.bean.object.CertVerifConf;
+import fr.gouv.esante.api.sign.ws.bean.object.ProofConf;
+import fr.gouv.esante.api.sign.ws.bean.object.SignVerifConf;
+import fr.gouv.esante.api.sign.ws.bean.object.SignatureConf;
+
+/**
+ * Immutable view of the configurations loaded from one configuration file.
+ * A request reads a single snapshot, so it never mixes configurations from two files,
+ * and looks configurations up by their numeric id in constant time.
+ */
+public final class GlobalConfSnapshot {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(GlobalConfSnapshot.class);
+
+    /** Version sequence. */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /** The version of this snapshot. */
+    private final long version;
+
+    /** signature. */
+    private final List<SignatureConf> signature;
+
+    /** proof. */
+    private final List<ProofConf> proof;
+
+    /** signatureVerification. */
+    private final List<SignVerifConf> signatureVerification;
+
+    /** certificateVerification. */
+    private final List<CertVerifConf> certificateVerification;
+
+    /** ca. */
+    private final List<CaConf> ca;
+
+    /** signature by id. */
+    private final Map<Long, SignatureConf> signatureById;
+
+    /** proof by id. */
+    private final Map<Long, ProofConf> proofById;
+
+    /** signatureVerification by id. */
+    private final Map<Long, SignVerifConf> signatureVerificationById;
+
+    /** certificateVerification by id. */
+    private final Map<Long, CertVerifConf> certificateVerificationById;
+
+    /**
+     * Instantiates a new Global conf snapshot.
+     *
+     * @param signature               the signature
+     * @param proof                   the proof
+     * @param signatureVerification   the signature verification
+     * @param certificateVerification the certificate verification
+     * @param ca                      the ca
+     */
+    public GlobalConfSnapshot(final List<SignatureConf> signature, final List<ProofConf> proof,
+                              final List<SignVerifConf> signatureVerification,
+                              final List<CertVerifConf> certificateVerification, final List<CaConf> ca) {
+        this.version = VERSIONS.incrementAndGet();
+        this.signature = unmodifiable(signature);
+        this.proof = unmodifiable(proof);
+        this.signatureVerification = unmodifiable(signatureVerification);
+        this.certificateVerification = unmodifiable(certificateVerification);
+        this.ca = unmodifiable(ca);
+        this.signatureById = index(this.signature, SignatureConf::getIdSignConf);
+        this.proofById = index(this.proof, ProofConf::getIdProofConf);
+        this.signatureVerificationById = index(this.signatureVerification, SignVerifConf::getIdVerifSign);
+        this.certificateVerificationById = index(this.certificateVerification, CertVerifConf::getIdVerifCert);
+    }
+
+    /**
+     * Empty snapshot.
+     *
+     * @return the global conf snapshot
+     */
+    public static GlobalConfSnapshot empty() {
+        return new GlobalConfSnapshot(null, null, null, null, null);
+    }
+
+    /**
+     * Parses a configuration id.
+     *
+     * @param id the id as declared in the configuration file
+     * @return the numeric id, empty if the id is not a number
+     */
+    public static Optional<Long> parseId(final String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Long.valueOf(id.trim()));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Gets the version, unique for each snapshot built by this process.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets signature by id.
+     *
+     * @param id the id
+     * @return the signature by id
+     */
+    public Optional<SignatureConf> getSignatureById(final Long id) {
+        return Optional.ofNullable(id == null ? null : signatureById.get(id));
+    }
+
+    /**
+     * Gets proof by id.
+     *
+     * @param id the id
+     * @return the proof by id
+     */
+    public Optional<ProofConf> getProofById(final Long id) {
+        return Optional.ofNullable(id == null ? null : proofById.get(id));
+    }
+
+    /**
+     * Gets signature verification by id.
+     *
+     * @param id the id
+     * @return the signature verification by id
+     */
+    public Optional<SignVerifConf> getSignatureVerificationById(final Long id) {
+        return Optional.ofNullable(id == null ? null : signatureVerificationById.get(id));
+    }
+
+    /**
+     * Gets certificate verification by id.
+     *
+     * @param id the id
+     * @return the certificate verification by id
+     */
+    public Optional<CertVerifConf> getCertificateVerificationById(final Long id) {
+        return Optional.ofNullable(id == null ? null : certificateVerificationById.get(id));
+    }
+
+    /**
+     * Gets signature.
+     *
+     * @return the signature
+     */
+    public List<SignatureConf> getSignature() {
+        return signature;
+    }
+
+    /**
+     * Gets proof.
+     *
+     * @return the proof
+     */
+    public List<ProofConf> getProof() {
+        return proof;
+    }
+
+    /**
+     * Gets signature verification.
+     *
+     * @return the signature verification
+     */
+    public List<SignVerifConf> getSignatureVerification() {
+        return signatureVerification;
+    }
+
+    /**
+     * Gets certificate verification.
+     *
+     * @return the certificate verification
+     */
+    public List<CertVerifConf> getCertificateVerification() {
+        return certificateVerification;
+    }
+
+    /**
+     * Gets ca.
+     *
+     * @return the ca
+     */
+    public List<CaConf> getCa() {
+        return ca;
+    }
+
+    /**
+     * Unmodifiable copy of a configuration list.
+     *
+     * @param list the list
+     * @param <T>  the configuration type
+     * @return the unmodifiable list
+     */
+    private static <T> List<T> unmodifiable(final List<T> list) {
+        return list == null ? Collections.emptyList() : Collections.unmodifiableList(List.copyOf(list));
+    }
+
+    /**
+     * Indexes configurations by numeric id. The first declaration wins, as with the former list scan.
+     *
+     * @param confs the configurations
+     * @param idOf  the id getter
+     * @param <T>   the configuration type
+     * @return the configurations by id
+     */
+    private static <T> Map<Long, T> index(final List<T> confs, final Function<T, String> idOf) {
+        final Map<Long, T> byId = new HashMap<>(Math.max(16, confs.size() * 2));
+        for (final T conf : confs) {
+            final Optional<Long> id = parseId(idOf.apply(conf));
+            if (id.isPresent()) {
+                byId.putIfAbsent(id.get(), conf);
+            } else {
+                log.warn("Identifiant de configuration non numérique ignoré : {}", idOf.apply(conf));
+            }
+        }
+        return Collections.unmodifiableMap(byId);
+    }
+}
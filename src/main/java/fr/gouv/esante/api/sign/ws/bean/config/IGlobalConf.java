@@ -40,6 +40,21 @@ public interface IGlobalConf {
      */
     ConfigurationMapper mapConfigs();
 
+    /**
+     * Gets the current snapshot of the configurations.
+     * A request should read it once and use it for all of its lookups.
+     *
+     * @return the snapshot
+     */
+    GlobalConfSnapshot snapshot();
+
+    /**
+     * Replaces all the configurations with those of another conf in a single swap.
+     *
+     * @param conf the new configurations
+     */
+    void update(IGlobalConf conf);
+
     /**
      * Gets signature by id.
      *
@@ -9,6 +9,7 @@ import java.util.Optional;
 
 import fr.gouv.esante.api.sign.config.observer.CaCrlObserver;
 import fr.gouv.esante.api.sign.ws.bean.ConfigurationMapper;
+import fr.gouv.esante.api.sign.ws.bean.config.GlobalConfSnapshot;
 import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
 import fr.gouv.esante.api.sign.ws.bean.object.CaConf;
 import fr.gouv.esante.api.sign.ws.bean.object.CertVerifConf;
@@ -22,29 +23,9 @@ import fr.gouv.esante.api.sign.ws.bean.object.SignatureConf;
 public class GlobalConfJson implements IGlobalConf {
 
     /**
-     * signature.
+     * current snapshot of the configurations.
      */
-    private List<SignatureConf> signature;
-
-    /**
-     * proof.
-     */
-    private List<ProofConf> proof;
-
-    /**
-     * signatureVerification.
-     */
-    private List<SignVerifConf> signatureVerification;
-
-    /**
-     * certificateVerification.
-     */
-    private List<CertVerifConf> certificateVerification;
-
-    /**
-     * ca.
-     */
-    private List<CaConf> ca;
+    private volatile GlobalConfSnapshot snapshot = GlobalConfSnapshot.empty();
 
     /**
      * caCrlObservers.
@@ -69,11 +50,7 @@ public class GlobalConfJson implements IGlobalConf {
     public GlobalConfJson(final List<SignatureConf> signature, final List<ProofConf> proof,
                           final List<SignVerifConf> signatureVerification,
                           final List<CertVerifConf> certificateVerification, final List<CaConf> ca) {
-        this.signature = signature;
-        this.proof = proof;
-        this.signatureVerification = signatureVerification;
-        this.certificateVerification = certificateVerification;
-        this.ca = ca;
+        this.snapshot = new GlobalConfSnapshot(signature, proof, signatureVerification, certificateVerification, ca);
     }
 
     /**
@@ -102,7 +79,30 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the configuration mapper
      */
     public ConfigurationMapper mapConfigs() {
-        return new ConfigurationMapper(signature, proof, signatureVerification, certificateVerification);
+        final GlobalConfSnapshot current = snapshot;
+        return new ConfigurationMapper(current.getSignature(), current.getProof(),
+                current.getSignatureVerification(), current.getCertificateVerification());
+    }
+
+    /**
+     * Gets the current snapshot.
+     *
+     * @return the snapshot
+     */
+    @Override
+    public GlobalConfSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publishes the configurations of another conf in a single swap, then notifies the observers.
+     *
+     * @param conf the new configurations
+     */
+    @Override
+    public void update(final IGlobalConf conf) {
+        this.snapshot = conf.snapshot();
+        notifyCaCrlObservers();
     }
 
     /**
@@ -112,7 +112,8 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the signature by id
      */
     public Optional<SignatureConf> getSignatureById(final String id) {
-        return getSignature().stream().filter(signConf -> id.equals(signConf.getIdSignConf())).findAny();
+        final GlobalConfSnapshot current = snapshot;
+        return GlobalConfSnapshot.parseId(id).flatMap(current::getSignatureById);
     }
 
     /**
@@ -121,7 +122,7 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the signature
      */
     public List<SignatureConf> getSignature() {
-        return signature;
+        return snapshot.getSignature();
     }
 
     /**
@@ -130,7 +131,9 @@ public class GlobalConfJson implements IGlobalConf {
      * @param signature the signature
      */
     public void setSignature(final List<SignatureConf> signature) {
-        this.signature = signature;
+        final GlobalConfSnapshot current = snapshot;
+        this.snapshot = new GlobalConfSnapshot(signature, current.getProof(),
+                current.getSignatureVerification(), current.getCertificateVerification(), current.getCa());
     }
 
     /**
@@ -140,7 +143,8 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the proof by id
      */
     public Optional<ProofConf> getProofById(final String id) {
-        return getProof().stream().filter(proofConf -> id.equals(proofConf.getIdProofConf())).findAny();
+        final GlobalConfSnapshot current = snapshot;
+        return GlobalConfSnapshot.parseId(id).flatMap(current::getProofById);
     }
 
     /**
@@ -149,7 +153,7 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the proof
      */
     public List<ProofConf> getProof() {
-        return proof;
+        return snapshot.getProof();
     }
 
     /**
@@ -158,7 +162,9 @@ public class GlobalConfJson implements IGlobalConf {
      * @param proof the proof
      */
     public void setProof(final List<ProofConf> proof) {
-        this.proof = proof;
+        final GlobalConfSnapshot current = snapshot;
+        this.snapshot = new GlobalConfSnapshot(current.getSignature(), proof,
+                current.getSignatureVerification(), current.getCertificateVerification(), current.getCa());
     }
 
     /**
@@ -168,7 +174,8 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the signature verification by id
      */
     public Optional<SignVerifConf> getSignatureVerificationById(final String id) {
-        return getSignatureVerification().stream().filter(signVerif -> id.equals(signVerif.getIdVerifSign())).findAny();
+        final GlobalConfSnapshot current = snapshot;
+        return GlobalConfSnapshot.parseId(id).flatMap(current::getSignatureVerificationById);
     }
 
     /**
@@ -177,7 +184,7 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the signature verification
      */
     public List<SignVerifConf> getSignatureVerification() {
-        return signatureVerification;
+        return snapshot.getSignatureVerification();
     }
 
     /**
@@ -186,7 +193,9 @@ public class GlobalConfJson implements IGlobalConf {
      * @param signatureVerification the signature verification
      */
     public void setSignatureVerification(final List<SignVerifConf> signatureVerification) {
-        this.signatureVerification = signatureVerification;
+        final GlobalConfSnapshot current = snapshot;
+        this.snapshot = new GlobalConfSnapshot(current.getSignature(), current.getProof(),
+                signatureVerification, current.getCertificateVerification(), current.getCa());
     }
 
     /**
@@ -196,8 +205,8 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the certificate verification by id
      */
     public Optional<CertVerifConf> getCertificateVerificationById(final String id) {
-        return getCertificateVerification().stream()
-                .filter(confVerif -> id.equals(confVerif.getIdVerifCert())).findAny();
+        final GlobalConfSnapshot current = snapshot;
+        return GlobalConfSnapshot.parseId(id).flatMap(current::getCertificateVerificationById);
     }
 
     /**
@@ -206,7 +215,7 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the certificate verification
      */
     public List<CertVerifConf> getCertificateVerification() {
-        return certificateVerification;
+        return snapshot.getCertificateVerification();
     }
 
     /**
@@ -215,7 +224,9 @@ public class GlobalConfJson implements IGlobalConf {
      * @param certificateVerification the certificate verification
      */
     public void setCertificateVerification(final List<CertVerifConf> certificateVerification) {
-        this.certificateVerification = certificateVerification;
+        final GlobalConfSnapshot current = snapshot;
+        this.snapshot = new GlobalConfSnapshot(current.getSignature(), current.getProof(),
+                current.getSignatureVerification(), certificateVerification, current.getCa());
     }
 
     /**
@@ -224,7 +235,7 @@ public class GlobalConfJson implements IGlobalConf {
      * @return the ca
      */
     public List<CaConf> getCa() {
-        return ca;
+        return snapshot.getCa();
     }
 
     /**
@@ -233,7 +244,16 @@ public class GlobalConfJson implements IGlobalConf {
      * @param ca the ca
      */
     public void setCa(final List<CaConf> ca) {
-        this.ca = ca;
+        final GlobalConfSnapshot current = snapshot;
+        this.snapshot = new GlobalConfSnapshot(current.getSignature(), current.getProof(),
+                current.getSignatureVerification(), current.getCertificateVerification(), ca);
+        notifyCaCrlObservers();
+    }
+
+    /**
+     * Notifies the CA/CRL observers.
+     */
+    private void notifyCaCrlObservers() {
         for (final CaCrlObserver caCrlObserver : caCrlObservers) {
             caCrlObserver.update();
         }
@@ -246,12 +266,13 @@ public class GlobalConfJson implements IGlobalConf {
      */
     @Override
     public String toString() {
+        final GlobalConfSnapshot current = snapshot;
         return "GlobalConfJson{" +
-                "signature=" + signature.toString() +
-                ", proof=" + proof.toString() +
-                ", signatureVerification=" + signatureVerification.toString() +
-                ", certificateVerification=" + certificateVerification.toString() +
-                ", ca=" + ca.toString() +
+                "signature=" + current.getSignature().toString() +
+                ", proof=" + current.getProof().toString() +
+                ", signatureVerification=" + current.getSignatureVerification().toString() +
+                ", certificateVerification=" + current.getCertificateVerification().toString() +
+                ", ca=" + current.getCa().toString() +
                 '}';
     }
 
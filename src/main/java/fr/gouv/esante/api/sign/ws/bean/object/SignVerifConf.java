@@ -7,6 +7,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import fr.gouv.esante.api.sign.bean.parameters.SignatureValidationParameters;
 import fr.gouv.esante.api.sign.ws.bean.ConfigurationLoader;
 import fr.gouv.esante.api.sign.ws.bean.object.utils.RulesFormatting;
+import jakarta.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +47,18 @@ public class SignVerifConf {
      */
     private String rules;
 
+    /**
+     * maximum number of operations in flight (optional)
+     */
+    @Nullable
+    private Integer maxConcurrent;
+
+    /**
+     * weight in the operation queue (optional)
+     */
+    @Nullable
+    private Integer weight;
+
     /**
      * Gets sign verif params.
      *
@@ -142,6 +155,42 @@ public class SignVerifConf {
         this.rules = RulesFormatting.formatSignRules(rules);
     }
 
+    /**
+     * Gets max concurrent.
+     *
+     * @return the maximum number of operations in flight, null for no quota
+     */
+    public Integer getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Sets max concurrent.
+     *
+     * @param maxConcurrent the maximum number of operations in flight
+     */
+    public void setMaxConcurrent(final Integer maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Gets weight.
+     *
+     * @return the weight in the operation queue, null for 1
+     */
+    public Integer getWeight() {
+        return weight;
+    }
+
+    /**
+     * Sets weight.
+     *
+     * @param weight the weight in the operation queue
+     */
+    public void setWeight(final Integer weight) {
+        this.weight = weight;
+    }
+
     @Override
     public String toString() {
         return "SignVerifConf{" +
@@ -149,6 +198,8 @@ public class SignVerifConf {
                 ", description='" + description + '\'' +
                 ", metadata='" + metadata + '\'' +
                 ", rules='" + rules + '\'' +
+                ", maxConcurrent=" + maxConcurrent +
+                ", weight=" + weight +
                 '}';
     }
 
@@ -160,7 +211,8 @@ public class SignVerifConf {
      */
     public boolean checkValid() throws IllegalAccessException {
         for (final Field f : getClass().getDeclaredFields()) {
-            if (!"signVerifParams".equals(f.getName()) && f.get(this) == null) {
+            if (f.getDeclaredAnnotation(Nullable.class) == null && !"signVerifParams".equals(f.getName())
+                    && f.get(this) == null) {
                 log.error("Missing field {} in object {}", f.getName() ,this.getClass().getSimpleName());
                 return false;
             }
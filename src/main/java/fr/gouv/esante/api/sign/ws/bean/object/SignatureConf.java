@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * The type Signature conf.
@@ -96,6 +97,18 @@ public class SignatureConf {
 	@Nullable
 	private String elementToSign;
 
+	/**
+	 * maximum number of operations in flight (optional)
+	 */
+	@Nullable
+	private Integer maxConcurrent;
+
+	/**
+	 * weight in the operation queue (optional)
+	 */
+	@Nullable
+	private Integer weight;
+
 	/**
 	 * Instantiates a new Signature conf.
 	 */
@@ -121,6 +134,17 @@ public class SignatureConf {
 		return signParams;
 	}
 
+	/**
+	 * Gets sign params for a single request, leaving the shared sign params untouched.
+	 *
+	 * @param element the element to sign
+	 * @param signers the signer roles
+	 * @return the sign params of the request
+	 */
+	public SignatureParameters getSignParams(final String element, final List<String> signers) {
+		return ConfigurationLoader.requestSignParams(signParams, element, signers);
+	}
+
 	/**
 	 * Gets id sign conf.
 	 *
@@ -345,6 +369,42 @@ public class SignatureConf {
 		this.elementToSign = elementToSign;
 	}
 
+	/**
+	 * Gets max concurrent.
+	 *
+	 * @return the maximum number of operations in flight, null for no quota
+	 */
+	public Integer getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * Sets max concurrent.
+	 *
+	 * @param maxConcurrent the maximum number of operations in flight
+	 */
+	public void setMaxConcurrent(final Integer maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	/**
+	 * Gets weight.
+	 *
+	 * @return the weight in the operation queue, null for 1
+	 */
+	public Integer getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Sets weight.
+	 *
+	 * @param weight the weight in the operation queue
+	 */
+	public void setWeight(final Integer weight) {
+		this.weight = weight;
+	}
+
 	@Override
 	public String toString() {
 		return "SignatureConf{" + "idSignConf='" + idSignConf + '\'' + ", secret='" + secret + '\'' + ", idProofConf='"
@@ -352,7 +412,8 @@ public class SignatureConf {
 				+ ", privateKey='" + privateKey + '\'' + ", canonicalisationAlgorithm='" + canonicalisationAlgorithm
 				+ '\'' + ", digestAlgorithm='" + digestAlgorithm + '\'' + ", signaturePackaging='" + signaturePackaging
 				+ '\'' + ", signId='" + signId + '\'' + ", signValueId='" + signValueId + '\'' + ", objectId='"
-				+ objectId + '\'' + ", elementToSign='" + elementToSign + '\'' + '}';
+				+ objectId + '\'' + ", elementToSign='" + elementToSign + '\'' + ", maxConcurrent=" + maxConcurrent
+				+ ", weight=" + weight + '}';
 	}
 
 	/**
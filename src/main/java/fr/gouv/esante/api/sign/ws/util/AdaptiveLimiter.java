@@ -0,0 +1,265 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Limite adaptative du nombre de requêtes en cours (AIMD) : la limite baisse de 10 % quand une
+ * requête dépasse le seuil de latence (mesurée sur ses opérations, hors lecture du document et
+ * écriture de la réponse) ou est refusée faute de capacité, au plus une fois par fenêtre de la durée
+ * du seuil : les requêtes lentes d'un même épisode de surcharge ne la baissent qu'une fois. Elle
+ * remonte d'une unité quand une requête rapide se termine alors que la limite est utilisée au moins
+ * à moitié. Au-delà de la limite, une requête attend une place, dans une file bornée et pendant un
+ * délai borné, puis est refusée. La limite, les requêtes en cours, la file d'attente et les refus sont exportés
+ * en métriques, avec le tag limiter.
+ */
+public final class AdaptiveLimiter {
+
+    /** Multiplicative decrease factor. */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** The lock. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signaled when a request ends or the limit grows. */
+    private final Condition available = lock.newCondition();
+
+    /** The name. */
+    private final String name;
+
+    /** The minimum limit. */
+    private final int minLimit;
+
+    /** The maximum limit. */
+    private final int maxLimit;
+
+    /** The latency threshold in nanoseconds. */
+    private final long latencyThresholdNanos;
+
+    /** The maximum number of waiting requests. */
+    private final int queueSize;
+
+    /** The rejections. */
+    private final Counter rejections;
+
+    /** The current limit. */
+    private double limit;
+
+    /** The requests in flight. */
+    private int inFlight;
+
+    /** The waiting requests. */
+    private int waiting;
+
+    /** The clock, in nanoseconds. */
+    private final LongSupplier clock;
+
+    /** Has the limit been decreased yet. */
+    private boolean decreased;
+
+    /** Time of the last decrease, in nanoseconds. */
+    private long lastDecrease;
+
+    /**
+     * Instantiates a new adaptive limiter, at its maximum limit.
+     *
+     * @param name             the name, tag of the metrics
+     * @param minLimit         the minimum limit
+     * @param maxLimit         the maximum limit
+     * @param latencyThreshold the latency threshold in milliseconds
+     * @param queueSize        the maximum number of waiting requests
+     * @param registry         the meter registry
+     */
+    public AdaptiveLimiter(final String name, final int minLimit, final int maxLimit, final long latencyThreshold,
+            final int queueSize, final MeterRegistry registry) {
+        this(name, minLimit, maxLimit, latencyThreshold, queueSize, registry, System::nanoTime);
+    }
+
+    /**
+     * Instantiates a new adaptive limiter, at its maximum limit, on a given clock.
+     *
+     * @param name             the name, tag of the metrics
+     * @param minLimit         the minimum limit
+     * @param maxLimit         the maximum limit
+     * @param latencyThreshold the latency threshold in milliseconds, also the window of the decreases
+     * @param queueSize        the maximum number of waiting requests
+     * @param registry         the meter registry
+     * @param clock            the clock, in nanoseconds
+     */
+    AdaptiveLimiter(final String name, final int minLimit, final int maxLimit, final long latencyThreshold,
+            final int queueSize, final MeterRegistry registry, final LongSupplier clock) {
+        this.name = name;
+        this.clock = clock;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+        this.queueSize = Math.max(0, queueSize);
+        this.limit = this.maxLimit;
+        Gauge.builder("esignsante.limiter.limit", this, AdaptiveLimiter::getLimit).tag("limiter", name)
+                .description("Limite courante de requêtes en cours").register(registry);
+        Gauge.builder("esignsante.limiter.inflight", this, AdaptiveLimiter::getInFlight).tag("limiter", name)
+                .description("Requêtes en cours").register(registry);
+        Gauge.builder("esignsante.limiter.queue", this, AdaptiveLimiter::getWaiting).tag("limiter", name)
+                .description("Requêtes en attente d'une place").register(registry);
+        this.rejections = Counter.builder("esignsante.limiter.rejected").tag("limiter", name)
+                .description("Requêtes refusées par la limite").register(registry);
+    }
+
+    /**
+     * Takes a place, waiting at most the given delay.
+     *
+     * @param timeoutMillis the maximum wait in milliseconds
+     * @return true if a place is taken, false if the request is rejected
+     * @throws InterruptedException the thread is interrupted while waiting
+     */
+    public boolean acquire(final long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            if (waiting >= queueSize) {
+                rejections.increment();
+                return false;
+            }
+            waiting++;
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                while (inFlight >= (int) limit) {
+                    if (nanos <= 0) {
+                        rejections.increment();
+                        return false;
+                    }
+                    nanos = available.awaitNanos(nanos);
+                }
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives a place back and adapts the limit to the latency of the request.
+     *
+     * @param latencyNanos the latency of the request in nanoseconds
+     * @param overloaded   the request was rejected downstream for lack of capacity
+     */
+    public void release(final long latencyNanos, final boolean overloaded) {
+        lock.lock();
+        try {
+            final int used = inFlight;
+            inFlight--;
+            if (overloaded || latencyNanos > latencyThresholdNanos) {
+                decrease();
+            } else if (used * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            if (inFlight < (int) limit) {
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the place of a request without latency sample (no operation run) : the limit only
+     * decreases if the request was rejected downstream for lack of capacity.
+     *
+     * @param overloaded the request was rejected downstream for lack of capacity
+     */
+    public void release(final boolean overloaded) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (overloaded) {
+                decrease();
+            }
+            if (inFlight < (int) limit) {
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decreases the limit by 10 %, unless it has already been decreased within the latency window.
+     * Called with the lock held.
+     */
+    private void decrease() {
+        final long now = clock.getAsLong();
+        if (decreased && now - lastDecrease < latencyThresholdNanos) {
+            return;
+        }
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        lastDecrease = now;
+        decreased = true;
+    }
+
+    /**
+     * Gets the name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the current limit.
+     *
+     * @return the limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests in flight.
+     *
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of waiting requests.
+     *
+     * @return the waiting requests
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
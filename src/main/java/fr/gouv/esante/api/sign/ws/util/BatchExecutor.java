@@ -0,0 +1,175 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Traitements par lot (signatures et validations de plusieurs documents). Chaque document est une
+ * opération du pool partagé (OperationExecutor), admise dans la voie de sa configuration : un lot
+ * est soumis aux mêmes quotas que les appels synchrones et n'affame pas les autres configurations.
+ * Les résultats sont écrits en NDJSON dans l'ordre où ils se terminent.
+ */
+@Component
+public class BatchExecutor {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(BatchExecutor.class);
+
+    /** Factory of the generators. */
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /** The operation pool. */
+    private final OperationExecutor operations;
+
+    /** Maximum number of documents per batch. */
+    private final int maxDocuments;
+
+    /** Maximum size of a document of an archive. */
+    private final DataSize maxDocumentSize;
+
+    /**
+     * Instantiates a new batch executor.
+     *
+     * @param operations      the operation pool
+     * @param maxDocuments    the maximum number of documents per batch
+     * @param maxDocumentSize the maximum size of a document of an archive
+     */
+    public BatchExecutor(final OperationExecutor operations,
+            @Value("${config.batch.max-documents:100}") final int maxDocuments,
+            @Value("${config.batch.max-document-size:200MB}") final DataSize maxDocumentSize) {
+        this.operations = operations;
+        this.maxDocuments = maxDocuments;
+        this.maxDocumentSize = maxDocumentSize;
+    }
+
+    /**
+     * Gets the maximum number of documents per batch.
+     *
+     * @return the max documents
+     */
+    public int getMaxDocuments() {
+        return maxDocuments;
+    }
+
+    /**
+     * Gets the maximum size of a document of an archive. The documents of a multipart request are
+     * bounded by spring.servlet.multipart.max-file-size.
+     *
+     * @return the max document size in bytes
+     */
+    public long getMaxDocumentSize() {
+        return maxDocumentSize.toBytes();
+    }
+
+    /**
+     * Runs the documents of a batch on the operation pool and writes each result as an NDJSON line
+     * as soon as it is done. The documents are admitted one by one in the lane : a document refused
+     * by the pool (queue full, admission wait too long) is a 503 result. The task must not throw : a
+     * failed document is a result with an error status. When the client goes away, the documents
+     * not started yet are cancelled.
+     *
+     * @param snapshot the request snapshot
+     * @param lane     the lane of the configuration
+     * @param noms     the file names of the documents
+     * @param task     the operation on a document
+     * @param out      the response stream
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void stream(final RequestSnapshot snapshot, final FairQueue.Lane lane, final List<String> noms,
+            final BatchTask task, final OutputStream out) throws IOException {
+        final CompletionService<BatchResult> completion = new ExecutorCompletionService<>(
+                operations.admitted(snapshot, lane));
+        final List<Future<BatchResult>> futures = new ArrayList<>(noms.size());
+        try (JsonGenerator gen = JSON.createGenerator(out, JsonEncoding.UTF8)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.setRootValueSeparator(new SerializedString("\n"));
+            int pending = 0;
+            for (int i = 0; i < noms.size(); i++) {
+                final int index = i;
+                final String nom = noms.get(i);
+                try {
+                    futures.add(completion.submit(() -> task.run(index, nom)));
+                    pending++;
+                } catch (final RejectedExecutionException e) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    log.error("Document {} du lot refusé : {}", index, e.getMessage());
+                    write(new BatchResult(index, nom, HttpStatus.SERVICE_UNAVAILABLE, null), gen);
+                }
+                // Les résultats déjà prêts sont écrits sans attendre l'admission des suivants
+                Future<BatchResult> done;
+                while ((done = completion.poll()) != null) {
+                    pending--;
+                    write(done.get(), gen);
+                }
+            }
+            for (; pending > 0; pending--) {
+                write(completion.take().get(), gen);
+            }
+            gen.writeRaw('\n');
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (final ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for (final Future<BatchResult> future : futures) {
+                if (future.cancel(true)) {
+                    log.debug("Traitement par lot interrompu");
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a result.
+     *
+     * @param result the result
+     * @param gen    the generator
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void write(final BatchResult result, final JsonGenerator gen) throws IOException {
+        result.writeTo(gen);
+        gen.flush();
+    }
+
+    /**
+     * Operation on a document of a batch.
+     */
+    @FunctionalInterface
+    public interface BatchTask {
+
+        /**
+         * Runs the operation. Errors are reported in the result, never thrown.
+         *
+         * @param index the index of the document in the request
+         * @param nom   the file name of the document
+         * @return the result
+         */
+        BatchResult run(int index, String nom);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpStatus;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Result of one document of a batch, written as one NDJSON line :
+ * {"index":0,"nom":"doc.xml","statut":200,"rapport":{...}}. The report is the one of the
+ * single-document operation, null when the document failed.
+ */
+public class BatchResult {
+
+    /** The index of the document in the request. */
+    private final int index;
+
+    /** The file name of the document. */
+    private final String nom;
+
+    /** The status of the document. */
+    private final HttpStatus statut;
+
+    /** The report, null on failure. */
+    private final StreamingReports.StreamedReport rapport;
+
+    /**
+     * Instantiates a new batch result.
+     *
+     * @param index   the index of the document in the request
+     * @param nom     the file name of the document
+     * @param statut  the status of the document
+     * @param rapport the report, null on failure
+     */
+    public BatchResult(final int index, final String nom, final HttpStatus statut,
+            final StreamingReports.StreamedReport rapport) {
+        this.index = index;
+        this.nom = nom;
+        this.statut = statut;
+        this.rapport = rapport;
+    }
+
+    /**
+     * Gets the index of the document in the request.
+     *
+     * @return the index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the status of the document.
+     *
+     * @return the status
+     */
+    public HttpStatus getStatut() {
+        return statut;
+    }
+
+    /**
+     * Writes the result.
+     *
+     * @param gen the generator
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void writeTo(final JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("index", index);
+        gen.writeStringField("nom", nom);
+        gen.writeNumberField("statut", statut.value());
+        gen.writeFieldName("rapport");
+        if (rapport == null) {
+            gen.writeNull();
+        } else {
+            rapport.writeTo(gen);
+        }
+        gen.writeEndObject();
+    }
+}
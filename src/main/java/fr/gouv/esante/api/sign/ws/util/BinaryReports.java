@@ -0,0 +1,156 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Binary responses of the signature operations : the signed document and the proof are written
+ * as raw bytes, without Base64, and the JSON report (without docSigne nor preuve) is either the
+ * first part of a multipart/mixed response or, for application/octet-stream, the Base64 value of
+ * the X-ESignSante-Report header.
+ */
+public final class BinaryReports {
+
+    /** Report part name. */
+    public static final String PART_REPORT = "rapport";
+
+    /** Signed document part name. */
+    public static final String PART_DOCUMENT = "docSigne";
+
+    /** Proof part name. */
+    public static final String PART_PROOF = "preuve";
+
+    /** Mapper of the report, configured as the JSON message converter. */
+    private static final ObjectMapper MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    /**
+     * private constructor to hide implicit public one.
+     */
+    private BinaryReports() {
+    }
+
+    /**
+     * Is the binary response mode requested by the Accept header : multipart/mixed or
+     * application/octet-stream is named explicitly, with a quality greater than 0 and not lower than
+     * the quality of application/json (which wildcards may give).
+     *
+     * @param acceptHeader the accept header
+     * @return true if the binary response is preferred
+     */
+    public static boolean accepts(final String acceptHeader) {
+        final List<MediaType> accepted = parse(acceptHeader);
+        final double binary = Math.max(quality(accepted, MediaType.MULTIPART_MIXED, true),
+                quality(accepted, MediaType.APPLICATION_OCTET_STREAM, true));
+        return binary > 0 && binary >= quality(accepted, MediaType.APPLICATION_JSON, false);
+    }
+
+    /**
+     * Media type of the response : multipart/mixed when its quality is at least the one of
+     * application/octet-stream, application/octet-stream otherwise.
+     *
+     * @param acceptHeader the accept header
+     * @return the media type
+     */
+    public static String mediaType(final String acceptHeader) {
+        final List<MediaType> accepted = parse(acceptHeader);
+        final double multipart = quality(accepted, MediaType.MULTIPART_MIXED, true);
+        return multipart > 0 && multipart >= quality(accepted, MediaType.APPLICATION_OCTET_STREAM, true)
+                ? WsVars.HEADER_TYPE_MULTIPART.getVar()
+                : WsVars.HEADER_TYPE_BINARY.getVar();
+    }
+
+    /**
+     * Parses the Accept header.
+     *
+     * @param acceptHeader the accept header
+     * @return the accepted media ranges, empty when missing or malformed
+     */
+    private static List<MediaType> parse(final String acceptHeader) {
+        try {
+            return MediaType.parseMediaTypes(acceptHeader);
+        } catch (final InvalidMediaTypeException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Quality of a media type : the quality of the most specific accepted range including it.
+     *
+     * @param accepted the accepted media ranges
+     * @param type     the media type
+     * @param explicit only the ranges naming the type count, not the wildcards
+     * @return the quality, 0 if the type is not accepted
+     */
+    private static double quality(final List<MediaType> accepted, final MediaType type, final boolean explicit) {
+        int specificity = -1;
+        double quality = 0;
+        for (final MediaType range : accepted) {
+            final int rank = range.isWildcardType() ? 0 : range.isWildcardSubtype() ? 1 : 2;
+            if ((explicit && rank < 2) || !range.includes(type) || rank < specificity) {
+                continue;
+            }
+            quality = rank > specificity ? range.getQualityValue() : Math.max(quality, range.getQualityValue());
+            specificity = rank;
+        }
+        return quality;
+    }
+
+    /**
+     * Builds the binary response.
+     *
+     * @param mediaType      multipart/mixed or application/octet-stream
+     * @param rapport        the JSON report, without the signed document nor the proof
+     * @param signedDocument the signed document
+     * @param preuve         the signed proof, null without proof
+     * @return the response entity
+     * @throws JsonProcessingException the report cannot be serialized
+     */
+    public static ResponseEntity<Object> response(final String mediaType, final Object rapport,
+            final byte[] signedDocument, final String preuve) throws JsonProcessingException {
+        if (WsVars.HEADER_TYPE_MULTIPART.getVar().equals(mediaType)) {
+            final MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+            parts.add(PART_REPORT, part(rapport, MediaType.APPLICATION_JSON));
+            parts.add(PART_DOCUMENT, part(signedDocument, MediaType.APPLICATION_OCTET_STREAM));
+            if (preuve != null) {
+                parts.add(PART_PROOF, part(preuve, new MediaType(MediaType.APPLICATION_XML, StandardCharsets.UTF_8)));
+            }
+            return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.MULTIPART_MIXED).body(parts);
+        }
+        return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(WsVars.HEADER_REPORT.getVar(),
+                        Base64.getEncoder().encodeToString(MAPPER.writeValueAsBytes(rapport)))
+                .body(signedDocument);
+    }
+
+    /**
+     * Builds a part.
+     *
+     * @param body      the body
+     * @param mediaType the media type
+     * @return the part
+     */
+    private static HttpEntity<Object> part(final Object body, final MediaType mediaType) {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(mediaType);
+        return new HttpEntity<>(body, headers);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import fr.gouv.esante.api.sign.bean.cacrl.CACRLWrapper;
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+import fr.gouv.esante.api.sign.config.utils.CaCrlGeneration;
+import fr.gouv.esante.api.sign.utils.EsignsanteException;
+
+/**
+ * Cache des contrôles des certificats de signature et de signature de preuve.
+ * Un KeyStore reconnu valide n'est plus contrôlé jusqu'au prochain chargement des AC/CRL,
+ * au plus tard à l'expiration du délai de re-contrôle ou du premier certificat qui expire.
+ */
+@Component
+public class CertificateCheckCache {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(CertificateCheckCache.class);
+
+    /** Valid verdicts, keyed by KeyStore identity (weak keys). */
+    private final Cache<KeyStore, Verdict> verdicts = CacheBuilder.newBuilder().weakKeys().build();
+
+    /** Re-check delay in milliseconds. */
+    private final long ttlMillis;
+
+    /**
+     * Instantiates a new certificate check cache.
+     *
+     * @param ttlSeconds re-check delay of a valid verdict
+     */
+    public CertificateCheckCache(@Value("${config.certificate.check.ttl:3600}") final long ttlSeconds) {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    /**
+     * Same contract as {@link SignWsUtils#checkCertificate(SignatureParameters, CACRLWrapper)},
+     * against the CA/CRL generation pinned by the request.
+     * Only valid verdicts are cached, a failed check is run again on the next request.
+     *
+     * @param signParams the sign params
+     * @param caCrl      the CA/CRL generation of the request
+     * @return the http status
+     * @throws EsignsanteException the esignsante exception
+     */
+    public HttpStatus checkCertificate(final SignatureParameters signParams, final CaCrlGeneration caCrl)
+            throws EsignsanteException {
+        final long generation = caCrl.getGeneration();
+        final CACRLWrapper caCrlWrapper = caCrl.getCacrlWrapper();
+        final KeyStore keyStore = signParams == null ? null : signParams.getKeyStore();
+        if (keyStore == null) {
+            return SignWsUtils.checkCertificate(signParams, caCrlWrapper);
+        }
+        final long now = System.currentTimeMillis();
+        final Verdict verdict = verdicts.getIfPresent(keyStore);
+        if (verdict != null && verdict.generation == generation && now < verdict.expiresAt) {
+            return HttpStatus.CONTINUE;
+        }
+        final HttpStatus status = SignWsUtils.checkCertificate(signParams, caCrlWrapper);
+        if (status == HttpStatus.CONTINUE) {
+            verdicts.put(keyStore, new Verdict(generation, Math.min(now + ttlMillis, earliestNotAfter(keyStore))));
+        } else {
+            verdicts.invalidate(keyStore);
+        }
+        return status;
+    }
+
+    /**
+     * Drops every cached verdict.
+     */
+    public void invalidateAll() {
+        verdicts.invalidateAll();
+    }
+
+    /**
+     * Earliest expiry date of the certificates of a KeyStore.
+     *
+     * @param keyStore the key store
+     * @return the earliest expiry date in milliseconds
+     */
+    private static long earliestNotAfter(final KeyStore keyStore) {
+        long earliest = Long.MAX_VALUE;
+        try {
+            final Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                final Certificate cert = keyStore.getCertificate(aliases.nextElement());
+                if (cert instanceof X509Certificate) {
+                    earliest = Math.min(earliest, ((X509Certificate) cert).getNotAfter().getTime());
+                }
+            }
+        } catch (final KeyStoreException e) {
+            log.error("Lecture des dates d'expiration du KeyStore impossible", e);
+            earliest = 0;
+        }
+        return earliest;
+    }
+
+    /**
+     * A valid verdict.
+     */
+    private static final class Verdict {
+
+        /** The CA/CRL generation the check ran against. */
+        private final long generation;
+
+        /** The date after which the check must be run again. */
+        private final long expiresAt;
+
+        /**
+         * Instantiates a new verdict.
+         *
+         * @param generation the CA/CRL generation
+         * @param expiresAt  the expiry date
+         */
+        private Verdict(final long generation, final long expiresAt) {
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.util.List;
+
+/**
+ * Report of a digest signature : the signature (raw value or detached CMS, in Base64), the digest
+ * algorithm and the signing certificate chain (DER, in Base64), signing certificate first.
+ */
+public class DigestSignatureReport {
+
+    /** The signature. */
+    private String signature;
+
+    /** The digest algorithm. */
+    private String algorithme;
+
+    /** The certificate chain. */
+    private List<String> certificats;
+
+    /**
+     * Gets the signature.
+     *
+     * @return the signature, in Base64
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * Sets the signature.
+     *
+     * @param signature the signature, in Base64
+     */
+    public void setSignature(final String signature) {
+        this.signature = signature;
+    }
+
+    /**
+     * Gets the digest algorithm.
+     *
+     * @return the digest algorithm
+     */
+    public String getAlgorithme() {
+        return algorithme;
+    }
+
+    /**
+     * Sets the digest algorithm.
+     *
+     * @param algorithme the digest algorithm
+     */
+    public void setAlgorithme(final String algorithme) {
+        this.algorithme = algorithme;
+    }
+
+    /**
+     * Gets the certificate chain.
+     *
+     * @return the certificates, DER in Base64
+     */
+    public List<String> getCertificats() {
+        return certificats;
+    }
+
+    /**
+     * Sets the certificate chain.
+     *
+     * @param certificats the certificates, DER in Base64
+     */
+    public void setCertificats(final List<String> certificats) {
+        this.certificats = certificats;
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.ess.ESSCertIDv2;
+import org.bouncycastle.asn1.ess.SigningCertificateV2;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSAbsentContent;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+
+/**
+ * Signature d'une empreinte calculée par le client, sans le document : valeur de signature brute
+ * (SignedInfo XMLDsig) ou CMS détaché (plage d'octets PAdES, ETSI.CAdES.detached).
+ * La clé privée est extraite une fois du KeyStore de la configuration de signature, puis gardée
+ * tant que le KeyStore est en usage.
+ */
+@Component
+public class DigestSigner {
+
+    /** Supported digest algorithms, by normalized name. */
+    private static final Map<String, Algorithm> ALGORITHMS = Map.of(
+            "SHA256", new Algorithm("SHA-256", NISTObjectIdentifiers.id_sha256, "SHA256withRSA"),
+            "SHA384", new Algorithm("SHA-384", NISTObjectIdentifiers.id_sha384, "SHA384withRSA"),
+            "SHA512", new Algorithm("SHA-512", NISTObjectIdentifiers.id_sha512, "SHA512withRSA"));
+
+    /** Signing keys, keyed by KeyStore identity (weak keys). */
+    private final Cache<KeyStore, SigningKey> keys = CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Resolves a digest algorithm : the requested one, or the one of the configuration.
+     *
+     * @param requested  the requested algorithm (SHA-256, SHA256...), null for the configuration one
+     * @param signParams the signature parameters
+     * @return the algorithm, null if not supported
+     */
+    public static Algorithm algorithm(final String requested, final SignatureParameters signParams) {
+        final String name = requested != null ? requested
+                : signParams.getDigestAlgo() == null ? "SHA256" : signParams.getDigestAlgo().name();
+        return ALGORITHMS.get(name.toUpperCase(Locale.ROOT).replace("-", "").replace("_", ""));
+    }
+
+    /**
+     * Raw signature value (RSASSA-PKCS1-v1_5) of a digest.
+     *
+     * @param signParams the signature parameters
+     * @param algorithm  the digest algorithm
+     * @param digest     the digest
+     * @return the signature value
+     * @throws GeneralSecurityException the signature failed
+     * @throws IOException              Signals that an I/O exception has occurred.
+     */
+    public byte[] signRaw(final SignatureParameters signParams, final Algorithm algorithm, final byte[] digest)
+            throws GeneralSecurityException, IOException {
+        final DigestInfo digestInfo = new DigestInfo(new AlgorithmIdentifier(algorithm.oid, DERNull.INSTANCE),
+                digest);
+        final Signature signature = Signature.getInstance("NONEwithRSA");
+        signature.initSign(signingKey(signParams).privateKey);
+        signature.update(digestInfo.getEncoded(ASN1Encoding.DER));
+        return signature.sign();
+    }
+
+    /**
+     * Detached CMS SignedData of a digest, with the content-type, message-digest and
+     * signing-certificate-v2 signed attributes and without signing-time, as PAdES baseline B
+     * requires.
+     *
+     * @param signParams the signature parameters
+     * @param algorithm  the digest algorithm
+     * @param digest     the digest of the signed content (the byte range for PAdES)
+     * @return the DER encoded CMS
+     * @throws GeneralSecurityException the signature failed
+     * @throws IOException              Signals that an I/O exception has occurred.
+     */
+    public byte[] signCms(final SignatureParameters signParams, final Algorithm algorithm, final byte[] digest)
+            throws GeneralSecurityException, IOException {
+        final SigningKey key = signingKey(signParams);
+        final X509Certificate certificate = key.chain.get(0);
+        final ESSCertIDv2 certId = new ESSCertIDv2(MessageDigest.getInstance("SHA-256")
+                .digest(certificate.getEncoded()));
+        final AttributeTable attributes = new AttributeTable(new Attribute(
+                PKCSObjectIdentifiers.id_aa_signingCertificateV2, new DERSet(new SigningCertificateV2(certId))));
+        try {
+            final ContentSigner signer = new JcaContentSignerBuilder(algorithm.signatureAlgorithm)
+                    .build(key.privateKey);
+            final CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+            generator.addSignerInfoGenerator(new JcaSignerInfoGeneratorBuilder(new PrecomputedDigest(algorithm, digest))
+                    .setSignedAttributeGenerator(new DefaultSignedAttributeTableGenerator(attributes) {
+                        @Override
+                        @SuppressWarnings("rawtypes")
+                        public AttributeTable getAttributes(final Map parameters) {
+                            return super.getAttributes(parameters).remove(CMSAttributes.signingTime);
+                        }
+                    }).build(signer, certificate));
+            generator.addCertificates(new JcaCertStore(key.chain));
+            return generator.generate(new CMSAbsentContent(), false).getEncoded(ASN1Encoding.DER);
+        } catch (final OperatorCreationException | CMSException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Certificate chain of the signing key.
+     *
+     * @param signParams the signature parameters
+     * @return the chain, signing certificate first
+     * @throws GeneralSecurityException the KeyStore cannot be read
+     */
+    public List<X509Certificate> certificates(final SignatureParameters signParams)
+            throws GeneralSecurityException {
+        return signingKey(signParams).chain;
+    }
+
+    /**
+     * Signing key of a KeyStore, extracted once.
+     *
+     * @param signParams the signature parameters
+     * @return the signing key
+     * @throws GeneralSecurityException the KeyStore holds no private key
+     */
+    private SigningKey signingKey(final SignatureParameters signParams) throws GeneralSecurityException {
+        final KeyStore keyStore = signParams.getKeyStore();
+        if (keyStore == null) {
+            throw new GeneralSecurityException("KeyStore absent");
+        }
+        try {
+            return keys.get(keyStore, () -> extract(keyStore, signParams.getPassword()));
+        } catch (final ExecutionException e) {
+            throw e.getCause() instanceof GeneralSecurityException ? (GeneralSecurityException) e.getCause()
+                    : new GeneralSecurityException(e.getCause());
+        }
+    }
+
+    /**
+     * Extracts the private key and its chain.
+     *
+     * @param keyStore the KeyStore
+     * @param password the password
+     * @return the signing key
+     * @throws GeneralSecurityException the KeyStore holds no private key
+     */
+    private static SigningKey extract(final KeyStore keyStore, final String password)
+            throws GeneralSecurityException {
+        final Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            final String alias = aliases.nextElement();
+            if (keyStore.isKeyEntry(alias)) {
+                final Key key = keyStore.getKey(alias, password.toCharArray());
+                final Certificate[] chain = keyStore.getCertificateChain(alias);
+                if (key instanceof PrivateKey && chain != null && chain.length > 0) {
+                    final List<X509Certificate> certificates = new ArrayList<>(chain.length);
+                    for (final Certificate certificate : chain) {
+                        certificates.add((X509Certificate) certificate);
+                    }
+                    return new SigningKey((PrivateKey) key, certificates);
+                }
+            }
+        }
+        throw new GeneralSecurityException("Aucune clé privée dans le KeyStore");
+    }
+
+    /**
+     * A supported digest algorithm.
+     */
+    public static final class Algorithm {
+
+        /** The JCA digest name. */
+        private final String name;
+
+        /** The OID. */
+        private final ASN1ObjectIdentifier oid;
+
+        /** The JCA signature algorithm. */
+        private final String signatureAlgorithm;
+
+        /**
+         * Instantiates a new algorithm.
+         *
+         * @param name               the JCA digest name
+         * @param oid                the OID
+         * @param signatureAlgorithm the JCA signature algorithm
+         */
+        Algorithm(final String name, final ASN1ObjectIdentifier oid, final String signatureAlgorithm) {
+            this.name = name;
+            this.oid = oid;
+            this.signatureAlgorithm = signatureAlgorithm;
+        }
+
+        /**
+         * Gets the JCA digest name.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Is the digest length the one of the algorithm.
+         *
+         * @param digest the digest
+         * @return true if the length matches
+         * @throws GeneralSecurityException the algorithm is not available
+         */
+        public boolean matches(final byte[] digest) throws GeneralSecurityException {
+            return digest.length == MessageDigest.getInstance(name).getDigestLength();
+        }
+    }
+
+    /**
+     * A private key and its certificate chain.
+     */
+    private static final class SigningKey {
+
+        /** The private key. */
+        private final PrivateKey privateKey;
+
+        /** The chain, signing certificate first. */
+        private final List<X509Certificate> chain;
+
+        /**
+         * Instantiates a new signing key.
+         *
+         * @param privateKey the private key
+         * @param chain      the chain
+         */
+        SigningKey(final PrivateKey privateKey, final List<X509Certificate> chain) {
+            this.privateKey = privateKey;
+            this.chain = chain;
+        }
+    }
+
+    /**
+     * Digest calculator returning the digest sent by the client, the content being absent.
+     */
+    private static final class PrecomputedDigest implements DigestCalculatorProvider, DigestCalculator {
+
+        /** The algorithm. */
+        private final AlgorithmIdentifier algorithm;
+
+        /** The digest. */
+        private final byte[] digest;
+
+        /**
+         * Instantiates a new precomputed digest.
+         *
+         * @param algorithm the algorithm
+         * @param digest    the digest
+         */
+        PrecomputedDigest(final Algorithm algorithm, final byte[] digest) {
+            this.algorithm = new AlgorithmIdentifier(algorithm.oid);
+            this.digest = digest.clone();
+        }
+
+        @Override
+        public DigestCalculator get(final AlgorithmIdentifier digestAlgorithm) throws OperatorCreationException {
+            if (!algorithm.getAlgorithm().equals(digestAlgorithm.getAlgorithm())) {
+                throw new OperatorCreationException("Algorithme d'empreinte inattendu : "
+                        + digestAlgorithm.getAlgorithm());
+            }
+            return this;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return algorithm;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public byte[] getDigest() {
+            return Arrays.copyOf(digest, digest.length);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Admission des opérations dans le pool, par configuration : chaque configuration a au plus
+ * maxConcurrent opérations en cours, et les places libérées sont attribuées aux configurations en
+ * attente au prorata de leur poids (ordonnancement par pas, une configuration inactive ne
+ * capitalise pas de crédit). Une configuration chargée en masse n'affame donc pas les autres.
+ * Le temps d'attente est exporté par configuration (esignsante.operations.queue.wait).
+ */
+public final class FairQueue {
+
+    /** The lock. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** The flows with operations in flight or waiting, by lane key. */
+    private final Map<String, Flow> flows = new HashMap<>();
+
+    /** The number of places. */
+    private final int capacity;
+
+    /** The maximum wait in nanoseconds. */
+    private final long timeoutNanos;
+
+    /** Is the admission enabled. */
+    private final boolean enabled;
+
+    /** The meter registry. */
+    private final MeterRegistry registry;
+
+    /** The operations in flight. */
+    private int running;
+
+    /** The virtual time : the pass of the last admitted flow. */
+    private double virtualTime;
+
+    /**
+     * Instantiates a new fair queue.
+     *
+     * @param capacity      the number of places
+     * @param timeoutMillis the maximum wait in milliseconds
+     * @param enabled       is the admission enabled
+     * @param registry      the meter registry
+     */
+    public FairQueue(final int capacity, final long timeoutMillis, final boolean enabled,
+            final MeterRegistry registry) {
+        this.capacity = capacity;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.enabled = enabled;
+        this.registry = registry;
+    }
+
+    /**
+     * Takes a place for an operation of a lane, waiting at most the configured delay.
+     *
+     * @param lane the lane
+     * @return true if a place is taken, false after the maximum wait
+     * @throws InterruptedException the thread is interrupted while waiting
+     */
+    public boolean acquire(final Lane lane) throws InterruptedException {
+        if (!enabled) {
+            return true;
+        }
+        final long start = System.nanoTime();
+        lock.lock();
+        try {
+            Flow flow = flows.get(lane.key);
+            if (flow == null) {
+                flow = new Flow(lane, virtualTime);
+                flows.put(lane.key, flow);
+            }
+            flow.update(lane, capacity);
+            if (flow.waiters.isEmpty() && running < capacity && flow.inFlight < flow.maxConcurrent) {
+                admit(flow);
+                flow.wait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return true;
+            }
+            final Waiter waiter = new Waiter(lock.newCondition());
+            flow.waiters.add(waiter);
+            long nanos = timeoutNanos;
+            try {
+                while (!waiter.admitted) {
+                    if (nanos <= 0) {
+                        flow.waiters.remove(waiter);
+                        forget(flow);
+                        return false;
+                    }
+                    nanos = waiter.ready.awaitNanos(nanos);
+                }
+            } catch (final InterruptedException e) {
+                if (waiter.admitted) {
+                    leave(flow);
+                } else {
+                    flow.waiters.remove(waiter);
+                    forget(flow);
+                }
+                throw e;
+            } finally {
+                flow.wait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives the place of an operation back.
+     *
+     * @param lane the lane
+     */
+    public void release(final Lane lane) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            final Flow flow = flows.get(lane.key);
+            if (flow != null) {
+                leave(flow);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admits an operation of a flow.
+     *
+     * @param flow the flow
+     */
+    private void admit(final Flow flow) {
+        running++;
+        flow.inFlight++;
+        virtualTime = flow.pass;
+        flow.pass += 1.0 / flow.weight;
+    }
+
+    /**
+     * Ends an operation of a flow and gives its place to the waiting flow of lowest pass.
+     *
+     * @param flow the flow
+     */
+    private void leave(final Flow flow) {
+        running--;
+        flow.inFlight--;
+        while (running < capacity) {
+            Flow next = null;
+            for (final Flow candidate : flows.values()) {
+                if (!candidate.waiters.isEmpty() && candidate.inFlight < candidate.maxConcurrent
+                        && (next == null || candidate.pass < next.pass)) {
+                    next = candidate;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            final Waiter waiter = next.waiters.poll();
+            waiter.admitted = true;
+            admit(next);
+            waiter.ready.signal();
+        }
+        forget(flow);
+    }
+
+    /**
+     * Forgets an idle flow, which keeps no credit.
+     *
+     * @param flow the flow
+     */
+    private void forget(final Flow flow) {
+        if (flow.inFlight == 0 && flow.waiters.isEmpty()) {
+            flows.remove(flow.key);
+        }
+    }
+
+    /**
+     * Lane of an operation : the operation and its configuration, with the quota and weight
+     * declared by the configuration.
+     */
+    public static final class Lane {
+
+        /** The key. */
+        private final String key;
+
+        /** The operation. */
+        private final String operation;
+
+        /** The configuration id. */
+        private final String configuration;
+
+        /** The maximum number of operations in flight, null for no quota. */
+        private final Integer maxConcurrent;
+
+        /** The weight, null for 1. */
+        private final Integer weight;
+
+        /**
+         * Instantiates a new lane.
+         *
+         * @param operation     the operation
+         * @param configuration the configuration id
+         * @param maxConcurrent the maximum number of operations in flight, null for no quota
+         * @param weight        the weight, null for 1
+         */
+        private Lane(final String operation, final String configuration, final Integer maxConcurrent,
+                final Integer weight) {
+            this.key = operation + ":" + configuration;
+            this.operation = operation;
+            this.configuration = configuration;
+            this.maxConcurrent = maxConcurrent;
+            this.weight = weight;
+        }
+
+        /**
+         * Lane of an operation.
+         *
+         * @param operation     the operation : sign, validate or certificate
+         * @param configuration the configuration id
+         * @param maxConcurrent the maximum number of operations in flight, null for no quota
+         * @param weight        the weight, null for 1
+         * @return the lane
+         */
+        public static Lane of(final String operation, final Long configuration, final Integer maxConcurrent,
+                final Integer weight) {
+            return new Lane(operation, String.valueOf(configuration), maxConcurrent, weight);
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    /**
+     * Operations of a lane in flight and waiting.
+     */
+    private final class Flow {
+
+        /** The key. */
+        private final String key;
+
+        /** The waiting operations, in arrival order. */
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+        /** The wait timer. */
+        private final Timer wait;
+
+        /** The maximum number of operations in flight. */
+        private int maxConcurrent;
+
+        /** The weight. */
+        private int weight;
+
+        /** The operations in flight. */
+        private int inFlight;
+
+        /** The pass : the virtual time of the next admission. */
+        private double pass;
+
+        /**
+         * Instantiates a new flow.
+         *
+         * @param lane the lane
+         * @param pass the virtual time
+         */
+        private Flow(final Lane lane, final double pass) {
+            this.key = lane.key;
+            this.pass = pass;
+            this.wait = Timer.builder("esignsante.operations.queue.wait").tag("operation", lane.operation)
+                    .tag("configuration", lane.configuration)
+                    .description("Attente d'une place dans le pool des opérations").publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        /**
+         * Updates the quota and weight, the configuration being reloadable.
+         *
+         * @param lane     the lane
+         * @param capacity the number of places
+         */
+        private void update(final Lane lane, final int capacity) {
+            this.maxConcurrent = lane.maxConcurrent == null || lane.maxConcurrent <= 0 ? capacity
+                    : lane.maxConcurrent;
+            this.weight = lane.weight == null || lane.weight <= 0 ? 1 : lane.weight;
+        }
+    }
+
+    /**
+     * A waiting operation.
+     */
+    private static final class Waiter {
+
+        /** Signaled when the operation is admitted. */
+        private final Condition ready;
+
+        /** Is the operation admitted. */
+        private boolean admitted;
+
+        /**
+         * Instantiates a new waiter.
+         *
+         * @param ready the condition
+         */
+        private Waiter(final Condition ready) {
+            this.ready = ready;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Cache d'idempotence des opérations avec preuve : une requête rejouée par un client (même
+ * opération, mêmes configurations, même requestId, mêmes tokens OpenId, même document) dans la
+ * fenêtre config.idempotency.window reçoit la réponse de la première, headers compris, sans
+ * nouvelle signature, validation ni preuve. Une requête identique à une requête en cours attend sa
+ * réponse au plus config.idempotency.wait secondes, puis reçoit une réponse 409. Seules les
+ * réponses 2xx sont gardées : une requête en échec peut être rejouée. Le cache est borné en taille
+ * estimée des réponses (config.idempotency.max-weight) ; une réponse de plus de
+ * config.idempotency.max-response-size n'est pas gardée.
+ */
+@Component
+public class IdempotencyCache {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyCache.class);
+
+    /** Key separator. */
+    private static final char SEPARATOR = '\u0000';
+
+    /** Read buffer size. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Estimated weight of a response without its body and headers. */
+    private static final int BASE_WEIGHT = 256;
+
+    /** Response headers set outside of the response entity, replayed with the body. */
+    private static final List<String> REPLAYED_HEADERS = List.of(WsVars.HEADER_CACRL_GENERATION.getVar());
+
+    /** Responses kept, by key. */
+    private final Cache<String, Stored> responses;
+
+    /** In-flight computations, by key. */
+    private final Map<String, CompletableFuture<ResponseEntity<?>>> flights = new ConcurrentHashMap<>();
+
+    /** The maximum size of a response kept. */
+    private final long maxResponseSize;
+
+    /** The maximum wait for a request in flight, in seconds. */
+    private final long waitSeconds;
+
+    /** Is the cache enabled. */
+    private final boolean enabled;
+
+    /**
+     * Instantiates a new idempotency cache.
+     *
+     * @param windowSeconds   the replay window, 0 to disable the cache
+     * @param maxWeight       the maximum estimated size of the responses kept
+     * @param maxResponseSize the maximum estimated size of a response kept
+     * @param waitSeconds     the maximum wait for a request in flight
+     */
+    public IdempotencyCache(@Value("${config.idempotency.window:300}") final long windowSeconds,
+            @Value("${config.idempotency.max-weight:256MB}") final DataSize maxWeight,
+            @Value("${config.idempotency.max-response-size:16MB}") final DataSize maxResponseSize,
+            @Value("${config.idempotency.wait:60}") final long waitSeconds) {
+        this.enabled = windowSeconds > 0 && maxWeight.toBytes() > 0;
+        this.maxResponseSize = Math.min(maxResponseSize.toBytes(), Integer.MAX_VALUE);
+        this.waitSeconds = waitSeconds;
+        this.responses = CacheBuilder.newBuilder().maximumWeight(Math.max(maxWeight.toBytes(), 0))
+                .weigher((final String key, final Stored stored) -> stored.weight)
+                .expireAfterWrite(Math.max(windowSeconds, 0), TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * Runs an operation once per key in the window.
+     *
+     * @param <T>       the body type
+     * @param doc       the document of the request
+     * @param parts     the other parts of the key : operation, configuration ids, requestId...
+     * @param operation the operation
+     * @return the response entity, replayed for a duplicate request
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ResponseEntity<T> call(final MultipartFile doc, final List<?> parts,
+            final Supplier<ResponseEntity<T>> operation) {
+        if (!enabled) {
+            return operation.get();
+        }
+        final String key;
+        try {
+            key = key(doc, parts, openIdTokens());
+        } catch (final IOException e) {
+            log.warn("Empreinte du document impossible, requête traitée sans idempotence : {}", e.getMessage());
+            return operation.get();
+        }
+        while (true) {
+            final Stored stored = responses.getIfPresent(key);
+            if (stored != null) {
+                log.info("Requête {} déjà traitée, réponse rejouée", parts);
+                return (ResponseEntity<T>) stored.replay();
+            }
+            final CompletableFuture<ResponseEntity<?>> flight = new CompletableFuture<>();
+            final CompletableFuture<ResponseEntity<?>> first = flights.putIfAbsent(key, flight);
+            if (first == null) {
+                return (ResponseEntity<T>) compute(key, flight, operation);
+            }
+            try {
+                final ResponseEntity<?> re = first.get(waitSeconds, TimeUnit.SECONDS);
+                if (re.getStatusCode().is2xxSuccessful() && responses.getIfPresent(key) == null) {
+                    // réponse trop grande pour être gardée : la requête est traitée à nouveau
+                    log.info("Réponse de la requête {} non conservée, requête traitée", parts);
+                    return operation.get();
+                }
+                // réponse gardée, ou première requête en échec : nouvelle lecture du cache
+            } catch (final TimeoutException e) {
+                log.error("Requête {} identique à une requête en cours depuis plus de {} s", parts, waitSeconds);
+                return new ResponseEntity<>(HttpStatus.CONFLICT);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+            } catch (final ExecutionException e) {
+                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Computes the response of the first request of a key, kept if successful and small enough.
+     *
+     * @param key       the key
+     * @param flight    the in-flight computation
+     * @param operation the operation
+     * @return the response entity
+     */
+    private ResponseEntity<?> compute(final String key, final CompletableFuture<ResponseEntity<?>> flight,
+            final Supplier<? extends ResponseEntity<?>> operation) {
+        try {
+            final ResponseEntity<?> re = operation.get();
+            if (re.getStatusCode().is2xxSuccessful()) {
+                final Stored stored = Stored.of(re);
+                if (stored.weight <= maxResponseSize) {
+                    responses.put(key, stored);
+                } else {
+                    log.info("Réponse de {} octets non conservée pour l'idempotence", stored.weight);
+                }
+            }
+            flight.complete(re);
+            return re;
+        } catch (final RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * X-OpenidToken header values of the current request or operation : the tokens are written in
+     * the proof, the response of a caller is not replayed to another one.
+     *
+     * @return the values, empty without header
+     */
+    private static List<String> openIdTokens() {
+        final RequestSnapshot snapshot = RequestSnapshot.current();
+        if (snapshot != null) {
+            final String[] tokens = snapshot.getOpenIdTokens();
+            return tokens == null ? Collections.emptyList() : List.of(tokens);
+        }
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes) {
+            final ServletRequestAttributes attrs = (ServletRequestAttributes) RequestContextHolder
+                    .getRequestAttributes();
+            return Collections.list(attrs.getRequest().getHeaders("X-OpenidToken"));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Key of a request : its parts, the SHA-256 of the OpenId tokens and the SHA-256 of the document,
+     * read as a stream.
+     *
+     * @param doc    the document
+     * @param parts  the other parts
+     * @param tokens the X-OpenidToken header values
+     * @return the key
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static String key(final MultipartFile doc, final List<?> parts, final List<String> tokens)
+            throws IOException {
+        final MessageDigest digest = sha256();
+        try (InputStream in = doc.getInputStream()) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        final MessageDigest tokensDigest = sha256();
+        for (final String token : tokens) {
+            tokensDigest.update(token.getBytes(StandardCharsets.UTF_8));
+            tokensDigest.update((byte) SEPARATOR);
+        }
+        final StringBuilder key = new StringBuilder();
+        for (final Object part : parts) {
+            key.append(part).append(SEPARATOR);
+        }
+        key.append(HexFormat.of().formatHex(tokensDigest.digest())).append(SEPARATOR);
+        return key.append(HexFormat.of().formatHex(digest.digest())).toString();
+    }
+
+    /**
+     * New SHA-256 digest.
+     *
+     * @return the digest
+     * @throws IOException the algorithm is not available
+     */
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * A response kept : status, headers and body, with its estimated weight.
+     */
+    private static final class Stored {
+
+        /** The status. */
+        private final HttpStatusCode status;
+
+        /** The headers, those of the entity and those set on the servlet response. */
+        private final HttpHeaders headers;
+
+        /** The body. */
+        private final Object body;
+
+        /** The estimated weight. */
+        private final int weight;
+
+        /**
+         * Instantiates a new stored response.
+         *
+         * @param status  the status
+         * @param headers the headers
+         * @param body    the body
+         * @param weight  the estimated weight
+         */
+        private Stored(final HttpStatusCode status, final HttpHeaders headers, final Object body,
+                final int weight) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.weight = weight;
+        }
+
+        /**
+         * Keeps a response, with the headers set on the servlet response by the operation.
+         *
+         * @param re the response entity
+         * @return the stored response
+         */
+        private static Stored of(final ResponseEntity<?> re) {
+            final HttpHeaders headers = new HttpHeaders();
+            headers.addAll(re.getHeaders());
+            if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes) {
+                final ServletRequestAttributes attrs = (ServletRequestAttributes) RequestContextHolder
+                        .getRequestAttributes();
+                if (attrs.getResponse() != null) {
+                    for (final String name : REPLAYED_HEADERS) {
+                        final String value = attrs.getResponse().getHeader(name);
+                        if (value != null && !headers.containsKey(name)) {
+                            headers.set(name, value);
+                        }
+                    }
+                }
+            }
+            long weight = BASE_WEIGHT + weight(re.getBody());
+            for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+                for (final String value : header.getValue()) {
+                    weight += header.getKey().length() + value.length();
+                }
+            }
+            return new Stored(re.getStatusCode(), headers, re.getBody(), (int) Math.min(weight, Integer.MAX_VALUE));
+        }
+
+        /**
+         * Estimated weight of a body : report, bytes, text or parts of a multipart response.
+         *
+         * @param body the body
+         * @return the weight in bytes
+         */
+        private static long weight(final Object body) {
+            if (body instanceof StreamingReports.StreamedReport) {
+                return ((StreamingReports.StreamedReport) body).size();
+            } else if (body instanceof byte[]) {
+                return ((byte[]) body).length;
+            } else if (body instanceof String) {
+                return ((String) body).length();
+            } else if (body instanceof HttpEntity) {
+                return weight(((HttpEntity<?>) body).getBody());
+            } else if (body instanceof MultiValueMap) {
+                long weight = 0;
+                for (final List<?> values : ((MultiValueMap<?, ?>) body).values()) {
+                    for (final Object value : values) {
+                        weight += weight(value);
+                    }
+                }
+                return weight;
+            }
+            return 0;
+        }
+
+        /**
+         * Response entity replaying the response.
+         *
+         * @return the response entity
+         */
+        private ResponseEntity<?> replay() {
+            return new ResponseEntity<>(body, headers, status);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Asynchronous job : an operation run on the operation pool, whose response is kept on disk
+ * until the job is deleted or expires.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Job {
+
+    /**
+     * Job status.
+     */
+    public enum Statut {
+        /** Waiting for a thread. */
+        EN_ATTENTE,
+        /** Running. */
+        EN_COURS,
+        /** Done, the response is available. */
+        TERMINE
+    }
+
+    /** The id. */
+    private final String id;
+
+    /** The operation. */
+    private final String operation;
+
+    /** The creation date. */
+    private final Date dateCreation = new Date();
+
+    /** Completed when the job is done. */
+    private final CompletableFuture<Job> done = new CompletableFuture<>();
+
+    /** The status. */
+    private volatile Statut statut = Statut.EN_ATTENTE;
+
+    /** The HTTP status of the response, once done. */
+    private volatile Integer codeRetour;
+
+    /** The content type of the response body, null without body. */
+    private volatile String contentType;
+
+    /** The end date. */
+    private volatile Date dateFin;
+
+    /** The task on the operation pool. */
+    private volatile Future<?> task;
+
+    /**
+     * Instantiates a new job.
+     *
+     * @param id        the id
+     * @param operation the operation
+     */
+    public Job(final String id, final String operation) {
+        this.id = id;
+        this.operation = operation;
+    }
+
+    /**
+     * Gets the id.
+     *
+     * @return the id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the operation.
+     *
+     * @return the operation
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Gets the status.
+     *
+     * @return the status
+     */
+    public Statut getStatut() {
+        return statut;
+    }
+
+    /**
+     * Gets the HTTP status of the response.
+     *
+     * @return the HTTP status, null until done
+     */
+    public Integer getCodeRetour() {
+        return codeRetour;
+    }
+
+    /**
+     * Gets the creation date.
+     *
+     * @return the creation date
+     */
+    public Date getDateCreation() {
+        return dateCreation;
+    }
+
+    /**
+     * Gets the end date.
+     *
+     * @return the end date, null until done
+     */
+    public Date getDateFin() {
+        return dateFin;
+    }
+
+    /**
+     * Gets the content type of the response body.
+     *
+     * @return the content type, null without body
+     */
+    @JsonIgnore
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Future completed when the job is done.
+     *
+     * @return the future
+     */
+    @JsonIgnore
+    public CompletableFuture<Job> whenDone() {
+        return done;
+    }
+
+    /**
+     * Sets the task on the operation pool.
+     *
+     * @param task the task
+     */
+    void setTask(final Future<?> task) {
+        this.task = task;
+    }
+
+    /**
+     * Marks the job as running.
+     */
+    void start() {
+        statut = Statut.EN_COURS;
+    }
+
+    /**
+     * Marks the job as done.
+     *
+     * @param code the HTTP status of the response
+     * @param type the content type of the response body, null without body
+     */
+    void finish(final int code, final String type) {
+        codeRetour = code;
+        contentType = type;
+        dateFin = new Date();
+        statut = Statut.TERMINE;
+        done.complete(this);
+    }
+
+    /**
+     * Cancels the task if not done.
+     */
+    void cancel() {
+        final Future<?> current = task;
+        if (current != null) {
+            current.cancel(true);
+        }
+        done.complete(this);
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Jobs asynchrones : les opérations sont admises par configuration (voir FairQueue) et exécutées
+ * sur le pool des opérations, comme les appels synchrones ; leurs réponses sont écrites dans un
+ * répertoire local et supprimées, avec le job, config.jobs.ttl secondes après la fin du job.
+ */
+@Component
+public class JobStore {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(JobStore.class);
+
+    /** Result file suffix. */
+    private static final String RESULT_SUFFIX = ".job";
+
+    /** Mapper of the responses, configured as the JSON message converter. */
+    private static final ObjectMapper MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    /** The jobs, by id. */
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    /** The operation pool. */
+    private final OperationExecutor operations;
+
+    /** The result directory. */
+    private final Path directory;
+
+    /** Time to live of a done job, in milliseconds. */
+    private final long ttlMillis;
+
+    /**
+     * Instantiates a new job store. The results left by a previous run are deleted.
+     *
+     * @param operations the operation pool
+     * @param directory  the result directory, empty for a directory in java.io.tmpdir
+     * @param ttlSeconds time to live of a done job
+     * @throws IOException the directory cannot be created
+     */
+    public JobStore(final OperationExecutor operations, @Value("${config.jobs.directory:}") final String directory,
+            @Value("${config.jobs.ttl:3600}") final long ttlSeconds) throws IOException {
+        this.operations = operations;
+        this.directory = directory.isEmpty() ? Paths.get(System.getProperty("java.io.tmpdir"), "esignsante-jobs")
+                : Paths.get(directory);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        Files.createDirectories(this.directory);
+        try (DirectoryStream<Path> results = Files.newDirectoryStream(this.directory, "*" + RESULT_SUFFIX)) {
+            for (final Path result : results) {
+                Files.deleteIfExists(result);
+            }
+        }
+    }
+
+    /**
+     * Submits an operation as a job, admitted for its lane like a synchronous call : the caller
+     * waits for admission, then the job is queued in the pool and holds its place until done.
+     *
+     * @param operation the operation name
+     * @param snapshot  the request snapshot
+     * @param lane      the lane of the operation
+     * @param task      the operation
+     * @param resource  released once the operation is done, or cancelled before it ran (the spooled
+     *                  document)
+     * @return the job
+     * @throws RejectedExecutionException the operation queue is full or the admission wait too long
+     */
+    public Job submit(final String operation, final RequestSnapshot snapshot, final FairQueue.Lane lane,
+            final Callable<ResponseEntity<?>> task, final Closeable resource) {
+        final Job job = new Job(UUID.randomUUID().toString(), operation);
+        // la ressource appartient à l'exécution si elle démarre, à l'annulation sinon
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final FutureTask<Void> future = new FutureTask<>(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            job.start();
+            try (resource) {
+                store(job, task.call());
+            } catch (final Exception e) {
+                log.error("Job {} en échec : {}", job.getId(), ExceptionUtils.getStackTrace(e));
+                job.finish(HttpStatus.INTERNAL_SERVER_ERROR.value(), null);
+            }
+            return null;
+        }) {
+            @Override
+            protected void done() {
+                if (claimed.compareAndSet(false, true)) {
+                    release(job, resource);
+                }
+            }
+        };
+        job.setTask(future);
+        jobs.put(job.getId(), job);
+        try {
+            operations.admitted(snapshot, lane).execute(future);
+        } catch (final RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * Gets a job.
+     *
+     * @param id the id
+     * @return the job, empty if unknown or expired
+     */
+    public Optional<Job> get(final String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * Gets the response body of a done job.
+     *
+     * @param job the job
+     * @return the file, empty without body
+     */
+    public Optional<Path> result(final Job job) {
+        final Path result = resultPath(job);
+        return job.getContentType() != null && Files.exists(result) ? Optional.of(result) : Optional.empty();
+    }
+
+    /**
+     * Removes a job, cancelled if not done, and its response.
+     *
+     * @param id the id
+     * @return false if unknown
+     */
+    public boolean remove(final String id) {
+        final Job job = jobs.remove(id);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        delete(job);
+        return true;
+    }
+
+    /**
+     * Removes the expired jobs.
+     */
+    @Scheduled(fixedDelayString = "${config.jobs.cleanup:60000}")
+    public void purge() {
+        final long expired = System.currentTimeMillis() - ttlMillis;
+        jobs.values().removeIf(job -> {
+            if (job.getDateFin() != null && job.getDateFin().getTime() < expired) {
+                delete(job);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Writes the response of a job.
+     *
+     * @param job      the job
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void store(final Job job, final ResponseEntity<?> response) throws IOException {
+        final Object body = response.getBody();
+        String contentType = null;
+        if (body != null) {
+            final MediaType type = response.getHeaders().getContentType();
+            contentType = type == null ? MediaType.APPLICATION_JSON_VALUE : type.toString();
+            final Path temp = Files.createTempFile(directory, job.getId(), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    if (body instanceof StreamingReports.StreamedReport) {
+                        try (JsonGenerator gen = MAPPER.getFactory().createGenerator(out)) {
+                            ((StreamingReports.StreamedReport) body).writeTo(gen);
+                        }
+                    } else if (body instanceof byte[]) {
+                        out.write((byte[]) body);
+                    } else {
+                        MAPPER.writeValue(out, body);
+                    }
+                }
+                Files.move(temp, resultPath(job), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        job.finish(response.getStatusCode().value(), contentType);
+        if (!jobs.containsKey(job.getId())) {
+            // supprimé pendant son exécution
+            delete(job);
+        }
+    }
+
+    /**
+     * Releases the resource of a job cancelled before it ran.
+     *
+     * @param job      the job
+     * @param resource the resource, may be null
+     */
+    private static void release(final Job job, final Closeable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (final IOException e) {
+            log.warn("Libération du document du job {} impossible : {}", job.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the response of a job.
+     *
+     * @param job the job
+     */
+    private void delete(final Job job) {
+        try {
+            Files.deleteIfExists(resultPath(job));
+        } catch (final IOException e) {
+            log.warn("Suppression du résultat du job {} impossible : {}", job.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Path of the response of a job.
+     *
+     * @param job the job
+     * @return the path
+     */
+    private Path resultPath(final Job job) {
+        return directory.resolve(job.getId() + RESULT_SUFFIX);
+    }
+}
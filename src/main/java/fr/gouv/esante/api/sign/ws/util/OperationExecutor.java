@@ -0,0 +1,246 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pool des opérations de signature et de validation, partagé par les appels synchrones et les
+ * jobs asynchrones : le nombre d'opérations en cours et en attente est borné une seule fois pour
+ * les deux. Une opération refusée (file pleine) est une réponse 503. Les appels synchrones et les
+ * jobs sont admis dans le pool par configuration (quota et poids déclarés par la configuration, voir
+ * FairQueue) ; une opération qui attend plus de config.operations.fairness.queue-timeout
+ * millisecondes est aussi une réponse 503. Les documents d'un lot sont admis un par un dans la
+ * voie de leur configuration, comme autant d'opérations synchrones.
+ */
+@Component
+public class OperationExecutor {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(OperationExecutor.class);
+
+    /**
+     * Request attribute of the time spent in the pool by the operations of the request (admission,
+     * queue and run), in nanoseconds : the latency sample of the concurrency limits.
+     */
+    public static final String ELAPSED_ATTRIBUTE = OperationExecutor.class.getName() + ".elapsed";
+
+    /**
+     * Request attribute set when an operation of the request was refused for lack of capacity (queue
+     * full or admission wait too long) : the overload signal of the concurrency limits.
+     */
+    public static final String REJECTED_ATTRIBUTE = OperationExecutor.class.getName() + ".rejected";
+
+    /** Is the current thread a worker of the pool. */
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /** The pool. */
+    private final ThreadPoolExecutor pool;
+
+    /** The admission of the synchronous calls, by configuration. */
+    private final FairQueue fairQueue;
+
+    /**
+     * Instantiates a new operation executor.
+     *
+     * @param threads         the number of threads, twice the number of processors when 0
+     * @param queueCapacity   the number of operations waiting for a thread
+     * @param fairness        is the admission by configuration enabled
+     * @param fairnessTimeout the maximum wait for admission in milliseconds
+     * @param registry        the meter registry
+     */
+    public OperationExecutor(@Value("${config.operations.threads:0}") final int threads,
+            @Value("${config.operations.queue-capacity:200}") final int queueCapacity,
+            @Value("${config.operations.fairness.enabled:true}") final boolean fairness,
+            @Value("${config.operations.fairness.queue-timeout:30000}") final long fairnessTimeout,
+            final MeterRegistry registry) {
+        final int size = threads > 0 ? threads : 2 * Runtime.getRuntime().availableProcessors();
+        final AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+                    final Thread t = new Thread(() -> {
+                        WORKER.set(Boolean.TRUE);
+                        r.run();
+                    }, "operation-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.fairQueue = new FairQueue(size, fairnessTimeout, fairness, registry);
+    }
+
+    /**
+     * Submits an operation, run with the snapshot of its request, already admitted for its lane.
+     *
+     * @param <T>       the result type
+     * @param snapshot  the request snapshot
+     * @param operation the operation
+     * @return the future result
+     * @throws RejectedExecutionException the queue is full
+     */
+    private <T> Future<T> submit(final RequestSnapshot snapshot, final Callable<T> operation) {
+        return pool.submit(() -> snapshot.call(operation));
+    }
+
+    /**
+     * Runs an operation on the pool and waits for its response, once admitted for its lane. An
+     * operation called from a worker (an asynchronous job running a synchronous operation) is run in
+     * place, being already accounted for.
+     *
+     * @param <T>       the body type
+     * @param snapshot  the request snapshot
+     * @param lane      the lane of the operation
+     * @param operation the operation
+     * @return the response entity, 503 if the queue is full or the admission wait too long
+     */
+    public <T> ResponseEntity<T> call(final RequestSnapshot snapshot, final FairQueue.Lane lane,
+            final Callable<ResponseEntity<T>> operation) {
+        try {
+            if (WORKER.get()) {
+                return snapshot.call(operation);
+            }
+            final long start = System.nanoTime();
+            try {
+                if (!fairQueue.acquire(lane)) {
+                    log.error("Pas de place dans le pool des opérations pour {}", lane);
+                    rejected();
+                    return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+                }
+                try {
+                    return await(submit(snapshot, operation));
+                } finally {
+                    fairQueue.release(lane);
+                }
+            } finally {
+                elapsed(System.nanoTime() - start);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (final RejectedExecutionException e) {
+            log.error("File des opérations pleine ({} en attente)", pool.getQueue().size());
+            rejected();
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (final Exception e) {
+            log.error(ExceptionUtils.getStackTrace(e));
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Executor of the operations of a lane, for the documents of a batch : each operation is admitted
+     * for its lane before being queued in the pool, the caller waiting for admission, and gives its
+     * place back once run (or skipped, when cancelled in the queue).
+     *
+     * @param snapshot the request snapshot
+     * @param lane     the lane of the operations
+     * @return the executor, which throws RejectedExecutionException when the queue is full, the
+     *         admission wait too long or the caller interrupted
+     */
+    public Executor admitted(final RequestSnapshot snapshot, final FairQueue.Lane lane) {
+        return command -> {
+            try {
+                if (!fairQueue.acquire(lane)) {
+                    throw new RejectedExecutionException("Pas de place dans le pool des opérations pour " + lane);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+            try {
+                pool.execute(() -> {
+                    try {
+                        snapshot.call(Executors.callable(command));
+                    } catch (final Exception e) {
+                        log.error(ExceptionUtils.getStackTrace(e));
+                    } finally {
+                        fairQueue.release(lane);
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                fairQueue.release(lane);
+                log.error("File des opérations pleine ({} en attente)", pool.getQueue().size());
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Adds the time spent in the pool to the request, see {@link #ELAPSED_ATTRIBUTE}.
+     *
+     * @param nanos the time spent in nanoseconds
+     */
+    private static void elapsed(final long nanos) {
+        final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            final Object previous = attributes.getAttribute(ELAPSED_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            attributes.setAttribute(ELAPSED_ATTRIBUTE, previous instanceof Long ? (Long) previous + nanos : nanos,
+                    RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    /**
+     * Marks the request as refused for lack of capacity, see {@link #REJECTED_ATTRIBUTE}.
+     */
+    private static void rejected() {
+        final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.setAttribute(REJECTED_ATTRIBUTE, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    /**
+     * Waits for the response of an operation.
+     *
+     * @param <T>    the body type
+     * @param future the future response
+     * @return the response entity
+     */
+    private static <T> ResponseEntity<T> await(final Future<ResponseEntity<T>> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            log.error(ExceptionUtils.getStackTrace(e.getCause()));
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Stops the pool.
+     */
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Démarre le suivi des étapes d'une opération (voir PipelineStages), pour la requête courante ou
+ * pour l'opération d'un job exécutée sur un thread du pool. Le header Server-Timing et le bloc
+ * timings des rapports JSON sont activés par config.timings.header et config.timings.report.
+ * Les meters sont gardés par type, endpoint et configuration. Les documents des traitements par lot
+ * ne sont pas suivis : ils partagent le RequestSnapshot de la requête sur plusieurs threads.
+ */
+@Component
+public class PipelineMetrics {
+
+    /** The meter registry. */
+    private final MeterRegistry registry;
+
+    /** Is the Server-Timing header written. */
+    private final boolean header;
+
+    /** The meters by type, endpoint and configuration. */
+    private final ConcurrentMap<List<String>, PipelineStages.Meters> meters = new ConcurrentHashMap<>();
+
+    /** Is the timings block written in the JSON reports. */
+    private final boolean report;
+
+    /**
+     * Instantiates a new pipeline metrics.
+     *
+     * @param registry the meter registry
+     * @param header   is the Server-Timing header written
+     * @param report   is the timings block written in the JSON reports
+     */
+    public PipelineMetrics(final MeterRegistry registry,
+            @Value("${config.timings.header:false}") final boolean header,
+            @Value("${config.timings.report:false}") final boolean report) {
+        this.registry = registry;
+        this.header = header;
+        this.report = report;
+    }
+
+    /**
+     * Is the Server-Timing header written.
+     *
+     * @return true if the header is enabled
+     */
+    public boolean isServerTimingEnabled() {
+        return header;
+    }
+
+    /**
+     * Starts the stages of an operation.
+     *
+     * @param type          the signature type, or CERTIFICAT for a certificate validation
+     * @param configuration the configuration id
+     * @return the stages of the operation
+     */
+    public PipelineStages begin(final String type, final Long configuration) {
+        final RequestSnapshot snapshot = RequestSnapshot.current();
+        final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        final String endpoint;
+        if (snapshot != null) {
+            endpoint = snapshot.getPath();
+        } else if (attributes instanceof ServletRequestAttributes) {
+            final HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+            endpoint = request.getRequestURI().substring(request.getContextPath().length());
+        } else {
+            return PipelineStages.NONE;
+        }
+        final String endpointTag = String.valueOf(endpoint);
+        final String configurationTag = String.valueOf(configuration);
+        final PipelineStages stages = new PipelineStages(meters.computeIfAbsent(
+                List.of(type, endpointTag, configurationTag),
+                key -> new PipelineStages.Meters(registry, type, endpointTag, configurationTag)),
+                type, endpointTag, configurationTag, header, report);
+        if (snapshot != null) {
+            snapshot.setStages(stages);
+        } else {
+            attributes.setAttribute(PipelineStages.ATTRIBUTE, stages, RequestAttributes.SCOPE_REQUEST);
+        }
+        return stages;
+    }
+}
@@ -0,0 +1,376 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.EventType;
+
+/**
+ * Durées des étapes d'une opération (lecture du document, recherche de la configuration, contrôle
+ * du secret et du certificat, signature, validation, preuve, sérialisation de la réponse), en
+ * timers esignsante.pipeline.stage tagués par étape, type de signature, endpoint et configuration,
+ * avec des buckets SLO. La taille des documents est une distribution
+ * esignsante.pipeline.document.size. Les étapes d'une requête sont suivies par l'objet rangé dans
+ * la requête, puis dans le RequestSnapshot de l'opération pour les threads du pool. Les meters
+ * sont créés une fois par jeu de tags et par étape (voir Meters), puis réutilisés par les requêtes.
+ * Sur option, les durées de la requête sont aussi cumulées par étape, pour le header Server-Timing
+ * et le bloc timings des rapports JSON ; sans option, aucun tableau n'est alloué. Pendant un
+ * enregistrement JFR, chaque étape est aussi un événement fr.gouv.esante.sign.Stage.
+ */
+public final class PipelineStages {
+
+    /** Request attribute of the stages of the request. */
+    public static final String ATTRIBUTE = PipelineStages.class.getName();
+
+    /** Stages of the operations outside of a request : nothing is recorded. */
+    public static final PipelineStages NONE = new PipelineStages(null, null, null, null, false, false);
+
+    /** Stage timer name. */
+    private static final String STAGE_TIMER = "esignsante.pipeline.stage";
+
+    /** Document size summary name. */
+    private static final String DOCUMENT_SIZE = "esignsante.pipeline.document.size";
+
+    /** The JFR stage event type. */
+    private static final EventType STAGE_EVENT = EventType.getEventType(StageEvent.class);
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    /** SLO buckets of the stages. */
+    private static final Duration[] STAGE_SLOS = {Duration.ofMillis(10), Duration.ofMillis(50),
+        Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofSeconds(1),
+        Duration.ofMillis(2500), Duration.ofSeconds(5), Duration.ofSeconds(10), Duration.ofSeconds(30)};
+
+    /** SLO buckets of the document sizes, in bytes. */
+    private static final double[] SIZE_SLOS = {10_240, 102_400, 1_048_576, 10_485_760, 52_428_800, 104_857_600,
+        209_715_200};
+
+    /** The meters of the operation, null when nothing is recorded. */
+    private final Meters meters;
+
+    /** The signature type. */
+    private final String type;
+
+    /** The endpoint. */
+    private final String endpoint;
+
+    /** The configuration id. */
+    private final String configuration;
+
+    /** Is the Server-Timing header written. */
+    private final boolean header;
+
+    /** Is the timings block written in the JSON reports. */
+    private final boolean report;
+
+    /** The elapsed nanoseconds by stage, null when neither the header nor the block is written. */
+    private final long[] elapsed;
+
+    /** The size of the document. */
+    private long documentSize;
+
+    /** The JFR event of the stage in progress. */
+    private StageEvent event;
+
+    /**
+     * A stage.
+     */
+    public enum Stage {
+
+        /** Spooling of the uploaded document. */
+        MULTIPART("multipart"),
+
+        /** Configuration lookup. */
+        CONFIG("config"),
+
+        /** Secret check. */
+        SECRET("secret"),
+
+        /** Signing certificate check. */
+        CERTIFICATE("certificate"),
+
+        /** Signature of the document. */
+        SIGN("sign"),
+
+        /** Validation of the signature or of the certificate. */
+        VALIDATION("validation"),
+
+        /** Proof generation. */
+        PROOF("proof"),
+
+        /** Proof signature. */
+        PROOF_SIGN("proof_sign"),
+
+        /** Response serialization. */
+        SERIALIZATION("serialization");
+
+        /** The tag value. */
+        private final String tag;
+
+        /**
+         * Instantiates a new stage.
+         *
+         * @param tag the tag value
+         */
+        Stage(final String tag) {
+            this.tag = tag;
+        }
+
+        /**
+         * Gets the tag value.
+         *
+         * @return the tag value
+         */
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    /**
+     * Meters of a set of tags : the stage timers, registered on their first record, and the document
+     * size summary.
+     */
+    static final class Meters {
+
+        /** The meter registry. */
+        private final MeterRegistry registry;
+
+        /** The tags of the operations. */
+        private final Tags tags;
+
+        /** The timers by stage ordinal. */
+        private final AtomicReferenceArray<Timer> timers = new AtomicReferenceArray<>(Stage.values().length);
+
+        /** The document size summary. */
+        private volatile DistributionSummary documentSize;
+
+        /**
+         * Instantiates new meters.
+         *
+         * @param registry      the meter registry
+         * @param type          the signature type
+         * @param endpoint      the endpoint
+         * @param configuration the configuration id
+         */
+        Meters(final MeterRegistry registry, final String type, final String endpoint, final String configuration) {
+            this.registry = registry;
+            this.tags = Tags.of("type", type, "endpoint", endpoint, "configuration", configuration);
+        }
+
+        /**
+         * Gets the timer of a stage.
+         *
+         * @param stage the stage
+         * @return the timer
+         */
+        Timer timer(final Stage stage) {
+            Timer timer = timers.get(stage.ordinal());
+            if (timer == null) {
+                // deux threads peuvent l'enregistrer en même temps : le registry rend le même timer
+                timer = Timer.builder(STAGE_TIMER).tags(tags).tag("stage", stage.getTag())
+                        .description("Durée des étapes des opérations").serviceLevelObjectives(STAGE_SLOS)
+                        .register(registry);
+                timers.set(stage.ordinal(), timer);
+            }
+            return timer;
+        }
+
+        /**
+         * Gets the document size summary.
+         *
+         * @return the summary
+         */
+        DistributionSummary documentSize() {
+            DistributionSummary summary = documentSize;
+            if (summary == null) {
+                summary = DistributionSummary.builder(DOCUMENT_SIZE).tags(tags).baseUnit("bytes")
+                        .description("Taille des documents reçus").serviceLevelObjectives(SIZE_SLOS)
+                        .register(registry);
+                documentSize = summary;
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * Instantiates new stages.
+     *
+     * @param meters        the meters of the operation, null when nothing is recorded
+     * @param type          the signature type
+     * @param endpoint      the endpoint
+     * @param configuration the configuration id
+     * @param header        is the Server-Timing header written
+     * @param report        is the timings block written in the JSON reports
+     */
+    PipelineStages(final Meters meters, final String type, final String endpoint,
+            final String configuration, final boolean header, final boolean report) {
+        this.meters = meters;
+        this.type = type;
+        this.endpoint = endpoint;
+        this.configuration = configuration;
+        this.header = header;
+        this.report = report;
+        this.elapsed = header || report ? new long[Stage.values().length] : null;
+    }
+
+    /**
+     * Stages of the operation of the current thread : the one of the RequestSnapshot on a worker
+     * of the pool, else the one of the current request.
+     *
+     * @return the stages, NONE outside of an operation
+     */
+    public static PipelineStages current() {
+        final RequestSnapshot snapshot = RequestSnapshot.current();
+        if (snapshot != null) {
+            return snapshot.getStages();
+        }
+        final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            final Object stages = attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            if (stages instanceof PipelineStages) {
+                return (PipelineStages) stages;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Starts a stage.
+     *
+     * @param stage the stage
+     * @return the start, in nanoseconds
+     */
+    public long start(final Stage stage) {
+        if (meters != null && STAGE_EVENT.isEnabled()) {
+            close();
+            event = new StageEvent();
+            event.stage = stage.getTag();
+            event.begin();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a stage.
+     *
+     * @param stage the stage
+     * @param start the start, see {@link #start(Stage)}
+     */
+    public void record(final Stage stage, final long start) {
+        if (meters == null) {
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+        if (elapsed != null) {
+            elapsed[stage.ordinal()] += nanos;
+        }
+        commit("success");
+        meters.timer(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the size of a document.
+     *
+     * @param bytes the size in bytes
+     */
+    public void documentSize(final long bytes) {
+        if (meters == null) {
+            return;
+        }
+        documentSize = bytes;
+        meters.documentSize().record(bytes);
+    }
+
+    /**
+     * Ends the JFR event of a stage left in progress by a failure.
+     */
+    public void close() {
+        commit("error");
+    }
+
+    /**
+     * Commits the JFR event of the stage in progress.
+     *
+     * @param outcome the outcome
+     */
+    private void commit(final String outcome) {
+        final StageEvent current = event;
+        if (current == null) {
+            return;
+        }
+        event = null;
+        current.end();
+        if (current.shouldCommit()) {
+            final RequestSnapshot snapshot = RequestSnapshot.current();
+            current.type = type;
+            current.endpoint = endpoint;
+            current.configuration = configuration;
+            current.documentSize = documentSize;
+            current.generation = snapshot == null ? CaCrlServiceLoader.getGeneration()
+                    : snapshot.getCaCrlGeneration().getGeneration();
+            current.outcome = outcome;
+            current.commit();
+        }
+    }
+
+    /**
+     * Value of the Server-Timing header : the elapsed milliseconds of each stage run so far.
+     *
+     * @return the header value, null when the header is not written or no stage has run
+     */
+    public String serverTiming() {
+        if (!header) {
+            return null;
+        }
+        final StringBuilder value = new StringBuilder();
+        for (final Stage stage : Stage.values()) {
+            final long nanos = elapsed[stage.ordinal()];
+            if (nanos > 0) {
+                if (value.length() > 0) {
+                    value.append(", ");
+                }
+                value.append(stage.getTag()).append(";dur=")
+                        .append(String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI));
+            }
+        }
+        return value.length() == 0 ? null : value.toString();
+    }
+
+    /**
+     * Writes the timings block of a JSON report : the elapsed milliseconds of each stage run so far.
+     *
+     * @param gen the generator
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void writeTimings(final JsonGenerator gen) throws IOException {
+        if (!report) {
+            return;
+        }
+        gen.writeObjectFieldStart("timings");
+        for (final Stage stage : Stage.values()) {
+            final long nanos = elapsed[stage.ordinal()];
+            if (nanos > 0) {
+                gen.writeNumberField(stage.getTag(), nanos / NANOS_PER_MILLI);
+            }
+        }
+        gen.writeEndObject();
+    }
+}
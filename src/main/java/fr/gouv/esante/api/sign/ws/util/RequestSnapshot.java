@@ -0,0 +1,177 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.Callable;
+
+import fr.gouv.esante.api.sign.config.utils.CaCrlGeneration;
+import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Copie des éléments d'une requête utilisés par les opérations (header Accept, tokens OpenId,
+ * context path, chemin) et de la génération des AC/CRL qu'elle a épinglée, pour exécuter
+ * l'opération sur un thread du pool, y compris après la fin de la requête HTTP (jobs asynchrones).
+ * Porte aussi le suivi des étapes de l'opération (PipelineStages).
+ */
+public final class RequestSnapshot {
+
+    /** Snapshot of the operation running on the current thread. */
+    private static final ThreadLocal<RequestSnapshot> CURRENT = new ThreadLocal<>();
+
+    /** The Accept header. */
+    private final String accept;
+
+    /** The X-OpenidToken header values. */
+    private final String[] openIdTokens;
+
+    /** The context path. */
+    private final String contextPath;
+
+    /** The request path, without the context path. */
+    private final String path;
+
+    /** The stages of the operation. */
+    private volatile PipelineStages stages;
+
+    /** The CA/CRL generation, pinned on first use when not pinned by the request. */
+    private CaCrlGeneration caCrlGeneration;
+
+    /**
+     * Instantiates a new request snapshot.
+     *
+     * @param accept          the Accept header
+     * @param openIdTokens    the X-OpenidToken header values
+     * @param contextPath     the context path
+     * @param path            the request path, without the context path
+     * @param stages          the stages of the operation
+     * @param caCrlGeneration the CA/CRL generation pinned by the request, null to pin it on first use
+     */
+    private RequestSnapshot(final String accept, final String[] openIdTokens, final String contextPath,
+            final String path, final PipelineStages stages, final CaCrlGeneration caCrlGeneration) {
+        this.accept = accept;
+        this.openIdTokens = openIdTokens;
+        this.contextPath = contextPath;
+        this.path = path;
+        this.stages = stages;
+        this.caCrlGeneration = caCrlGeneration;
+    }
+
+    /**
+     * Copies a request.
+     *
+     * @param request         the request
+     * @param caCrlGeneration the CA/CRL generation pinned by the request, null to pin it on first use
+     * @return the request snapshot
+     */
+    public static RequestSnapshot of(final HttpServletRequest request, final CaCrlGeneration caCrlGeneration) {
+        final Enumeration<String> headers = request.getHeaders("X-OpenidToken");
+        final String[] tokens = headers == null ? new String[0] : Collections.list(headers).toArray(new String[0]);
+        final Object stages = request.getAttribute(PipelineStages.ATTRIBUTE);
+        return new RequestSnapshot(request.getHeader("Accept"), tokens.length == 0 ? null : tokens,
+                request.getContextPath(), request.getRequestURI().substring(request.getContextPath().length()),
+                stages instanceof PipelineStages ? (PipelineStages) stages : PipelineStages.NONE, caCrlGeneration);
+    }
+
+    /**
+     * Gets the snapshot of the operation running on the current thread.
+     *
+     * @return the request snapshot, null outside of an operation
+     */
+    public static RequestSnapshot current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs a task with this snapshot as the current one.
+     *
+     * @param <T>  the result type
+     * @param task the task
+     * @return the result
+     * @throws Exception the task failed
+     */
+    public <T> T call(final Callable<T> task) throws Exception {
+        final RequestSnapshot previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                stages.close();
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Gets the Accept header.
+     *
+     * @return the Accept header
+     */
+    public String getAccept() {
+        return accept;
+    }
+
+    /**
+     * Gets the X-OpenidToken header values.
+     *
+     * @return the values, null without header
+     */
+    public String[] getOpenIdTokens() {
+        return openIdTokens == null ? null : openIdTokens.clone();
+    }
+
+    /**
+     * Gets the context path.
+     *
+     * @return the context path
+     */
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    /**
+     * Gets the request path.
+     *
+     * @return the request path, without the context path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the stages of the operation.
+     *
+     * @return the stages
+     */
+    public PipelineStages getStages() {
+        return stages;
+    }
+
+    /**
+     * Sets the stages of the operation, started on a worker of the pool (job).
+     *
+     * @param stages the stages
+     */
+    public void setStages(final PipelineStages stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * Gets the CA/CRL generation of the operation.
+     *
+     * @return the CA/CRL generation
+     */
+    public synchronized CaCrlGeneration getCaCrlGeneration() {
+        if (caCrlGeneration == null) {
+            caCrlGeneration = CaCrlServiceLoader.current();
+        }
+        return caCrlGeneration;
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import fr.gouv.esante.api.sign.ws.bean.object.SignatureConf;
+
+/**
+ * Cache des vérifications de secret des configurations de signature.
+ * Evite de rejouer les BCrypt.checkpw pour un couple (configuration, secret) déjà vérifié.
+ * Les secrets ne sont jamais conservés en clair : la clé de cache est un HMAC calculé avec une
+ * clé générée au démarrage et qui ne quitte pas la mémoire du serveur.
+ * Au-delà d'un nombre d'échecs par configuration sur une fenêtre, les secrets inconnus sont refusés
+ * sans BCrypt jusqu'à la fin de la fenêtre ; les secrets déjà vérifiés restent acceptés.
+ */
+@Component
+public class SecretVerificationCache {
+
+    /** The Constant HMAC_ALGO. */
+    private static final String HMAC_ALGO = "HmacSHA256";
+
+    /** The Constant HMAC_KEY_LENGTH. */
+    private static final int HMAC_KEY_LENGTH = 32;
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(SecretVerificationCache.class);
+
+    /** The HMAC key, regenerated on each start. */
+    private final SecretKeySpec hmacKey;
+
+    /** Successful verifications. */
+    private final Cache<String, Boolean> verified;
+
+    /** Failed verifications. */
+    private final Cache<String, Boolean> rejected;
+
+    /** Failed BCrypt checks per configuration id, counted from the first failure of the window. */
+    private final Cache<String, AtomicInteger> failures;
+
+    /** Failed BCrypt checks allowed per configuration and window, 0 to disable the throttle. */
+    private final int maxFailures;
+
+    /**
+     * Instantiates a new secret verification cache.
+     *
+     * @param maxSize         the maximum number of entries per cache
+     * @param ttlSeconds      time to live of a successful verification
+     * @param failedTtlSeconds time to live of a failed verification
+     * @param maxFailures      failed checks allowed per configuration and window, 0 to disable the throttle
+     * @param windowSeconds    length of the throttle window
+     */
+    public SecretVerificationCache(@Value("${config.secret.cache.size:1000}") final long maxSize,
+            @Value("${config.secret.cache.ttl:300}") final long ttlSeconds,
+            @Value("${config.secret.cache.failed-ttl:10}") final long failedTtlSeconds,
+            @Value("${config.secret.throttle.max-failures:20}") final int maxFailures,
+            @Value("${config.secret.throttle.window:60}") final long windowSeconds) {
+        final byte[] key = new byte[HMAC_KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        this.hmacKey = new SecretKeySpec(key, HMAC_ALGO);
+        this.verified = CacheBuilder.newBuilder().maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+        this.rejected = CacheBuilder.newBuilder().maximumSize(maxSize)
+                .expireAfterWrite(failedTtlSeconds, TimeUnit.SECONDS).build();
+        this.failures = CacheBuilder.newBuilder().maximumSize(maxSize)
+                .expireAfterWrite(windowSeconds, TimeUnit.SECONDS).build();
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * Same contract as {@link SignatureConf#noSecretMatch(String)}, the result being cached.
+     * Once the configuration has reached its failed checks for the window, an unknown secret is
+     * rejected without being checked.
+     *
+     * @param signConf the signature configuration
+     * @param secret   the presented secret
+     * @return true if the secret does not match any of the configured hashes
+     */
+    public boolean noSecretMatch(final SignatureConf signConf, final String secret) {
+        if (secret == null) {
+            return signConf.noSecretMatch(secret);
+        }
+        final String key;
+        try {
+            key = cacheKey(signConf, secret);
+        } catch (final GeneralSecurityException e) {
+            log.error("Calcul du HMAC du secret impossible, vérification sans cache", e);
+            return signConf.noSecretMatch(secret);
+        }
+        if (verified.getIfPresent(key) != null) {
+            return false;
+        }
+        if (rejected.getIfPresent(key) != null) {
+            return true;
+        }
+        final AtomicInteger failed = failures.getIfPresent(signConf.getIdSignConf());
+        if (maxFailures > 0 && failed != null && failed.get() >= maxFailures) {
+            log.debug("Trop d'échecs de secret pour la configuration {}, secret refusé sans vérification",
+                    signConf.getIdSignConf());
+            return true;
+        }
+        final boolean noMatch = signConf.noSecretMatch(secret);
+        if (noMatch) {
+            rejected.put(key, Boolean.TRUE);
+            recordFailure(signConf.getIdSignConf());
+        } else {
+            verified.put(key, Boolean.TRUE);
+        }
+        return noMatch;
+    }
+
+    /**
+     * Drops every cached verification, called when the signature configurations are swapped.
+     */
+    public void invalidateAll() {
+        verified.invalidateAll();
+        rejected.invalidateAll();
+        failures.invalidateAll();
+        log.debug("Cache des secrets vidé.");
+    }
+
+    /**
+     * Counts a failed check of the configuration, the window starting at its first failure.
+     *
+     * @param idSignConf the configuration id
+     */
+    private void recordFailure(final String idSignConf) {
+        if (maxFailures <= 0) {
+            return;
+        }
+        try {
+            final int count = failures.get(idSignConf, AtomicInteger::new).incrementAndGet();
+            if (count == maxFailures) {
+                log.warn("{} échecs de secret pour la configuration {}, vérifications suspendues jusqu'à la fin "
+                        + "de la fenêtre", count, idSignConf);
+            }
+        } catch (final ExecutionException e) {
+            log.error("Comptage des échecs de secret impossible", e);
+        }
+    }
+
+    /**
+     * Cache key : HMAC of the configuration id, the configured hashes and the presented secret.
+     * Including the configured hashes keeps an entry from outliving a change of secret.
+     *
+     * @param signConf the signature configuration
+     * @param secret   the presented secret
+     * @return the cache key
+     * @throws GeneralSecurityException the general security exception
+     */
+    private String cacheKey(final SignatureConf signConf, final String secret) throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance(HMAC_ALGO);
+        mac.init(hmacKey);
+        mac.update(signConf.getIdSignConf().getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(signConf.getSecret().getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return signConf.getIdSignConf() + ':'
+                + Base64.getEncoder().encodeToString(mac.doFinal(secret.getBytes(StandardCharsets.UTF_8)));
+    }
+}
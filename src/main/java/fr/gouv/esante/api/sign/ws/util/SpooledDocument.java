@@ -0,0 +1,223 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.mozilla.universalchardet.UniversalDetector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Document uploaded with a request, spooled once to a temporary file readable by the owner only.
+ * Format detection reads the file as a stream, and the content is read into the heap at most once
+ * per request, in a single array of the exact size, whatever the number of library calls.
+ * The temporary file is deleted on close.
+ */
+public final class SpooledDocument implements Closeable {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(SpooledDocument.class);
+
+    /** Temporary file prefix. */
+    private static final String SPOOL_PREFIX = "esignsante-doc";
+
+    /** Temporary file suffix. */
+    private static final String SPOOL_SUFFIX = ".tmp";
+
+    /** Copy buffer size. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The spooled file. */
+    private final Path path;
+
+    /** The content, read on first use. */
+    private byte[] content;
+
+    /**
+     * Instantiates a new spooled document.
+     *
+     * @param path the spooled file
+     */
+    private SpooledDocument(final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Spools an upload. An upload already on disk (multipart threshold reached) is moved, not
+     * copied.
+     *
+     * @param upload the upload
+     * @return the spooled document
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static SpooledDocument of(final MultipartFile upload) throws IOException {
+        final Path spool = createSpool();
+        try {
+            upload.transferTo(spool.toFile());
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(spool);
+            throw e;
+        }
+        return new SpooledDocument(spool);
+    }
+
+    /**
+     * Spools a stream, an entry of an archive for instance. The stream is not closed.
+     *
+     * @param in      the stream
+     * @param maxSize the maximum size in bytes
+     * @return the spooled document
+     * @throws IOException Signals that an I/O exception has occurred, or the stream exceeds the
+     *                     maximum size.
+     */
+    public static SpooledDocument of(final InputStream in, final long maxSize) throws IOException {
+        final Path spool = createSpool();
+        try (OutputStream out = Files.newOutputStream(spool)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                size += n;
+                if (size > maxSize) {
+                    throw new IOException("Document de plus de " + maxSize + " octets");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(spool);
+            throw e;
+        }
+        return new SpooledDocument(spool);
+    }
+
+    /**
+     * Creates the temporary file.
+     *
+     * @return the path
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static Path createSpool() throws IOException {
+        if (SystemUtils.IS_OS_UNIX) {
+            return Files.createTempFile(SPOOL_PREFIX, SPOOL_SUFFIX,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        return Files.createTempFile(SPOOL_PREFIX, SPOOL_SUFFIX);
+    }
+
+    /**
+     * Gets the spooled file.
+     *
+     * @return the path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the size.
+     *
+     * @return the size in bytes
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public long size() throws IOException {
+        return Files.size(path);
+    }
+
+    /**
+     * Opens a new stream on the spooled file, without reading the content into the heap.
+     *
+     * @return the input stream
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public InputStream newInputStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    /**
+     * Reads the first bytes of the document.
+     *
+     * @param length the maximum length
+     * @return the first bytes
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public byte[] head(final int length) throws IOException {
+        try (InputStream in = newInputStream()) {
+            return in.readNBytes(length);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of the document from the spooled file.
+     *
+     * @return the digest, in hexadecimal
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public String sha256() throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = newInputStream()) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Detects the charset of a text document from the spooled file.
+     *
+     * @return the charset name, null if not detected
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public String detectCharset() throws IOException {
+        try (InputStream in = newInputStream()) {
+            return UniversalDetector.detectCharset(in);
+        }
+    }
+
+    /**
+     * Gets the content, read once and shared by the following calls.
+     *
+     * @return the content
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public synchronized byte[] getBytes() throws IOException {
+        if (content == null) {
+            content = Files.readAllBytes(path);
+        }
+        return content;
+    }
+
+    /**
+     * Releases the content and deletes the spooled file.
+     */
+    @Override
+    public synchronized void close() {
+        content = null;
+        try {
+            Files.deleteIfExists(path);
+        } catch (final IOException e) {
+            log.warn("Suppression du fichier temporaire {} impossible : {}", path, e.getMessage());
+        }
+    }
+}
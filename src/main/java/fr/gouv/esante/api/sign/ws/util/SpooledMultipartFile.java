@@ -0,0 +1,89 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Upload kept as a spooled document beyond the end of its request, for an asynchronous job : the
+ * operations read it as they read a multipart upload.
+ */
+public class SpooledMultipartFile implements MultipartFile {
+
+    /** The part name. */
+    private final String name;
+
+    /** The original file name. */
+    private final String originalFilename;
+
+    /** The content type. */
+    private final String contentType;
+
+    /** The spooled document. */
+    private final SpooledDocument document;
+
+    /**
+     * Instantiates a new spooled multipart file.
+     *
+     * @param upload   the upload
+     * @param document the upload, spooled
+     */
+    public SpooledMultipartFile(final MultipartFile upload, final SpooledDocument document) {
+        this.name = upload.getName();
+        this.originalFilename = upload.getOriginalFilename();
+        this.contentType = upload.getContentType();
+        this.document = document;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return getSize() == 0;
+    }
+
+    @Override
+    public long getSize() {
+        try {
+            return document.size();
+        } catch (final IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return document.getBytes();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return document.newInputStream();
+    }
+
+    @Override
+    public void transferTo(final File dest) throws IOException {
+        Files.copy(document.getPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
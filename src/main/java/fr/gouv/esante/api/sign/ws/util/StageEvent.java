@@ -0,0 +1,51 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of a stage of a signature or validation operation (see PipelineStages), to correlate
+ * the GC pauses and CPU hot spots of a recording with the operations.
+ */
+@Name("fr.gouv.esante.sign.Stage")
+@Label("Étape d'opération")
+@Category({"eSignSante", "Opérations"})
+@Description("Étape d'une opération de signature ou de validation")
+final class StageEvent extends jdk.jfr.Event {
+
+    /** The stage. */
+    @Label("Étape")
+    String stage;
+
+    /** The signature type, CERTIFICAT for a certificate validation. */
+    @Label("Type")
+    String type;
+
+    /** The endpoint. */
+    @Label("Endpoint")
+    String endpoint;
+
+    /** The configuration id. */
+    @Label("Configuration")
+    String configuration;
+
+    /** The size of the document. */
+    @Label("Taille du document")
+    @DataAmount
+    long documentSize;
+
+    /** The CA/CRL generation. */
+    @Label("Génération AC/CRL")
+    long generation;
+
+    /** The outcome : success, or error when the stage failed. */
+    @Label("Résultat")
+    String outcome;
+}
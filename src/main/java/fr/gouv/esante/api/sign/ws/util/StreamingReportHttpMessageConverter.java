@@ -0,0 +1,65 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the signature and validation reports straight into the response, the large values being
+ * Base64-encoded in chunks : the heap needed per response no longer grows with the Base64 size of
+ * the signed document or of the diagnostic reports. Must be registered before the Jackson converter.
+ */
+public class StreamingReportHttpMessageConverter
+        extends AbstractHttpMessageConverter<StreamingReports.StreamedReport> {
+
+    /** Factory of the generators, configured as the JSON message converter. */
+    private final JsonFactory factory = Jackson2ObjectMapperBuilder.json().build().getFactory();
+
+    /**
+     * Instantiates a new streaming report http message converter.
+     */
+    public StreamingReportHttpMessageConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(final Class<?> clazz) {
+        return StreamingReports.StreamedReport.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(final MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected StreamingReports.StreamedReport readInternal(
+            final Class<? extends StreamingReports.StreamedReport> clazz, final HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Rapport en écriture seule", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(final StreamingReports.StreamedReport report, final HttpOutputMessage outputMessage)
+            throws IOException {
+        final PipelineStages stages = PipelineStages.current();
+        final long start = stages.start(PipelineStages.Stage.SERIALIZATION);
+        try (JsonGenerator gen = factory.createGenerator(outputMessage.getBody(), JsonEncoding.UTF8)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            report.writeTo(gen);
+        }
+        stages.record(PipelineStages.Stage.SERIALIZATION, start);
+    }
+}
@@ -0,0 +1,492 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import fr.gouv.esante.api.sign.bean.metadata.MetaDatum;
+import fr.gouv.esante.api.sign.enums.MetaDataType;
+import fr.gouv.esante.api.sign.ws.model.ESignSanteSignatureReport;
+import fr.gouv.esante.api.sign.ws.model.ESignSanteSignatureReportWithProof;
+import fr.gouv.esante.api.sign.ws.model.ESignSanteValidationReport;
+import fr.gouv.esante.api.sign.ws.model.ESignSanteValidationReportWithProof;
+import fr.gouv.esante.api.sign.ws.model.Erreur;
+import fr.gouv.esante.api.sign.ws.model.Metadata;
+
+/**
+ * Reports of the signature and validation operations that keep the signed document, the proof and
+ * the RAPPORT_DIAGNOSTIQUE / RAPPORT_DSS metadata raw : they are Base64-encoded in chunks while the
+ * report is written (see StreamingReportHttpMessageConverter), never as whole Strings. The JSON is
+ * the same as the one written by Jackson for the model, plus the timings block when enabled (see
+ * PipelineStages), and the model getters still return the Base64 values, computed on demand, for
+ * any other serialization.
+ */
+public final class StreamingReports {
+
+    /** Size of the encoding chunks. */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * private constructor to hide implicit public one.
+     */
+    private StreamingReports() {
+    }
+
+    /**
+     * A report written field by field.
+     */
+    public interface StreamedReport {
+
+        /**
+         * Writes the report, in the field order of the model.
+         *
+         * @param gen the generator
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        void writeTo(JsonGenerator gen) throws IOException;
+
+        /**
+         * Estimated size of the report in memory : signed document, proof, errors and metadata.
+         *
+         * @return the size in bytes
+         */
+        long size();
+    }
+
+    /**
+     * Metadata of a report. The diagnostic and DSS reports are kept raw.
+     *
+     * @param metadata the metadata
+     * @return the metadata of the report
+     */
+    public static List<Metadata> metadata(final List<MetaDatum> metadata) {
+        final List<Metadata> metas = new ArrayList<>();
+        for (final MetaDatum metadatum : metadata) {
+            final Metadata meta;
+            if (metadatum.getType().equals(MetaDataType.RAPPORT_DIAGNOSTIQUE)
+                    || metadatum.getType().equals(MetaDataType.RAPPORT_DSS)) {
+                meta = new Base64Metadata(metadatum.getValue());
+            } else {
+                meta = new Metadata();
+                meta.setMessage(metadatum.getValue());
+            }
+            meta.setTypeMetadata(metadatum.getType().getName());
+            metas.add(meta);
+        }
+        return metas;
+    }
+
+    /**
+     * Signature report.
+     */
+    public static class SignatureReport extends ESignSanteSignatureReport implements StreamedReport {
+
+        /** The signed document. */
+        private final byte[] signedDocument;
+
+        /**
+         * Instantiates a new signature report.
+         *
+         * @param signedDocument the signed document, null for a binary response
+         */
+        public SignatureReport(final byte[] signedDocument) {
+            this.signedDocument = signedDocument;
+        }
+
+        @Override
+        public String getDocSigne() {
+            return signedDocument == null ? super.getDocSigne() : Base64.getEncoder().encodeToString(signedDocument);
+        }
+
+        @Override
+        public void writeTo(final JsonGenerator gen) throws IOException {
+            gen.writeStartObject();
+            writeErrors(gen, getErreurs());
+            writeBase64(gen, "docSigne", signedDocument);
+            PipelineStages.current().writeTimings(gen);
+            gen.writeEndObject();
+        }
+
+        @Override
+        public long size() {
+            return size(getErreurs()) + size(signedDocument);
+        }
+    }
+
+    /**
+     * Signature report with proof.
+     */
+    public static class SignatureReportWithProof extends ESignSanteSignatureReportWithProof
+            implements StreamedReport {
+
+        /** The validity. */
+        private final boolean valide;
+
+        /** The signed document. */
+        private final byte[] signedDocument;
+
+        /** The proof. */
+        private final String preuve;
+
+        /**
+         * Instantiates a new signature report with proof.
+         *
+         * @param valide         the validity
+         * @param signedDocument the signed document, null for a binary response
+         * @param preuve         the proof, null for a binary response
+         */
+        public SignatureReportWithProof(final boolean valide, final byte[] signedDocument, final String preuve) {
+            this.valide = valide;
+            this.signedDocument = signedDocument;
+            this.preuve = preuve;
+            setValide(valide);
+        }
+
+        @Override
+        public String getDocSigne() {
+            return signedDocument == null ? super.getDocSigne() : Base64.getEncoder().encodeToString(signedDocument);
+        }
+
+        @Override
+        public String getPreuve() {
+            return preuve == null ? super.getPreuve() : Base64.getEncoder().encodeToString(preuve.getBytes());
+        }
+
+        @Override
+        public void writeTo(final JsonGenerator gen) throws IOException {
+            gen.writeStartObject();
+            writeErrors(gen, getErreurs());
+            writeMetadata(gen, getMetaData());
+            gen.writeBooleanField("valide", valide);
+            writeBase64(gen, "docSigne", signedDocument);
+            writeBase64(gen, "preuve", preuve);
+            PipelineStages.current().writeTimings(gen);
+            gen.writeEndObject();
+        }
+
+        @Override
+        public long size() {
+            return size(getErreurs()) + metadataSize(getMetaData()) + size(signedDocument) + size(preuve);
+        }
+    }
+
+    /**
+     * Validation report.
+     */
+    public static class ValidationReport extends ESignSanteValidationReport implements StreamedReport {
+
+        /** The validity. */
+        private final boolean valide;
+
+        /**
+         * Instantiates a new validation report.
+         *
+         * @param valide the validity
+         */
+        public ValidationReport(final boolean valide) {
+            this.valide = valide;
+            setValide(valide);
+        }
+
+        @Override
+        public void writeTo(final JsonGenerator gen) throws IOException {
+            gen.writeStartObject();
+            writeErrors(gen, getErreurs());
+            writeMetadata(gen, getMetaData());
+            gen.writeBooleanField("valide", valide);
+            PipelineStages.current().writeTimings(gen);
+            gen.writeEndObject();
+        }
+
+        @Override
+        public long size() {
+            return size(getErreurs()) + metadataSize(getMetaData());
+        }
+    }
+
+    /**
+     * Validation report with proof.
+     */
+    public static class ValidationReportWithProof extends ESignSanteValidationReportWithProof
+            implements StreamedReport {
+
+        /** The validity. */
+        private final boolean valide;
+
+        /** The proof. */
+        private final String preuve;
+
+        /**
+         * Instantiates a new validation report with proof.
+         *
+         * @param valide the validity
+         * @param preuve the proof
+         */
+        public ValidationReportWithProof(final boolean valide, final String preuve) {
+            this.valide = valide;
+            this.preuve = preuve;
+            setValide(valide);
+        }
+
+        @Override
+        public String getPreuve() {
+            return preuve == null ? super.getPreuve() : Base64.getEncoder().encodeToString(preuve.getBytes());
+        }
+
+        @Override
+        public void writeTo(final JsonGenerator gen) throws IOException {
+            gen.writeStartObject();
+            writeErrors(gen, getErreurs());
+            writeMetadata(gen, getMetaData());
+            gen.writeBooleanField("valide", valide);
+            writeBase64(gen, "preuve", preuve);
+            PipelineStages.current().writeTimings(gen);
+            gen.writeEndObject();
+        }
+
+        @Override
+        public long size() {
+            return size(getErreurs()) + metadataSize(getMetaData()) + size(preuve);
+        }
+    }
+
+    /**
+     * Metadata whose message is the Base64 encoding of a raw value.
+     */
+    static class Base64Metadata extends Metadata {
+
+        /** The raw value. */
+        private final String value;
+
+        /**
+         * Instantiates a new Base64 metadata.
+         *
+         * @param value the raw value
+         */
+        Base64Metadata(final String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String getMessage() {
+            return value == null ? super.getMessage() : Base64.getEncoder().encodeToString(value.getBytes());
+        }
+    }
+
+    /**
+     * Estimated size of the errors.
+     *
+     * @param erreurs the errors
+     * @return the size in bytes
+     */
+    private static long size(final List<Erreur> erreurs) {
+        long size = 0;
+        if (erreurs != null) {
+            for (final Erreur erreur : erreurs) {
+                size += size(erreur.getCodeErreur()) + size(erreur.getMessage());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Estimated size of the metadata, the raw values being counted once.
+     *
+     * @param metas the metadata
+     * @return the size in bytes
+     */
+    private static long metadataSize(final List<Metadata> metas) {
+        long size = 0;
+        if (metas != null) {
+            for (final Metadata meta : metas) {
+                size += size(meta.getTypeMetadata()) + size(meta instanceof Base64Metadata
+                        ? ((Base64Metadata) meta).value : meta.getMessage());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Size of bytes.
+     *
+     * @param value the bytes, may be null
+     * @return the size in bytes
+     */
+    private static long size(final byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    /**
+     * Estimated size of a text.
+     *
+     * @param value the text, may be null
+     * @return the size in bytes
+     */
+    private static long size(final String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * Writes the errors.
+     *
+     * @param gen     the generator
+     * @param erreurs the errors
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void writeErrors(final JsonGenerator gen, final List<Erreur> erreurs) throws IOException {
+        gen.writeFieldName("erreurs");
+        if (erreurs == null) {
+            gen.writeNull();
+            return;
+        }
+        gen.writeStartArray();
+        for (final Erreur erreur : erreurs) {
+            gen.writeStartObject();
+            gen.writeStringField("codeErreur", erreur.getCodeErreur());
+            gen.writeStringField("message", erreur.getMessage());
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * Writes the metadata.
+     *
+     * @param gen   the generator
+     * @param metas the metadata
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void writeMetadata(final JsonGenerator gen, final List<Metadata> metas) throws IOException {
+        gen.writeFieldName("metaData");
+        if (metas == null) {
+            gen.writeNull();
+            return;
+        }
+        gen.writeStartArray();
+        for (final Metadata meta : metas) {
+            gen.writeStartObject();
+            gen.writeStringField("typeMetadata", meta.getTypeMetadata());
+            if (meta instanceof Base64Metadata && ((Base64Metadata) meta).value != null) {
+                writeBase64(gen, "message", ((Base64Metadata) meta).value);
+            } else {
+                gen.writeStringField("message", meta.getMessage());
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * Writes bytes in Base64, in chunks.
+     *
+     * @param gen   the generator
+     * @param name  the field name
+     * @param value the bytes
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void writeBase64(final JsonGenerator gen, final String name, final byte[] value)
+            throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, value, 0, value.length);
+        }
+    }
+
+    /**
+     * Writes a text in Base64, encoded in the platform charset as String.getBytes() does, in chunks.
+     *
+     * @param gen   the generator
+     * @param name  the field name
+     * @param value the text
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void writeBase64(final JsonGenerator gen, final String name, final String value)
+            throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, new EncodingInputStream(value, Charset.defaultCharset()),
+                    -1);
+        }
+    }
+
+    /**
+     * Bytes of a text, encoded chunk by chunk.
+     */
+    private static final class EncodingInputStream extends InputStream {
+
+        /** The characters left to encode. */
+        private final CharBuffer chars;
+
+        /** The encoder, replacing malformed and unmappable characters as String.getBytes() does. */
+        private final CharsetEncoder encoder;
+
+        /** The encoded bytes not read yet. */
+        private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+
+        /** All the characters have been encoded, the encoder is flushing. */
+        private boolean encoded;
+
+        /** All the bytes have been produced. */
+        private boolean done;
+
+        /**
+         * Instantiates a new encoding input stream.
+         *
+         * @param text    the text
+         * @param charset the charset
+         */
+        EncodingInputStream(final String text, final Charset charset) {
+            this.chars = CharBuffer.wrap(text);
+            this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.bytes.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!bytes.hasRemaining()) {
+                if (done) {
+                    return -1;
+                }
+                bytes.clear();
+                if (!encoded) {
+                    encoded = encoder.encode(chars, bytes, true).isUnderflow();
+                }
+                if (encoded) {
+                    done = encoder.flush(bytes).isUnderflow();
+                }
+                bytes.flip();
+            }
+            final int n = Math.min(len, bytes.remaining());
+            bytes.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import fr.gouv.esante.api.sign.bean.errors.ErreurCertificat;
+import fr.gouv.esante.api.sign.bean.errors.ErreurSignature;
+import fr.gouv.esante.api.sign.bean.metadata.MetaDatum;
+import fr.gouv.esante.api.sign.bean.rapports.RapportValidationCertificat;
+import fr.gouv.esante.api.sign.bean.rapports.RapportValidationSignature;
+import fr.gouv.esante.api.sign.utils.EsignsanteException;
+
+/**
+ * Cache des rapports de validation de signature et de certificat, par empreinte SHA-256 du
+ * document, configuration de validation, version du fichier de configuration et génération des
+ * AC/CRL : un rechargement des CRL ou de la configuration change la clé, les anciens rapports ne
+ * sont plus lus et sont évincés. Le cache est borné en taille estimée des rapports
+ * (config.validation.cache.max-weight, 0 pour le désactiver) et un rapport n'est pas gardé plus de
+ * config.validation.cache.ttl secondes, les certificats pouvant expirer entre deux chargements.
+ * Une validation en cours est partagée par les requêtes portant le même document. Le cache est
+ * désactivé par défaut ; les opérations avec preuve ne le lisent jamais, la preuve attestant une
+ * validation faite au moment de la requête.
+ */
+@Component
+public class ValidationResultCache {
+
+    /** Key separator. */
+    private static final char SEPARATOR = '\u0000';
+
+    /** Estimated weight of a report without its errors and metadata. */
+    private static final int BASE_WEIGHT = 256;
+
+    /** Estimated weight of an error without its message. */
+    private static final int ERROR_WEIGHT = 64;
+
+    /** Reports, by key. */
+    private final Cache<String, Entry> reports;
+
+    /** Is the cache enabled. */
+    private final boolean enabled;
+
+    /**
+     * A validation.
+     *
+     * @param <T> the report type
+     */
+    @FunctionalInterface
+    public interface Validation<T> {
+
+        /**
+         * Validates the document.
+         *
+         * @return the report
+         * @throws IOException         Signals that an I/O exception has occurred.
+         * @throws EsignsanteException the esignsante exception
+         */
+        T validate() throws IOException, EsignsanteException;
+    }
+
+    /**
+     * Instantiates a new validation result cache.
+     *
+     * @param maxWeight  the maximum estimated size of the reports, 0 to disable the cache
+     * @param ttlSeconds the maximum age of a report
+     */
+    public ValidationResultCache(@Value("${config.validation.cache.max-weight:0}") final DataSize maxWeight,
+            @Value("${config.validation.cache.ttl:3600}") final long ttlSeconds) {
+        this.enabled = maxWeight.toBytes() > 0 && ttlSeconds > 0;
+        this.reports = CacheBuilder.newBuilder().maximumWeight(Math.max(maxWeight.toBytes(), 0))
+                .weigher((final String key, final Entry entry) -> entry.weight)
+                .expireAfterWrite(Math.max(ttlSeconds, 0), TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * Scope of a validation : the configuration id and the version of the configuration file.
+     *
+     * @param idConf      the id of the validation configuration
+     * @param confVersion the version of the configuration snapshot
+     * @return the scope
+     */
+    public static String scope(final Long idConf, final long confVersion) {
+        return idConf + "@" + confVersion;
+    }
+
+    /**
+     * Signature validation report of a document, validated once per key.
+     *
+     * @param document   the document
+     * @param type       the signature type
+     * @param scope      the scope, see {@link #scope(Long, long)}, null to validate without the cache
+     * @param generation the CA/CRL generation of the validation
+     * @param validation the validation
+     * @return the report
+     * @throws IOException         Signals that an I/O exception has occurred.
+     * @throws EsignsanteException the esignsante exception
+     */
+    public RapportValidationSignature signature(final SpooledDocument document, final ESignatureType type,
+            final String scope, final long generation, final Validation<RapportValidationSignature> validation)
+            throws IOException, EsignsanteException {
+        if (!enabled || scope == null) {
+            return validation.validate();
+        }
+        return (RapportValidationSignature) get(key(document, type.name(), scope, generation), () -> {
+            final RapportValidationSignature rapport = validation.validate();
+            int weight = BASE_WEIGHT + weight(rapport.getMetaData());
+            for (final ErreurSignature erreur : rapport.getListeErreurSignature()) {
+                weight += ERROR_WEIGHT + length(erreur.getMessage());
+            }
+            return new Entry(rapport, weight);
+        });
+    }
+
+    /**
+     * Certificate validation report of a document, validated once per key.
+     *
+     * @param document   the document
+     * @param scope      the scope, see {@link #scope(Long, long)}, null to validate without the cache
+     * @param generation the CA/CRL generation of the validation
+     * @param validation the validation
+     * @return the report
+     * @throws IOException         Signals that an I/O exception has occurred.
+     * @throws EsignsanteException the esignsante exception
+     */
+    public RapportValidationCertificat certificate(final SpooledDocument document, final String scope,
+            final long generation, final Validation<RapportValidationCertificat> validation)
+            throws IOException, EsignsanteException {
+        if (!enabled || scope == null) {
+            return validation.validate();
+        }
+        return (RapportValidationCertificat) get(key(document, "CERT", scope, generation), () -> {
+            final RapportValidationCertificat rapport = validation.validate();
+            int weight = BASE_WEIGHT + weight(rapport.getMetaData());
+            for (final ErreurCertificat erreur : rapport.getListeErreurCertificat()) {
+                weight += ERROR_WEIGHT + length(erreur.getMessage());
+            }
+            return new Entry(rapport, weight);
+        });
+    }
+
+    /**
+     * Drops every cached report.
+     */
+    public void invalidateAll() {
+        reports.invalidateAll();
+    }
+
+    /**
+     * Gets a report, loading it once for concurrent requests.
+     *
+     * @param key    the key
+     * @param loader the loader
+     * @return the report
+     * @throws IOException         Signals that an I/O exception has occurred.
+     * @throws EsignsanteException the esignsante exception
+     */
+    private Object get(final String key, final Validation<Entry> loader) throws IOException, EsignsanteException {
+        try {
+            return reports.get(key, loader::validate).report;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof EsignsanteException) {
+                throw (EsignsanteException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (final ExecutionError e) {
+            throw (Error) e.getCause();
+        }
+    }
+
+    /**
+     * Key of a report.
+     *
+     * @param document   the document
+     * @param kind       the kind of validation
+     * @param scope      the scope
+     * @param generation the CA/CRL generation
+     * @return the key
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static String key(final SpooledDocument document, final String kind, final String scope,
+            final long generation) throws IOException {
+        return kind + SEPARATOR + scope + SEPARATOR + generation + SEPARATOR + document.sha256();
+    }
+
+    /**
+     * Estimated weight of metadata, the DSS and diagnostic reports being the largest part of a report.
+     *
+     * @param metadata the metadata
+     * @return the weight
+     */
+    private static int weight(final List<MetaDatum> metadata) {
+        int weight = 0;
+        if (metadata != null) {
+            for (final MetaDatum metadatum : metadata) {
+                weight += ERROR_WEIGHT + length(metadatum.getValue());
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Length of a nullable text.
+     *
+     * @param text the text
+     * @return the length
+     */
+    private static int length(final String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    /**
+     * A cached report and its estimated weight.
+     */
+    private static final class Entry {
+
+        /** The report. */
+        private final Object report;
+
+        /** The estimated weight. */
+        private final int weight;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param report the report
+         * @param weight the estimated weight
+         */
+        private Entry(final Object report, final int weight) {
+            this.report = report;
+            this.weight = weight;
+        }
+    }
+}
@@ -14,6 +14,31 @@ public enum WsVars {
      */
     HEADER_TYPE("application/json"),
 
+    /**
+     * Le header de réponse portant la génération des AC et CRL utilisée par la requête.
+     */
+    HEADER_CACRL_GENERATION("X-CaCrl-Generation"),
+
+    /**
+     * Le type du header pour une réponse binaire en plusieurs parties (rapport, document signé, preuve).
+     */
+    HEADER_TYPE_MULTIPART("multipart/mixed"),
+
+    /**
+     * Le type du header pour une réponse binaire limitée au document signé.
+     */
+    HEADER_TYPE_BINARY("application/octet-stream"),
+
+    /**
+     * Le header de réponse portant le rapport JSON, encodé en base 64, d'une réponse binaire.
+     */
+    HEADER_REPORT("X-ESignSante-Report"),
+
+    /**
+     * Le type du header pour une réponse par lot, un résultat JSON par ligne.
+     */
+    HEADER_TYPE_NDJSON("application/x-ndjson"),
+
     /**
      * Le message de log d'une conf invalide.
      */
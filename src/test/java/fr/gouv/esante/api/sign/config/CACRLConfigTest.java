@@ -0,0 +1,199 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import fr.gouv.esante.api.sign.config.utils.CaCrlGeneration;
+import fr.gouv.esante.api.sign.config.utils.CaCrlServiceLoader;
+import fr.gouv.esante.api.sign.service.impl.CACRLServiceImpl;
+import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
+import fr.gouv.esante.api.sign.ws.bean.object.CaConf;
+
+/**
+ * Initial load of the CAs and CRLs : retried until a first generation is published.
+ */
+class CACRLConfigTest {
+
+    /**
+     * A transient failure of the initial load is retried, and readiness turns UP once loaded.
+     */
+    @Test
+    void readinessTurnsUpAfterTransientFailure() {
+        final CACRLConfig config = config();
+        final CaCrlHealthIndicator health = new CaCrlHealthIndicator();
+        final AtomicLong generation = new AtomicLong();
+        final AtomicInteger attempts = new AtomicInteger();
+        try (MockedStatic<CaCrlServiceLoader> loader = mockStatic(CaCrlServiceLoader.class)) {
+            loader.when(CaCrlServiceLoader::getGeneration).thenAnswer(invocation -> generation.get());
+            loader.when(() -> CaCrlServiceLoader.loadCaCrlFromCache(any())).thenReturn(false);
+            loader.when(() -> CaCrlServiceLoader.loadCaCrl(any())).thenAnswer(invocation -> {
+                if (attempts.incrementAndGet() < 3) {
+                    assertEquals(Status.DOWN, health.health().getStatus());
+                    throw new IOException("PKI indisponible");
+                }
+                generation.set(1);
+                return null;
+            });
+
+            assertEquals(Status.DOWN, health.health().getStatus());
+            assertTrue(config.initialLoad());
+            assertEquals(3, attempts.get());
+            assertEquals(Status.UP, health.health().getStatus());
+        }
+    }
+
+    /**
+     * A generation published from the disk cache ends the retries, the download being left to the refresh.
+     */
+    @Test
+    void cachedGenerationEndsRetries() {
+        final CACRLConfig config = config();
+        final AtomicLong generation = new AtomicLong();
+        final AtomicInteger attempts = new AtomicInteger();
+        try (MockedStatic<CaCrlServiceLoader> loader = mockStatic(CaCrlServiceLoader.class)) {
+            loader.when(CaCrlServiceLoader::getGeneration).thenAnswer(invocation -> generation.get());
+            loader.when(() -> CaCrlServiceLoader.loadCaCrlFromCache(any())).thenAnswer(invocation -> {
+                generation.set(1);
+                return true;
+            });
+            loader.when(() -> CaCrlServiceLoader.loadCaCrl(any())).thenAnswer(invocation -> {
+                attempts.incrementAndGet();
+                throw new IOException("PKI indisponible");
+            });
+
+            assertTrue(config.initialLoad());
+            assertEquals(1, attempts.get());
+            assertEquals(Status.UP, new CaCrlHealthIndicator().health().getStatus());
+        }
+    }
+
+    /**
+     * CRL sources all failing : the real load publishes nothing, readiness stays DOWN and the load is
+     * retried until the PKI answers.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void failingCrlSourcesAreRetried() throws Exception {
+        final byte[] crl = crl();
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/ac.crl", exchange -> {
+            if (requests.incrementAndGet() < 3) {
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                exchange.sendResponseHeaders(200, crl.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(crl);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        final CaConf caConf = new CaConf();
+        caConf.setCrl("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + "/ac.crl");
+        final CACRLConfig config = config(List.of(caConf));
+        final CaCrlHealthIndicator health = new CaCrlHealthIndicator();
+        final AtomicLong published = new AtomicLong();
+        final AtomicInteger attempts = new AtomicInteger();
+        try (MockedConstruction<CACRLServiceImpl> services = mockConstruction(CACRLServiceImpl.class);
+                MockedStatic<CaCrlServiceLoader> loader = mockStatic(CaCrlServiceLoader.class,
+                        CALLS_REAL_METHODS)) {
+            // seule la génération publiée par ce test compte pour la disponibilité
+            loader.when(CaCrlServiceLoader::getGeneration).thenAnswer(invocation -> published.get());
+            loader.when(() -> CaCrlServiceLoader.loadCaCrl(any())).thenAnswer(invocation -> {
+                attempts.incrementAndGet();
+                assertEquals(Status.DOWN, health.health().getStatus());
+                final CaCrlGeneration generation = (CaCrlGeneration) invocation.callRealMethod();
+                published.set(generation.getGeneration());
+                return generation;
+            });
+
+            assertTrue(config.initialLoad());
+
+            assertEquals(3, attempts.get());
+            assertEquals(3, requests.get());
+            assertEquals(Status.UP, health.health().getStatus());
+            assertEquals(1, services.constructed().size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * A configuration without any CA, retrying every millisecond.
+     *
+     * @return the configuration
+     */
+    private static CACRLConfig config() {
+        return config(Collections.emptyList());
+    }
+
+    /**
+     * A configuration retrying every millisecond.
+     *
+     * @param caConfs the CAs and CRL sources
+     * @return the configuration
+     */
+    private static CACRLConfig config(final List<CaConf> caConfs) {
+        final IGlobalConf globalConf = mock(IGlobalConf.class);
+        when(globalConf.getCa()).thenReturn(caConfs);
+        final CACRLConfig config = new CACRLConfig();
+        ReflectionTestUtils.setField(config, "globalConf", globalConf);
+        ReflectionTestUtils.setField(config, "retryDelay", 1L);
+        ReflectionTestUtils.setField(config, "maxRetryDelay", 4L);
+        return config;
+    }
+
+    /**
+     * An empty CRL, signed by a throwaway key.
+     *
+     * @return the DER encoded CRL
+     * @throws Exception the exception
+     */
+    private static byte[] crl() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final long now = System.currentTimeMillis();
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=esignsante-test"),
+                new Date(now - 60_000));
+        builder.setNextUpdate(new Date(now + 3_600_000));
+        return builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import fr.gouv.esante.api.sign.config.utils.CRLLoader;
+import fr.gouv.esante.api.sign.ws.bean.config.IGlobalConf;
+import fr.gouv.esante.api.sign.ws.bean.object.CaConf;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * CRL source gauges : only the sources of the CA configuration are exported.
+ */
+class CaCrlMetricsTest {
+
+    /**
+     * A source removed from the configuration no longer exports its gauges, and its telemetry is
+     * dropped.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void removedSourceIsNoLongerExported() throws Exception {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        final CaConf kept = caConf("http://127.0.0.1:" + port + "/conservee.crl");
+        final CaConf removed = caConf("http://127.0.0.1:" + port + "/retiree.crl");
+        // les deux sources sont tentées, et ont leur télémétrie
+        final List<String> sources = List.of(kept.getCrl(), removed.getCrl());
+        new CRLLoader(sources).refresh(sources);
+        final IGlobalConf globalConf = mock(IGlobalConf.class);
+        when(globalConf.getCa()).thenReturn(List.of(kept, removed));
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final CaCrlMetrics metrics = new CaCrlMetrics(registry, globalConf);
+        assertNotNull(registry.find("esignsante.crl.failures").tag("source", removed.getCrl()).gauge());
+
+        when(globalConf.getCa()).thenReturn(List.of(kept));
+        metrics.refresh();
+
+        assertNotNull(registry.find("esignsante.crl.failures").tag("source", kept.getCrl()).gauge());
+        assertNull(registry.find("esignsante.crl.expiry").tag("source", removed.getCrl()).gauge());
+        assertNull(registry.find("esignsante.crl.failures").tag("source", removed.getCrl()).gauge());
+        assertTrue(CRLLoader.getSourceStats().containsKey(kept.getCrl()));
+        assertFalse(CRLLoader.getSourceStats().containsKey(removed.getCrl()));
+        assertEquals(0, CRLLoader.getFailureCount(removed.getCrl()));
+    }
+
+    /**
+     * A CA configuration.
+     *
+     * @param crl the CRL source
+     * @return the configuration
+     */
+    private static CaConf caConf(final String crl) {
+        final CaConf caConf = new CaConf();
+        caConf.setCrl(crl);
+        return caConf;
+    }
+}
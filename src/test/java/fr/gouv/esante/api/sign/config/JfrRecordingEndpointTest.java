@@ -0,0 +1,57 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * JFR recording downloads : each download has its own file, deleted once sent.
+ */
+class JfrRecordingEndpointTest {
+
+    /**
+     * A second download leaves the first one readable, and each file is deleted when its stream is
+     * closed.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void eachDownloadHasItsOwnFile() throws Exception {
+        final JfrRecordingEndpoint endpoint = new JfrRecordingEndpoint("default", 60, DataSize.ofMegabytes(16));
+        try {
+            assertEquals(WebEndpointResponse.STATUS_NOT_FOUND, endpoint.download().getStatus());
+            endpoint.start(60L);
+
+            final Resource first = endpoint.download().getBody();
+            final Resource second = endpoint.download().getBody();
+            final Path firstFile = first.getFile().toPath();
+            final Path secondFile = second.getFile().toPath();
+            assertNotEquals(firstFile, secondFile);
+
+            try (InputStream in = first.getInputStream()) {
+                assertTrue(in.readAllBytes().length > 0);
+            }
+            assertFalse(Files.exists(firstFile));
+            assertTrue(Files.exists(secondFile));
+
+            second.getInputStream().close();
+            assertFalse(Files.exists(secondFile));
+        } finally {
+            endpoint.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config.utils;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Download of the CRL sources : a source past its deadline is cancelled and frees its fetch thread.
+ */
+class CRLLoaderTest {
+
+    /** The bundle directory. */
+    @TempDir
+    Path directory;
+
+    /**
+     * A source that sends its headers and then never its body fails at its deadline, and its fetch
+     * thread is interrupted : with a single fetch thread, the next source is still downloaded.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void hungSourceIsCancelledAtDeadline() throws Exception {
+        final byte[] crl = crl();
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService handlers = Executors.newCachedThreadPool();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(handlers);
+        server.createContext("/lente.crl", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.createContext("/ac.crl", exchange -> {
+            exchange.sendResponseHeaders(200, crl.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(crl);
+            }
+        });
+        server.start();
+        final String base = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+        final File bundle = directory.resolve("crl.pem").toFile();
+        try {
+            CRLLoader.configure(1, 1, 1);
+
+            assertThrows(GeneralSecurityException.class,
+                    () -> new CRLLoader(List.of(base + "/lente.crl")).buildCRLBundle(bundle));
+
+            new CRLLoader(List.of(base + "/ac.crl")).buildCRLBundle(bundle);
+            assertTrue(bundle.length() > 0);
+        } finally {
+            CRLLoader.configure(8, 30, 10);
+            release.countDown();
+            server.stop(0);
+            handlers.shutdownNow();
+        }
+    }
+
+    /**
+     * An empty CRL, signed by a throwaway key.
+     *
+     * @return the DER encoded CRL
+     * @throws Exception the exception
+     */
+    private static byte[] crl() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final long now = System.currentTimeMillis();
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=esignsante-test"),
+                new Date(now - 60_000));
+        builder.setNextUpdate(new Date(now + 3_600_000));
+        return builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+    }
+}
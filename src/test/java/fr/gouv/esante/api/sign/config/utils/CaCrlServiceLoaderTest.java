@@ -0,0 +1,141 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.config.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mockConstruction;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+
+import fr.gouv.esante.api.sign.service.impl.CACRLServiceImpl;
+import fr.gouv.esante.api.sign.ws.bean.object.CaConf;
+
+/**
+ * Publication of the CA/CRL generations : each load is swapped in at once, the generations already
+ * handed out are left untouched.
+ */
+class CaCrlServiceLoaderTest {
+
+	/**
+	 * A load publishes a new generation with its own service, the previous one being kept as is.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	void loadSwapsGeneration() throws Exception {
+		try (MockedConstruction<CACRLServiceImpl> services = mockConstruction(CACRLServiceImpl.class)) {
+			final CaCrlGeneration previous = CaCrlServiceLoader.current();
+
+			final CaCrlGeneration first = CaCrlServiceLoader.loadCaCrl(Collections.emptyList());
+			assertSame(first, CaCrlServiceLoader.current());
+			assertTrue(first.getGeneration() > previous.getGeneration());
+			assertEquals(first.getGeneration(), CaCrlServiceLoader.getGeneration());
+
+			final CaCrlGeneration second = CaCrlServiceLoader.loadCaCrl(Collections.emptyList());
+			assertSame(second, CaCrlServiceLoader.current());
+			assertEquals(first.getGeneration() + 1, second.getGeneration());
+			assertNotSame(first.getService(), second.getService());
+			assertSame(services.constructed().get(services.constructed().size() - 2), first.getService());
+		}
+	}
+
+	/**
+	 * A failed load publishes nothing.
+	 */
+	@Test
+	void failedLoadKeepsGeneration() {
+		try (MockedConstruction<CACRLServiceImpl> services = mockConstruction(CACRLServiceImpl.class,
+				(service, context) -> doThrow(new IllegalStateException("bundle illisible")).when(service)
+						.loadCA(any(File.class)))) {
+			final CaCrlGeneration current = CaCrlServiceLoader.current();
+
+			assertThrows(IllegalStateException.class, () -> CaCrlServiceLoader.loadCaCrl(Collections.emptyList()));
+
+			assertSame(current, CaCrlServiceLoader.current());
+		}
+	}
+
+	/**
+	 * When no CRL source answers, the load fails and publishes no generation without revocation data.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	void unreachableCrlSourcesPublishNothing() throws Exception {
+		final int port;
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			port = socket.getLocalPort();
+		}
+		final CaConf caConf = new CaConf();
+		caConf.setCrl("http://127.0.0.1:" + port + "/injoignable.crl");
+		try (MockedConstruction<CACRLServiceImpl> services = mockConstruction(CACRLServiceImpl.class)) {
+			final CaCrlGeneration current = CaCrlServiceLoader.current();
+
+			assertThrows(IOException.class, () -> CaCrlServiceLoader.loadCaCrl(List.of(caConf)));
+
+			assertSame(current, CaCrlServiceLoader.current());
+			assertEquals(1, CRLLoader.getFailureCount(caConf.getCrl()));
+		}
+	}
+
+	/**
+	 * Concurrent loads each publish their own generation, the last one numbered highest.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Test
+	void concurrentLoadsPublishDistinctGenerations() throws Exception {
+		final int loads = 8;
+		final ExecutorService pool = Executors.newFixedThreadPool(loads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final Set<Long> generations = ConcurrentHashMap.newKeySet();
+		final List<Future<?>> results = new ArrayList<>();
+		try {
+			final long before = CaCrlServiceLoader.getGeneration();
+			for (int i = 0; i < loads; i++) {
+				results.add(pool.submit(() -> {
+					// les constructions simulées ne valent que pour le thread qui les déclare
+					try (MockedConstruction<CACRLServiceImpl> services = mockConstruction(CACRLServiceImpl.class)) {
+						start.await();
+						generations.add(CaCrlServiceLoader.loadCaCrl(Collections.emptyList()).getGeneration());
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (final Future<?> result : results) {
+				result.get(1, TimeUnit.MINUTES);
+			}
+
+			assertEquals(loads, generations.size());
+			assertEquals(before + loads, CaCrlServiceLoader.getGeneration());
+			assertEquals(Collections.max(generations).longValue(), CaCrlServiceLoader.getGeneration());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+package fr.gouv.esante.api.sign.ws.bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+import fr.gouv.esante.api.sign.enums.DigestAlgorithm;
+import fr.gouv.esante.api.sign.enums.RestrictedSignaturePackaging;
+import fr.gouv.esante.api.sign.ws.bean.object.SignatureConf;
+
+/**
+ * Per-request signature parameters built concurrently from one shared configuration.
+ */
+class ConfigurationLoaderTest {
+
+    /** Concurrent requests. */
+    private static final int THREADS = 16;
+
+    /** Rounds of concurrent requests. */
+    private static final int ROUNDS = 500;
+
+    /**
+     * Many threads set their own element and signers on one shared configuration, all at the same
+     * moment : once every thread of a round has built its parameters, each one still holds the values
+     * of its own request, and the shared configuration holds none of them. A configuration mutated per
+     * request would hand every thread the values of the last writer.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void concurrentRequestsKeepTheirOwnValues() throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        final SignatureParameters base = new SignatureParameters();
+        base.setDescription("Signature XAdES");
+        base.setDigestAlgo(DigestAlgorithm.SHA256);
+        base.setSignPackaging(RestrictedSignaturePackaging.ENVELOPING);
+        base.setKeyStore(keyStore);
+        base.setPassword("password");
+        base.setElementToSign("ClinicalDocument");
+        base.setRoles(Collections.singletonList("Configuration"));
+        final SignatureConf signConf = new SignatureConf();
+        ReflectionTestUtils.setField(signConf, "signParams", base);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        final CyclicBarrier built = new CyclicBarrier(THREADS);
+        final CyclicBarrier checked = new CyclicBarrier(THREADS);
+        final List<Future<List<SignatureParameters>>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                results.add(pool.submit(() -> {
+                    final List<SignatureParameters> kept = new ArrayList<>(ROUNDS);
+                    for (int round = 0; round < ROUNDS; round++) {
+                        final SignatureParameters params = signConf.getSignParams(element(thread, round),
+                                signers(thread, round));
+                        kept.add(params);
+                        // toutes les requêtes du tour ont posé leurs valeurs
+                        built.await(1, TimeUnit.MINUTES);
+                        assertEquals(element(thread, round), params.getElementToSign());
+                        assertEquals(signers(thread, round), params.getRoles());
+                        assertSame(keyStore, params.getKeyStore());
+                        assertEquals("ClinicalDocument", signConf.getSignParams().getElementToSign());
+                        assertEquals(Collections.singletonList("Configuration"), signConf.getSignParams().getRoles());
+                        checked.await(1, TimeUnit.MINUTES);
+                    }
+                    return kept;
+                }));
+            }
+            final Set<SignatureParameters> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int t = 0; t < THREADS; t++) {
+                final List<SignatureParameters> kept = results.get(t).get(1, TimeUnit.MINUTES);
+                // les paramètres gardés par la requête n'ont pas été modifiés par les suivantes
+                for (int round = 0; round < ROUNDS; round++) {
+                    assertEquals(element(t, round), kept.get(round).getElementToSign());
+                    assertEquals(signers(t, round), kept.get(round).getRoles());
+                }
+                distinct.addAll(kept);
+            }
+            assertEquals(THREADS * ROUNDS, distinct.size());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertSame(base, signConf.getSignParams());
+        assertEquals("ClinicalDocument", base.getElementToSign());
+        assertEquals(Collections.singletonList("Configuration"), base.getRoles());
+        assertSame(keyStore, base.getKeyStore());
+        assertEquals("password", base.getPassword());
+    }
+
+    /**
+     * An empty element signs the whole document.
+     */
+    @Test
+    void emptyElementSignsWholeDocument() {
+        final SignatureParameters base = new SignatureParameters();
+        base.setElementToSign("ClinicalDocument");
+        assertNull(ConfigurationLoader.requestSignParams(base, "", Collections.emptyList()).getElementToSign());
+        assertEquals("ClinicalDocument", base.getElementToSign());
+    }
+
+    /**
+     * Element to sign of a request, the whole document for one request out of three.
+     *
+     * @param thread the thread
+     * @param round  the round
+     * @return the element
+     */
+    private static String element(final int thread, final int round) {
+        return round % 3 == 0 ? null : "element-" + thread + "-" + round;
+    }
+
+    /**
+     * Signers of a request, none for one request out of two.
+     *
+     * @param thread the thread
+     * @param round  the round
+     * @return the signers
+     */
+    private static List<String> signers(final int thread, final int round) {
+        return round % 2 == 0 ? Collections.emptyList() : List.of("Medecin-" + thread + "-" + round, "Infirmier");
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Adaptive concurrency limit (AIMD).
+ */
+class AdaptiveLimiterTest {
+
+    /** Latency under the threshold. */
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** Latency over the threshold. */
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(5);
+
+    /** The latency threshold of the limiters, also the window of the decreases. */
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    /** The clock of the limiters, in nanoseconds. */
+    private final AtomicLong now = new AtomicLong();
+
+    /**
+     * The limit starts at its maximum, a request beyond it is rejected when the queue is full.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void rejectsBeyondLimitWithoutQueue() throws Exception {
+        final MeterRegistry registry = new SimpleMeterRegistry();
+        final AdaptiveLimiter limiter = new AdaptiveLimiter("signature", 1, 2, 1000, 0, registry);
+
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.acquire(0));
+        assertTrue(limiter.acquire(0));
+        assertFalse(limiter.acquire(0));
+
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1.0, registry.get("esignsante.limiter.rejected").tag("limiter", "signature").counter()
+                .count());
+        assertEquals(2.0, registry.get("esignsante.limiter.limit").tag("limiter", "signature").gauge().value());
+    }
+
+    /**
+     * A slow request decreases the limit by 10 %, down to the minimum.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void slowRequestDecreasesLimit() throws Exception {
+        final AdaptiveLimiter limiter = limiter(8, 10);
+
+        assertTrue(limiter.acquire(0));
+        limiter.release(SLOW, false);
+        assertEquals(9, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            now.addAndGet(WINDOW);
+            assertTrue(limiter.acquire(0));
+            limiter.release(SLOW, false);
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * The slow or rejected requests of one latency window decrease the limit only once.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void limitDecreasesOncePerWindow() throws Exception {
+        final AdaptiveLimiter limiter = limiter(1, 10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acquire(0));
+        }
+
+        limiter.release(SLOW, false);
+        limiter.release(SLOW, false);
+        now.addAndGet(WINDOW / 2);
+        limiter.release(FAST, true);
+        limiter.release(true);
+        assertEquals(9, limiter.getLimit());
+
+        now.addAndGet(WINDOW / 2);
+        limiter.release(SLOW, false);
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * A request rejected downstream decreases the limit, with or without latency sample.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void overloadDecreasesLimit() throws Exception {
+        final AdaptiveLimiter limiter = limiter(1, 10);
+
+        assertTrue(limiter.acquire(0));
+        limiter.release(FAST, true);
+        assertEquals(9, limiter.getLimit());
+
+        now.addAndGet(WINDOW);
+        assertTrue(limiter.acquire(0));
+        limiter.release(true);
+        assertEquals(8, limiter.getLimit());
+
+        now.addAndGet(WINDOW);
+        assertTrue(limiter.acquire(0));
+        limiter.release(false);
+        assertEquals(8, limiter.getLimit());
+    }
+
+    /**
+     * A fast request grows the limit by one when the limit is used at least by half, up to the maximum.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void fastRequestsGrowLimitWhenUsed() throws Exception {
+        final AdaptiveLimiter limiter = limiter(1, 4);
+        for (int i = 0; i < 4; i++) {
+            now.addAndGet(WINDOW);
+            assertTrue(limiter.acquire(0));
+            limiter.release(SLOW, false);
+        }
+        assertEquals(2, limiter.getLimit());
+
+        // limite utilisée au moins à moitié : elle remonte d'une unité
+        assertTrue(limiter.acquire(0));
+        assertTrue(limiter.acquire(0));
+        limiter.release(FAST, false);
+        limiter.release(FAST, false);
+        assertEquals(3, limiter.getLimit());
+
+        // limite peu utilisée : elle reste
+        assertTrue(limiter.acquire(0));
+        limiter.release(FAST, false);
+        assertEquals(3, limiter.getLimit());
+
+        // jamais au-delà du maximum
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.acquire(0));
+        }
+        for (int i = 0; i < 3; i++) {
+            limiter.release(FAST, false);
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * A waiting request takes the place given back, or is rejected after its wait.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void waitingRequestTakesPlaceGivenBack() throws Exception {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter("signature", 1, 1, 1000, 1, new SimpleMeterRegistry());
+        assertTrue(limiter.acquire(0));
+
+        assertFalse(limiter.acquire(10));
+
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> waiting = pool.submit(() -> limiter.acquire(TimeUnit.MINUTES.toMillis(1)));
+            while (limiter.getWaiting() == 0) {
+                Thread.sleep(5);
+            }
+            // file pleine : refus immédiat
+            assertFalse(limiter.acquire(TimeUnit.MINUTES.toMillis(1)));
+
+            limiter.release(FAST, false);
+            assertTrue(waiting.get(1, TimeUnit.MINUTES));
+            assertEquals(1, limiter.getInFlight());
+            assertEquals(0, limiter.getWaiting());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A limiter on the test clock, without queue.
+     *
+     * @param minLimit the minimum limit
+     * @param maxLimit the maximum limit
+     * @return the limiter
+     */
+    private AdaptiveLimiter limiter(final int minLimit, final int maxLimit) {
+        return new AdaptiveLimiter("signature", minLimit, maxLimit, 1000, 0, new SimpleMeterRegistry(), now::get);
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.unit.DataSize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.gouv.esante.api.sign.ws.model.ESignSanteValidationReport;
+
+/**
+ * NDJSON framing of the batches : one result per line, written as soon as it is done.
+ */
+class BatchExecutorTest {
+
+    /** Mapper configured as the JSON message converter. */
+    private static final ObjectMapper MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    /** The lane of the batch. */
+    private static final FairQueue.Lane LANE = FairQueue.Lane.of("validate", 1L, null, null);
+
+    /**
+     * Each result is one line, the report being the JSON of the model, and the stream ends with a
+     * line feed.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void resultsAreNdjsonLines() throws Exception {
+        final BatchExecutor batch = batch(Runnable::run);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        batch.stream(mock(RequestSnapshot.class), LANE, List.of("a.xml", "b \"é\".xml"),
+                (index, nom) -> new BatchResult(index, nom, HttpStatus.OK,
+                        new StreamingReports.ValidationReport(index == 0)), out);
+
+        assertEquals(line(0, "\"a.xml\"", 200, rapport(true)) + line(1, "\"b \\\"é\\\".xml\"", 200, rapport(false)),
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A document refused by the pool is a 503 line without report, the others are still run.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void rejectedDocumentIsServiceUnavailable() throws Exception {
+        final AtomicInteger submitted = new AtomicInteger();
+        final BatchExecutor batch = batch(command -> {
+            if (submitted.getAndIncrement() == 1) {
+                throw new RejectedExecutionException("file pleine");
+            }
+            command.run();
+        });
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        batch.stream(mock(RequestSnapshot.class), LANE, List.of("a.xml", "b.xml", "c.xml"),
+                (index, nom) -> new BatchResult(index, nom, HttpStatus.OK, new StreamingReports.ValidationReport(true)),
+                out);
+
+        assertEquals(line(0, "\"a.xml\"", 200, rapport(true)) + line(1, "\"b.xml\"", 503, "null")
+                + line(2, "\"c.xml\"", 200, rapport(true)), out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A result is written and flushed as soon as it is done, before the slower documents sent first.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void resultsAreWrittenInCompletionOrder() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            final BatchExecutor batch = batch(pool);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            batch.stream(mock(RequestSnapshot.class), LANE, List.of("lent.xml", "rapide.xml"), (index, nom) -> {
+                if (index == 0) {
+                    // le premier document attend que le résultat du second soit reçu par le client
+                    final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+                    while (!out.toString(StandardCharsets.UTF_8).contains("rapide.xml")
+                            && System.nanoTime() < deadline) {
+                        Thread.onSpinWait();
+                    }
+                }
+                return new BatchResult(index, nom, HttpStatus.OK, new StreamingReports.ValidationReport(true));
+            }, out);
+
+            final String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+            assertEquals(2, lines.length);
+            assertTrue(lines[0].startsWith("{\"index\":1,"));
+            assertTrue(lines[1].startsWith("{\"index\":0,"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A batch executor whose documents are admitted on an executor.
+     *
+     * @param executor the executor of the lane
+     * @return the batch executor
+     */
+    private static BatchExecutor batch(final Executor executor) {
+        final OperationExecutor operations = mock(OperationExecutor.class);
+        when(operations.admitted(any(), any())).thenReturn(executor);
+        return new BatchExecutor(operations, 100, DataSize.ofMegabytes(200));
+    }
+
+    /**
+     * An NDJSON line.
+     *
+     * @param index   the index
+     * @param nom     the JSON of the file name
+     * @param statut  the status
+     * @param rapport the JSON of the report
+     * @return the line
+     */
+    private static String line(final int index, final String nom, final int statut, final String rapport) {
+        return "{\"index\":" + index + ",\"nom\":" + nom + ",\"statut\":" + statut + ",\"rapport\":" + rapport
+                + "}\n";
+    }
+
+    /**
+     * JSON of the validation report model.
+     *
+     * @param valide the validity
+     * @return the JSON
+     * @throws Exception the exception
+     */
+    private static String rapport(final boolean valide) throws Exception {
+        final ESignSanteValidationReport model = new ESignSanteValidationReport();
+        model.setValide(valide);
+        return MAPPER.writeValueAsString(model);
+    }
+}
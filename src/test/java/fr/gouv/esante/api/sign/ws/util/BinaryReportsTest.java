@@ -0,0 +1,183 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MultiValueMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.gouv.esante.api.sign.ws.model.ESignSanteSignatureReport;
+import fr.gouv.esante.api.sign.ws.model.ESignSanteSignatureReportWithProof;
+import fr.gouv.esante.api.sign.ws.model.Erreur;
+import fr.gouv.esante.api.sign.ws.model.Metadata;
+
+/**
+ * Binary responses : raw signed document and proof, JSON report of the generated models.
+ */
+class BinaryReportsTest {
+
+    /** Mapper configured as the JSON message converter. */
+    private static final ObjectMapper MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    /** The signed document. */
+    private static final byte[] DOCUMENT = {0, 1, 2, (byte) 0xFF, (byte) 0x80, '<', '>'};
+
+    /** The proof. */
+    private static final String PREUVE = "<preuve>vérifiée</preuve>";
+
+    /**
+     * The binary mode is chosen by the Accept header, multipart/mixed first.
+     */
+    @Test
+    void mediaTypeFollowsAcceptHeader() {
+        assertFalse(BinaryReports.accepts(null));
+        assertFalse(BinaryReports.accepts("application/json"));
+        assertTrue(BinaryReports.accepts("application/octet-stream"));
+        assertTrue(BinaryReports.accepts("multipart/mixed, application/json"));
+
+        assertEquals("multipart/mixed", BinaryReports.mediaType("application/octet-stream, multipart/mixed"));
+        assertEquals("application/octet-stream", BinaryReports.mediaType("application/octet-stream"));
+        assertEquals("application/octet-stream", BinaryReports.mediaType(null));
+    }
+
+    /**
+     * The Accept header is parsed : the quality values and the most specific ranges choose the
+     * response, and a type is never matched by a substring.
+     */
+    @Test
+    void mediaTypeFollowsQualityAndSpecificity() {
+        assertFalse(BinaryReports.accepts("*/*"));
+        assertFalse(BinaryReports.accepts("application/*"));
+        assertFalse(BinaryReports.accepts("application/octet-stream;q=0"));
+        assertFalse(BinaryReports.accepts("application/json, application/octet-stream;q=0.5"));
+        assertFalse(BinaryReports.accepts("*/*, multipart/mixed;q=0.8"));
+        assertFalse(BinaryReports.accepts("application/octet-streamed"));
+        assertFalse(BinaryReports.accepts("text/plain;x=\"multipart/mixed\""));
+        assertFalse(BinaryReports.accepts("multipart/mixed;q=2"));
+        assertTrue(BinaryReports.accepts("application/json;q=0.5, application/octet-stream"));
+        assertTrue(BinaryReports.accepts("application/octet-stream;q=0.5, */*;q=0.1"));
+        assertTrue(BinaryReports.accepts("application/json;q=0.2, */*, multipart/mixed;q=0.9"));
+
+        assertEquals("application/octet-stream",
+                BinaryReports.mediaType("multipart/mixed;q=0.5, application/octet-stream"));
+        assertEquals("multipart/mixed", BinaryReports.mediaType("multipart/*;q=0.1, multipart/mixed;q=0.9, "
+                + "application/octet-stream;q=0.8"));
+        assertEquals("application/octet-stream",
+                BinaryReports.mediaType("multipart/mixed;q=0, application/octet-stream;q=0.1"));
+    }
+
+    /**
+     * In application/octet-stream, the body is the raw signed document and the header holds the JSON
+     * of the model in Base64.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void octetStreamHeaderHoldsModelJson() throws Exception {
+        final StreamingReports.SignatureReport rapport = new StreamingReports.SignatureReport(null);
+        rapport.setErreurs(erreurs());
+
+        final ResponseEntity<Object> re = BinaryReports.response("application/octet-stream", rapport, DOCUMENT,
+                null);
+
+        final ESignSanteSignatureReport model = new ESignSanteSignatureReport();
+        model.setErreurs(erreurs());
+        assertEquals(HttpStatus.OK, re.getStatusCode());
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, re.getHeaders().getContentType());
+        assertArrayEquals(DOCUMENT, (byte[]) re.getBody());
+        final String header = re.getHeaders().getFirst(WsVars.HEADER_REPORT.getVar());
+        assertEquals(MAPPER.writeValueAsString(model),
+                new String(Base64.getDecoder().decode(header), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * In multipart/mixed, the parts are the report, the raw signed document and the raw proof.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void multipartHoldsRawParts() throws Exception {
+        final StreamingReports.SignatureReportWithProof rapport = new StreamingReports.SignatureReportWithProof(
+                true, null, null);
+        rapport.setErreurs(erreurs());
+        rapport.setMetaData(List.of(new StreamingReports.Base64Metadata("<rapport>contrôle</rapport>")));
+
+        final ResponseEntity<Object> re = BinaryReports.response("multipart/mixed", rapport, DOCUMENT, PREUVE);
+
+        assertEquals(MediaType.MULTIPART_MIXED, re.getHeaders().getContentType());
+        final MultiValueMap<String, HttpEntity<?>> parts = (MultiValueMap<String, HttpEntity<?>>) re.getBody();
+        assertEquals(List.of(BinaryReports.PART_REPORT, BinaryReports.PART_DOCUMENT, BinaryReports.PART_PROOF),
+                new ArrayList<>(parts.keySet()));
+
+        final HttpEntity<?> report = parts.getFirst(BinaryReports.PART_REPORT);
+        assertEquals(MediaType.APPLICATION_JSON, report.getHeaders().getContentType());
+        assertSame(rapport, report.getBody());
+        final Metadata meta = new Metadata();
+        meta.setMessage(Base64.getEncoder().encodeToString("<rapport>contrôle</rapport>".getBytes()));
+        final ESignSanteSignatureReportWithProof model = new ESignSanteSignatureReportWithProof();
+        model.setErreurs(erreurs());
+        model.setMetaData(List.of(meta));
+        model.setValide(true);
+        assertEquals(MAPPER.writeValueAsString(model), MAPPER.writeValueAsString(report.getBody()));
+
+        final HttpEntity<?> document = parts.getFirst(BinaryReports.PART_DOCUMENT);
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, document.getHeaders().getContentType());
+        assertArrayEquals(DOCUMENT, (byte[]) document.getBody());
+
+        final HttpEntity<?> proof = parts.getFirst(BinaryReports.PART_PROOF);
+        assertEquals(new MediaType(MediaType.APPLICATION_XML, StandardCharsets.UTF_8),
+                proof.getHeaders().getContentType());
+        assertEquals(PREUVE, proof.getBody());
+    }
+
+    /**
+     * Without proof, the multipart response has no proof part.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void multipartWithoutProof() throws Exception {
+        final ResponseEntity<Object> re = BinaryReports.response("multipart/mixed",
+                new StreamingReports.SignatureReport(null), DOCUMENT, null);
+
+        final MultiValueMap<String, HttpEntity<?>> parts = (MultiValueMap<String, HttpEntity<?>>) re.getBody();
+        assertEquals(2, parts.size());
+        assertNull(parts.getFirst(BinaryReports.PART_PROOF));
+    }
+
+    /**
+     * Errors of a report.
+     *
+     * @return the errors
+     */
+    private static List<Erreur> erreurs() {
+        final Erreur erreur = new Erreur();
+        erreur.setCodeErreur("ERR_SIG_01");
+        erreur.setMessage("Certificat révoqué");
+        final List<Erreur> erreurs = new ArrayList<>();
+        erreurs.add(erreur);
+        return erreurs;
+    }
+}
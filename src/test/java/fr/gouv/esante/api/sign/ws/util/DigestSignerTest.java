@@ -0,0 +1,143 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.ess.SigningCertificateV2;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import fr.gouv.esante.api.sign.bean.parameters.SignatureParameters;
+
+/**
+ * Digest signatures : raw signature value and detached CMS of a digest sent by the client.
+ */
+class DigestSignerTest {
+
+    /** The signed content, known only by the client. */
+    private static final byte[] CONTENT = "%PDF-1.7 plage d'octets signée".getBytes(StandardCharsets.UTF_8);
+
+    /** The signing certificate. */
+    private static X509Certificate certificate;
+
+    /** The signature parameters. */
+    private static SignatureParameters signParams;
+
+    /**
+     * Builds a KeyStore holding a self-signed RSA key.
+     *
+     * @throws Exception the exception
+     */
+    @BeforeAll
+    static void keyStore() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final X500Name name = new X500Name("CN=esignsante-test");
+        final long now = System.currentTimeMillis();
+        certificate = new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(name,
+                BigInteger.ONE, new Date(now - 60_000), new Date(now + 3_600_000), name, keyPair.getPublic())
+                .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, "password".toCharArray());
+        keyStore.setKeyEntry("signature", keyPair.getPrivate(), "password".toCharArray(),
+                new Certificate[] {certificate});
+        signParams = new SignatureParameters();
+        signParams.setKeyStore(keyStore);
+        signParams.setPassword("password");
+    }
+
+    /**
+     * The CMS carries the content-type, message-digest and signing-certificate-v2 signed attributes,
+     * no signing-time, and verifies against the content.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void cmsCarriesSigningCertificateV2() throws Exception {
+        final DigestSigner.Algorithm algorithm = DigestSigner.algorithm("SHA-256", signParams);
+        final byte[] digest = MessageDigest.getInstance("SHA-256").digest(CONTENT);
+
+        final byte[] cms = new DigestSigner().signCms(signParams, algorithm, digest);
+
+        final CMSSignedData signedData = new CMSSignedData(new CMSProcessableByteArray(CONTENT), cms);
+        final SignerInformation signer = signedData.getSignerInfos().getSigners().iterator().next();
+        final AttributeTable attributes = signer.getSignedAttributes();
+        assertNotNull(attributes.get(CMSAttributes.contentType));
+        assertNull(attributes.get(CMSAttributes.signingTime));
+        assertArrayEquals(digest, ASN1OctetString.getInstance(
+                attributes.get(CMSAttributes.messageDigest).getAttrValues().getObjectAt(0)).getOctets());
+        final Attribute signingCertificate = attributes.get(PKCSObjectIdentifiers.id_aa_signingCertificateV2);
+        assertNotNull(signingCertificate);
+        final SigningCertificateV2 certificateV2 = SigningCertificateV2.getInstance(
+                signingCertificate.getAttrValues().getObjectAt(0));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()),
+                certificateV2.getCerts()[0].getCertHash());
+        assertTrue(signer.verify(new JcaSimpleSignerInfoVerifierBuilder().build(certificate)));
+        assertEquals(1, signedData.getCertificates().getMatches(null).size());
+    }
+
+    /**
+     * The raw signature value is the RSASSA-PKCS1-v1_5 signature of the content.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void rawSignatureVerifiesAgainstContent() throws Exception {
+        final DigestSigner.Algorithm algorithm = DigestSigner.algorithm("SHA-512", signParams);
+        final byte[] digest = MessageDigest.getInstance("SHA-512").digest(CONTENT);
+
+        final byte[] value = new DigestSigner().signRaw(signParams, algorithm, digest);
+
+        final Signature signature = Signature.getInstance("SHA512withRSA");
+        signature.initVerify(certificate);
+        signature.update(CONTENT);
+        assertTrue(signature.verify(value));
+    }
+
+    /**
+     * A digest whose length is not the one of the algorithm is refused.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void digestLengthMustMatchAlgorithm() throws Exception {
+        final DigestSigner.Algorithm algorithm = DigestSigner.algorithm("sha384", signParams);
+        assertEquals("SHA-384", algorithm.getName());
+        assertTrue(algorithm.matches(new byte[48]));
+        assertFalse(algorithm.matches(new byte[32]));
+        assertNull(DigestSigner.algorithm("MD5", signParams));
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Weighted-fair admission of the operations, by configuration.
+ */
+class FairQueueTest {
+
+    /** A lane without quota nor weight. */
+    private static final FairQueue.Lane HOLDER = FairQueue.Lane.of("sign", 0L, null, null);
+
+    /**
+     * A disabled queue admits every operation.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void disabledQueueAdmitsAll() throws Exception {
+        final FairQueue queue = new FairQueue(1, 10, false, new SimpleMeterRegistry());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.acquire(HOLDER));
+        }
+    }
+
+    /**
+     * Without a free place, an operation is refused after the maximum wait, leaving no trace.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void fullQueueTimesOut() throws Exception {
+        final FairQueue queue = new FairQueue(1, 20, true, new SimpleMeterRegistry());
+        final FairQueue.Lane other = FairQueue.Lane.of("validate", 1L, null, null);
+        assertTrue(queue.acquire(HOLDER));
+
+        assertFalse(queue.acquire(other));
+
+        queue.release(HOLDER);
+        assertTrue(queue.acquire(other));
+    }
+
+    /**
+     * A configuration at its quota waits, the others are still admitted.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void quotaBoundsOneConfiguration() throws Exception {
+        final FairQueue queue = new FairQueue(4, 20, true, new SimpleMeterRegistry());
+        final FairQueue.Lane bulk = FairQueue.Lane.of("sign", 1L, 1, null);
+        final FairQueue.Lane other = FairQueue.Lane.of("sign", 2L, null, null);
+
+        assertTrue(queue.acquire(bulk));
+        assertFalse(queue.acquire(bulk));
+        assertTrue(queue.acquire(other));
+        assertTrue(queue.acquire(other));
+
+        queue.release(bulk);
+        assertTrue(queue.acquire(bulk));
+    }
+
+    /**
+     * The places given back go to the waiting configurations in proportion to their weight.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void placesFollowWeights() throws Exception {
+        final FairQueue queue = new FairQueue(1, TimeUnit.MINUTES.toMillis(1), true, new SimpleMeterRegistry());
+        final FairQueue.Lane heavy = FairQueue.Lane.of("sign", 1L, null, 3);
+        final FairQueue.Lane light = FairQueue.Lane.of("sign", 2L, null, 1);
+        final BlockingQueue<FairQueue.Lane> admitted = new LinkedBlockingQueue<>();
+        final List<Thread> waiters = new ArrayList<>();
+        assertTrue(queue.acquire(HOLDER));
+        for (int i = 0; i < 6; i++) {
+            waiters.add(waiter(queue, heavy, admitted));
+            waiters.add(waiter(queue, light, admitted));
+        }
+        for (final Thread waiter : waiters) {
+            while (waiter.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(1);
+            }
+        }
+
+        final List<FairQueue.Lane> order = new ArrayList<>();
+        queue.release(HOLDER);
+        for (int i = 0; i < waiters.size(); i++) {
+            final FairQueue.Lane lane = admitted.poll(1, TimeUnit.MINUTES);
+            assertNotNull(lane);
+            order.add(lane);
+            queue.release(lane);
+        }
+
+        final List<FairQueue.Lane> first = order.subList(0, 8);
+        assertEquals(6, Collections.frequency(first, heavy));
+        assertEquals(2, Collections.frequency(first, light));
+        assertEquals(6, Collections.frequency(order, light));
+        for (final Thread waiter : waiters) {
+            waiter.join(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    /**
+     * Starts a thread waiting for a place.
+     *
+     * @param queue    the queue
+     * @param lane     the lane
+     * @param admitted the lanes admitted, in order
+     * @return the thread
+     */
+    private static Thread waiter(final FairQueue queue, final FairQueue.Lane lane,
+            final BlockingQueue<FairQueue.Lane> admitted) {
+        final Thread thread = new Thread(() -> {
+            try {
+                if (queue.acquire(lane)) {
+                    admitted.add(lane);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Idempotency of the operations with proof : replay in the window and single flight.
+ */
+class IdempotencyCacheTest {
+
+    /** The document. */
+    private static final MockMultipartFile DOC = new MockMultipartFile("file", "doc.xml", "text/xml",
+            "<document/>".getBytes(StandardCharsets.UTF_8));
+
+    /** The other parts of the key. */
+    private static final List<?> PARTS = List.of("signatureXMLdsigWithProof", 1L, 2L, "request-1");
+
+    /**
+     * Clears the request of the test.
+     */
+    @AfterEach
+    void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    /**
+     * A duplicate request in the window is replayed without running the operation again.
+     */
+    @Test
+    void duplicateIsReplayed() {
+        final IdempotencyCache cache = cache(60);
+        final AtomicInteger runs = new AtomicInteger();
+
+        final ResponseEntity<String> first = cache.call(DOC, PARTS, () -> ok("rapport-" + runs.incrementAndGet()));
+        final ResponseEntity<String> second = cache.call(DOC, PARTS, () -> ok("rapport-" + runs.incrementAndGet()));
+
+        assertEquals(1, runs.get());
+        assertEquals("rapport-1", first.getBody());
+        assertEquals("rapport-1", second.getBody());
+        assertEquals(HttpStatus.OK, second.getStatusCode());
+    }
+
+    /**
+     * Concurrent identical requests run the operation once and all get its response.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void concurrentDuplicatesRunOnce() throws Exception {
+        final IdempotencyCache cache = cache(60);
+        final int requests = 16;
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService pool = Executors.newFixedThreadPool(requests);
+        final List<Future<ResponseEntity<String>>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < requests; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return cache.call(DOC, PARTS, () -> {
+                        runs.incrementAndGet();
+                        sleep(200);
+                        return ok("rapport");
+                    });
+                }));
+            }
+            start.countDown();
+            for (final Future<ResponseEntity<String>> result : results) {
+                final ResponseEntity<String> re = result.get(1, TimeUnit.MINUTES);
+                assertEquals(HttpStatus.OK, re.getStatusCode());
+                assertEquals("rapport", re.getBody());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, runs.get());
+    }
+
+    /**
+     * A request identical to one in flight for longer than the wait gets a 409.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void duplicateOfLongFlightConflicts() throws Exception {
+        final IdempotencyCache cache = cache(0);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            final Future<ResponseEntity<String>> first = pool.submit(() -> cache.call(DOC, PARTS, () -> {
+                running.countDown();
+                await(release);
+                return ok("rapport");
+            }));
+            assertTrue(running.await(1, TimeUnit.MINUTES));
+
+            assertEquals(HttpStatus.CONFLICT, cache.call(DOC, PARTS, () -> ok("autre")).getStatusCode());
+
+            release.countDown();
+            assertEquals("rapport", first.get(1, TimeUnit.MINUTES).getBody());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A failed response is not kept : the request can be retried.
+     */
+    @Test
+    void failureIsNotKept() {
+        final IdempotencyCache cache = cache(60);
+        final AtomicInteger runs = new AtomicInteger();
+
+        final ResponseEntity<String> failed = cache.call(DOC, PARTS, () -> {
+            runs.incrementAndGet();
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        });
+        final ResponseEntity<String> retried = cache.call(DOC, PARTS, () -> {
+            runs.incrementAndGet();
+            return ok("rapport");
+        });
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, failed.getStatusCode());
+        assertEquals(HttpStatus.OK, retried.getStatusCode());
+        assertEquals(2, runs.get());
+    }
+
+    /**
+     * Another document, other parts or other OpenId tokens are other requests.
+     */
+    @Test
+    void keyCoversDocumentPartsAndTokens() {
+        final IdempotencyCache cache = cache(60);
+        final AtomicInteger runs = new AtomicInteger();
+
+        cache.call(DOC, PARTS, () -> ok("rapport-" + runs.incrementAndGet()));
+        cache.call(new MockMultipartFile("file", "<autre/>".getBytes(StandardCharsets.UTF_8)), PARTS,
+                () -> ok("rapport-" + runs.incrementAndGet()));
+        cache.call(DOC, List.of("signatureXMLdsigWithProof", 1L, 2L, "request-2"),
+                () -> ok("rapport-" + runs.incrementAndGet()));
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("X-OpenidToken", "token-appelant");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        cache.call(DOC, PARTS, () -> ok("rapport-" + runs.incrementAndGet()));
+
+        assertEquals(4, runs.get());
+    }
+
+    /**
+     * The headers set on the servlet response by the operation are replayed.
+     */
+    @Test
+    void responseHeadersAreReplayed() {
+        final IdempotencyCache cache = cache(60);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest(),
+                response));
+
+        cache.call(DOC, PARTS, () -> {
+            response.setHeader(WsVars.HEADER_CACRL_GENERATION.getVar(), "7");
+            return ok("rapport");
+        });
+        final ResponseEntity<String> replayed = cache.call(DOC, PARTS, () -> ok("autre"));
+
+        assertEquals("rapport", replayed.getBody());
+        assertEquals("7", replayed.getHeaders().getFirst(WsVars.HEADER_CACRL_GENERATION.getVar()));
+    }
+
+    /**
+     * A response larger than config.idempotency.max-response-size is not kept.
+     */
+    @Test
+    void largeResponseIsNotKept() {
+        final IdempotencyCache cache = new IdempotencyCache(300, DataSize.ofMegabytes(1), DataSize.ofBytes(1024),
+                60);
+        final AtomicInteger runs = new AtomicInteger();
+        final String large = "x".repeat(4096);
+
+        cache.call(DOC, PARTS, () -> ok(large + runs.incrementAndGet()));
+        cache.call(DOC, PARTS, () -> ok(large + runs.incrementAndGet()));
+
+        assertEquals(2, runs.get());
+    }
+
+    /**
+     * An idempotency cache with a 300 seconds window.
+     *
+     * @param waitSeconds the maximum wait for a request in flight
+     * @return the cache
+     */
+    private static IdempotencyCache cache(final long waitSeconds) {
+        return new IdempotencyCache(300, DataSize.ofMegabytes(1), DataSize.ofKilobytes(64), waitSeconds);
+    }
+
+    /**
+     * A successful response.
+     *
+     * @param body the body
+     * @return the response entity
+     */
+    private static ResponseEntity<String> ok(final String body) {
+        return new ResponseEntity<>(body, HttpStatus.OK);
+    }
+
+    /**
+     * Sleeps, the operation being in flight.
+     *
+     * @param millis the duration
+     */
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for a latch, the operation being in flight.
+     *
+     * @param latch the latch
+     */
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
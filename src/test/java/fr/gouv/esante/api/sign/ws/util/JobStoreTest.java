@@ -0,0 +1,221 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Asynchronous jobs : stored responses, expiry, and the spooled document released on every path.
+ */
+class JobStoreTest {
+
+    /** The lane of the jobs. */
+    private static final FairQueue.Lane LANE = FairQueue.Lane.of("sign", 1L, null, null);
+
+    /** The signed document. */
+    private static final byte[] SIGNED = "<signé/>".getBytes(StandardCharsets.UTF_8);
+
+    /** The result directory. */
+    @TempDir
+    Path directory;
+
+    /**
+     * A done job keeps its status, its content type and its body, and releases its document.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void doneJobStoresResponse() throws Exception {
+        final JobStore store = store(Runnable::run, 3600);
+        final SpooledDocument document = document();
+
+        final Job job = store.submit("signatureXMLdsig", null, LANE,
+                () -> ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_OCTET_STREAM).body(SIGNED),
+                document);
+
+        assertEquals(Job.Statut.TERMINE, job.getStatut());
+        assertEquals(200, job.getCodeRetour());
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM_VALUE, job.getContentType());
+        assertArrayEquals(SIGNED, Files.readAllBytes(store.result(job).orElseThrow()));
+        assertTrue(store.get(job.getId()).isPresent());
+        assertFalse(Files.exists(document.getPath()));
+    }
+
+    /**
+     * A failed operation is a done job in error, without body.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void failedJobHasNoBody() throws Exception {
+        final JobStore store = store(Runnable::run, 3600);
+        final SpooledDocument document = document();
+
+        final Job job = store.submit("signatureXMLdsig", null, LANE, () -> {
+            throw new IllegalStateException("keystore illisible");
+        }, document);
+
+        assertEquals(Job.Statut.TERMINE, job.getStatut());
+        assertEquals(500, job.getCodeRetour());
+        assertTrue(store.result(job).isEmpty());
+        assertFalse(Files.exists(document.getPath()));
+    }
+
+    /**
+     * The jobs done for longer than config.jobs.ttl are removed with their response, the others are kept.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void purgeRemovesExpiredJobs() throws Exception {
+        final List<Runnable> queued = new ArrayList<>();
+        final JobStore store = store(queued::add, 0);
+        final Job done = store.submit("signatureXMLdsig", null, LANE, () -> ResponseEntity.ok(SIGNED), document());
+        queued.remove(0).run();
+        final Path result = store.result(done).orElseThrow();
+        final Job waiting = store.submit("signatureXMLdsig", null, LANE, () -> ResponseEntity.ok(SIGNED),
+                document());
+        Thread.sleep(5);
+
+        store.purge();
+
+        assertTrue(store.get(done.getId()).isEmpty());
+        assertFalse(Files.exists(result));
+        assertTrue(store.get(waiting.getId()).isPresent());
+    }
+
+    /**
+     * A job deleted while waiting in the pool never runs and its spooled document is deleted.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void cancelBeforeRunReleasesDocument() throws Exception {
+        final List<Runnable> queued = new ArrayList<>();
+        final JobStore store = store(queued::add, 3600);
+        final SpooledDocument document = document();
+        final AtomicInteger runs = new AtomicInteger();
+        final Job job = store.submit("signatureXMLdsig", null, LANE, () -> {
+            runs.incrementAndGet();
+            return ResponseEntity.ok(SIGNED);
+        }, document);
+
+        assertTrue(store.remove(job.getId()));
+
+        assertFalse(Files.exists(document.getPath()));
+        assertTrue(job.whenDone().isDone());
+        // le pool finit par dépiler la tâche annulée : elle ne s'exécute pas
+        queued.remove(0).run();
+        assertEquals(0, runs.get());
+        assertEquals(Job.Statut.EN_ATTENTE, job.getStatut());
+        assertTrue(store.get(job.getId()).isEmpty());
+        assertFalse(store.remove(job.getId()));
+    }
+
+    /**
+     * A job deleted while running is interrupted, its document released once the operation stops, and
+     * no response is left behind.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void cancelDuringRunReleasesDocument() throws Exception {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            final JobStore store = store(pool, 3600);
+            final SpooledDocument document = document();
+            final CountDownLatch running = new CountDownLatch(1);
+            final CountDownLatch never = new CountDownLatch(1);
+            final Job job = store.submit("signatureXMLdsig", null, LANE, () -> {
+                running.countDown();
+                never.await();
+                return ResponseEntity.ok(SIGNED);
+            }, document);
+            assertTrue(running.await(1, TimeUnit.MINUTES));
+            assertTrue(Files.exists(document.getPath()));
+
+            assertTrue(store.remove(job.getId()));
+
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+            assertFalse(Files.exists(document.getPath()));
+            assertEquals(500, job.getCodeRetour());
+            assertTrue(store.get(job.getId()).isEmpty());
+            assertTrue(store.result(job).isEmpty());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A job refused by the pool is not run and its document is left to the caller.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void rejectedJobLeavesDocumentToCaller() throws Exception {
+        final JobStore store = store(command -> {
+            throw new RejectedExecutionException("file pleine");
+        }, 3600);
+        final SpooledDocument document = document();
+
+        assertThrows(RejectedExecutionException.class,
+                () -> store.submit("signatureXMLdsig", null, LANE, () -> ResponseEntity.ok(SIGNED), document));
+
+        assertTrue(Files.exists(document.getPath()));
+        document.close();
+    }
+
+    /**
+     * A job store whose operations are admitted on an executor.
+     *
+     * @param executor   the executor of the lane
+     * @param ttlSeconds time to live of a done job
+     * @return the job store
+     * @throws Exception the exception
+     */
+    private JobStore store(final Executor executor, final long ttlSeconds) throws Exception {
+        final OperationExecutor operations = mock(OperationExecutor.class);
+        when(operations.admitted(any(), any())).thenReturn(executor);
+        return new JobStore(operations, directory.toString(), ttlSeconds);
+    }
+
+    /**
+     * A spooled document.
+     *
+     * @return the document
+     * @throws Exception the exception
+     */
+    private static SpooledDocument document() throws Exception {
+        return SpooledDocument.of(new ByteArrayInputStream("<document/>".getBytes(StandardCharsets.UTF_8)), 1024);
+    }
+}
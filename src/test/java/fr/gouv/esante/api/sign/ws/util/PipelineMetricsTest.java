@@ -0,0 +1,64 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Stage timers and document size summaries, shared by the operations of the same tags.
+ */
+class PipelineMetricsTest {
+
+    /** Stage timer name. */
+    private static final String STAGE_TIMER = "esignsante.pipeline.stage";
+
+    /**
+     * Resets the request of the thread.
+     */
+    @AfterEach
+    void reset() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    /**
+     * The operations of the same type, endpoint and configuration record in the same meters, another
+     * configuration in its own.
+     */
+    @Test
+    void operationsShareMetersOfTheirTags() {
+        final MeterRegistry registry = new SimpleMeterRegistry();
+        final PipelineMetrics metrics = new PipelineMetrics(registry, false, false);
+
+        for (final long configuration : new long[] {1L, 1L, 2L}) {
+            request();
+            final PipelineStages stages = metrics.begin("XADES", configuration);
+            stages.record(PipelineStages.Stage.SIGN, stages.start(PipelineStages.Stage.SIGN));
+            stages.documentSize(1024);
+        }
+
+        assertEquals(2, registry.get(STAGE_TIMER).tag("configuration", "1").tag("stage", "sign").timer().count());
+        assertEquals(1, registry.get(STAGE_TIMER).tag("configuration", "2").tag("stage", "sign").timer().count());
+        assertEquals(2, registry.get(STAGE_TIMER).timers().size());
+        assertEquals(2, registry.get("esignsante.pipeline.document.size").tag("configuration", "1").summary().count());
+    }
+
+    /**
+     * Binds a new request to the thread.
+     */
+    private static void request() {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/esignsante/v1/signatures/xades");
+        request.setContextPath("/esignsante/v1");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+}
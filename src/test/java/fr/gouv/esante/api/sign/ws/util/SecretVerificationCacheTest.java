@@ -0,0 +1,191 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+
+import fr.gouv.esante.api.sign.ws.bean.object.SignatureConf;
+
+/**
+ * Cached secret verifications.
+ */
+class SecretVerificationCacheTest {
+
+    /**
+     * A verified secret is not checked again.
+     */
+    @Test
+    void verifiedSecretIsCached() {
+        final SecretVerificationCache cache = new SecretVerificationCache(100, 300, 10, 0, 60);
+        final SignatureConf signConf = signConf("1", "$2a$12$hash");
+        when(signConf.noSecretMatch("secret")).thenReturn(false);
+
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+
+        verify(signConf, times(1)).noSecretMatch("secret");
+    }
+
+    /**
+     * A rejected secret is not checked again within its own time to live.
+     */
+    @Test
+    void rejectedSecretIsCached() {
+        final SecretVerificationCache cache = new SecretVerificationCache(100, 300, 10, 0, 60);
+        final SignatureConf signConf = signConf("1", "$2a$12$hash");
+        when(signConf.noSecretMatch("wrong")).thenReturn(true);
+
+        assertTrue(cache.noSecretMatch(signConf, "wrong"));
+        assertTrue(cache.noSecretMatch(signConf, "wrong"));
+
+        verify(signConf, times(1)).noSecretMatch("wrong");
+    }
+
+    /**
+     * Rejections and verifications have separate times to live.
+     */
+    @Test
+    void rejectionWithoutTtlIsNotCached() {
+        final SecretVerificationCache cache = new SecretVerificationCache(100, 300, 0, 0, 60);
+        final SignatureConf signConf = signConf("1", "$2a$12$hash");
+        when(signConf.noSecretMatch("wrong")).thenReturn(true);
+        when(signConf.noSecretMatch("secret")).thenReturn(false);
+
+        assertTrue(cache.noSecretMatch(signConf, "wrong"));
+        assertTrue(cache.noSecretMatch(signConf, "wrong"));
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+
+        verify(signConf, times(2)).noSecretMatch("wrong");
+        verify(signConf, times(1)).noSecretMatch("secret");
+    }
+
+    /**
+     * A change of the configured hashes, or of the configuration, checks the secret again.
+     */
+    @Test
+    void entryDoesNotOutliveConfiguredHash() {
+        final SecretVerificationCache cache = new SecretVerificationCache(100, 300, 10, 0, 60);
+        final SignatureConf signConf = signConf("1", "$2a$12$old");
+        when(signConf.noSecretMatch("secret")).thenReturn(false);
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+
+        when(signConf.getSecret()).thenReturn("$2a$12$new");
+        when(signConf.noSecretMatch("secret")).thenReturn(true);
+        assertTrue(cache.noSecretMatch(signConf, "secret"));
+
+        final SignatureConf other = signConf("2", "$2a$12$old");
+        when(other.noSecretMatch("secret")).thenReturn(true);
+        assertTrue(cache.noSecretMatch(other, "secret"));
+
+        verify(signConf, times(2)).noSecretMatch("secret");
+        verify(other, times(1)).noSecretMatch("secret");
+    }
+
+    /**
+     * Invalidation checks every secret again.
+     */
+    @Test
+    void invalidateAllDropsEntries() {
+        final SecretVerificationCache cache = new SecretVerificationCache(100, 300, 10, 0, 60);
+        final SignatureConf signConf = signConf("1", "$2a$12$hash");
+        when(signConf.noSecretMatch("secret")).thenReturn(false);
+
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+        cache.invalidateAll();
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+
+        verify(signConf, times(2)).noSecretMatch("secret");
+    }
+
+    /**
+     * A missing secret is never cached.
+     */
+    @Test
+    void missingSecretIsNotCached() {
+        final SecretVerificationCache cache = new SecretVerificationCache(100, 300, 10, 0, 60);
+        final SignatureConf signConf = signConf("1", "$2a$12$hash");
+        when(signConf.noSecretMatch(null)).thenReturn(true);
+
+        assertTrue(cache.noSecretMatch(signConf, null));
+        assertTrue(cache.noSecretMatch(signConf, null));
+
+        verify(signConf, times(2)).noSecretMatch(null);
+    }
+
+    /**
+     * Past the failed checks allowed in the window, unknown secrets of the configuration are rejected
+     * without BCrypt, while its verified secrets and the other configurations are still served.
+     */
+    @Test
+    void failedChecksAreThrottledPerConfiguration() {
+        final SecretVerificationCache cache = new SecretVerificationCache(100, 300, 10, 3, 60);
+        final SignatureConf signConf = signConf("1", "$2a$12$hash");
+        when(signConf.noSecretMatch(anyString())).thenReturn(true);
+        when(signConf.noSecretMatch("secret")).thenReturn(false);
+        final SignatureConf other = signConf("2", "$2a$12$hash");
+        when(other.noSecretMatch("wrong")).thenReturn(true);
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cache.noSecretMatch(signConf, "wrong" + i));
+        }
+        assertFalse(cache.noSecretMatch(signConf, "secret"));
+        assertTrue(cache.noSecretMatch(other, "wrong"));
+
+        verify(signConf, times(1)).noSecretMatch("wrong0");
+        verify(signConf, times(1)).noSecretMatch("wrong2");
+        verify(signConf, times(0)).noSecretMatch("wrong3");
+        verify(signConf, times(0)).noSecretMatch("wrong9");
+        verify(signConf, times(1)).noSecretMatch("secret");
+        verify(other, times(1)).noSecretMatch("wrong");
+    }
+
+    /**
+     * The throttle ends with its window, and with the swap of the configurations.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void throttleEndsWithWindow() throws Exception {
+        final SecretVerificationCache cache = new SecretVerificationCache(100, 300, 0, 1, 1);
+        final SignatureConf signConf = signConf("1", "$2a$12$hash");
+        when(signConf.noSecretMatch(anyString())).thenReturn(true);
+
+        assertTrue(cache.noSecretMatch(signConf, "wrong"));
+        assertTrue(cache.noSecretMatch(signConf, "wrong"));
+        verify(signConf, times(1)).noSecretMatch("wrong");
+
+        Thread.sleep(1_100);
+        assertTrue(cache.noSecretMatch(signConf, "wrong"));
+        verify(signConf, times(2)).noSecretMatch("wrong");
+
+        cache.invalidateAll();
+        assertTrue(cache.noSecretMatch(signConf, "wrong"));
+        verify(signConf, times(3)).noSecretMatch("wrong");
+    }
+
+    /**
+     * A signature configuration.
+     *
+     * @param id     the id
+     * @param hashes the configured hashes
+     * @return the configuration
+     */
+    private static SignatureConf signConf(final String id, final String hashes) {
+        final SignatureConf signConf = mock(SignatureConf.class);
+        when(signConf.getIdSignConf()).thenReturn(id);
+        when(signConf.getSecret()).thenReturn(hashes);
+        return signConf;
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.gouv.esante.api.sign.ws.model.ESignSanteSignatureReport;
+import fr.gouv.esante.api.sign.ws.model.ESignSanteSignatureReportWithProof;
+import fr.gouv.esante.api.sign.ws.model.ESignSanteValidationReport;
+import fr.gouv.esante.api.sign.ws.model.ESignSanteValidationReportWithProof;
+import fr.gouv.esante.api.sign.ws.model.Erreur;
+import fr.gouv.esante.api.sign.ws.model.Metadata;
+
+/**
+ * The streamed reports write the same bytes as Jackson writes for the generated models.
+ */
+class StreamingReportsTest {
+
+    /** Mapper configured as the JSON message converter. */
+    private static final ObjectMapper MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    /** A signed document larger than an encoding chunk. */
+    private static final byte[] DOCUMENT = document(50_000);
+
+    /** A proof larger than an encoding chunk, with non ASCII characters. */
+    private static final String PREUVE = "<preuve>" + "vérification é ".repeat(2_000) + "</preuve>";
+
+    /** A DSS report, kept raw. */
+    private static final String RAPPORT_DSS = "<rapport>" + "contrôle ".repeat(3_000) + "</rapport>";
+
+    /**
+     * Signature report.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    void signatureReportMatchesModel() throws IOException {
+        final StreamingReports.SignatureReport report = new StreamingReports.SignatureReport(DOCUMENT);
+        report.setErreurs(erreurs());
+
+        final ESignSanteSignatureReport model = new ESignSanteSignatureReport();
+        model.setErreurs(erreurs());
+        model.setDocSigne(Base64.getEncoder().encodeToString(DOCUMENT));
+
+        assertSameJson(model, report);
+    }
+
+    /**
+     * Signature report with proof.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    void signatureReportWithProofMatchesModel() throws IOException {
+        final StreamingReports.SignatureReportWithProof report = new StreamingReports.SignatureReportWithProof(true,
+                DOCUMENT, PREUVE);
+        report.setErreurs(erreurs());
+        report.setMetaData(metadata());
+
+        final ESignSanteSignatureReportWithProof model = new ESignSanteSignatureReportWithProof();
+        model.setErreurs(erreurs());
+        model.setMetaData(modelMetadata());
+        model.setValide(true);
+        model.setDocSigne(Base64.getEncoder().encodeToString(DOCUMENT));
+        model.setPreuve(Base64.getEncoder().encodeToString(PREUVE.getBytes()));
+
+        assertSameJson(model, report);
+    }
+
+    /**
+     * Validation report, without errors.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    void validationReportMatchesModel() throws IOException {
+        final StreamingReports.ValidationReport report = new StreamingReports.ValidationReport(false);
+        report.setMetaData(metadata());
+
+        final ESignSanteValidationReport model = new ESignSanteValidationReport();
+        model.setMetaData(modelMetadata());
+        model.setValide(false);
+
+        assertSameJson(model, report);
+    }
+
+    /**
+     * Validation report with proof.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    void validationReportWithProofMatchesModel() throws IOException {
+        final StreamingReports.ValidationReportWithProof report = new StreamingReports.ValidationReportWithProof(
+                true, PREUVE);
+        report.setErreurs(erreurs());
+        report.setMetaData(metadata());
+
+        final ESignSanteValidationReportWithProof model = new ESignSanteValidationReportWithProof();
+        model.setErreurs(erreurs());
+        model.setMetaData(modelMetadata());
+        model.setValide(true);
+        model.setPreuve(Base64.getEncoder().encodeToString(PREUVE.getBytes()));
+
+        assertSameJson(model, report);
+    }
+
+    /**
+     * The estimated size counts the raw values once.
+     */
+    @Test
+    void sizeCountsRawValues() {
+        final StreamingReports.SignatureReportWithProof report = new StreamingReports.SignatureReportWithProof(true,
+                DOCUMENT, PREUVE);
+        report.setMetaData(metadata());
+
+        assertEquals(DOCUMENT.length + PREUVE.length() + "RAPPORT_DSS".length() + RAPPORT_DSS.length()
+                + "DATE_SIGNATURE".length() + "2023-11-02T10:15:30Z".length(), report.size());
+    }
+
+    /**
+     * The streamed JSON is the model JSON, and the getters of the report give the model values.
+     *
+     * @param model  the model
+     * @param report the streamed report
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void assertSameJson(final Object model, final StreamingReports.StreamedReport report)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = MAPPER.getFactory().createGenerator(out)) {
+            report.writeTo(gen);
+        }
+        final String expected = MAPPER.writeValueAsString(model);
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+        assertEquals(expected, MAPPER.writeValueAsString(report));
+    }
+
+    /**
+     * Errors of a report.
+     *
+     * @return the errors
+     */
+    private static List<Erreur> erreurs() {
+        final Erreur erreur = new Erreur();
+        erreur.setCodeErreur("ERR_SIG_01");
+        erreur.setMessage("Certificat \"révoqué\"");
+        final List<Erreur> erreurs = new ArrayList<>();
+        erreurs.add(erreur);
+        return erreurs;
+    }
+
+    /**
+     * Metadata of a streamed report : a raw DSS report and a plain message.
+     *
+     * @return the metadata
+     */
+    private static List<Metadata> metadata() {
+        final List<Metadata> metas = new ArrayList<>();
+        final Metadata dss = new StreamingReports.Base64Metadata(RAPPORT_DSS);
+        dss.setTypeMetadata("RAPPORT_DSS");
+        metas.add(dss);
+        metas.add(plain());
+        return metas;
+    }
+
+    /**
+     * Metadata of the model : the DSS report in Base64 and a plain message.
+     *
+     * @return the metadata
+     */
+    private static List<Metadata> modelMetadata() {
+        final List<Metadata> metas = new ArrayList<>();
+        final Metadata dss = new Metadata();
+        dss.setTypeMetadata("RAPPORT_DSS");
+        dss.setMessage(Base64.getEncoder().encodeToString(RAPPORT_DSS.getBytes()));
+        metas.add(dss);
+        metas.add(plain());
+        return metas;
+    }
+
+    /**
+     * A plain metadata.
+     *
+     * @return the metadata
+     */
+    private static Metadata plain() {
+        final Metadata meta = new Metadata();
+        meta.setTypeMetadata("DATE_SIGNATURE");
+        meta.setMessage("2023-11-02T10:15:30Z");
+        return meta;
+    }
+
+    /**
+     * A document of every byte value.
+     *
+     * @param length the length
+     * @return the document
+     */
+    private static byte[] document(final int length) {
+        final byte[] document = new byte[length];
+        for (int i = 0; i < length; i++) {
+            document[i] = (byte) (i * 31);
+        }
+        return document;
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * (c) Copyright 1998-2023, ANS. All rights reserved.
+ */
+
+package fr.gouv.esante.api.sign.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import fr.gouv.esante.api.sign.bean.rapports.RapportValidationCertificat;
+import fr.gouv.esante.api.sign.bean.rapports.RapportValidationSignature;
+
+/**
+ * Validation reports kept per document, configuration version and CA/CRL generation.
+ */
+class ValidationResultCacheTest {
+
+    /** Generation of the CAs and CRLs. */
+    private static final long GENERATION = 7;
+
+    /** The document. */
+    private SpooledDocument document;
+
+    /** Number of validations run. */
+    private final AtomicInteger validations = new AtomicInteger();
+
+    /**
+     * Spools the document.
+     *
+     * @throws Exception the exception
+     */
+    @BeforeEach
+    void spool() throws Exception {
+        document = spooled("<document signé/>");
+    }
+
+    /**
+     * Deletes the document.
+     */
+    @AfterEach
+    void delete() {
+        document.close();
+    }
+
+    /**
+     * A second validation of the same document, configuration and generation is read from the cache.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void sameKeyIsValidatedOnce() throws Exception {
+        final ValidationResultCache cache = enabled();
+        final String scope = ValidationResultCache.scope(1L, 1);
+
+        final RapportValidationSignature first = cache.signature(document, ESignatureType.XADES, scope, GENERATION,
+                this::validateSignature);
+        final RapportValidationSignature second = cache.signature(document, ESignatureType.XADES, scope, GENERATION,
+                this::validateSignature);
+
+        assertSame(first, second);
+        assertEquals(1, validations.get());
+    }
+
+    /**
+     * A new CA/CRL generation changes the key : the document is validated again.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void newGenerationInvalidatesReport() throws Exception {
+        final ValidationResultCache cache = enabled();
+        final String scope = ValidationResultCache.scope(1L, 1);
+
+        final RapportValidationSignature before = cache.signature(document, ESignatureType.XADES, scope, GENERATION,
+                this::validateSignature);
+        final RapportValidationSignature after = cache.signature(document, ESignatureType.XADES, scope,
+                GENERATION + 1, this::validateSignature);
+
+        assertNotSame(before, after);
+        assertEquals(2, validations.get());
+    }
+
+    /**
+     * A new version of the configuration file changes the key : the document is validated again.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void newConfigurationVersionInvalidatesReport() throws Exception {
+        final ValidationResultCache cache = enabled();
+
+        final RapportValidationCertificat before = cache.certificate(document, ValidationResultCache.scope(1L, 1),
+                GENERATION, this::validateCertificate);
+        final RapportValidationCertificat after = cache.certificate(document, ValidationResultCache.scope(1L, 2),
+                GENERATION, this::validateCertificate);
+
+        assertNotSame(before, after);
+        assertEquals(2, validations.get());
+    }
+
+    /**
+     * Another configuration, signature type or document is another key.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void keyCoversConfigurationTypeAndDocument() throws Exception {
+        final ValidationResultCache cache = enabled();
+        final String scope = ValidationResultCache.scope(1L, 1);
+
+        cache.signature(document, ESignatureType.XADES, scope, GENERATION, this::validateSignature);
+        cache.signature(document, ESignatureType.XADES, ValidationResultCache.scope(2L, 1), GENERATION,
+                this::validateSignature);
+        cache.signature(document, ESignatureType.PADES, scope, GENERATION, this::validateSignature);
+        try (SpooledDocument other = spooled("<autre document/>")) {
+            cache.signature(other, ESignatureType.XADES, scope, GENERATION, this::validateSignature);
+        }
+
+        assertEquals(4, validations.get());
+    }
+
+    /**
+     * Without scope, as for the operations with proof, the document is always validated again.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void nullScopeBypassesCache() throws Exception {
+        final ValidationResultCache cache = enabled();
+
+        cache.signature(document, ESignatureType.XADES, null, GENERATION, this::validateSignature);
+        cache.signature(document, ESignatureType.XADES, null, GENERATION, this::validateSignature);
+        cache.certificate(document, null, GENERATION, this::validateCertificate);
+        cache.certificate(document, null, GENERATION, this::validateCertificate);
+
+        assertEquals(4, validations.get());
+    }
+
+    /**
+     * With the default weight of 0, the cache is disabled.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    void zeroWeightDisablesCache() throws Exception {
+        final ValidationResultCache cache = new ValidationResultCache(DataSize.ofBytes(0), 3600);
+        final String scope = ValidationResultCache.scope(1L, 1);
+
+        cache.signature(document, ESignatureType.XADES, scope, GENERATION, this::validateSignature);
+        cache.signature(document, ESignatureType.XADES, scope, GENERATION, this::validateSignature);
+
+        assertEquals(2, validations.get());
+    }
+
+    /**
+     * An enabled cache.
+     *
+     * @return the cache
+     */
+    private static ValidationResultCache enabled() {
+        return new ValidationResultCache(DataSize.ofMegabytes(1), 3600);
+    }
+
+    /**
+     * A signature validation.
+     *
+     * @return a new report
+     */
+    private RapportValidationSignature validateSignature() {
+        validations.incrementAndGet();
+        return mock(RapportValidationSignature.class);
+    }
+
+    /**
+     * A certificate validation.
+     *
+     * @return a new report
+     */
+    private RapportValidationCertificat validateCertificate() {
+        validations.incrementAndGet();
+        return mock(RapportValidationCertificat.class);
+    }
+
+    /**
+     * A spooled document.
+     *
+     * @param content the content
+     * @return the document
+     * @throws Exception the exception
+     */
+    private static SpooledDocument spooled(final String content) throws Exception {
+        return SpooledDocument.of(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), 1024);
+    }
+}